@@ -0,0 +1,321 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class runs end-to-end checks that transfers which are
+ * abandoned clean up after themselves, eg... no thread is left running once
+ * a future has been cancelled, and that a DownloadServer can't be made to
+ * send to an address that never asked. Each check prints PASS or FAIL and the
+ * exit status is the number that failed, eg...
+ * 
+ * bench/run.sh -main application.LifecycleChecks
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.FileRequest;
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+
+import java.io.File;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+public class LifecycleChecks {
+    
+    // How long a thread is given to end once it should, in milliseconds.
+    private static final long ENDMILLIS = 2000;
+    
+    private int failures = 0;
+    private Path served;
+    
+    
+    /**
+     * This method cancels an upload to a server that never acknowledges, so the window is full,
+     * and checks both of the client's threads end.
+     * 
+     * @throws Exception - If the check could not be set up.
+     */
+    private void cancelWithFullWindow() throws Exception {
+        
+        File input = File.createTempFile("lifecycle", ".bin");
+        input.deleteOnExit();
+        Files.write(input.toPath(), new byte[1024 * 1024]);
+        
+        // Receives everything and answers nothing.
+        try(DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            
+            TransferClient client = TransferClient.builder().windowSize(8).maxDataSize(1000).timeOutPeriod(50).build();
+            CompletableFuture<TransferResult> transfer = client.send(input.toPath(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()));
+            
+            Thread.sleep(300);
+            
+            check("cancelWithFullWindow started", !threadsNamed("SenderThread").isEmpty());
+            
+            transfer.cancel(true);
+            
+            check("cancelWithFullWindow sender ended", waitForEnd("SenderThread"));
+            check("cancelWithFullWindow receiver ended", waitForEnd("ReceiverThread"));
+            
+        }
+        
+    } // end cancelWithFullWindow
+    
+    
+    /**
+     * This method sends a GET without a cookie, as anyone forging its source address would have
+     * to, and checks it is only answered with a cookie and nothing is sent to the port it names.
+     * 
+     * @throws Exception - If the check could not be set up.
+     */
+    private void getWithoutCookie() throws Exception {
+        
+        DownloadServer server = startDownloadServer(DownloadServer.builder());
+        
+        try(DatagramSocket requester = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            DatagramSocket victim = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            
+            byte[] name = "file.bin".getBytes("UTF-8");
+            byte[] get = new byte[Helper.APPLICATIONHEADERSIZE + FileRequest.HEADSIZE + name.length];
+            Helper.bufferLength(get, FileRequest.HEADSIZE + name.length);
+            Helper.bufferSeqNumber(get, 460);
+            Helper.bufferPacketType(get, Helper.TYPEGET);
+            Helper.bufferCheckSum(get, Helper.CHECKSUMGOOD);
+            ByteBuffer.wrap(get, Helper.APPLICATIONHEADERSIZE, FileRequest.HEADSIZE + name.length)
+                      .putInt(victim.getLocalPort()).putLong(0).put(name);
+            
+            requester.send(new DatagramPacket(get, get.length, InetAddress.getLoopbackAddress(), server.getPort()));
+            
+            byte[] reply = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + FileRequest.REPLYSIZE];
+            requester.setSoTimeout((int)ENDMILLIS);
+            requester.receive(new DatagramPacket(reply, reply.length));
+            
+            check("getWithoutCookie answered with a cookie", Helper.retrievePacketType(reply) == Helper.TYPECOOKIE);
+            check("getWithoutCookie started nothing", server.getActiveDownloads() == 0);
+            
+            victim.setSoTimeout(300);
+            
+            try {
+                
+                victim.receive(new DatagramPacket(new byte[Helper.MAXPACKETSIZE], Helper.MAXPACKETSIZE));
+                check("getWithoutCookie sent nothing", false);
+                
+            } catch (SocketTimeoutException e) {
+                
+                check("getWithoutCookie sent nothing", true);
+                
+            }
+            
+        } finally {
+            
+            server.close();
+            
+        }
+        
+    } // end getWithoutCookie
+    
+    
+    /**
+     * This method asks for a file to be sent to a port nobody answers on and checks the download
+     * is given up on after its retries.
+     * 
+     * @throws Exception - If the check could not be set up.
+     */
+    private void abandonedDownload() throws Exception {
+        
+        DownloadServer server = startDownloadServer(DownloadServer.builder().maxRetries(3));
+        
+        try(DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            
+            requestDownload(server, silent);
+            
+            check("abandonedDownload started", server.getActiveDownloads() == 1);
+            check("abandonedDownload sender ended", waitForEnd("SenderThread"));
+            check("abandonedDownload given up", server.getActiveDownloads() == 0);
+            
+        } finally {
+            
+            server.close();
+            
+        }
+        
+    } // end abandonedDownload
+    
+    
+    /**
+     * This method closes a DownloadServer with a download that never ends and checks its threads
+     * end with it.
+     * 
+     * @throws Exception - If the check could not be set up.
+     */
+    private void closeWithDownload() throws Exception {
+        
+        DownloadServer server = startDownloadServer(DownloadServer.builder().maxRetries(0));
+        
+        try(DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            
+            requestDownload(server, silent);
+            Thread.sleep(300);
+            
+            check("closeWithDownload started", !threadsNamed("SenderThread").isEmpty());
+            
+            server.close();
+            
+            check("closeWithDownload sender ended", waitForEnd("SenderThread"));
+            check("closeWithDownload receiver ended", waitForEnd("ReceiverThread"));
+            
+        }
+        
+    } // end closeWithDownload
+    
+    
+    /**
+     * This method starts a DownloadServer serving a 1 MB file named file.bin.
+     * 
+     * @param builder - The server's parameters, the rest are filled in here.
+     * 
+     * @return - The started server.
+     * 
+     * @throws Exception - If the file could not be written or the server started.
+     */
+    private DownloadServer startDownloadServer(DownloadServer.Builder builder) throws Exception {
+        
+        if(served == null) {
+            
+            served = Files.createTempDirectory("lifecycle");
+            served.toFile().deleteOnExit();
+            served.resolve("file.bin").toFile().deleteOnExit();
+            Files.write(served.resolve("file.bin"), new byte[1024 * 1024]);
+            
+        }
+        
+        DownloadServer server = builder.port(0).windowSize(8).maxDataSize(1000).timeOutPeriod(50).build();
+        server.start(served);
+        
+        return server;
+        
+    } // end startDownloadServer
+    
+    
+    /**
+     * This method asks a DownloadServer for file.bin, to be sent to a socket that never answers.
+     * 
+     * @param server - The DownloadServer.
+     * 
+     * @param silent - The socket the file is sent to.
+     * 
+     * @throws Exception - If the GET wasn't answered.
+     */
+    private static void requestDownload(DownloadServer server, DatagramSocket silent) throws Exception {
+        
+        FileRequest.send(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), "file.bin",
+                            silent.getLocalPort(), Impairment.fromErrorPercent(0));
+        
+    } // end requestDownload
+    
+    
+    /**
+     * This method finds the live threads with a name.
+     * 
+     * @param name - The thread name.
+     * 
+     * @return - The threads.
+     */
+    static List<Thread> threadsNamed(String name) {
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            
+            if(thread.isAlive() && thread.getName().equals(name)) {
+                
+                threads.add(thread);
+                
+            }
+            
+        }
+        
+        return threads;
+        
+    } // end threadsNamed
+    
+    
+    /**
+     * This method waits up to ENDMILLIS for every thread with a name to end.
+     * 
+     * @param name - The thread name.
+     * 
+     * @return - A boolean true if none are left, false otherwise.
+     * 
+     * @throws InterruptedException - If interrupted while waiting.
+     */
+    static boolean waitForEnd(String name) throws InterruptedException {
+        
+        long deadline = System.currentTimeMillis() + ENDMILLIS;
+        
+        for(Thread thread : threadsNamed(name)) {
+            
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            
+        }
+        
+        return threadsNamed(name).isEmpty();
+        
+    } // end waitForEnd
+    
+    
+    /**
+     * This method reports one condition.
+     * 
+     * @param name - What was checked.
+     * 
+     * @param passed - Whether it held.
+     */
+    private void check(String name, boolean passed) {
+        
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        
+        if(!passed) {
+            
+            failures++;
+            
+        }
+        
+    } // end check
+    
+    
+    public static void main(String[] args) throws Exception {
+        
+        // Only the results should reach the console.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.ERROR));
+        
+        LifecycleChecks checks = new LifecycleChecks();
+        checks.cancelWithFullWindow();
+        checks.getWithoutCookie();
+        checks.abandonedDownload();
+        checks.closeWithDownload();
+        
+        System.exit(checks.failures);
+        
+    } // end main
+    
+} // end LifecycleChecks
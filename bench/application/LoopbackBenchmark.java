@@ -0,0 +1,320 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is a headless, end-to-end benchmark. It runs the real
+ * P2Server and P2Client in one JVM over the loop-back interface, sweeping
+ * window size, max data size, time out period and error percent, and prints
+ * one CSV row per run: completion time, goodput, retransmissions and whether
+ * the received file matched what was sent.
+ * 
+ * The file sent is random bytes from a fixed seed so runs can be repeated.
+ * Every parameter is a comma separated list, eg...
+ * 
+ * bench/run.sh -main application.LoopbackBenchmark --windows=4,16,64
+ *     --dataSizes=500,1400,8192 --timeOuts=50,200 --errors=0,1,5 --fileSize=1048576
+ * 
+ * The error percent is applied through seeded Impairments, so a repeat with
+ * the same --seed loses the same packets. --lossModel=gilbert makes the losses
+ * bursty (--burst packets long on average) and --duplicate, --reorder, --delay
+ * and --jitter (percents and milliseconds) add the other impairments to both
+ * directions.
+ * 
+ * --isn sets the first sequence number, eg... --isn=2147483600 makes every
+ * transfer of more than a few dozen packets wrap its sequence numbers around.
+ * 
+ * --fec=1 turns on forward error correction, the server then rebuilds most
+ * single and double losses from parity instead of waiting for a time out.
+ * --fastOpen=0 sends even files that fit in one window packet by packet.
+ * --adaptive=1 lets the client choose each packet's data size, up to the
+ * --dataSizes value, from the losses it sees.
+ * --encrypt=1 seals every payload with AES-GCM under a fixed key.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.GilbertElliottLoss;
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+public class LoopbackBenchmark {
+    
+    public static final String CSVHEADER = "window,maxDataSize,timeOut,errorPercent,fileBytes,repeat," +
+                                           "completionMs,goodputMbps,packets,retransmits," +
+                                           "retransmitRatio,verified";
+    
+    private final Map<String, String> options = new HashMap<String, String>();
+    private int isn;
+    private boolean fec;
+    private boolean fastOpen;
+    private boolean adaptiveDataSize;
+    private byte[] encryptionKey;
+    
+    
+    /**
+     * A constructor for the LoopbackBenchmark.
+     * 
+     * @param args - Options of the form --name=value.
+     */
+    public LoopbackBenchmark(String[] args) {
+        
+        for(String arg : args) {
+            
+            int equals = arg.indexOf('=');
+            
+            if(arg.startsWith("--") && equals > 2) {
+                
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+                
+            } else {
+                
+                throw new IllegalArgumentException("Expected --name=value but found " + arg);
+                
+            }
+            
+        }
+        
+    } // end LoopbackBenchmark constructor
+    
+    
+    /**
+     * This method reads a comma separated list of integers from the options.
+     * 
+     * @param name - The option name.
+     * 
+     * @param defaults - Used if the option was not given.
+     * 
+     * @return - The values.
+     */
+    private int[] intList(String name, String defaults) {
+        
+        String[] parts = options.getOrDefault(name, defaults).split(",");
+        int[] values = new int[parts.length];
+        
+        for(int i = 0 ; i < parts.length ; i++) {
+            
+            values[i] = Integer.parseInt(parts[i].trim());
+            
+        }
+        
+        return values;
+        
+    } // end intList
+    
+    
+    /**
+     * This method runs every combination of the swept parameters and prints a row for each.
+     * 
+     * @param out - Where the CSV is written.
+     * 
+     * @throws Exception - If the benchmark could not be set up.
+     */
+    public void run(PrintStream out) throws Exception {
+        
+        int[] windows = intList("windows", "1,4,16,64");
+        int[] dataSizes = intList("dataSizes", "500,1400,8192");
+        int[] timeOuts = intList("timeOuts", "50,200");
+        int[] errors = intList("errors", "0,1,5");
+        int fileSize = intList("fileSize", "1048576")[0];
+        int repeats = intList("repeats", "1")[0];
+        int runLimitSeconds = intList("runLimit", "120")[0];
+        long seed = intList("seed", "460")[0];
+        isn = intList("isn", "" + Helper.INITIALSEQUENCENUMBER)[0];
+        fec = intList("fec", "0")[0] != 0;
+        fastOpen = intList("fastOpen", "1")[0] != 0;
+        adaptiveDataSize = intList("adaptive", "0")[0] != 0;
+        encryptionKey = intList("encrypt", "0")[0] != 0 ? new byte[16] : null;
+        
+        String lossModel = options.getOrDefault("lossModel", "bernoulli");
+        
+        if(!lossModel.equals("bernoulli") && !lossModel.equals("gilbert")) {
+            
+            throw new IllegalArgumentException("Expected --lossModel=bernoulli or gilbert but found " + lossModel);
+            
+        }
+        
+        byte[] data = new byte[fileSize];
+        new Random(seed).nextBytes(data);
+        
+        File input = File.createTempFile("loopback", ".in");
+        File output = File.createTempFile("loopback", ".out");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        
+        try(FileOutputStream fStream = new FileOutputStream(input)) {
+            
+            fStream.write(data);
+            
+        }
+        
+        out.println(CSVHEADER);
+        
+        for(int window : windows) {
+            
+            for(int dataSize : dataSizes) {
+                
+                for(int timeOut : timeOuts) {
+                    
+                    for(int error : errors) {
+                        
+                        for(int repeat = 1 ; repeat <= repeats ; repeat++) {
+                            
+                            long runSeed = seed * 31 + repeat;
+                            
+                            out.println(runOnce(input, output, data, window, dataSize, timeOut, error,
+                                                impairment(error, runSeed), impairment(error, runSeed + 1),
+                                                repeat, runLimitSeconds));
+                            out.flush();
+                            
+                        }
+                        
+                    }
+                    
+                }
+                
+            }
+            
+        }
+        
+    } // end run
+    
+    
+    /**
+     * This method builds the simulated network for one direction of a run.
+     * 
+     * @param error - The loss and corruption percent.
+     * 
+     * @param seed - The seed for this direction.
+     * 
+     * @return - The Impairment.
+     */
+    private Impairment impairment(int error, long seed) {
+        
+        Impairment.Builder builder = Impairment.builder()
+                                               .corruptPercent(error)
+                                               .duplicatePercent(intList("duplicate", "0")[0])
+                                               .reorder(intList("reorder", "0")[0], 10)
+                                               .delay(intList("delay", "0")[0], intList("jitter", "0")[0])
+                                               .seed(seed);
+        
+        if(options.getOrDefault("lossModel", "bernoulli").equals("gilbert") && error > 0) {
+            
+            builder.lossModel(GilbertElliottLoss.withAverage(error / 100.0, intList("burst", "4")[0]));
+            
+        } else {
+            
+            builder.lossPercent(error);
+            
+        }
+        
+        return builder.build();
+        
+    } // end impairment
+    
+    
+    /**
+     * This method runs one transfer and describes it as a CSV row.
+     * 
+     * @return - The CSV row.
+     * 
+     * @throws IOException - If the server could not be started.
+     */
+    private String runOnce(File input, File output, byte[] data, int window, int dataSize,
+                           int timeOut, int error, Impairment dataImpairment, Impairment ackImpairment,
+                           int repeat, int runLimitSeconds) throws IOException {
+        
+        // Both ends share each direction's Impairment, the sender corrupts and the receiver loses.
+        TransferServer server = TransferServer.builder()
+                                              .port(0)
+                                              .dataImpairment(dataImpairment)
+                                              .ackImpairment(ackImpairment)
+                                              .initialSequenceNumber(isn)
+                                              .encryptionKey(encryptionKey)
+                                              .build();
+        server.start(output.toPath());
+        
+        TransferClient client = TransferClient.builder()
+                                              .windowSize(window)
+                                              .maxDataSize(dataSize)
+                                              .timeOutPeriod(timeOut)
+                                              .dataImpairment(dataImpairment)
+                                              .ackImpairment(ackImpairment)
+                                              .initialSequenceNumber(isn)
+                                              .forwardErrorCorrection(fec)
+                                              .fastOpen(fastOpen)
+                                              .adaptiveDataSize(adaptiveDataSize)
+                                              .encryptionKey(encryptionKey)
+                                              .build();
+        
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        String prefix = window + "," + dataSize + "," + timeOut + "," + error + "," + data.length + "," + repeat + ",";
+        
+        CompletableFuture<TransferResult> transfer = client.send(input.toPath(), address);
+        
+        try {
+            
+            TransferResult result = transfer.get(runLimitSeconds, TimeUnit.SECONDS);
+            server.close();
+            
+            boolean verified = Arrays.equals(data, Files.readAllBytes(output.toPath()));
+            double seconds = result.getElapsedNanos() / 1e9;
+            double goodput = result.getBytesTransferred() * 8 / seconds / 1e6;
+            double ratio = result.getPacketsTransferred() == 0 ? 0 :
+                           (double)result.getRetransmissions() / result.getPacketsTransferred();
+            
+            return prefix + String.format("%.1f,%.3f,%d,%d,%.4f,%b", result.getElapsedNanos() / 1e6, goodput,
+                                          result.getPacketsTransferred(), result.getRetransmissions(), ratio,
+                                          verified);
+        
+        } catch (TimeoutException e) {
+            
+            transfer.cancel(true);
+            server.close();
+            return prefix + "timeout,,,,,false";
+            
+        } catch (Exception e) {
+            
+            server.close();
+            return prefix + "failed: " + e + ",,,,,false";
+            
+        }
+        
+    } // end runOnce
+    
+    
+    public static void main(String[] args) throws Exception {
+        
+        // Only the CSV should reach the console.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.ERROR));
+        
+        new LoopbackBenchmark(args).run(System.out);
+        
+        System.exit(0);
+        
+    } // end main
+    
+} // end LoopbackBenchmark
@@ -0,0 +1,199 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class checks the client's sliding window with both of its
+ * threads running at once, eg... one thread refilling the window as fast as it
+ * opens while another acknowledges, as the SenderThread and ReceiverThread do.
+ * Each check prints PASS or FAIL and the exit status is the number that failed,
+ * eg...
+ * 
+ * bench/run.sh -main application.WindowChecks
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.Helper;
+import helpers.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+
+public class WindowChecks {
+    
+    // How many packets go through the window, and every how many is a digest rather than data.
+    private static final int PACKETS = 1000000;
+    private static final int DIGESTEVERY = 7;
+    
+    private int failures = 0;
+    
+    
+    /**
+     * This method refills a client's window on one thread while acknowledging on another and
+     * checks the progress reported counts exactly the data packets sent, eg... no acknowledgement
+     * read the packet that took its slot next.
+     * 
+     * @param windowSize - The window size, a power of 2 leaves no spare slots.
+     * 
+     * @param dataFile - Any file, the client needs one to be built.
+     * 
+     * @throws Exception - If the client could not be built.
+     */
+    private void fillWhileAcknowledging(int windowSize, File dataFile) throws Exception {
+        
+        InetSocketAddress nowhere = new InetSocketAddress(InetAddress.getLoopbackAddress(), Helper.PORT);
+        long[] progress = new long[2];
+        
+        P2Client client = new P2Client(new FileInputStream(dataFile), nowhere, Helper.DEFAULTMAXDATASIZE,
+                                       Helper.DEFAULTTIMEOUT, windowSize, 0, (bytesDone, totalBytes) -> {
+            
+            progress[0] = bytesDone;
+            progress[1]++;
+            
+        });
+        
+        long expectedBytes = 0;
+        long expectedPackets = 0;
+        
+        for(int i = 0 ; i < PACKETS ; i++) {
+            
+            if(i % DIGESTEVERY != 0) {
+                
+                expectedBytes += dataLength(i);
+                expectedPackets++;
+                
+            }
+            
+        }
+        
+        Thread filler = new Thread(() -> {
+            
+            for(int i = 0 ; i < PACKETS ; i++) {
+                
+                while(!client.isRoomInWindow()) {
+                    
+                    Thread.yield();
+                    
+                }
+                
+                int seqNum = client.getLFS() + 1;
+                client.putInWindow(packet(seqNum, i, nowhere), client.windowIndex(seqNum));
+                client.incLFS();
+                
+            }
+            
+        }, "SenderThread");
+        
+        filler.start();
+        
+        int last = Helper.INITIALSEQUENCENUMBER - 1 + PACKETS;
+        
+        while(client.getLAR() != last) {
+            
+            if(client.getLAR() != client.getLFS()) {
+                
+                client.incLAR();
+                
+            } else {
+                
+                Thread.yield();
+                
+            }
+            
+        }
+        
+        filler.join();
+        
+        check("fillWhileAcknowledging window " + windowSize + " bytes", progress[0] == expectedBytes);
+        check("fillWhileAcknowledging window " + windowSize + " packets", progress[1] == expectedPackets);
+        
+    } // end fillWhileAcknowledging
+    
+    
+    /**
+     * This method will provide the data length of the i'th packet, varied so a packet read from
+     * the wrong slot shows in the byte count.
+     * 
+     * @param i - The packet's position in the transfer.
+     * 
+     * @return - The data length, in bytes.
+     */
+    private static int dataLength(int i) {
+        
+        return i % 61;
+        
+    } // end dataLength
+    
+    
+    /**
+     * This method builds the i'th packet, a digest every DIGESTEVERY packets and data otherwise.
+     * 
+     * @param seqNum - The sequence number.
+     * 
+     * @param i - The packet's position in the transfer.
+     * 
+     * @param address - Where it would be sent.
+     * 
+     * @return - The packet.
+     */
+    private static DatagramPacket packet(int seqNum, int i, InetSocketAddress address) {
+        
+        byte[] buffer = new byte[Helper.APPLICATIONHEADERSIZE + dataLength(i)];
+        Helper.bufferLength(buffer, dataLength(i));
+        Helper.bufferSeqNumber(buffer, seqNum);
+        Helper.bufferPacketType(buffer, i % DIGESTEVERY == 0 ? Helper.TYPEDIGEST : Helper.TYPEDATA);
+        
+        return new DatagramPacket(buffer, buffer.length, address);
+        
+    } // end packet
+    
+    
+    /**
+     * This method reports one condition.
+     * 
+     * @param name - What was checked.
+     * 
+     * @param passed - Whether it held.
+     */
+    private void check(String name, boolean passed) {
+        
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        
+        if(!passed) {
+            
+            failures++;
+            
+        }
+        
+    } // end check
+    
+    
+    public static void main(String[] args) throws Exception {
+        
+        // Only the results should reach the console.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.ERROR));
+        
+        File dataFile = File.createTempFile("window", ".bin");
+        dataFile.deleteOnExit();
+        
+        WindowChecks checks = new WindowChecks();
+        checks.fillWhileAcknowledging(1, dataFile);
+        checks.fillWhileAcknowledging(8, dataFile);
+        checks.fillWhileAcknowledging(64, dataFile);
+        
+        System.exit(checks.failures);
+        
+    } // end main
+    
+} // end WindowChecks
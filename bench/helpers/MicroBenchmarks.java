@@ -0,0 +1,380 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class holds microbenchmarks for the per packet code paths:
+ * header encode/decode, the client's sliding window, building a packet in
+ * SenderThread.fillApplicationBuffer() and checksums. It lives in package
+ * helpers (under bench/) so it can reach package-private methods.
+ * 
+ * Each benchmark is warmed up then measured over several timed iterations,
+ * reporting throughput (ops/s with a 99.9% error margin) and the bytes
+ * allocated per operation, read from the JVM's per thread allocation counter.
+ * The output follows JMH's layout so results can be compared by eye.
+ * 
+ * Run everything with bench/run.sh, or pass a regular expression to only run
+ * matching benchmarks, eg... bench/run.sh window
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import application.P2Client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+
+public class MicroBenchmarks {
+    
+    // Iteration counts and length, in the spirit of JMH's defaults but shorter.
+    public static final int WARMUPITERATIONS = 3;
+    public static final int MEASUREMENTITERATIONS = 5;
+    public static final long ITERATIONNANOS = 1000000000L;
+    
+    // Operations between clock checks, keeps timing overhead out of the score.
+    private static final int BATCHSIZE = 1000;
+    
+    // Student's t for 99.9% confidence with MEASUREMENTITERATIONS - 1 degrees of freedom.
+    private static final double TSCORE = 8.610;
+    
+    // Results are folded in here so the JIT can't discard the work being measured.
+    private static volatile long sink;
+    
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    
+    private final List<String> names = new ArrayList<String>();
+    private final List<Operation> operations = new ArrayList<Operation>();
+    
+    
+    /**
+     * One benchmarked operation. The value returned is consumed so the work isn't optimized away.
+     */
+    public interface Operation {
+        
+        long run() throws Exception;
+        
+    } // end Operation
+    
+    
+    /**
+     * This method adds a benchmark to the suite.
+     * 
+     * @param name - The name printed in the results.
+     * 
+     * @param operation - The operation to measure.
+     */
+    public void add(String name, Operation operation) {
+        
+        names.add(name);
+        operations.add(operation);
+        
+    } // end add
+    
+    
+    /**
+     * This method runs every benchmark whose name matches the filter and prints the results.
+     * 
+     * @param filter - Only benchmarks with names containing a match are run.
+     * 
+     * @throws Exception - If a benchmark fails.
+     */
+    public void runAll(Pattern filter) throws Exception {
+        
+        System.out.printf("%-40s %5s %3s %16s    %14s  %-6s %12s%n",
+                          "Benchmark", "Mode", "Cnt", "Score", "Error", "Units", "alloc B/op");
+        
+        for(int i = 0 ; i < names.size() ; i++) {
+            
+            if(filter.matcher(names.get(i)).find()) {
+                
+                run(names.get(i), operations.get(i));
+                
+            }
+            
+        }
+        
+    } // end runAll
+    
+    
+    /**
+     * This method warms up, measures and prints one benchmark.
+     * 
+     * @param name - The benchmark name.
+     * 
+     * @param operation - The operation to measure.
+     * 
+     * @throws Exception - If the operation fails.
+     */
+    private void run(String name, Operation operation) throws Exception {
+        
+        for(int i = 0 ; i < WARMUPITERATIONS ; i++) {
+            
+            iteration(operation);
+            
+        }
+        
+        double[] scores = new double[MEASUREMENTITERATIONS];
+        long totalOps = 0;
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        
+        for(int i = 0 ; i < MEASUREMENTITERATIONS ; i++) {
+            
+            long start = System.nanoTime();
+            long ops = iteration(operation);
+            long elapsed = System.nanoTime() - start;
+            
+            scores[i] = ops * 1e9 / elapsed;
+            totalOps += ops;
+            
+        }
+        
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        
+        double mean = 0;
+        
+        for(double score : scores) {
+            
+            mean += score;
+            
+        }
+        
+        mean /= scores.length;
+        
+        double variance = 0;
+        
+        for(double score : scores) {
+            
+            variance += (score - mean) * (score - mean);
+            
+        }
+        
+        variance /= (scores.length - 1);
+        double error = TSCORE * Math.sqrt(variance / scores.length);
+        
+        System.out.printf("%-40s %5s %3d %16.3f +- %14.3f  %-6s %12.3f%n",
+                          name, "thrpt", MEASUREMENTITERATIONS, mean, error, "ops/s",
+                          (double)allocated / totalOps);
+    
+    } // end run
+    
+    
+    /**
+     * This method calls the operation in batches until the iteration time is up.
+     * 
+     * @param operation - The operation to call.
+     * 
+     * @return - The number of operations done.
+     * 
+     * @throws Exception - If the operation fails.
+     */
+    private long iteration(Operation operation) throws Exception {
+        
+        long deadline = System.nanoTime() + ITERATIONNANOS;
+        long ops = 0;
+        long result = 0;
+        
+        while(System.nanoTime() < deadline) {
+            
+            for(int i = 0 ; i < BATCHSIZE ; i++) {
+                
+                result += operation.run();
+                
+            }
+            
+            ops += BATCHSIZE;
+            
+        }
+        
+        sink += result;
+        
+        return ops;
+        
+    } // end iteration
+    
+    
+    /**
+     * This method creates a temporary file of random bytes for the packet building benchmarks.
+     * 
+     * @param size - The file size, in bytes.
+     * 
+     * @return - The file, deleted when the JVM exits.
+     * 
+     * @throws IOException - If the file could not be written.
+     */
+    private static File createDataFile(int size) throws IOException {
+        
+        File file = File.createTempFile("bench", ".bin");
+        file.deleteOnExit();
+        
+        byte[] data = new byte[size];
+        new Random(460).nextBytes(data);
+        
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            
+            out.write(data);
+            
+        }
+        
+        return file;
+        
+    } // end createDataFile
+    
+    
+    public static void main(String[] args) throws Exception {
+        
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : "");
+        MicroBenchmarks suite = new MicroBenchmarks();
+        
+        final int maxDataSize = Helper.DEFAULTMAXDATASIZE;
+        final byte[] header = new byte[Helper.APPLICATIONHEADERSIZE + maxDataSize];
+        final int[] counter = new int[1];
+        
+        new Random(460).nextBytes(header);
+        
+        // Header codec.
+        suite.add("codec.toBytesInt", () -> Helper.toBytes(counter[0]++)[3]);
+        
+        suite.add("codec.toNumber", () -> {
+            
+            header[11] = (byte)counter[0]++;
+            
+            return Helper.toNumber(new byte[] {header[8], header[9], header[10], header[11]});
+            
+        });
+        
+        suite.add("codec.encodeHeader", () -> {
+            
+            int seqNum = counter[0]++;
+            
+            Helper.bufferLength(header, maxDataSize);
+            Helper.bufferAckNumber(header, seqNum);
+            Helper.bufferSeqNumber(header, seqNum + 1);
+            Helper.bufferCheckSum(header, Helper.CHECKSUMGOOD);
+            
+            return header[11];
+            
+        });
+        
+        suite.add("codec.decodeHeader", () -> {
+            
+            header[11] = (byte)counter[0]++;
+            
+            return Helper.retrieveCheckSum(header) + Helper.retrieveLength(header) +
+                   Helper.retrieveAckNum(header) + Helper.retrieveSeqNum(header);
+        
+        });
+        
+        // Sliding window, one send and one acknowledgement per operation.
+        File dataFile = createDataFile(1 << 20);
+        InetSocketAddress nowhere = new InetSocketAddress(InetAddress.getLoopbackAddress(), Helper.PORT);
+        final P2Client windowClient = new P2Client(new FileInputStream(dataFile), nowhere, maxDataSize,
+                                                   Helper.DEFAULTTIMEOUT, Helper.DEFAULTWINDOWSIZE, 0, null);
+        final DatagramPacket packet = new DatagramPacket(header, header.length, nowhere);
+        
+        suite.add("window.sendAndAck", () -> {
+            
+            if(windowClient.isRoomInWindow()) {
+                
+                windowClient.putInWindow(packet, windowClient.windowIndex(windowClient.getLFS() + 1));
+                windowClient.incLFS();
+                
+            }
+            
+            windowClient.incLAR();
+            
+            return windowClient.getPacketFromWindow(windowClient.windowIndex(windowClient.getLAR()))
+                               .getLength();
+        
+        });
+        
+        suite.add("window.isRoomInWindow", () -> windowClient.isRoomInWindow() ? 1 : 0);
+        
+        // Building a packet, reading from a file that is rewound whenever it runs out.
+        final FileInputStream fStream = new FileInputStream(dataFile);
+        final P2Client senderClient = new P2Client(fStream, nowhere, maxDataSize,
+                                                   Helper.DEFAULTTIMEOUT, Helper.DEFAULTWINDOWSIZE, 0, null);
+        final SenderThread sender = new SenderThread(senderClient, null, nowhere.getAddress(), fStream);
+        final byte[] applicationBuffer = new byte[Helper.APPLICATIONHEADERSIZE + maxDataSize];
+        
+        suite.add("sender.fillApplicationBuffer", () -> {
+            
+            if(fStream.available() < maxDataSize) {
+                
+                fStream.getChannel().position(0);
+                
+            }
+            
+            return sender.fillApplicationBuffer(applicationBuffer);
+            
+        });
+        
+        suite.add("sender.newBufferAndFill", () -> {
+            
+            if(fStream.available() < maxDataSize) {
+                
+                fStream.getChannel().position(0);
+                
+            }
+            
+            return sender.fillApplicationBuffer(new byte[Helper.APPLICATIONHEADERSIZE + maxDataSize]);
+            
+        });
+        
+        // Checksums, the simulated one in use now and real ones over a full payload.
+        suite.add("checksum.simulated", () -> {
+            
+            Helper.bufferCheckSum(header, Helper.shouldCheckSumError(0) ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+            
+            return Helper.isCheckSumGood(header) ? 1 : 0;
+            
+        });
+        
+        final CRC32 crc32 = new CRC32();
+        final CRC32C crc32c = new CRC32C();
+        
+        suite.add("checksum.crc32", () -> {
+            
+            crc32.reset();
+            crc32.update(header, 0, header.length);
+            
+            return crc32.getValue();
+            
+        });
+        
+        suite.add("checksum.crc32c", () -> {
+            
+            crc32c.reset();
+            crc32c.update(header, 0, header.length);
+            
+            return crc32c.getValue();
+            
+        });
+        
+        suite.runAll(filter);
+        
+        fStream.close();
+        
+    } // end main
+    
+} // end MicroBenchmarks
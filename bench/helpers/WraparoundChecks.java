@@ -0,0 +1,258 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class checks the code that has to keep working when
+ * sequence numbers wrap around: Helper.isBefore(), the client's masked window
+ * index, the server's FecDecoder ring and the header fields read back as
+ * unsigned. Every check starts just below Integer.MAX_VALUE and just below
+ * 0xFFFFFFFF and steps across the wrap. Each check prints PASS or FAIL and the
+ * exit status is the number that failed, eg...
+ * 
+ * bench/run.sh -main helpers.WraparoundChecks
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import application.P2Client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+
+public class WraparoundChecks {
+    
+    // Where each check starts, a little before each wrap, and how many sequence numbers it steps.
+    private static final int[] STARTS = {Integer.MAX_VALUE - 40, 0xFFFFFFFF - 40};
+    private static final int STEPS = 100;
+    
+    private int failures = 0;
+    
+    
+    /**
+     * This method checks sequence numbers are ordered across the wrap, and a number is never
+     * before itself.
+     * 
+     * @param start - The first sequence number.
+     */
+    private void isBefore(int start) {
+        
+        boolean passed = true;
+        
+        for(int i = 0 ; i < STEPS ; i++) {
+            
+            int seqNum = start + i;
+            
+            passed &= Helper.isBefore(seqNum, seqNum + 1);
+            passed &= !Helper.isBefore(seqNum + 1, seqNum);
+            passed &= !Helper.isBefore(seqNum, seqNum);
+            passed &= Helper.isBefore(seqNum, seqNum + STEPS) && Helper.isBefore(seqNum - STEPS, seqNum);
+            
+        }
+        
+        check("isBefore from " + hex(start), passed);
+        
+    } // end isBefore
+    
+    
+    /**
+     * This method slides a client's window across the wrap, one send and one acknowledgement at
+     * a time, and checks every slot found holds the packet expected.
+     * 
+     * @param start - The first sequence number.
+     * 
+     * @param dataFile - Any file, the client needs one to be built.
+     * 
+     * @throws Exception - If the client could not be built.
+     */
+    private void windowIndex(int start, File dataFile) throws Exception {
+        
+        InetSocketAddress nowhere = new InetSocketAddress(InetAddress.getLoopbackAddress(), Helper.PORT);
+        P2Client client = new P2Client(new FileInputStream(dataFile), nowhere, Helper.DEFAULTMAXDATASIZE,
+                                       Helper.DEFAULTTIMEOUT, Helper.DEFAULTWINDOWSIZE, 0, null);
+        client.setInitialSequenceNumber(start);
+        
+        boolean passed = true;
+        
+        for(int i = 0 ; i < STEPS ; i++) {
+            
+            // Fill the window, it must take exactly the window size.
+            int sent = 0;
+            
+            while(client.isRoomInWindow()) {
+                
+                int seqNum = client.getLFS() + 1;
+                int index = client.windowIndex(seqNum);
+                
+                // The window array is the window size rounded up to a power of 2.
+                passed &= index >= 0 && index < 2 * client.getWindowSize();
+                client.putInWindow(packet(seqNum, nowhere), index);
+                client.incLFS();
+                sent++;
+                
+            }
+            
+            passed &= i > 0 ? sent == 1 : sent == client.getWindowSize();
+            
+            client.incLAR();
+            
+            DatagramPacket acked = client.getPacketFromWindow(client.windowIndex(client.getLAR()));
+            passed &= Helper.retrieveSeqNum(acked.getData()) == client.getLAR();
+            
+        }
+        
+        passed &= client.getLAR() == start - 1 + STEPS;
+        
+        check("windowIndex from " + hex(start), passed);
+        
+    } // end windowIndex
+    
+    
+    /**
+     * This method keeps packets in a FecDecoder across the wrap and checks each is found by its
+     * sequence number and only held while close enough to the next one.
+     * 
+     * @param start - The first sequence number.
+     */
+    private void fecRing(int start) {
+        
+        FecDecoder fec = new FecDecoder(new ReceiveMemory(1L << 20));
+        boolean passed = true;
+        
+        for(int i = 0 ; i < STEPS ; i++) {
+            
+            int seqNum = start + i;
+            
+            passed &= fec.canHold(seqNum, seqNum) && fec.canHold(seqNum + FecDecoder.MAXAHEAD - 1, seqNum);
+            passed &= !fec.canHold(seqNum - 1, seqNum) && !fec.canHold(seqNum + FecDecoder.MAXAHEAD, seqNum);
+            passed &= fec.addData(packet(seqNum, null).getData());
+            passed &= fec.get(seqNum) != null && Helper.retrieveSeqNum(fec.get(seqNum)) == seqNum;
+            passed &= fec.get(seqNum + FecDecoder.RINGSIZE) == null;
+            
+        }
+        
+        check("fecRing from " + hex(start), passed);
+        
+    } // end fecRing
+    
+    
+    /**
+     * This method checks the header fields read back whole, sequence numbers across the wrap
+     * and lengths past Short.MAX_VALUE.
+     * 
+     * @param start - The first sequence number.
+     */
+    private void headerFields(int start) {
+        
+        byte[] header = new byte[Helper.APPLICATIONHEADERSIZE];
+        boolean passed = true;
+        
+        for(int i = 0 ; i < STEPS ; i++) {
+            
+            Helper.bufferSeqNumber(header, start + i);
+            Helper.bufferAckNumber(header, start + i);
+            passed &= Helper.retrieveSeqNum(header) == start + i && Helper.retrieveAckNum(header) == start + i;
+            
+        }
+        
+        for(int length = Short.MAX_VALUE - STEPS ; length <= Helper.MAXPACKETSIZE ; length += STEPS) {
+            
+            Helper.bufferLength(header, length - Helper.APPLICATIONHEADERSIZE);
+            passed &= Helper.retrieveLength(header) == length;
+            
+        }
+        
+        Helper.bufferLength(header, Helper.MAXPACKETSIZE - Helper.APPLICATIONHEADERSIZE);
+        passed &= Helper.retrieveLength(header) == Helper.MAXPACKETSIZE;
+        
+        check("headerFields from " + hex(start), passed);
+        
+    } // end headerFields
+    
+    
+    /**
+     * This method builds a data packet carrying only its sequence number.
+     * 
+     * @param seqNum - The sequence number.
+     * 
+     * @param address - Where it would be sent, null for none.
+     * 
+     * @return - The packet.
+     */
+    private static DatagramPacket packet(int seqNum, InetSocketAddress address) {
+        
+        byte[] buffer = new byte[Helper.APPLICATIONHEADERSIZE];
+        Helper.bufferLength(buffer, 0);
+        Helper.bufferSeqNumber(buffer, seqNum);
+        Helper.bufferPacketType(buffer, Helper.TYPEDATA);
+        
+        return address == null ? new DatagramPacket(buffer, buffer.length)
+                               : new DatagramPacket(buffer, buffer.length, address);
+        
+    } // end packet
+    
+    
+    /**
+     * This method reports one condition.
+     * 
+     * @param name - What was checked.
+     * 
+     * @param passed - Whether it held.
+     */
+    private void check(String name, boolean passed) {
+        
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        
+        if(!passed) {
+            
+            failures++;
+            
+        }
+        
+    } // end check
+    
+    
+    /**
+     * This method formats a sequence number as the unsigned value sent.
+     */
+    private static String hex(int seqNum) {
+        
+        return "0x" + Integer.toHexString(seqNum).toUpperCase();
+        
+    } // end hex
+    
+    
+    public static void main(String[] args) throws Exception {
+        
+        // Only the results should reach the console.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.ERROR));
+        
+        File dataFile = File.createTempFile("wraparound", ".bin");
+        dataFile.deleteOnExit();
+        
+        WraparoundChecks checks = new WraparoundChecks();
+        
+        for(int start : STARTS) {
+            
+            checks.isBefore(start);
+            checks.windowIndex(start, dataFile);
+            checks.fecRing(start);
+            checks.headerFields(start);
+            
+        }
+        
+        System.exit(checks.failures);
+        
+    } // end main
+    
+} // end WraparoundChecks
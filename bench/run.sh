@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the sources and benchmarks into bench/out and runs them. Needs only a JDK.
+#
+#   bench/run.sh                 run every microbenchmark
+#   bench/run.sh codec           run the microbenchmarks whose names match "codec"
+#   bench/run.sh -main <class>   run another benchmark class with the remaining arguments
+
+cd "$(dirname "$0")/.." || exit 1
+
+rm -rf bench/out
+javac -d bench/out $(find src bench -name '*.java') || exit 1
+
+if [ "$1" = "-main" ]; then
+    main="$2"
+    shift 2
+    exec java -cp bench/out "$main" "$@"
+fi
+
+exec java -cp bench/out helpers.MicroBenchmarks "$@"
@@ -0,0 +1,415 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class reads a capture written by PacketCapture and replays
+ * it offline, printing CSV sections that can be pasted into a spreadsheet or
+ * plotted, eg...
+ * 
+ * java application.CaptureAnalyzer client.cap --interval=100
+ * 
+ * summary: one row for the whole transfer.
+ * goodput: one row per interval, the data bytes newly acknowledged, the
+ * packets and retransmissions sent, the most packets in flight (last sent less
+ * last acknowledged) and the window the server last advertised.
+ * rtt: the time from sending each packet to its acknowledgement, packets that
+ * were resent are left out as their acknowledgement could be for either copy.
+ * retransmissions: every packet sent again, with which transmission it was.
+ * 
+ * Either end's capture can be replayed. From the server's capture "rtt" is
+ * only how long the server took to acknowledge.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.Helper;
+import helpers.PacketCapture;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class CaptureAnalyzer {
+    
+    public static final int DEFAULTINTERVAL = 100;
+    
+    private final PacketCapture.Capture capture;
+    private final long interval;
+    
+    // Each sequence number's first transmission, by sequence number.
+    private final Map<Integer, Sent> sent = new HashMap<Integer, Sent>();
+    
+    // Built by replay(), one Bin per interval.
+    private final List<Bin> bins = new ArrayList<Bin>();
+    private final List<long[]> rtts = new ArrayList<long[]>();
+    private final List<long[]> retransmissions = new ArrayList<long[]>();
+    private long dataPackets = 0;
+    private long bytesAcknowledged = 0;
+    private long lastTime = 0;
+    
+    // The window as it stands at the record being replayed.
+    private int inFlight = 0;
+    private int advertisedWindow = -1;
+    
+    
+    /**
+     * A constructor for the CaptureAnalyzer, the capture is replayed straight away.
+     * 
+     * @param newCapture - The capture, see PacketCapture.read().
+     * 
+     * @param millis - The length of each goodput interval, in milliseconds.
+     */
+    public CaptureAnalyzer(PacketCapture.Capture newCapture, int millis) {
+        
+        if(millis <= 0) {
+            
+            throw new IllegalArgumentException("Bad interval " + millis + "!");
+            
+        }
+        
+        capture = newCapture;
+        interval = millis * 1000000L;
+        
+        replay();
+        
+    } // end CaptureAnalyzer constructor
+    
+    
+    /**
+     * This method walks through the records in order, tracking the window as each end saw it.
+     */
+    private void replay() {
+        
+        int dataDirection = capture.getRole() == PacketCapture.CLIENT ? PacketCapture.SENT : PacketCapture.RECEIVED;
+        boolean started = false;
+        int lastSent = 0;
+        int lastAcknowledged = 0;
+        
+        for(PacketCapture.Record record : capture.getRecords()) {
+            
+            byte[] header = record.getHeader();
+            int type = Helper.retrievePacketType(header) & Helper.TYPEMASK;
+            
+            lastTime = record.getTime();
+            
+            if(record.getLength() < Helper.APPLICATIONHEADERSIZE) {
+                
+                continue;
+                
+            }
+            
+            Bin bin = bin(record.getTime());
+            
+            if(record.getDirection() == dataDirection && isSequenced(type)) {
+                
+                int seqNum = Helper.retrieveSeqNum(header);
+                Sent first = sent.get(seqNum);
+                
+                if(!started) {
+                    
+                    started = true;
+                    lastSent = seqNum - 1;
+                    lastAcknowledged = seqNum - 1;
+                    
+                }
+                
+                dataPackets++;
+                bin.packets++;
+                
+                if(first == null) {
+                    
+                    int dataLength = type == Helper.TYPEDATA ? record.getLength() - Helper.APPLICATIONHEADERSIZE : 0;
+                    
+                    sent.put(seqNum, new Sent(record.getTime(), dataLength));
+                    
+                } else {
+                    
+                    first.transmissions++;
+                    bin.retransmits++;
+                    retransmissions.add(new long[] {record.getTime(), seqNum, first.transmissions});
+                    
+                }
+                
+                if(Helper.isBefore(lastSent, seqNum)) {
+                    
+                    lastSent = seqNum;
+                    
+                }
+                
+            } else if(record.getDirection() != dataDirection && isAcknowledgement(type) &&
+                          Helper.isCheckSumGood(header) && started) {
+                
+                int ackNum = Helper.retrieveAckNum(header);
+                
+                advertisedWindow = Helper.retrieveAdvertisedWindow(header);
+                
+                // Go-Back-N, an acknowledgement covers everything before it too.
+                while(Helper.isBefore(lastAcknowledged, ackNum)) {
+                    
+                    lastAcknowledged++;
+                    
+                    Sent acknowledged = sent.get(lastAcknowledged);
+                    
+                    if(acknowledged != null) {
+                        
+                        bin.bytes += acknowledged.dataLength;
+                        bytesAcknowledged += acknowledged.dataLength;
+                        
+                        if(lastAcknowledged == ackNum && acknowledged.transmissions == 1) {
+                            
+                            rtts.add(new long[] {record.getTime(), ackNum, record.getTime() - acknowledged.time});
+                            
+                        }
+                        
+                    }
+                    
+                }
+                
+            }
+            
+            inFlight = lastSent - lastAcknowledged;
+            bin.maxInFlight = Math.max(bin.maxInFlight, inFlight);
+            bin.advertisedWindow = advertisedWindow;
+            
+        }
+        
+    } // end replay
+    
+    
+    /**
+     * This method finds the interval a time falls in, adding intervals up to it if need be. An
+     * added interval starts with the window as it stands.
+     * 
+     * @param time - Nanoseconds since the capture started.
+     * 
+     * @return - The interval.
+     */
+    private Bin bin(long time) {
+        
+        int index = (int)(time / interval);
+        
+        while(bins.size() <= index) {
+            
+            Bin bin = new Bin();
+            
+            bin.maxInFlight = inFlight;
+            bin.advertisedWindow = advertisedWindow;
+            bins.add(bin);
+            
+        }
+        
+        return bins.get(index);
+        
+    } // end bin
+    
+    
+    /**
+     * This method is used to determine whether a packet sent in the data direction takes up a
+     * sequence number. Parity and requests made outside the window don't.
+     * 
+     * @param type - The packet type, flags removed.
+     * 
+     * @return - True if it is a sequenced packet, false otherwise.
+     */
+    private static boolean isSequenced(int type) {
+        
+        return type == Helper.TYPEDATA || type == Helper.TYPEDIGEST || type == Helper.TYPEFIN ||
+                   type == Helper.TYPEOPEN;
+        
+    } // end isSequenced
+    
+    
+    /**
+     * This method is used to determine whether a packet sent in the acknowledgement direction
+     * acknowledges a sequence number.
+     * 
+     * @param type - The packet type, flags removed.
+     * 
+     * @return - True if it is an acknowledgement, false otherwise.
+     */
+    private static boolean isAcknowledgement(int type) {
+        
+        return type == Helper.TYPEACK || type == Helper.TYPEDIGESTOK || type == Helper.TYPEDIGESTBAD ||
+                   type == Helper.TYPEFINACK;
+        
+    } // end isAcknowledgement
+    
+    
+    /**
+     * This method prints every section.
+     * 
+     * @param out - Where the CSV is written.
+     */
+    public void print(PrintStream out) {
+        
+        long rttTotal = 0;
+        long rttMin = Long.MAX_VALUE;
+        long rttMax = 0;
+        
+        for(long[] rtt : rtts) {
+            
+            rttTotal += rtt[2];
+            rttMin = Math.min(rttMin, rtt[2]);
+            rttMax = Math.max(rttMax, rtt[2]);
+            
+        }
+        
+        out.println("# summary");
+        out.println("role,durationMs,records,packets,retransmits,bytesAcknowledged,goodputMbps," +
+                        "rttSamples,rttMinMs,rttMeanMs,rttMaxMs");
+        out.println((capture.getRole() == PacketCapture.CLIENT ? "client" : "server") + "," +
+                        millis(lastTime) + "," + capture.getRecords().size() + "," + dataPackets + "," +
+                        retransmissions.size() + "," + bytesAcknowledged + "," + mbps(bytesAcknowledged, lastTime) + "," +
+                        rtts.size() + "," + (rtts.isEmpty() ? "" : millis(rttMin)) + "," +
+                        (rtts.isEmpty() ? "" : millis(rttTotal / rtts.size())) + "," +
+                        (rtts.isEmpty() ? "" : millis(rttMax)));
+        
+        out.println();
+        out.println("# goodput");
+        out.println("timeMs,bytes,goodputMbps,packets,retransmits,maxInFlight,advertisedWindow");
+        
+        for(int i = 0 ; i < bins.size() ; i++) {
+            
+            Bin bin = bins.get(i);
+            
+            out.println(millis(i * interval) + "," + bin.bytes + "," + mbps(bin.bytes, interval) + "," +
+                            bin.packets + "," + bin.retransmits + "," + bin.maxInFlight + "," +
+                            (bin.advertisedWindow < 0 ? "" : bin.advertisedWindow));
+            
+        }
+        
+        out.println();
+        out.println("# rtt");
+        out.println("timeMs,seqNum,rttMs");
+        
+        for(long[] rtt : rtts) {
+            
+            out.println(millis(rtt[0]) + "," + (int)rtt[1] + "," + millis(rtt[2]));
+            
+        }
+        
+        out.println();
+        out.println("# retransmissions");
+        out.println("timeMs,seqNum,transmission");
+        
+        for(long[] resent : retransmissions) {
+            
+            out.println(millis(resent[0]) + "," + (int)resent[1] + "," + resent[2]);
+            
+        }
+        
+    } // end print
+    
+    
+    /**
+     * This method formats nanoseconds as milliseconds.
+     * 
+     * @param nanos - The time, in nanoseconds.
+     * 
+     * @return - The time in milliseconds, to 3 decimal places.
+     */
+    private static String millis(long nanos) {
+        
+        return String.format("%.3f", nanos / 1e6);
+        
+    } // end millis
+    
+    
+    /**
+     * This method formats a rate.
+     * 
+     * @param bytes - The bytes moved.
+     * 
+     * @param nanos - How long it took, in nanoseconds.
+     * 
+     * @return - The rate in megabits per second, to 3 decimal places.
+     */
+    private static String mbps(long bytes, long nanos) {
+        
+        return String.format("%.3f", nanos == 0 ? 0 : bytes * 8 * 1000.0 / nanos);
+        
+    } // end mbps
+    
+    
+    /**
+     * This class is the first transmission of one sequence number.
+     */
+    private static final class Sent {
+        
+        private final long time;
+        private final int dataLength;
+        private int transmissions = 1;
+        
+        
+        private Sent(long newTime, int newDataLength) {
+            
+            time = newTime;
+            dataLength = newDataLength;
+            
+        } // end Sent constructor
+        
+    } // end Sent
+    
+    
+    /**
+     * This class is what happened during one interval.
+     */
+    private static final class Bin {
+        
+        private long bytes = 0;
+        private int packets = 0;
+        private int retransmits = 0;
+        private int maxInFlight = 0;
+        private int advertisedWindow = -1;
+        
+    } // end Bin
+    
+    
+    public static void main(String[] args) throws IOException {
+        
+        Path file = null;
+        int millis = DEFAULTINTERVAL;
+        
+        for(String arg : args) {
+            
+            if(arg.startsWith("--interval=")) {
+                
+                millis = Integer.parseInt(arg.substring("--interval=".length()));
+                
+            } else if(!arg.startsWith("--") && file == null) {
+                
+                file = Paths.get(arg);
+                
+            } else {
+                
+                throw new IllegalArgumentException("Expected a capture file and --interval=millis but found " + arg);
+                
+            }
+            
+        }
+        
+        if(file == null) {
+            
+            System.err.println("Usage: java application.CaptureAnalyzer <capture file> [--interval=millis]");
+            System.exit(1);
+            
+        }
+        
+        new CaptureAnalyzer(PacketCapture.read(file), millis).print(System.out);
+        
+    } // end main
+    
+} // end CaptureAnalyzer
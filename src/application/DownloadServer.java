@@ -0,0 +1,774 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class serves the files under a directory to any number of
+ * downloaders, the other way round from a TransferServer. A downloader starts
+ * a TransferServer with startDownload(), which sends a GET here naming the
+ * file and the port it is waiting on (see FileRequest). A P2Client is started
+ * for each GET, sending the file to that port with the usual sliding window,
+ * so every downloader gets its own window, retransmissions and FIN.
+ * 
+ * Files are read through one BlockCache shared by every download, so many
+ * downloaders pulling the same file read it from memory rather than disk.
+ * The cache's hits and misses are published through JMX once started.
+ * 
+ * A GET only starts a download once it comes back with the cookie sent to its
+ * source address, so the file always goes to an address that asked for it.
+ * Cookies are a keyed hash of the address, nothing is kept for a GET without
+ * one. At most maxDownloads are sent at once, further GETs are answered BUSY,
+ * and a download is given up on after maxRetries resends of its window with
+ * nothing acknowledged, eg... the downloader went away.
+ * 
+ * eg... DownloadServer.builder().port(0).windowSize(32).build().start(directory)
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.BlockCache;
+import helpers.CachedFileInputStream;
+import helpers.FileRequest;
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+public class DownloadServer {
+    
+    public static final int DEFAULTMAXDOWNLOADS = 64;
+    public static final int DEFAULTMAXRETRIES = 10;
+    
+    private static final String COOKIEHASH = "HmacSHA256";
+    
+    private final int port;
+    private final int maxDataSize;
+    private final int timeOutPeriod;
+    private final int windowSize;
+    private final int errorPercent;
+    private final Impairment dataImpairment;
+    private final Impairment ackImpairment;
+    private final int initialSequenceNumber;
+    private final boolean forwardErrorCorrection;
+    private final byte[] encryptionKey;
+    private final int maxDownloads;
+    private final int maxRetries;
+    private final BlockCache cache;
+    private Path root;
+    private DatagramSocket serverSocket;
+    
+    // Downloads by the address of the waiting server, kept a while after they finish so a GET
+    // resent before the answer arrived doesn't start the file again. Guarded by itself.
+    private final Map<InetSocketAddress, Download> downloads = new HashMap<InetSocketAddress, Download>();
+    
+    
+    /**
+     * A constructor for the DownloadServer, use builder() instead.
+     */
+    private DownloadServer(Builder builder) {
+        
+        port = builder.port;
+        maxDataSize = builder.maxDataSize;
+        timeOutPeriod = builder.timeOutPeriod;
+        windowSize = builder.windowSize;
+        errorPercent = builder.errorPercent;
+        dataImpairment = builder.dataImpairment;
+        ackImpairment = builder.ackImpairment;
+        initialSequenceNumber = builder.initialSequenceNumber;
+        forwardErrorCorrection = builder.forwardErrorCorrection;
+        encryptionKey = builder.encryptionKey;
+        maxDownloads = builder.maxDownloads;
+        maxRetries = builder.maxRetries;
+        cache = new BlockCache(builder.cacheSize, builder.cacheBlockSize);
+        
+    } // end DownloadServer constructor
+    
+    
+    /**
+     * This method will provide a Builder holding the default parameters.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method opens the server socket and starts answering GETs for the files under a
+     * directory on a separate thread. The socket is open once this returns.
+     * 
+     * @param directory - The directory served, names outside it are refused.
+     * 
+     * @throws IOException - If the socket could not be opened.
+     */
+    public synchronized void start(Path directory) throws IOException {
+        
+        if(serverSocket != null) {
+            
+            throw new IllegalStateException("Server already started!");
+            
+        }
+        
+        root = directory.toAbsolutePath().normalize();
+        serverSocket = new DatagramSocket(port);
+        cache.register();
+        
+        Thread serverThread = new Thread("DownloadServer-" + serverSocket.getLocalPort()) {
+            
+            @Override
+            public void run() {
+                
+                serveLoop();
+                
+            }
+            
+        };
+        
+        serverThread.setDaemon(true);
+        serverThread.start();
+        
+    } // end start
+    
+    
+    /**
+     * This method receives GETs until the socket is closed.
+     */
+    private void serveLoop() {
+        
+        byte[] buffer = new byte[Helper.MAXPACKETSIZE];
+        Impairment replyImpairment = dataImpairment != null ? dataImpairment.forStream()
+                                                            : Impairment.fromErrorPercent(errorPercent);
+        Mac cookieHash = newCookieHash();
+        
+        while(!serverSocket.isClosed()) {
+            
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            
+            try {
+                
+                serverSocket.receive(packet);
+                
+            } catch (IOException e) {
+                
+                if(!serverSocket.isClosed()) {
+                    
+                    Log.error("Unable to receive GET!");
+                    
+                }
+                
+                continue;
+                
+            }
+            
+            if(packet.getLength() < Helper.APPLICATIONHEADERSIZE + FileRequest.HEADSIZE ||
+                   !Helper.isCheckSumGood(buffer) || Helper.retrievePacketType(buffer) != Helper.TYPEGET) {
+                
+                continue;
+                
+            }
+            
+            long cookie = cookie(cookieHash, packet);
+            byte[] reply;
+            
+            // The first GET from an address only gets its cookie, nothing is sent until it returns.
+            if(FileRequest.retrieveCookie(buffer) != cookie) {
+                
+                reply = FileRequest.cookieReply(buffer, cookie);
+                
+            } else {
+                
+                long length = serve(FileRequest.retrieveName(buffer),
+                                        new InetSocketAddress(packet.getAddress(), FileRequest.retrievePort(buffer)));
+                
+                reply = FileRequest.reply(buffer, length);
+                
+            }
+            
+            Helper.bufferCheckSum(reply, replyImpairment.isCorrupted() ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+            
+            try {
+                
+                replyImpairment.send(serverSocket, new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+                
+            } catch (IOException e) {
+                
+                Log.error("Unable to answer GET from " + packet.getSocketAddress() + "!");
+                
+            }
+            
+        } // end while loop
+        
+    } // end serveLoop
+    
+    
+    /**
+     * This method builds the keyed hash cookies are made with, under a key random for each
+     * server.
+     * 
+     * @return - The keyed hash, used only by the serving thread.
+     */
+    private static Mac newCookieHash() {
+        
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        
+        try {
+            
+            Mac hash = Mac.getInstance(COOKIEHASH);
+            hash.init(new SecretKeySpec(key, COOKIEHASH));
+            
+            return hash;
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("No " + COOKIEHASH + "!", e);
+            
+        }
+        
+    } // end newCookieHash
+    
+    
+    /**
+     * This method works out the cookie for a GET, from the address and port it came from, the
+     * port it names and its sequence number.
+     * 
+     * @param cookieHash - The server's keyed hash.
+     * 
+     * @param packet - The GET as received.
+     * 
+     * @return - The cookie.
+     */
+    private static long cookie(Mac cookieHash, DatagramPacket packet) {
+        
+        byte[] request = packet.getData();
+        
+        cookieHash.update(packet.getAddress().getAddress());
+        cookieHash.update(ByteBuffer.allocate(12).putInt(packet.getPort()).putInt(FileRequest.retrievePort(request))
+                                    .putInt(Helper.retrieveSeqNum(request)).array());
+        
+        return ByteBuffer.wrap(cookieHash.doFinal()).getLong();
+        
+    } // end cookie
+    
+    
+    /**
+     * This method starts sending a file to a waiting server, unless it is already being sent
+     * there.
+     * 
+     * @param name - The file asked for, relative to the directory served.
+     * 
+     * @param receiver - The address and port of the waiting server.
+     * 
+     * @return - The length of the file, FileRequest.NOFILE if it can't be sent or
+     *              FileRequest.BUSY if maxDownloads are already being sent.
+     */
+    private long serve(String name, InetSocketAddress receiver) {
+        
+        synchronized(downloads) {
+            
+            forgetFinished();
+            
+            Download existing = downloads.get(receiver);
+            
+            if(existing != null) {
+                
+                return existing.length;
+                
+            }
+            
+            if(getActiveDownloads() >= maxDownloads) {
+                
+                Log.warn("GET from " + receiver + " refused, already sending " + maxDownloads + " downloads!");
+                return FileRequest.BUSY;
+                
+            }
+            
+            Path file = resolve(name);
+            
+            if(file == null) {
+                
+                Log.warn("GET from " + receiver + " refused, no file " + name + "!");
+                return FileRequest.NOFILE;
+                
+            }
+            
+            CachedFileInputStream fStream = null;
+            
+            try {
+                
+                fStream = new CachedFileInputStream(cache, file);
+                P2Client client = new P2Client(fStream, fStream.getLength(), receiver, maxDataSize, timeOutPeriod,
+                                               windowSize, errorPercent, null);
+                client.setImpairments(dataImpairment, ackImpairment);
+                client.setInitialSequenceNumber(initialSequenceNumber);
+                client.setEncryptionKey(encryptionKey);
+                client.setForwardErrorCorrection(forwardErrorCorrection);
+                client.setMaxRetries(maxRetries);
+                
+                Download download = new Download(fStream.getLength(), client.start());
+                downloads.put(receiver, download);
+                
+                download.transfer.whenComplete((result, cause) -> {
+                    
+                    download.finishedAt = System.nanoTime();
+                    
+                    if(cause == null) {
+                        
+                        Log.info("Sent " + name + " to " + receiver + ": " + result + "\n");
+                        
+                    } else {
+                        
+                        Log.warn("Download of " + name + " by " + receiver + " failed: " + cause);
+                        
+                    }
+                    
+                });
+                
+                return download.length;
+                
+            } catch (IOException e) {
+                
+                Log.error("Unable to send " + name + " to " + receiver + ": " + e.getMessage());
+                closeQuietly(fStream);
+                return FileRequest.NOFILE;
+                
+            } // end try-catch block
+            
+        } // end synchronized block
+        
+    } // end serve
+    
+    
+    /**
+     * This method closes a file that won't be sent after all.
+     */
+    private static void closeQuietly(CachedFileInputStream fStream) {
+        
+        if(fStream != null) {
+            
+            try {
+                
+                fStream.close();
+                
+            } catch (IOException e) {
+                
+                // Already failing, nothing more to report.
+                
+            }
+            
+        }
+        
+    } // end closeQuietly
+    
+    
+    /**
+     * This method finds a file asked for.
+     * 
+     * @param name - The name sent, relative and '/' separated.
+     * 
+     * @return - The file under the directory served, or null if it is outside it or isn't a file.
+     */
+    private Path resolve(String name) {
+        
+        if(name == null) {
+            
+            return null;
+            
+        }
+        
+        try {
+            
+            Path file = root.resolve(name).normalize();
+            
+            return file.startsWith(root) && Files.isRegularFile(file) ? file : null;
+            
+        } catch (InvalidPathException e) {
+            
+            return null;
+            
+        }
+        
+    } // end resolve
+    
+    
+    /**
+     * This method drops downloads finished long enough ago that no GET for them can still be
+     * on its way. Call holding downloads.
+     */
+    private void forgetFinished() {
+        
+        long linger = TimeUnit.MILLISECONDS.toNanos((long)FileRequest.REQUESTTIMEOUT * FileRequest.MAXREQUESTATTEMPTS);
+        Iterator<Download> iterator = downloads.values().iterator();
+        
+        while(iterator.hasNext()) {
+            
+            long finishedAt = iterator.next().finishedAt;
+            
+            if(finishedAt != 0 && System.nanoTime() - finishedAt > linger) {
+                
+                iterator.remove();
+                
+            }
+            
+        }
+        
+    } // end forgetFinished
+    
+    
+    /**
+     * This method will provide the port the server is listening on. Useful when the Builder
+     * was given port 0.
+     * 
+     * @return - The local port, or -1 if not yet started.
+     */
+    public synchronized int getPort() {
+        
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+        
+    } // end getPort
+    
+    
+    /**
+     * This method will provide the cache files are read through, eg... for its hit ratio.
+     * 
+     * @return - The BlockCache.
+     */
+    public BlockCache getCache() {
+        
+        return cache;
+        
+    } // end getCache
+    
+    
+    /**
+     * This method will provide the number of downloads still being sent.
+     * 
+     * @return - The number of unfinished downloads.
+     */
+    public int getActiveDownloads() {
+        
+        synchronized(downloads) {
+            
+            int active = 0;
+            
+            for(Download download : downloads.values()) {
+                
+                active += download.transfer.isDone() ? 0 : 1;
+                
+            }
+            
+            return active;
+            
+        }
+        
+    } // end getActiveDownloads
+    
+    
+    /**
+     * This method stops answering GETs and abandons any downloads still being sent.
+     */
+    public synchronized void close() {
+        
+        if(serverSocket == null) {
+            
+            return;
+            
+        }
+        
+        serverSocket.close();
+        cache.unregister();
+        
+        List<Download> unfinished;
+        
+        synchronized(downloads) {
+            
+            unfinished = new ArrayList<Download>(downloads.values());
+            downloads.clear();
+            
+        }
+        
+        for(Download download : unfinished) {
+            
+            download.transfer.cancel(true);
+            
+        }
+        
+    } // end close
+    
+    
+    /**
+     * This class is one file being sent to one waiting server.
+     */
+    private static final class Download {
+        
+        private final long length;
+        private final CompletableFuture<TransferResult> transfer;
+        
+        // When the transfer ended, 0 until then.
+        private volatile long finishedAt = 0;
+        
+        
+        private Download(long newLength, CompletableFuture<TransferResult> newTransfer) {
+            
+            length = newLength;
+            transfer = newTransfer;
+            
+        } // end Download constructor
+        
+    } // end Download
+    
+    
+    /**
+     * This class collects the parameters of a DownloadServer. Anything not set keeps the
+     * defaults found in Helper and BlockCache except the error percent, which is 0 (no
+     * simulated errors).
+     */
+    public static class Builder {
+        
+        private int port = Helper.PORT;
+        private int maxDataSize = Helper.DEFAULTMAXDATASIZE;
+        private int timeOutPeriod = Helper.DEFAULTTIMEOUT;
+        private int windowSize = Helper.DEFAULTWINDOWSIZE;
+        private int errorPercent = 0;
+        private Impairment dataImpairment;
+        private Impairment ackImpairment;
+        private int initialSequenceNumber = Helper.INITIALSEQUENCENUMBER;
+        private boolean forwardErrorCorrection = false;
+        private byte[] encryptionKey;
+        private int maxDownloads = DEFAULTMAXDOWNLOADS;
+        private int maxRetries = DEFAULTMAXRETRIES;
+        private long cacheSize = BlockCache.DEFAULTCAPACITY;
+        private int cacheBlockSize = BlockCache.DEFAULTBLOCKSIZE;
+        
+        
+        /**
+         * @param newPort - The port to listen for GETs on, 0 picks any free port.
+         * 
+         * @return - This Builder.
+         */
+        public Builder port(int newPort) {
+            
+            port = newPort;
+            return this;
+            
+        } // end port
+        
+        
+        /**
+         * @param bytes - The max data size of each packet sent, in bytes.
+         * 
+         * @return - This Builder.
+         */
+        public Builder maxDataSize(int bytes) {
+            
+            maxDataSize = bytes;
+            return this;
+            
+        } // end maxDataSize
+        
+        
+        /**
+         * @param millis - The time out period, in milliseconds.
+         * 
+         * @return - This Builder.
+         */
+        public Builder timeOutPeriod(int millis) {
+            
+            timeOutPeriod = millis;
+            return this;
+            
+        } // end timeOutPeriod
+        
+        
+        /**
+         * @param packets - The window size of each download, in packets.
+         * 
+         * @return - This Builder.
+         */
+        public Builder windowSize(int packets) {
+            
+            windowSize = packets;
+            return this;
+            
+        } // end windowSize
+        
+        
+        /**
+         * @param percent - The simulated error percent, 0 for a perfect run.
+         * 
+         * @return - This Builder.
+         */
+        public Builder errorPercent(int percent) {
+            
+            errorPercent = percent;
+            return this;
+            
+        } // end errorPercent
+        
+        
+        /**
+         * @param impairment - The simulated network for data packets and GET answers, replaces
+         *                     the error percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder dataImpairment(Impairment impairment) {
+            
+            dataImpairment = impairment;
+            return this;
+            
+        } // end dataImpairment
+        
+        
+        /**
+         * @param impairment - The simulated network for acknowledgements, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder ackImpairment(Impairment impairment) {
+            
+            ackImpairment = impairment;
+            return this;
+            
+        } // end ackImpairment
+        
+        
+        /**
+         * @param seqNum - The first sequence number, downloaders must be given the same one.
+         * 
+         * @return - This Builder.
+         */
+        public Builder initialSequenceNumber(int seqNum) {
+            
+            initialSequenceNumber = seqNum;
+            return this;
+            
+        } // end initialSequenceNumber
+        
+        
+        /**
+         * @param enabled - True to send parity after each group of packets so downloaders can
+         *                  rebuild lost ones without a retransmission. Off by default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder forwardErrorCorrection(boolean enabled) {
+            
+            forwardErrorCorrection = enabled;
+            return this;
+            
+        } // end forwardErrorCorrection
+        
+        
+        /**
+         * @param key - An AES key (16, 24 or 32 bytes) to seal the data, digest, OPEN and FIN
+         *              packets with AES-GCM, downloaders must be given the same key. The verdicts
+         *              on the digest and FIN are signed, plain acknowledgements of data are
+         *              not. Null (the default) sends everything in the clear.
+         * 
+         * @return - This Builder.
+         */
+        public Builder encryptionKey(byte[] key) {
+            
+            encryptionKey = key == null ? null : key.clone();
+            return this;
+            
+        } // end encryptionKey
+        
+        
+        /**
+         * @param downloads - The most downloads sent at once, GETs beyond it are answered BUSY.
+         * 
+         * @return - This Builder.
+         */
+        public Builder maxDownloads(int downloads) {
+            
+            maxDownloads = downloads;
+            return this;
+            
+        } // end maxDownloads
+        
+        
+        /**
+         * @param retries - The most resends of a download's window in a row with nothing
+         *                  acknowledged before it is given up on, 0 to keep trying until close().
+         * 
+         * @return - This Builder.
+         */
+        public Builder maxRetries(int retries) {
+            
+            maxRetries = retries;
+            return this;
+            
+        } // end maxRetries
+        
+        
+        /**
+         * @param bytes - The most file data kept in memory, 0 to read every block from disk.
+         * 
+         * @return - This Builder.
+         */
+        public Builder cacheSize(long bytes) {
+            
+            cacheSize = bytes;
+            return this;
+            
+        } // end cacheSize
+        
+        
+        /**
+         * @param bytes - The size of the blocks files are cached in.
+         * 
+         * @return - This Builder.
+         */
+        public Builder cacheBlockSize(int bytes) {
+            
+            cacheBlockSize = bytes;
+            return this;
+            
+        } // end cacheBlockSize
+        
+        
+        /**
+         * @return - A DownloadServer using the parameters set so far.
+         */
+        public DownloadServer build() {
+            
+            return new DownloadServer(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+} // end DownloadServer
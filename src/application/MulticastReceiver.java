@@ -0,0 +1,577 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class joins a multicast group and receives the file a
+ * MulticastSender sends to it. Packets are written straight to their place
+ * in the file as they arrive, in any order. Every time out the packets still
+ * missing are NAKed back to the sender, up to the highest it has sent. Once
+ * every packet is in, the file is checked against the sender's digest and
+ * the sender is told with a FIN-ACK. See MulticastSession for the packets.
+ * 
+ * Data arriving before the session has been announced is dropped, it is
+ * NAKed and repaired like any other loss. A receiver may join late.
+ * 
+ * eg... MulticastReceiver.builder().group(address).build().start(path)
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+import helpers.MulticastSession;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+public class MulticastReceiver {
+    
+    // Asked of the socket so a burst isn't dropped before it can be read.
+    public static final int RECEIVEBUFFERBYTES = 4 * 1024 * 1024;
+    
+    // How long to wait for the next packet before the session is known, in milliseconds.
+    private static final int JOINTIMEOUT = 100;
+    
+    private final InetSocketAddress group;
+    private final NetworkInterface networkInterface;
+    private final Impairment dataImpairment;
+    private final Impairment ackImpairment;
+    private MulticastSocket socket;
+    
+    
+    /**
+     * A constructor for the MulticastReceiver, use builder() instead.
+     */
+    private MulticastReceiver(Builder builder) {
+        
+        if(builder.group == null || !builder.group.getAddress().isMulticastAddress()) {
+            
+            throw new IllegalArgumentException("Not a multicast group: " + builder.group);
+            
+        }
+        
+        group = builder.group;
+        networkInterface = builder.networkInterface;
+        dataImpairment = builder.dataImpairment != null ? builder.dataImpairment.forStream()
+                                                        : Impairment.fromErrorPercent(builder.errorPercent);
+        ackImpairment = builder.ackImpairment != null ? builder.ackImpairment.forStream()
+                                                      : Impairment.fromErrorPercent(builder.errorPercent);
+        
+    } // end MulticastReceiver constructor
+    
+    
+    /**
+     * This method will provide a Builder holding the default parameters.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method joins the group and starts receiving into the file given on a separate
+     * thread. The group has been joined once this returns, so the sender can be started.
+     * 
+     * @param output - Where the received file is written.
+     * 
+     * @return - A future completed once every packet is in and the digest checked.
+     * 
+     * @throws IOException - If the file or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> start(Path output) throws IOException {
+        
+        if(socket != null) {
+            
+            throw new IllegalStateException("Receiver already started!");
+            
+        }
+        
+        final CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+        final RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw");
+        
+        try {
+            
+            socket = new MulticastSocket(group.getPort());
+            socket.setReceiveBufferSize(RECEIVEBUFFERBYTES);
+            socket.joinGroup(new InetSocketAddress(group.getAddress(), 0), networkInterface);
+            
+        } catch (IOException e) {
+            
+            file.close();
+            
+            if(socket != null) {
+                
+                socket.close();
+                
+            }
+            
+            throw e;
+            
+        }
+        
+        Thread receiverThread = new Thread("MulticastReceiver") {
+            
+            @Override
+            public void run() {
+                
+                new Session(file, completion).receiveLoop();
+                
+            }
+            
+        };
+        
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        
+        return completion;
+        
+    } // end start
+    
+    
+    /**
+     * This method leaves the group and stops receiving.
+     */
+    public synchronized void close() {
+        
+        if(socket != null) {
+            
+            socket.close();
+            
+        }
+        
+    } // end close
+    
+    
+    /**
+     * This class is the state of the file being received, used by the receiving thread only.
+     */
+    private final class Session {
+        
+        private final RandomAccessFile file;
+        private final CompletableFuture<TransferResult> completion;
+        private final long startTime = System.nanoTime();
+        private final BitSet received = new BitSet();
+        private final int receiverId = ThreadLocalRandom.current().nextInt();
+        private MulticastSession session;
+        private SocketAddress sender;
+        private byte[] expectedDigest;
+        
+        // One past the highest sequence number the sender is known to have sent.
+        private int sentSoFar = 0;
+        private long duplicates = 0;
+        private long nextNak;
+        private long finishedAt = 0;
+        
+        
+        private Session(RandomAccessFile newFile, CompletableFuture<TransferResult> newCompletion) {
+            
+            file = newFile;
+            completion = newCompletion;
+            
+        } // end Session constructor
+        
+        
+        /**
+         * This method receives until the file is done and the FIN-ACK has had time to arrive, or
+         * the receiver is closed.
+         */
+        private void receiveLoop() {
+            
+            byte[] buffer = new byte[Helper.MAXPACKETSIZE];
+            
+            try {
+                
+                socket.setSoTimeout(JOINTIMEOUT);
+                
+                while(!socket.isClosed() && !isLingerOver()) {
+                    
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    
+                    try {
+                        
+                        socket.receive(packet);
+                        packetReceived(buffer, packet);
+                        
+                    } catch (SocketTimeoutException e) {
+                        
+                        // Just time to NAK.
+                        
+                    }
+                    
+                    sendNak();
+                    
+                } // end while loop
+                
+            } catch (IOException e) {
+                
+                if(!socket.isClosed()) {
+                    
+                    Log.error("Unable to receive multicast: " + e.getMessage());
+                    
+                }
+                
+            } finally {
+                
+                socket.close();
+                
+                try {
+                    
+                    file.close();
+                    
+                } catch (IOException e) {
+                    
+                    Log.error("Unable to close file!");
+                    
+                }
+                
+                // Closed before the file was done.
+                completion.completeExceptionally(new IOException("Multicast receiver closed before the file was done!"));
+                
+            } // end try-catch-finally block
+            
+        } // end receiveLoop
+        
+        
+        /**
+         * This method handles one packet from the group.
+         * 
+         * @throws IOException - If the file could not be written.
+         */
+        private void packetReceived(byte[] buffer, DatagramPacket packet) throws IOException {
+            
+            if(packet.getLength() < Helper.APPLICATIONHEADERSIZE || !Helper.isCheckSumGood(buffer) ||
+                   dataImpairment.isLost()) {
+                
+                return;
+                
+            }
+            
+            int type = Helper.retrievePacketType(buffer);
+            
+            if(type == Helper.TYPESESSION && packet.getLength() >= Helper.APPLICATIONHEADERSIZE + MulticastSession.SESSIONSIZE) {
+                
+                if(session == null) {
+                    
+                    session = MulticastSession.fromPacket(buffer);
+                    file.setLength(session.getLength());
+                    socket.setSoTimeout(Math.max(1, session.getTimeOut() / 4));
+                    scheduleNak();
+                    
+                    Log.info("Joined multicast of " + session.getLength() + " bytes from " + packet.getSocketAddress() + ".\n");
+                    
+                }
+                
+                if(Helper.retrieveAckNum(buffer) == session.getId()) {
+                    
+                    sender = packet.getSocketAddress();
+                    sentSoFar = Math.max(sentSoFar, Math.min(MulticastSession.retrieveSent(buffer), session.getPacketCount()));
+                    
+                    // The sender keeps announcing until it has heard from us.
+                    if(finishedAt != 0) {
+                        
+                        sendToSender(null, Helper.TYPEFINACK);
+                        
+                    }
+                    
+                }
+                
+                return;
+                
+            }
+            
+            if(session == null || Helper.retrieveAckNum(buffer) != session.getId() ||
+                   (type != Helper.TYPEDATA && type != Helper.TYPEDIGEST)) {
+                
+                return;
+                
+            }
+            
+            int seqNum = Helper.retrieveSeqNum(buffer);
+            
+            if(seqNum < 0 || seqNum >= session.getPacketCount()) {
+                
+                return;
+                
+            }
+            
+            sender = packet.getSocketAddress();
+            sentSoFar = Math.max(sentSoFar, seqNum + 1);
+            
+            if(received.get(seqNum)) {
+                
+                duplicates++;
+                return;
+                
+            }
+            
+            int dataLength = Helper.retrieveLength(buffer) - Helper.APPLICATIONHEADERSIZE;
+            
+            if(seqNum == session.getDataPackets()) {
+                
+                expectedDigest = Arrays.copyOfRange(buffer, Helper.APPLICATIONHEADERSIZE,
+                                                        Helper.APPLICATIONHEADERSIZE + Helper.DIGESTSIZE);
+                
+            } else {
+                
+                file.seek((long)seqNum * session.getMaxDataSize());
+                file.write(buffer, Helper.APPLICATIONHEADERSIZE, Math.min(dataLength, session.dataLength(seqNum)));
+                
+            }
+            
+            received.set(seqNum);
+            
+            if(received.cardinality() == session.getPacketCount()) {
+                
+                finish();
+                
+            }
+            
+        } // end packetReceived
+        
+        
+        /**
+         * This method NAKs the packets still missing once the NAK timer is up.
+         * 
+         * @throws IOException - If the NAK could not be sent.
+         */
+        private void sendNak() throws IOException {
+            
+            if(session == null || finishedAt != 0 || sender == null || System.nanoTime() - nextNak < 0) {
+                
+                return;
+                
+            }
+            
+            byte[] nak = session.nak(received, sentSoFar, session.getMaxDataSize());
+            
+            if(nak != null) {
+                
+                sendToSender(nak, Helper.TYPENAK);
+                
+                if(Log.isDebug()) {
+                    
+                    Log.debug("NAKing " + (sentSoFar - received.get(0, sentSoFar).cardinality()) + " packets.\n");
+                    
+                }
+                
+            }
+            
+            scheduleNak();
+            
+        } // end sendNak
+        
+        
+        /**
+         * This method sets when to NAK next, a time out from now plus a little so receivers that
+         * lost the same packet don't all NAK at once.
+         */
+        private void scheduleNak() {
+            
+            long timeOut = TimeUnit.MILLISECONDS.toNanos(session.getTimeOut());
+            
+            nextNak = System.nanoTime() + timeOut + ThreadLocalRandom.current().nextLong(timeOut / 4 + 1);
+            
+        } // end scheduleNak
+        
+        
+        /**
+         * This method unicasts a NAK or FIN-ACK back to the sender.
+         * 
+         * @param packet - The packet built by the session, null for one without a payload.
+         * 
+         * @param type - The type to send it as.
+         * 
+         * @throws IOException - If it could not be sent.
+         */
+        private void sendToSender(byte[] packet, int type) throws IOException {
+            
+            if(packet == null) {
+                
+                packet = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE];
+                session.bufferHeader(packet, type, 0, 0);
+                
+            }
+            
+            // Receivers may share an address and port, the sender tells them apart by id.
+            Helper.bufferSeqNumber(packet, receiverId);
+            Helper.bufferPacketType(packet, type);
+            Helper.bufferCheckSum(packet, ackImpairment.isCorrupted() ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+            ackImpairment.send(socket, new DatagramPacket(packet, packet.length, sender));
+            
+        } // end sendToSender
+        
+        
+        /**
+         * This method checks the file against the sender's digest once every packet is in.
+         * 
+         * @throws IOException - If the file could not be read back.
+         */
+        private void finish() throws IOException {
+            
+            finishedAt = System.nanoTime();
+            
+            MessageDigest digest = Helper.newDigest();
+            byte[] chunk = new byte[Math.max(session.getMaxDataSize(), 8192)];
+            
+            file.seek(0);
+            
+            for(int n = file.read(chunk) ; n > 0 && digest != null ; n = file.read(chunk)) {
+                
+                digest.update(chunk, 0, n);
+                
+            }
+            
+            boolean verified = digest != null && MessageDigest.isEqual(expectedDigest, digest.digest());
+            
+            if(verified) {
+                
+                Log.info("File digest verified, " + session.getLength() + " bytes received intact.\n");
+                
+            } else {
+                
+                Log.error("File digest does NOT match the sender's!");
+                
+            }
+            
+            sendToSender(null, Helper.TYPEFINACK);
+            completion.complete(new TransferResult(session.getLength(), session.getPacketCount(), duplicates,
+                                                       finishedAt - startTime, verified));
+            
+        } // end finish
+        
+        
+        /**
+         * This method is used to determine whether the receiver has stayed around long enough
+         * after finishing for the sender to have heard its FIN-ACK.
+         * 
+         * @return - A boolean true once FINLINGERTIMEOUTS time outs have passed since finishing.
+         */
+        private boolean isLingerOver() {
+            
+            return finishedAt != 0 && System.nanoTime() - finishedAt >
+                       TimeUnit.MILLISECONDS.toNanos((long)session.getTimeOut() * Helper.FINLINGERTIMEOUTS);
+            
+        } // end isLingerOver
+        
+    } // end Session
+    
+    
+    /**
+     * This class collects the parameters of a MulticastReceiver. The group must be set, the
+     * error percent is 0 (no simulated errors) unless set.
+     */
+    public static class Builder {
+        
+        private InetSocketAddress group;
+        private NetworkInterface networkInterface;
+        private int errorPercent = 0;
+        private Impairment dataImpairment;
+        private Impairment ackImpairment;
+        
+        
+        /**
+         * @param newGroup - The multicast address and port to join.
+         * 
+         * @return - This Builder.
+         */
+        public Builder group(InetSocketAddress newGroup) {
+            
+            group = newGroup;
+            return this;
+            
+        } // end group
+        
+        
+        /**
+         * @param newInterface - The interface to join on, eg... the loopback interface for
+         *                       testing. Null (the default) lets the system choose.
+         * 
+         * @return - This Builder.
+         */
+        public Builder networkInterface(NetworkInterface newInterface) {
+            
+            networkInterface = newInterface;
+            return this;
+            
+        } // end networkInterface
+        
+        
+        /**
+         * @param percent - The simulated error percent, 0 for a perfect run.
+         * 
+         * @return - This Builder.
+         */
+        public Builder errorPercent(int percent) {
+            
+            errorPercent = percent;
+            return this;
+            
+        } // end errorPercent
+        
+        
+        /**
+         * @param impairment - The simulated network for packets from the group, replaces the
+         *                     error percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder dataImpairment(Impairment impairment) {
+            
+            dataImpairment = impairment;
+            return this;
+            
+        } // end dataImpairment
+        
+        
+        /**
+         * @param impairment - The simulated network for NAKs and FIN-ACKs, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder ackImpairment(Impairment impairment) {
+            
+            ackImpairment = impairment;
+            return this;
+            
+        } // end ackImpairment
+        
+        
+        /**
+         * @return - A MulticastReceiver using the parameters set so far.
+         */
+        public MulticastReceiver build() {
+            
+            return new MulticastReceiver(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+} // end MulticastReceiver
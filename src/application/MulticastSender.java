@@ -0,0 +1,692 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class sends one file to every MulticastReceiver in a
+ * multicast group at once. Each packet is sent once to the group however many
+ * receivers there are. Nothing is acknowledged, receivers NAK what they're
+ * missing and the repairs are multicast too, so one repair serves every
+ * receiver that lost the packet. A packet repaired within the last half time
+ * out isn't repaired again, the NAKs still on their way for it are ignored.
+ * 
+ * Data and repairs are paced together at a fixed rate rather than by a
+ * window, repairs first. The send is over once every receiver expected has
+ * answered with a FIN-ACK, or nothing has been NAKed for FINLINGERTIMEOUTS
+ * time outs. See MulticastSession for the packets.
+ * 
+ * eg... MulticastSender.builder().group(address).rate(8000000).build().send(path)
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.Helper;
+import helpers.Log;
+import helpers.MulticastSession;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class MulticastSender {
+    
+    // Bytes per second sent, data and repairs together, unless set.
+    public static final long DEFAULTRATE = 10000000;
+    
+    private final InetSocketAddress group;
+    private final NetworkInterface networkInterface;
+    private final int timeToLive;
+    private final int maxDataSize;
+    private final int timeOutPeriod;
+    private final long rate;
+    private final int receivers;
+    
+    
+    /**
+     * A constructor for the MulticastSender, use builder() instead.
+     */
+    private MulticastSender(Builder builder) {
+        
+        if(builder.group == null || !builder.group.getAddress().isMulticastAddress()) {
+            
+            throw new IllegalArgumentException("Not a multicast group: " + builder.group);
+            
+        }
+        
+        group = builder.group;
+        networkInterface = builder.networkInterface;
+        timeToLive = builder.timeToLive;
+        maxDataSize = builder.maxDataSize;
+        timeOutPeriod = builder.timeOutPeriod;
+        rate = builder.rate;
+        receivers = builder.receivers;
+        
+    } // end MulticastSender constructor
+    
+    
+    /**
+     * This method will provide a Builder holding the default parameters.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method starts sending a file to the group on separate threads. It returns right away.
+     * 
+     * @param file - The file to send.
+     * 
+     * @return - A future completed once the send is over. The retransmissions are the repairs
+     *              sent, the digest is verified only if every receiver expected answered.
+     */
+    public CompletableFuture<TransferResult> send(Path file) {
+        
+        CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+        
+        try {
+            
+            Transfer transfer = new Transfer(file, completion);
+            
+            // Cancelling the future handed out abandons the send.
+            completion.whenComplete((result, cause) -> transfer.socket.close());
+            transfer.start();
+            
+        } catch (IOException e) {
+            
+            completion.completeExceptionally(e);
+            
+        }
+        
+        return completion;
+        
+    } // end send
+    
+    
+    /**
+     * This class is one file being sent. The sending thread paces out data, repairs and session
+     * packets, the NAK thread collects what needs repairing.
+     */
+    private final class Transfer {
+        
+        private final FileChannel channel;
+        private final MulticastSocket socket;
+        private final MulticastSession session;
+        private final CompletableFuture<TransferResult> completion;
+        private final MessageDigest digest;
+        private final byte[] digestValue = new byte[Helper.DIGESTSIZE];
+        private final long startTime = System.nanoTime();
+        
+        // Packets NAKed and not yet repaired, and when each packet was last sent. Guarded by repairs.
+        private final BitSet repairs = new BitSet();
+        private final long[] lastSent;
+        
+        // Packets sent at least once, written only by the sending thread.
+        private volatile int sent = 0;
+        private volatile long lastNak;
+        private long repairsSent = 0;
+        
+        // The ids of receivers that have every packet. Guarded by itself.
+        private final Set<Integer> finished = new HashSet<Integer>();
+        
+        
+        private Transfer(Path file, CompletableFuture<TransferResult> newCompletion) throws IOException {
+            
+            completion = newCompletion;
+            digest = Helper.newDigest();
+            
+            if(digest == null) {
+                
+                throw new IOException("No " + Helper.DIGESTALGORITHM + " digest!");
+                
+            }
+            
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            
+            try {
+                
+                session = new MulticastSession(ThreadLocalRandom.current().nextInt(), channel.size(), maxDataSize,
+                                                   timeOutPeriod);
+                lastSent = new long[session.getPacketCount()];
+                
+                // An empty file is just the digest.
+                if(session.getDataPackets() == 0) {
+                    
+                    System.arraycopy(digest.digest(), 0, digestValue, 0, Helper.DIGESTSIZE);
+                    
+                }
+                
+                socket = new MulticastSocket(0);
+                socket.setTimeToLive(timeToLive);
+                socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+                socket.setSoTimeout(timeOutPeriod);
+                
+                if(networkInterface != null) {
+                    
+                    socket.setNetworkInterface(networkInterface);
+                    
+                }
+                
+            } catch (IOException e) {
+                
+                channel.close();
+                throw e;
+                
+            }
+            
+        } // end Transfer constructor
+        
+        
+        /**
+         * This method starts the sending and NAK threads.
+         */
+        private void start() {
+            
+            Log.info("Multicasting " + session.getLength() + " bytes in " + session.getPacketCount() +
+                         " packets to " + group + ".\n");
+            
+            Thread sender = new Thread(this::sendLoop, "MulticastSender");
+            Thread nakReceiver = new Thread(this::nakLoop, "NakReceiver");
+            
+            sender.setDaemon(true);
+            nakReceiver.setDaemon(true);
+            sender.start();
+            nakReceiver.start();
+            
+        } // end start
+        
+        
+        /**
+         * This method sends every packet once, then repairs until the send is over. Everything
+         * sent is paced to the rate.
+         */
+        private void sendLoop() {
+            
+            long nextSend = System.nanoTime();
+            long nextSession = nextSend;
+            long quiet = TimeUnit.MILLISECONDS.toNanos((long)timeOutPeriod * Helper.FINLINGERTIMEOUTS);
+            byte[] buffer = new byte[Helper.APPLICATIONHEADERSIZE + Math.max(maxDataSize, Helper.DIGESTSIZE)];
+            
+            try {
+                
+                while(!completion.isDone()) {
+                    
+                    long now = System.nanoTime();
+                    
+                    if(now - nextSession >= 0) {
+                        
+                        send(session.toPacket(sent), Helper.APPLICATIONHEADERSIZE + MulticastSession.SESSIONSIZE);
+                        nextSession = now + TimeUnit.MILLISECONDS.toNanos(timeOutPeriod);
+                        
+                    }
+                    
+                    int seqNum = nextRepair(now);
+                    
+                    if(seqNum >= 0) {
+                        
+                        repairsSent++;
+                        
+                    } else if(sent < session.getPacketCount()) {
+                        
+                        seqNum = sent;
+                        
+                        synchronized(repairs) {
+                            
+                            lastSent[seqNum] = now;
+                            
+                        }
+                        
+                    } else if(isOver(now, quiet)) {
+                        
+                        break;
+                        
+                    } else {
+                        
+                        LockSupport.parkNanos(Math.min(nextSession - now, TimeUnit.MILLISECONDS.toNanos(1)));
+                        continue;
+                        
+                    }
+                    
+                    // Wait for this packet's turn, then charge the rate for it.
+                    LockSupport.parkNanos(nextSend - now);
+                    
+                    int packetLength = fill(buffer, seqNum);
+                    send(buffer, packetLength);
+                    nextSend = Math.max(nextSend, now) + packetLength * TimeUnit.SECONDS.toNanos(1) / rate;
+                    
+                    // Quiet is counted from the last new packet too.
+                    if(seqNum == sent) {
+                        
+                        sent++;
+                        lastNak = System.nanoTime();
+                        
+                    }
+                    
+                } // end while loop
+                
+                finish();
+                
+            } catch (IOException e) {
+                
+                if(!completion.isDone()) {
+                    
+                    Log.error("Unable to multicast: " + e.getMessage());
+                    completion.completeExceptionally(e);
+                    
+                }
+                
+            } finally {
+                
+                close();
+                
+            } // end try-catch-finally block
+            
+        } // end sendLoop
+        
+        
+        /**
+         * This method picks the lowest packet waiting to be repaired.
+         * 
+         * @param now - The current time, in nanoseconds.
+         * 
+         * @return - The sequence number, or -1 if none is waiting.
+         */
+        private int nextRepair(long now) {
+            
+            synchronized(repairs) {
+                
+                int seqNum = repairs.nextSetBit(0);
+                
+                if(seqNum >= 0) {
+                    
+                    repairs.clear(seqNum);
+                    lastSent[seqNum] = now;
+                    
+                }
+                
+                return seqNum;
+                
+            }
+            
+        } // end nextRepair
+        
+        
+        /**
+         * This method is used to determine whether the send is over.
+         * 
+         * @param now - The current time, in nanoseconds.
+         * 
+         * @param quiet - How long without a NAK ends the send, in nanoseconds.
+         * 
+         * @return - A boolean true once every receiver expected is done, or it's been quiet.
+         */
+        private boolean isOver(long now, long quiet) {
+            
+            synchronized(finished) {
+                
+                if(receivers > 0 && finished.size() >= receivers) {
+                    
+                    return true;
+                    
+                }
+                
+            }
+            
+            return now - lastNak > quiet;
+            
+        } // end isOver
+        
+        
+        /**
+         * This method fills in a data or digest packet.
+         * 
+         * @param buffer - The packet buffer.
+         * 
+         * @param seqNum - The packet.
+         * 
+         * @return - The packet length.
+         * 
+         * @throws IOException - If the file could not be read.
+         */
+        private int fill(byte[] buffer, int seqNum) throws IOException {
+            
+            if(seqNum == session.getDataPackets()) {
+                
+                session.bufferHeader(buffer, Helper.TYPEDIGEST, seqNum, Helper.DIGESTSIZE);
+                System.arraycopy(digestValue, 0, buffer, Helper.APPLICATIONHEADERSIZE, Helper.DIGESTSIZE);
+                
+                return Helper.APPLICATIONHEADERSIZE + Helper.DIGESTSIZE;
+                
+            }
+            
+            int dataLength = session.dataLength(seqNum);
+            ByteBuffer data = ByteBuffer.wrap(buffer, Helper.APPLICATIONHEADERSIZE, dataLength);
+            long position = (long)seqNum * maxDataSize;
+            
+            while(data.hasRemaining()) {
+                
+                if(channel.read(data, position + data.position() - Helper.APPLICATIONHEADERSIZE) < 0) {
+                    
+                    throw new IOException("File shrank while being multicast!");
+                    
+                }
+                
+            }
+            
+            session.bufferHeader(buffer, Helper.TYPEDATA, seqNum, dataLength);
+            
+            // The first time through the file is read in order, the digest is ready after the last.
+            if(seqNum == sent) {
+                
+                digest.update(buffer, Helper.APPLICATIONHEADERSIZE, dataLength);
+                
+                if(seqNum == session.getDataPackets() - 1) {
+                    
+                    System.arraycopy(digest.digest(), 0, digestValue, 0, Helper.DIGESTSIZE);
+                    
+                }
+                
+            }
+            
+            return Helper.APPLICATIONHEADERSIZE + dataLength;
+            
+        } // end fill
+        
+        
+        /**
+         * This method multicasts a packet.
+         */
+        private void send(byte[] packet, int packetLength) throws IOException {
+            
+            socket.send(new DatagramPacket(packet, packetLength, group));
+            
+        } // end send
+        
+        
+        /**
+         * This method receives NAKs and FIN-ACKs until the socket is closed.
+         */
+        private void nakLoop() {
+            
+            byte[] buffer = new byte[Helper.MAXPACKETSIZE];
+            
+            while(!socket.isClosed()) {
+                
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                
+                try {
+                    
+                    socket.receive(packet);
+                    
+                } catch (SocketTimeoutException e) {
+                    
+                    continue;
+                    
+                } catch (IOException e) {
+                    
+                    break;
+                    
+                }
+                
+                if(packet.getLength() < Helper.ACKNOWLEDGEMENTHEADERSIZE || !Helper.isCheckSumGood(buffer) ||
+                       Helper.retrieveAckNum(buffer) != session.getId()) {
+                    
+                    continue;
+                    
+                }
+                
+                int type = Helper.retrievePacketType(buffer);
+                
+                if(type == Helper.TYPEFINACK) {
+                    
+                    synchronized(finished) {
+                        
+                        finished.add(Helper.retrieveSeqNum(buffer));
+                        
+                    }
+                    
+                } else if(type == Helper.TYPENAK) {
+                    
+                    nakReceived(MulticastSession.retrieveRanges(buffer, packet.getLength()));
+                    
+                }
+                
+            } // end while loop
+            
+        } // end nakLoop
+        
+        
+        /**
+         * This method queues the packets a NAK asks for, except those sent too recently for the
+         * receiver to have had them yet.
+         * 
+         * @param ranges - The ranges NAKed.
+         */
+        private void nakReceived(Iterable<int[]> ranges) {
+            
+            long now = System.nanoTime();
+            long holdOff = TimeUnit.MILLISECONDS.toNanos(timeOutPeriod) / 2;
+            int limit = sent;
+            
+            lastNak = now;
+            
+            synchronized(repairs) {
+                
+                for(int[] range : ranges) {
+                    
+                    for(int seqNum = Math.max(0, range[0]) ; seqNum < limit && seqNum - range[0] < range[1] ; seqNum++) {
+                        
+                        if(now - lastSent[seqNum] > holdOff) {
+                            
+                            repairs.set(seqNum);
+                            
+                        }
+                        
+                    }
+                    
+                }
+                
+            }
+            
+        } // end nakReceived
+        
+        
+        /**
+         * This method completes the future once the send is over.
+         */
+        private void finish() {
+            
+            int confirmed;
+            
+            synchronized(finished) {
+                
+                confirmed = finished.size();
+                
+            }
+            
+            if(receivers > 0 && confirmed < receivers) {
+                
+                Log.warn("Only " + confirmed + " of " + receivers + " receivers have the whole file!");
+                
+            }
+            
+            Log.info("Multicast done, " + repairsSent + " repairs sent, " + confirmed + " receivers finished.\n");
+            
+            completion.complete(new TransferResult(session.getLength(), session.getPacketCount(), repairsSent,
+                                                       System.nanoTime() - startTime,
+                                                       receivers > 0 && confirmed >= receivers));
+            
+        } // end finish
+        
+        
+        /**
+         * This method releases the socket and file.
+         */
+        private void close() {
+            
+            socket.close();
+            
+            try {
+                
+                channel.close();
+                
+            } catch (IOException e) {
+                
+                Log.error("Unable to close file!");
+                
+            }
+            
+        } // end close
+        
+    } // end Transfer
+    
+    
+    /**
+     * This class collects the parameters of a MulticastSender. Anything not set keeps the
+     * defaults found in Helper, the group must be set.
+     */
+    public static class Builder {
+        
+        private InetSocketAddress group;
+        private NetworkInterface networkInterface;
+        private int timeToLive = 1;
+        private int maxDataSize = Helper.DEFAULTMAXDATASIZE;
+        private int timeOutPeriod = Helper.DEFAULTTIMEOUT;
+        private long rate = DEFAULTRATE;
+        private int receivers = 0;
+        
+        
+        /**
+         * @param newGroup - The multicast address and port the receivers joined.
+         * 
+         * @return - This Builder.
+         */
+        public Builder group(InetSocketAddress newGroup) {
+            
+            group = newGroup;
+            return this;
+            
+        } // end group
+        
+        
+        /**
+         * @param newInterface - The interface to send on, eg... the loopback interface for
+         *                       testing. Null (the default) lets the system choose.
+         * 
+         * @return - This Builder.
+         */
+        public Builder networkInterface(NetworkInterface newInterface) {
+            
+            networkInterface = newInterface;
+            return this;
+            
+        } // end networkInterface
+        
+        
+        /**
+         * @param hops - How many routers packets may cross, 1 (the default) keeps them on the
+         *               local network.
+         * 
+         * @return - This Builder.
+         */
+        public Builder timeToLive(int hops) {
+            
+            timeToLive = hops;
+            return this;
+            
+        } // end timeToLive
+        
+        
+        /**
+         * @param bytes - The max data size of each packet, in bytes.
+         * 
+         * @return - This Builder.
+         */
+        public Builder maxDataSize(int bytes) {
+            
+            maxDataSize = bytes;
+            return this;
+            
+        } // end maxDataSize
+        
+        
+        /**
+         * @param millis - How often the session is announced and receivers NAK, in milliseconds.
+         * 
+         * @return - This Builder.
+         */
+        public Builder timeOutPeriod(int millis) {
+            
+            timeOutPeriod = millis;
+            return this;
+            
+        } // end timeOutPeriod
+        
+        
+        /**
+         * @param bytesPerSecond - The send rate, data and repairs together, however many
+         *                         receivers there are.
+         * 
+         * @return - This Builder.
+         */
+        public Builder rate(long bytesPerSecond) {
+            
+            rate = bytesPerSecond;
+            return this;
+            
+        } // end rate
+        
+        
+        /**
+         * @param count - How many receivers to wait for, the send ends once all have the whole
+         *                file. 0 (the default) ends it once nothing has been NAKed for a while.
+         * 
+         * @return - This Builder.
+         */
+        public Builder receivers(int count) {
+            
+            receivers = count;
+            return this;
+            
+        } // end receivers
+        
+        
+        /**
+         * @return - A MulticastSender using the parameters set so far.
+         */
+        public MulticastSender build() {
+            
+            return new MulticastSender(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+} // end MulticastSender
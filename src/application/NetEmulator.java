@@ -0,0 +1,523 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is a UDP relay that sits between P2Client and P2Server
+ * and behaves like a slower, longer network: every packet is delayed (with
+ * optional jitter), sent no faster than a bandwidth limit, and dropped if the
+ * queue in front of that limit is full (tail drop), the way a router would.
+ * This lets window sizes and time outs be tried against a real bandwidth-delay
+ * product on one machine with no special network setup.
+ * 
+ * Each direction is a separate Link shared by every client, so several clients
+ * compete for the same bottleneck. The server sees one socket per client.
+ * 
+ * eg... a 50 ms round trip over a 100 Mbit/s bottleneck with a 100 packet queue
+ * 
+ * java application.NetEmulator --listen=65001 --server=localhost:65000
+ *     --delay=25 --jitter=2 --rate=100000 --queue=100
+ * java application.P2Client localhost 65001
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.Helper;
+import helpers.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class NetEmulator {
+    
+    public static final int DEFAULTLISTENPORT = 65001;
+    
+    private final DatagramSocket clientSide;
+    private final InetSocketAddress server;
+    private final Link toServer;
+    private final Link toClient;
+    
+    // One socket towards the server for each client, so replies can be sent back to the right one.
+    private final Map<SocketAddress, DatagramSocket> upstreams = new ConcurrentHashMap<SocketAddress, DatagramSocket>();
+    
+    private volatile boolean running = true;
+    
+    
+    /**
+     * A constructor for the NetEmulator. Nothing is relayed until run() is called.
+     * 
+     * @param listenPort - The port clients send to, 0 picks any free port.
+     * 
+     * @param newServer - Where packets from clients are relayed to.
+     * 
+     * @param newToServer - The link from clients to the server.
+     * 
+     * @param newToClient - The link from the server back to clients.
+     * 
+     * @throws SocketException - If the listening socket could not be opened.
+     */
+    public NetEmulator(int listenPort, InetSocketAddress newServer, Link newToServer, Link newToClient)
+            throws SocketException {
+        
+        clientSide = new DatagramSocket(listenPort);
+        server = newServer;
+        toServer = newToServer;
+        toClient = newToClient;
+        
+    } // end NetEmulator constructor
+    
+    
+    /**
+     * This method will provide the port clients should send to.
+     * 
+     * @return - The local port.
+     */
+    public int getPort() {
+        
+        return clientSide.getLocalPort();
+        
+    } // end getPort
+    
+    
+    /**
+     * This method relays packets from clients until close() is called, it does not return before
+     * then.
+     */
+    public void run() {
+        
+        byte[] buffer = new byte[Helper.MAXPACKETSIZE];
+        
+        while(running) {
+            
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            
+            try {
+                
+                clientSide.receive(packet);
+                
+                DatagramSocket upstream = upstreamFor(packet.getSocketAddress());
+                toServer.offer(Arrays.copyOf(buffer, packet.getLength()), upstream, server);
+                
+            } catch (IOException e) {
+                
+                if(running) {
+                    
+                    Log.error("Error relaying from client: " + e.getMessage());
+                    
+                }
+                
+            } // end try-catch block
+            
+        } // end while loop
+        
+    } // end run
+    
+    
+    /**
+     * This method stops relaying and closes every socket.
+     */
+    public void close() {
+        
+        running = false;
+        clientSide.close();
+        
+        for(DatagramSocket upstream : upstreams.values()) {
+            
+            upstream.close();
+            
+        }
+        
+        toServer.close();
+        toClient.close();
+        
+    } // end close
+    
+    
+    /**
+     * This method finds the socket used towards the server for a client, opening it and starting
+     * the thread relaying its replies the first time the client is seen.
+     * 
+     * @param client - The client's address.
+     * 
+     * @return - The socket.
+     * 
+     * @throws SocketException - If a new socket could not be opened.
+     */
+    private DatagramSocket upstreamFor(final SocketAddress client) throws SocketException {
+        
+        DatagramSocket upstream = upstreams.get(client);
+        
+        if(upstream != null) {
+            
+            return upstream;
+            
+        }
+        
+        final DatagramSocket newUpstream = new DatagramSocket();
+        upstreams.put(client, newUpstream);
+        
+        Log.info("New client " + client + " relayed through port " + newUpstream.getLocalPort());
+        
+        Thread replies = new Thread("NetEmulator-" + client) {
+            
+            @Override
+            public void run() {
+                
+                byte[] buffer = new byte[Helper.MAXPACKETSIZE];
+                
+                while(running && !newUpstream.isClosed()) {
+                    
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    
+                    try {
+                        
+                        newUpstream.receive(packet);
+                        toClient.offer(Arrays.copyOf(buffer, packet.getLength()), clientSide, client);
+                        
+                    } catch (IOException e) {
+                        
+                        if(running) {
+                            
+                            Log.error("Error relaying to client " + client + ": " + e.getMessage());
+                            
+                        }
+                        
+                    }
+                    
+                }
+                
+            }
+            
+        };
+        
+        replies.setDaemon(true);
+        replies.start();
+        
+        return newUpstream;
+        
+    } // end upstreamFor
+    
+    
+    /**
+     * This method will describe how many packets each direction forwarded and dropped.
+     * 
+     * @return - The statistics.
+     */
+    public String getStatistics() {
+        
+        return "To server: " + toServer + "\nTo client: " + toClient;
+        
+    } // end getStatistics
+    
+    
+    /**
+     * This class is one direction of the emulated network. A packet waits its turn to be sent at
+     * the bandwidth limit (or is dropped if too many are already waiting), then travels for the
+     * delay plus jitter before it is delivered. Jitter may deliver packets out of order.
+     */
+    public static class Link {
+        
+        private final long delayNanos;
+        private final long jitterNanos;
+        private final long rateKbps;
+        private final int queueLimit;
+        
+        private final DelayQueue<Pending> inFlight = new DelayQueue<Pending>();
+        private final Thread deliverer;
+        
+        // When each queued packet finishes being sent at the bandwidth limit, oldest first.
+        private final ArrayDeque<Long> queued = new ArrayDeque<Long>();
+        private long linkFreeAt = 0;
+        
+        private final AtomicLong forwarded = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        
+        
+        /**
+         * A constructor for the Link.
+         * 
+         * @param delayMillis - The one way delay, in milliseconds.
+         * 
+         * @param jitterMillis - Each packet's delay varies uniformly by up to this much either way.
+         * 
+         * @param rateKbps - The bandwidth limit in kilobits per second, 0 for none.
+         * 
+         * @param newQueueLimit - How many packets may wait for the bandwidth limit before new
+         *                        ones are dropped.
+         * 
+         * @param name - Used to name the delivery thread.
+         */
+        public Link(long delayMillis, long jitterMillis, long rateKbps, int newQueueLimit, String name) {
+            
+            delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+            this.rateKbps = rateKbps;
+            queueLimit = newQueueLimit;
+            
+            deliverer = new Thread("NetEmulator-" + name) {
+                
+                @Override
+                public void run() {
+                    
+                    deliver();
+                    
+                }
+                
+            };
+            
+            deliverer.setDaemon(true);
+            deliverer.start();
+            
+        } // end Link constructor
+        
+        
+        /**
+         * This method puts a packet on the link.
+         * 
+         * @param data - The packet's bytes, kept by the link.
+         * 
+         * @param socket - The socket it will be sent from.
+         * 
+         * @param to - Where it will be sent.
+         * 
+         * @return - A boolean true if the packet was queued, false if it was dropped.
+         */
+        public synchronized boolean offer(byte[] data, DatagramSocket socket, SocketAddress to) {
+            
+            long now = System.nanoTime();
+            
+            // Forget packets that have finished being sent.
+            while(!queued.isEmpty() && queued.peekFirst() <= now) {
+                
+                queued.pollFirst();
+                
+            }
+            
+            if(queued.size() >= queueLimit) {
+                
+                dropped.incrementAndGet();
+                return false;
+                
+            }
+            
+            // Sent once everything ahead of it has been, at the bandwidth limit.
+            long sentAt = Math.max(now, linkFreeAt) + (rateKbps <= 0 ? 0 : data.length * 8000000L / rateKbps);
+            linkFreeAt = sentAt;
+            
+            if(rateKbps > 0) {
+                
+                queued.addLast(sentAt);
+                
+            }
+            
+            long deliverAt = sentAt + delayNanos;
+            
+            if(jitterNanos > 0) {
+                
+                deliverAt += ThreadLocalRandom.current().nextLong(-jitterNanos, jitterNanos + 1);
+                
+            }
+            
+            inFlight.put(new Pending(new DatagramPacket(data, data.length, to), socket, deliverAt));
+            
+            return true;
+            
+        } // end offer
+        
+        
+        /**
+         * This method is the body of the delivery thread, sending packets as their time comes.
+         */
+        private void deliver() {
+            
+            while(true) {
+                
+                Pending pending;
+                
+                try {
+                    
+                    pending = inFlight.take();
+                    
+                } catch (InterruptedException e) {
+                    
+                    return;
+                    
+                }
+                
+                try {
+                    
+                    if(!pending.socket.isClosed()) {
+                        
+                        pending.socket.send(pending.packet);
+                        forwarded.incrementAndGet();
+                        
+                    }
+                    
+                } catch (IOException e) {
+                    
+                    Log.error("Error delivering packet: " + e.getMessage());
+                    
+                }
+                
+            } // end while loop
+            
+        } // end deliver
+        
+        
+        /**
+         * This method stops delivering packets.
+         */
+        public void close() {
+            
+            deliverer.interrupt();
+            
+        } // end close
+        
+        
+        /**
+         * @return - The number of packets delivered.
+         */
+        public long getForwarded() {
+            
+            return forwarded.get();
+            
+        } // end getForwarded
+        
+        
+        /**
+         * @return - The number of packets dropped because the queue was full.
+         */
+        public long getDropped() {
+            
+            return dropped.get();
+            
+        } // end getDropped
+        
+        
+        @Override
+        public String toString() {
+            
+            return forwarded.get() + " forwarded, " + dropped.get() + " dropped";
+            
+        } // end toString
+        
+    } // end Link
+    
+    
+    /**
+     * This class is a packet waiting in a DelayQueue to be delivered.
+     */
+    private static class Pending implements Delayed {
+        
+        private final DatagramPacket packet;
+        private final DatagramSocket socket;
+        private final long deliverAt;
+        
+        
+        private Pending(DatagramPacket newPacket, DatagramSocket newSocket, long newDeliverAt) {
+            
+            packet = newPacket;
+            socket = newSocket;
+            deliverAt = newDeliverAt;
+            
+        } // end Pending constructor
+        
+        
+        @Override
+        public long getDelay(TimeUnit unit) {
+            
+            return unit.convert(deliverAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+            
+        } // end getDelay
+        
+        
+        @Override
+        public int compareTo(Delayed other) {
+            
+            return Long.compare(deliverAt, ((Pending)other).deliverAt);
+            
+        } // end compareTo
+        
+    } // end Pending
+    
+    
+    /**
+     * Options are of the form --name=value: listen (port), server (host:port), delay and jitter
+     * (milliseconds, one way), rate (kilobits per second, 0 for none) and queue (packets). Both
+     * directions get the same settings.
+     */
+    public static void main(String[] args) throws Exception {
+        
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.INFO));
+        
+        Map<String, String> options = new HashMap<String, String>();
+        
+        for(String arg : args) {
+            
+            int equals = arg.indexOf('=');
+            
+            if(!arg.startsWith("--") || equals < 3) {
+                
+                throw new IllegalArgumentException("Expected --name=value but found " + arg);
+                
+            }
+            
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            
+        }
+        
+        int listenPort = Integer.parseInt(options.getOrDefault("listen", "" + DEFAULTLISTENPORT));
+        String[] server = options.getOrDefault("server", "localhost:" + Helper.PORT).split(":");
+        long delay = Long.parseLong(options.getOrDefault("delay", "0"));
+        long jitter = Long.parseLong(options.getOrDefault("jitter", "0"));
+        long rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        int queue = Integer.parseInt(options.getOrDefault("queue", "100"));
+        
+        final NetEmulator emulator = new NetEmulator(listenPort,
+                                                     new InetSocketAddress(server[0], Integer.parseInt(server[1])),
+                                                     new Link(delay, jitter, rate, queue, "toServer"),
+                                                     new Link(delay, jitter, rate, queue, "toClient"));
+        
+        Log.info("Relaying port " + emulator.getPort() + " to " + server[0] + ":" + server[1] + ", delay " +
+                 delay + "ms +- " + jitter + "ms, rate " + (rate == 0 ? "unlimited" : rate + "kbit/s") +
+                 ", queue " + queue + " packets");
+        
+        Runtime.getRuntime().addShutdownHook(new Thread("NetEmulator-shutdown") {
+            
+            @Override
+            public void run() {
+                
+                emulator.close();
+                Log.info(emulator.getStatistics());
+                Log.flush();
+                
+            }
+            
+        });
+        
+        emulator.run();
+        
+    } // end main
+    
+} // end NetEmulator
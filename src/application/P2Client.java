@@ -20,39 +20,114 @@ package application;
  * @since 07/14/2016
  */
 
+import helpers.ClientMux;
+import helpers.FecEncoder;
 import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+import helpers.PacketCapture;
+import helpers.PacketCipher;
+import helpers.PayloadSizer;
 import helpers.ReceiverThread;
 import helpers.SenderThread;
+import helpers.TransferMetrics;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 public class P2Client {
     
     private InetAddress IPAddress;
+    private String serverHost;
+    private int serverPort = Helper.PORT;
     private DatagramSocket clientSocket;
     private SenderThread sender;
     private ReceiverThread receiver;
     
     // Store user specified parameters.
-    private FileInputStream fStream;
+    private InputStream fStream;
     private int timeOutPeriod;
     private int maxDataSize;
     private int windowSize;
     private int errorPercent;
     
+    // The simulated network in each direction, built from errorPercent unless set.
+    private Impairment dataImpairment;
+    private Impairment ackImpairment;
+    
     // Store variables for Sliding Window. Terminology matches that of the data link 
-    // layer even though it could be modified a bit.
-    private int LAR = 0;    // Last Acknowledgement Received
-    private int LFS = 0;    // Last Frame Sent
+    // layer even though it could be modified a bit. Both threads touch these so they
+    // are volatile.
+    private volatile int LAR = Helper.INITIALSEQUENCENUMBER - 1;    // Last Acknowledgement Received
+    private volatile int LFS = Helper.INITIALSEQUENCENUMBER - 1;    // Last Frame Sent
+    private long packetsAcknowledged = 0;
+    
+    // The room the server last said it had, in packets past LAR. Unknown until the first ack.
+    private volatile int advertisedWindow = Integer.MAX_VALUE;
+    
+    // Forward error correction, null when off. The loss estimate is a moving average of whether
+    // each packet needed repair (a time out or a rebuild from parity) and sizes the parity.
+    private FecEncoder fec;
+    private volatile double lossEstimate = 0;
+    
+    // Chooses each packet's data size when adaptive, built in start() unless the file is sent as
+    // one burst. Null when every packet carries the max data size.
+    private boolean adaptiveDataSize = false;
+    private PayloadSizer sizer;
+    
+    // Seals the packets sent and checks the server's signed verdicts when a key was given, null
+    // otherwise. One each as the sending and receiving threads can't share a cipher.
+    private PacketCipher cipher;
+    private PacketCipher ackCipher;
+    
+    // Records every datagram sent and received when given, null otherwise.
+    private PacketCapture capture;
+    
+    // Drives the transfer on its shared socket and threads when given, null for a socket and
+    // threads of its own.
+    private ClientMux mux;
+    
+    // Sequence numbers wrap around so the window is indexed by masking rather than %, the
+    // array is the window size rounded up to a power of 2.
     private DatagramPacket[] window;
+    private int windowMask;
+    
+    // When each windowed packet was sent, 0 once resent so it is not used as an RTT sample.
+    private long[] sendTimes;
+    private long lastRtt = 0;
+    
+    // Time outs in a row with nothing acknowledged, and how many are allowed, 0 for no limit.
+    private int retriesInARow = 0;
+    private int maxRetries = 0;
+    
+    private TransferMetrics metrics = new TransferMetrics();
     
     // Used as a flag to say when the file has been totally read, initially false.
-    private boolean doneReading = false;
+    private volatile boolean doneReading = false;
+    
+    // Set once the server says its digest of the file matched ours.
+    private volatile boolean digestVerified = false;
+    
+    // A file that fits in one window, with its OPEN, digest and FIN, is sent in a single burst
+    // and acknowledged once. Decided in start().
+    private boolean fastOpen = true;
+    private volatile boolean smallFile = false;
+    
+    // Used when the client is embedded rather than run from main.
+    private TransferListener listener;
+    private CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+    private long totalBytes = -1;
+    private long bytesAcknowledged = 0;
+    private long startTime;
     
     
     /**
@@ -61,10 +136,101 @@ public class P2Client {
     public P2Client() {
         
         inputSimulationParameters();
+        createWindow();
+        
+    } // end P2Client constructor
+    
+    
+    /**
+     * A constructor used when the client is embedded in another application (see 
+     * TransferClient). No prompting is done, all parameters are passed in.
+     * 
+     * @param newStream - The file to send.
+     * 
+     * @param newServer - The address and port of the server.
+     * 
+     * @param newMaxDataSize - The max data size of each packet, in bytes.
+     * 
+     * @param newTimeOutPeriod - The time out period, in milliseconds.
+     * 
+     * @param newWindowSize - The window size, in packets.
+     * 
+     * @param newErrorPercent - The simulated error percent.
+     * 
+     * @param newListener - Notified as data is acknowledged, may be null.
+     */
+    public P2Client(FileInputStream newStream, InetSocketAddress newServer, int newMaxDataSize, 
+                        int newTimeOutPeriod, int newWindowSize, int newErrorPercent, 
+                        TransferListener newListener) {
+        
+        this(newStream, sizeOf(newStream), newServer, newMaxDataSize, newTimeOutPeriod, newWindowSize, 
+                 newErrorPercent, newListener);
+        
+    } // end P2Client constructor
+    
+    
+    /**
+     * A constructor used to send any stream, eg... a BatchInputStream or a pipe. The stream is
+     * read until it ends, and closed once the transfer does.
+     * 
+     * @param newStream - The stream to send.
+     * 
+     * @param newTotalBytes - The length of the stream, -1 if unknown.
+     * 
+     * @param newServer - The address and port of the server.
+     * 
+     * @param newMaxDataSize - The max data size of each packet, in bytes.
+     * 
+     * @param newTimeOutPeriod - The time out period, in milliseconds.
+     * 
+     * @param newWindowSize - The window size, in packets.
+     * 
+     * @param newErrorPercent - The simulated error percent.
+     * 
+     * @param newListener - Notified as data is acknowledged, may be null.
+     */
+    public P2Client(InputStream newStream, long newTotalBytes, InetSocketAddress newServer, 
+                        int newMaxDataSize, int newTimeOutPeriod, int newWindowSize, 
+                        int newErrorPercent, TransferListener newListener) {
+        
+        fStream = newStream;
+        totalBytes = newTotalBytes;
+        IPAddress = newServer.getAddress();
+        serverPort = newServer.getPort();
+        maxDataSize = newMaxDataSize;
+        timeOutPeriod = newTimeOutPeriod;
+        windowSize = newWindowSize;
+        errorPercent = newErrorPercent;
+        listener = newListener;
+        
+        createWindow();
         
     } // end P2Client constructor
     
     
+    /**
+     * This method will provide the size of a file being sent.
+     * 
+     * @param file - The open file.
+     * 
+     * @return - The size, in bytes, or -1 if it could not be read.
+     */
+    private static long sizeOf(FileInputStream file) {
+        
+        try {
+            
+            return file.getChannel().size();
+            
+        } catch (IOException e) {
+            
+            // Leave the total unknown, only used for progress and fast open.
+            return -1;
+            
+        }
+        
+    } // end sizeOf
+    
+    
     /**
      * This method allows the Sending thread to indicate when the file has been 
      * completely read and windowed.
@@ -179,6 +345,58 @@ public class P2Client {
     } // end getErrorPercent
     
     
+    /**
+     * This method replaces the impairments built from the error percent. Call before start().
+     * 
+     * @param newDataImpairment - Applied to data packets, corruption and sending here, loss at
+     *                            the server. Null keeps the default.
+     * 
+     * @param newAckImpairment - Applied to acknowledgements, loss here. Null keeps the default.
+     */
+    public void setImpairments(Impairment newDataImpairment, Impairment newAckImpairment) {
+        
+        dataImpairment = newDataImpairment;
+        ackImpairment = newAckImpairment;
+        
+    } // end setImpairments
+    
+    
+    /**
+     * This method will provide the simulated network data packets are sent through.
+     * 
+     * @return - The data Impairment.
+     */
+    public Impairment getDataImpairment() {
+        
+        if(dataImpairment == null) {
+            
+            dataImpairment = Impairment.fromErrorPercent(getErrorPercent());
+            
+        }
+        
+        return dataImpairment;
+        
+    } // end getDataImpairment
+    
+    
+    /**
+     * This method will provide the simulated network acknowledgements arrive through.
+     * 
+     * @return - The acknowledgement Impairment.
+     */
+    public Impairment getAckImpairment() {
+        
+        if(ackImpairment == null) {
+            
+            ackImpairment = Impairment.fromErrorPercent(getErrorPercent());
+            
+        }
+        
+        return ackImpairment;
+        
+    } // end getAckImpairment
+    
+    
     /**
      * This method will provide the "Last Acknowledgement Received".
      * 
@@ -200,7 +418,32 @@ public class P2Client {
         
         return LFS;
         
-    } // end getLAR
+    } // end getLFS
+    
+    
+    /**
+     * This method will provide the server's address and port, which tell its acknowledgements
+     * apart from other transfers' on a ClientMux.
+     * 
+     * @return - The server's socket address.
+     */
+    public InetSocketAddress getServerAddress() {
+        
+        return new InetSocketAddress(IPAddress, serverPort);
+        
+    } // end getServerAddress
+    
+    
+    /**
+     * This method will provide the port the server is listening on.
+     * 
+     * @return - The server port.
+     */
+    public int getServerPort() {
+        
+        return serverPort;
+        
+    } // end getServerPort
     
     
     /** This method will set the "Last Acknowledgement Received" to a specific value.
@@ -212,7 +455,11 @@ public class P2Client {
         // There should be more checks here before changing the LAR but not needed for the demo, 
         // just tinkering.
         
-        LAR = newLAR;
+        while(Helper.isBefore(LAR, newLAR)) {
+            
+            incLAR();
+            
+        }
         
     } // end setLAR
 
@@ -222,8 +469,71 @@ public class P2Client {
      */
     public void incLAR() {
         
+        incLAR(false);
+        
+    } // end incLAR
+    
+    
+    /**
+     * This method will increment the value of "Last Acknowledgement Received".
+     * 
+     * @param recovered - True if the server rebuilt the packet from parity rather than receiving it.
+     */
+    public void incLAR(boolean recovered) {
+        
+        // Everything needed from the slot is read before LAR moves. Once it does the sender
+        // may reuse the slot for the packet a window ahead.
+        int index = windowIndex(LAR + 1);
+        DatagramPacket acked = window[index];
+        long sendTime = sendTimes[index];
+        boolean data = Helper.retrievePacketType(acked.getData()) == Helper.TYPEDATA;
+        int dataLength = getDataLength(acked);
+        
+        retriesInARow = 0;
         LAR++;
         
+        // The digest packet isn't part of the file.
+        if(!data) {
+            
+            return;
+            
+        }
+        
+        packetsAcknowledged++;
+        
+        // Packets acknowledged the first time they were sent count as getting through.
+        if(recovered || sendTime != 0) {
+            
+            updateLossEstimate(recovered);
+            
+        }
+        
+        if(sendTime != 0) {
+            
+            lastRtt = System.nanoTime() - sendTime;
+            metrics.recordRtt(lastRtt);
+            
+        } else {
+            
+            lastRtt = 0;
+            
+        }
+        
+        if(sizer != null) {
+            
+            sizer.acknowledged(dataLength, lastRtt, recovered);
+            
+        }
+        
+        // Report progress, the data bytes of the packet just acknowledged.
+        bytesAcknowledged += dataLength;
+        
+        if(listener != null) {
+            
+            listener.onProgress(bytesAcknowledged, totalBytes);
+            
+        }
+        
     } // end incLAR
     
     
@@ -237,6 +547,374 @@ public class P2Client {
     } // end incLFS
     
     
+    /**
+     * This method allows or stops small files being sent as a single burst. Call before start().
+     * A burst is sent before the server has advertised a window, so it is only used when it also
+     * fits in the server's default receive buffer, Helper.DEFAULTRECEIVEBUFFER.
+     * 
+     * @param enabled - True to burst files that fit in one window, false to always send each
+     *                  packet as the window opens and have each acknowledged.
+     */
+    public void setFastOpen(boolean enabled) {
+        
+        fastOpen = enabled;
+        
+    } // end setFastOpen
+    
+    
+    /**
+     * This method is used to determine whether this transfer is a single burst, acknowledged once.
+     * 
+     * @return - A boolean true if the file is being sent as a small file, false otherwise.
+     */
+    public boolean isSmallFile() {
+        
+        return smallFile;
+        
+    } // end isSmallFile
+    
+    
+    /**
+     * This method will provide the size of the file being sent.
+     * 
+     * @return - The total number of bytes, or -1 if not known.
+     */
+    public long getTotalBytes() {
+        
+        return totalBytes;
+        
+    } // end getTotalBytes
+    
+    
+    /**
+     * This method records the server's answer to the digest packet.
+     * 
+     * @param verified - True if the server's digest of the file matched the one sent.
+     */
+    public void setDigestVerified(boolean verified) {
+        
+        digestVerified = verified;
+        
+    } // end setDigestVerified
+    
+    
+    /**
+     * This method is used to determine whether the server confirmed it received the file intact.
+     * 
+     * @return - A boolean true if the digests matched, false if they didn't or no answer came.
+     */
+    public boolean isDigestVerified() {
+        
+        return digestVerified;
+        
+    } // end isDigestVerified
+    
+    
+    /**
+     * This method folds one packet's outcome into the loss estimate.
+     * 
+     * @param lost - True if the packet needed repair, false if it got through.
+     */
+    public void updateLossEstimate(boolean lost) {
+        
+        lossEstimate += ((lost ? 1.0 : 0.0) - lossEstimate) / 32;
+        
+    } // end updateLossEstimate
+    
+    
+    /**
+     * This method will provide the fraction of packets currently needing repair.
+     * 
+     * @return - The loss estimate, 0.0 to 1.0.
+     */
+    public double getLossEstimate() {
+        
+        return lossEstimate;
+        
+    } // end getLossEstimate
+    
+    
+    /**
+     * This method turns forward error correction on or off. Call before start().
+     * 
+     * @param enabled - True to send parity packets after each group of data packets.
+     */
+    public void setForwardErrorCorrection(boolean enabled) {
+        
+        fec = enabled ? new FecEncoder(getMaxPayloadSize(), getWindowSize()) : null;
+        
+    } // end setForwardErrorCorrection
+    
+    
+    /**
+     * This method turns adaptive payload sizing on or off. Each packet then carries between
+     * PayloadSizer.MINDATASIZE and the max data size, chosen from the losses seen. Call before
+     * start().
+     * 
+     * @param enabled - True to adapt the data size, false to always send the max data size.
+     */
+    public void setAdaptiveDataSize(boolean enabled) {
+        
+        adaptiveDataSize = enabled;
+        
+    } // end setAdaptiveDataSize
+    
+    
+    /**
+     * This method limits how many times in a row the window is resent with nothing acknowledged
+     * before the transfer is given up on, eg... the server has gone away. Call before start().
+     * 
+     * @param retries - The most resends in a row, 0 (the default) to keep trying forever.
+     */
+    public void setMaxRetries(int retries) {
+        
+        maxRetries = retries;
+        
+    } // end setMaxRetries
+    
+    
+    /**
+     * This method will provide the retry limit.
+     * 
+     * @return - The most resends in a row, 0 for no limit.
+     */
+    public int getMaxRetries() {
+        
+        return maxRetries;
+        
+    } // end getMaxRetries
+    
+    
+    /**
+     * This method is used to determine whether the window has been resent as many times in a row
+     * as allowed with nothing acknowledged.
+     * 
+     * @return - A boolean true if the transfer should be given up on, false otherwise.
+     */
+    public boolean isOutOfRetries() {
+        
+        return maxRetries > 0 && retriesInARow >= maxRetries;
+        
+    } // end isOutOfRetries
+    
+    
+    /**
+     * This method has a ClientMux send and receive for this transfer instead of a socket and
+     * threads of its own. Only one transfer to a server may be on a mux at a time. Call before
+     * start().
+     * 
+     * @param newMux - The mux, null for a socket and threads of its own.
+     */
+    public void setMux(ClientMux newMux) {
+        
+        mux = newMux;
+        
+    } // end setMux
+    
+    
+    /**
+     * This method turns payload encryption on or off, the server must be given the same key. 
+     * Call before setForwardErrorCorrection() and start().
+     * 
+     * @param key - The AES key (16, 24 or 32 bytes), null for none.
+     */
+    public void setEncryptionKey(byte[] key) {
+        
+        cipher = key == null ? null : new PacketCipher(key);
+        ackCipher = key == null ? null : new PacketCipher(key);
+        
+    } // end setEncryptionKey
+    
+    
+    /**
+     * This method turns packet capture on or off. The capture is not closed by the client. Call 
+     * before start().
+     * 
+     * @param newCapture - Where to record every datagram, null for none.
+     */
+    public void setCapture(PacketCapture newCapture) {
+        
+        capture = newCapture;
+        
+    } // end setCapture
+    
+    
+    /**
+     * This method sends a packet to the server through the simulated network, recording it 
+     * first if capturing.
+     * 
+     * @param socket - The client socket.
+     * 
+     * @param packet - The packet.
+     * 
+     * @throws IOException - If the packet could not be sent.
+     */
+    public void sendPacket(DatagramSocket socket, DatagramPacket packet) throws IOException {
+        
+        if(capture != null) {
+            
+            capture.record(PacketCapture.SENT, packet);
+            
+        }
+        
+        getDataImpairment().send(socket, packet);
+        
+    } // end sendPacket
+    
+    
+    /**
+     * This method records a packet just received from the server, if capturing.
+     * 
+     * @param packet - The packet.
+     */
+    public void captureReceived(DatagramPacket packet) {
+        
+        if(capture != null) {
+            
+            capture.record(PacketCapture.RECEIVED, packet);
+            
+        }
+        
+    } // end captureReceived
+    
+    
+    /**
+     * This method will provide the cipher sealing payloads, used only by the sending thread.
+     * 
+     * @return - The PacketCipher, or null if encryption is off.
+     */
+    public PacketCipher getPacketCipher() {
+        
+        return cipher;
+        
+    } // end getPacketCipher
+    
+    
+    /**
+     * This method will provide the cipher checking the server's verdicts, used only by the 
+     * receiving thread.
+     * 
+     * @return - The PacketCipher, or null if encryption is off.
+     */
+    public PacketCipher getAckCipher() {
+        
+        return ackCipher;
+        
+    } // end getAckCipher
+    
+    
+    /**
+     * This method will provide the most bytes a packet may carry after its header, the max
+     * data size plus whatever sealing adds.
+     * 
+     * @return - The max payload size, in bytes.
+     */
+    public int getMaxPayloadSize() {
+        
+        return getMaxDataSize() + (cipher == null ? 0 : PacketCipher.OVERHEAD);
+        
+    } // end getMaxPayloadSize
+    
+    
+    /**
+     * This method will provide how many data bytes packets are currently carrying.
+     * 
+     * @return - The size chosen by the PayloadSizer if adaptive, the max data size otherwise.
+     */
+    public int getDataSize() {
+        
+        return sizer == null ? getMaxDataSize() : sizer.getDataSize();
+        
+    } // end getDataSize
+    
+    
+    /**
+     * This method will provide how many data bytes the next packet should carry, used only by
+     * the sending thread.
+     * 
+     * @return - The size chosen by the PayloadSizer if adaptive, the max data size otherwise.
+     */
+    public int nextDataSize() {
+        
+        return sizer == null ? getMaxDataSize() : sizer.nextDataSize();
+        
+    } // end nextDataSize
+    
+    
+    /**
+     * This method will provide the data bytes a windowed packet carries, its length less the 
+     * header and whatever sealing added.
+     * 
+     * @param packet - The packet.
+     * 
+     * @return - The data length, in bytes.
+     */
+    private int getDataLength(DatagramPacket packet) {
+        
+        return packet.getLength() - Helper.APPLICATIONHEADERSIZE - (cipher == null ? 0 : PacketCipher.OVERHEAD);
+        
+    } // end getDataLength
+    
+    
+    /**
+     * This method counts a time out towards the retry limit and tells the payload sizer, if
+     * adaptive, that the packet waited on timed out.
+     */
+    public void dataTimedOut() {
+        
+        retriesInARow++;
+        
+        DatagramPacket waited = window[windowIndex(LAR + 1)];
+        
+        if(sizer != null && waited != null && Helper.retrievePacketType(waited.getData()) == Helper.TYPEDATA) {
+            
+            sizer.timedOut(getDataLength(waited));
+            
+        }
+        
+    } // end dataTimedOut
+    
+    
+    /**
+     * This method will provide the parity builder.
+     * 
+     * @return - The FecEncoder, or null if forward error correction is off.
+     */
+    public FecEncoder getFecEncoder() {
+        
+        return fec;
+        
+    } // end getFecEncoder
+    
+    
+    /**
+     * This method sets the first sequence number sent, it must match the server's. Call before 
+     * start().
+     * 
+     * @param seqNum - The first sequence number, any value, see Helper.isBefore().
+     */
+    public void setInitialSequenceNumber(int seqNum) {
+        
+        LAR = seqNum - 1;
+        LFS = seqNum - 1;
+        
+    } // end setInitialSequenceNumber
+    
+    
+    /**
+     * This method finds the window slot used by a sequence number.
+     * 
+     * @param seqNum - The sequence number, may be negative once sequence numbers wrap.
+     * 
+     * @return - The window index.
+     */
+    public int windowIndex(int seqNum) {
+        
+        return seqNum & windowMask;
+        
+    } // end windowIndex
+    
+    
     /**
      * This method will return a DatagramPacket saved in the specified window index.
      * 
@@ -261,11 +939,51 @@ public class P2Client {
         
         // LFS - LAR should at most equal the window size. If it does then there is no room in the 
         // window and we'll have to wait for an acknowledgement to come in before proceeding.
-        return ((LFS - LAR) < getWindowSize()); 
+        // The difference is still right when the sequence numbers have wrapped around.
+        // The server's advertised window can shrink that further.
+        return ((LFS - LAR) < Math.min(getWindowSize(), advertisedWindow)); 
         
     } // end roomInWindow
     
     
+    /**
+     * This method is used to determine whether the transfer is over, whether it completed,
+     * failed or was cancelled. The sender stops once it is.
+     * 
+     * @return - A boolean true once the future handed out by start() is done, false otherwise.
+     */
+    public boolean isStopped() {
+        
+        return completion.isDone();
+        
+    } // end isStopped
+    
+    
+    /**
+     * This method records the window advertised in an acknowledgement. Call after LAR has been
+     * updated for that acknowledgement.
+     * 
+     * @param window - The number of packets past LAR the server has room for.
+     */
+    public void setAdvertisedWindow(int window) {
+        
+        advertisedWindow = window;
+        
+    } // end setAdvertisedWindow
+    
+    
+    /**
+     * This method will provide the window last advertised by the server.
+     * 
+     * @return - The advertised window in packets, Integer.MAX_VALUE before the first ack.
+     */
+    public int getAdvertisedWindow() {
+        
+        return advertisedWindow;
+        
+    } // end getAdvertisedWindow
+    
+    
     /**
      * This method accepts a DatagramPacket and index number. If the index is valid for the window
      * size, the packet is placed there.
@@ -276,19 +994,72 @@ public class P2Client {
      */
     public void putInWindow(DatagramPacket packet, int index) {
         
-        if(index >= 0 && index < getWindowSize()) {
+        if(index >= 0 && index < window.length) {
             
             window[index] = packet;
+            sendTimes[index] = System.nanoTime();
             
         } else {
             
-            System.out.println("Invalid index specified, packet could not be windowed!");
+            Log.error("Invalid index specified, packet could not be windowed!");
             
         }
         
     } // end putInWindow
+    
+    
+    /**
+     * This method notes that the packet in a window slot is being resent. Its acknowledgement 
+     * can no longer be matched to one send so it will not be used to measure round trip time.
+     * 
+     * @param index - The window index of the packet being resent.
+     */
+    public void markResent(int index) {
+        
+        sendTimes[index] = 0;
+        metrics.retransmitted();
+        
+    } // end markResent
+    
+    
+    /**
+     * This method will provide the round trip time measured by the last acknowledgement.
+     * 
+     * @return - The round trip time in nanoseconds, 0 if the packet had been resent.
+     */
+    public long getLastRtt() {
+        
+        return lastRtt;
+        
+    } // end getLastRtt
+    
+    
+    /**
+     * This method will provide the counters and histograms kept for this client.
+     * 
+     * @return - The client's metrics.
+     */
+    public TransferMetrics getMetrics() {
+        
+        return metrics;
+        
+    } // end getMetrics
 
  
+    /**
+     * This method sizes the sliding window once the window size is known.
+     */
+    private void createWindow() {
+        
+        int slots = Integer.highestOneBit(Math.max(1, getWindowSize() - 1)) << 1;
+        
+        window = new DatagramPacket[slots];
+        sendTimes = new long[slots];
+        windowMask = slots - 1;
+        
+    } // end createWindow
+    
+    
     /**
      * This method will gather specific parameters from the user used during the simulation.
      */
@@ -309,42 +1080,235 @@ public class P2Client {
      */
     private void startSimulation() {
         
-        System.out.println("\nStarting Simulation...\n");
-        
-        window = new DatagramPacket[getWindowSize()];
+        Log.info("\nStarting Simulation...\n");
         
         try {
             
             // will return this computers IP (could use loop-back address directly 127.0.0.1)
-            IPAddress = InetAddress.getLocalHost();
-            System.out.println("Server At: " + IPAddress + ":" + Helper.PORT + "\n");
+            // unless a host was given, eg... a NetEmulator in front of the server.
+            IPAddress = serverHost == null ? InetAddress.getLocalHost() : InetAddress.getByName(serverHost);
+            Log.info("Server At: " + IPAddress + ":" + serverPort + "\n");
             
-            clientSocket = new DatagramSocket();
-            clientSocket.setSoTimeout(getTimeOutPeriod());
+            // Optionally adapt the data size to the losses seen, -Dhelpers.adaptiveDataSize=true
+            setAdaptiveDataSize(Boolean.getBoolean("helpers.adaptiveDataSize"));
             
-            sender = new SenderThread(this, clientSocket, IPAddress, fStream);
-            sender.start(); 
+            // Optionally record every datagram, eg... -Dhelpers.capture=client.cap
+            String captureFile = System.getProperty("helpers.capture");
             
-            receiver = new ReceiverThread(this, clientSocket);
-            receiver.start();
+            if(captureFile != null) {
+                
+                capture = new PacketCapture(Paths.get(captureFile), PacketCapture.CLIENT);
+                
+            }
+            
+            start().whenComplete((result, cause) -> {
+                
+                if(capture != null) {
+                    
+                    capture.close();
+                    
+                }
+                
+            });
             
         } catch (UnknownHostException e) {
             
-            System.out.println("Unable to resolve hostname!");
+            Log.error("Unable to resolve hostname!");
             
         } catch (SocketException e) {
             
-            System.out.println("Unable to establish socket!");
+            Log.error("Unable to establish socket!");
+            
+        } catch (IOException e) {
+            
+            Log.error("Unable to open packet capture!");
             
         } // end try-catch block
         
     } // end startSimulation
     
+    
+    /**
+     * This method opens the socket and starts the sender and receiver threads. It returns right 
+     * away, the future completes once the receiver has seen the whole file acknowledged. 
+     * Cancelling the future abandons the transfer.
+     * 
+     * @return - A future completed with the results of the transfer.
+     * 
+     * @throws SocketException - If the socket could not be opened.
+     */
+    public CompletableFuture<TransferResult> start() throws SocketException {
+        
+        startTime = System.nanoTime();
+        
+        metrics.setWindowGauges(this::getLAR, this::getLFS);
+        metrics.setAdvertisedWindowGauge(this::getAdvertisedWindow);
+        metrics.setDataSizeGauge(this::getDataSize);
+        metrics.register("P2Client");
+        
+        if(mux == null) {
+            
+            clientSocket = new DatagramSocket();
+            clientSocket.setSoTimeout(getTimeOutPeriod());
+            
+        } else {
+            
+            clientSocket = mux.getSocket();
+            
+        }
+        
+        // Streams of their own, so other transfers on the same Impairments make other choices.
+        dataImpairment = getDataImpairment().forStream();
+        ackImpairment = getAckImpairment().forStream();
+        
+        // The data packets plus the OPEN, digest and FIN must all fit without waiting. Nothing has
+        // been advertised before the burst, so the server is assumed to have the default receive
+        // buffer. One with less holds what the writer can't take out of order, and writes it as
+        // the writer catches up, at worst after the client times out and resends.
+        if(fastOpen && totalBytes >= 0) {
+            
+            long packets = (totalBytes + getMaxDataSize() - 1) / getMaxDataSize() + 3;
+            
+            smallFile = packets <= Math.min(getWindowSize(), Helper.DEFAULTRECEIVEBUFFER);
+            
+        }
+        
+        // A burst is sized up front, changing sizes part way could leave it short of the window.
+        if(adaptiveDataSize && !smallFile) {
+            
+            sizer = new PayloadSizer(Math.min(PayloadSizer.MINDATASIZE, getMaxDataSize()), getMaxDataSize(),
+                                     Helper.APPLICATIONHEADERSIZE + (cipher == null ? 0 : PacketCipher.OVERHEAD));
+            
+        }
+        
+        sender = new SenderThread(this, clientSocket, IPAddress, fStream);
+        receiver = new ReceiverThread(this, clientSocket);
+        
+        if(mux == null) {
+            
+            sender.start(); 
+            receiver.start();
+            
+        } else {
+            
+            try {
+                
+                mux.register(this, sender, receiver);
+                
+            } catch (IllegalStateException e) {
+                
+                metrics.unregister();
+                throw e;
+                
+            }
+            
+        }
+        
+        // Cancelling the future stops the transfer, closing the socket (or leaving the mux) ends both threads.
+        completion.whenComplete((result, cause) -> {
+            
+            if(completion.isCancelled()) {
+                
+                transferFailed(cause);
+                
+            }
+            
+        });
+        
+        return completion;
+        
+    } // end start
+    
+    
+    /**
+     * This method closes the socket, ending both threads, or leaves the mux if on one.
+     */
+    private void releaseSocket() {
+        
+        if(mux == null) {
+            
+            clientSocket.close();
+            
+        } else {
+            
+            mux.unregister(this);
+            
+        }
+        
+    } // end releaseSocket
+    
+    
+    /**
+     * This method is called by the receiving thread once it is done. It releases the socket and 
+     * file then completes the future handed out by start().
+     */
+    public void transferComplete() {
+        
+        releaseSocket();
+        metrics.unregister();
+        
+        try {
+            
+            fStream.close();
+            
+        } catch (IOException e) {
+            
+            Log.error("Unable to close file!");
+            
+        }
+        
+        completion.complete(new TransferResult(bytesAcknowledged, packetsAcknowledged, metrics.getRetransmits(), 
+                                                   System.nanoTime() - startTime, digestVerified));
+        
+    } // end transferComplete
+    
+    
+    /**
+     * This method is called if the transfer cannot continue, failing the future handed out by 
+     * start().
+     * 
+     * @param cause - The reason the transfer failed.
+     */
+    public void transferFailed(Throwable cause) {
+        
+        releaseSocket();
+        metrics.unregister();
+        
+        try {
+            
+            fStream.close();
+            
+        } catch (IOException e) {
+            
+            // Already failing, nothing more to report.
+            
+        }
+        
+        completion.completeExceptionally(cause);
+        
+    } // end transferFailed
+    
 
     public static void main(String[] args) {
         
+        // The simulation is meant to be watched, show every packet unless told otherwise.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.DEBUG));
+        
         P2Client client = new P2Client();
         
+        // Optionally "host port" of the server, eg... to send through a NetEmulator.
+        if(args.length > 0) {
+            
+            client.serverHost = args[0];
+            
+        }
+        
+        if(args.length > 1) {
+            
+            client.serverPort = Integer.parseInt(args[1]);
+            
+        }
+        
         client.startSimulation();
         
     } // end main
@@ -15,17 +15,42 @@ package application;
  * acknowledgement for good/received packets, it checks for Check Sum and out of 
  * sequence errors while simulating lost packets as well.
  * 
+ * The client ends with a digest packet, the server compares it with the digest
+ * of what it wrote and says whether they matched in the acknowledgement. Then
+ * a FIN, the file is closed as soon as it arrives and the server lingers a few
+ * of the client's time outs to answer it again before the receive loop ends.
+ * 
+ * A small file may instead arrive in one burst that starts with an OPEN. The
+ * server then takes its sequence numbers from the OPEN and acknowledges only
+ * the FIN, which covers everything before it.
+ * 
+ * Given an idle time out, a session that goes quiet before its FIN (eg... the
+ * client was killed) is abandoned once nothing has arrived for that long. The
+ * file is closed as it stands and the receive loop ends.
+ * 
  * @author Tom Carney
  * @version 1.0
  * @since 07/14/2016
  */
 
+import helpers.BlockSignatures;
+import helpers.ChunkManifest;
+import helpers.ChunkStore;
+import helpers.FecDecoder;
 import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+import helpers.PacketCapture;
+import helpers.PacketCipher;
+import helpers.ReceiveMemory;
+import helpers.TransferMetrics;
+import helpers.WriterThread;
+import helpers.events.ServerAckEvent;
 
 
 
 // For file I/O
-import java.io.FileOutputStream;
+import java.io.OutputStream;
 
 // For UDP
 import java.net.DatagramSocket;
@@ -34,154 +59,1030 @@ import java.net.DatagramPacket;
 // Throws
 import java.io.IOException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
 
 public class P2Server {
 
+    // The receive buffer starts this long and grows to fit the longest packet, so a session
+    // that has sent little holds little.
+    private static final int INITIALRECEIVESIZE = 2048;
+    
     private DatagramSocket serverSocket;
     private DatagramPacket receivedPacket;
     private byte[] receivedBuffer;
-    private int nextSeqNum;
+    private int nextSeqNum = Helper.INITIALSEQUENCENUMBER;
+    private long packetsWritten = 0;
+    private long arrivalTime;
+    private TransferMetrics metrics = new TransferMetrics();
+    
+    // Store user specified parameters.
+    private int port = Helper.PORT;
+    private int errorPercent;
+    private OutputStream fStream;
+    private TransferListener listener;
+    
+    // The simulated network in each direction, built from errorPercent unless set.
+    private Impairment dataImpairment;
+    private Impairment ackImpairment;
+    
+    // Writes to the file on its own thread, how full it is sets the advertised window.
+    private WriterThread writer;
+    private int receiveBufferSize = Helper.DEFAULTRECEIVEBUFFER;
+    private ReceiveMemory receiveMemory;
+    
+    // How long the client may go quiet before the session is abandoned, 0 waits forever.
+    private int idleTimeout = 0;
+    private boolean idle = false;
+    
+    // Holds packets that arrived ahead of nextSeqNum and recent parity, see FecDecoder. Built in
+    // bind() to share the writer's memory budget.
+    private FecDecoder fec;
+    
+    // Set once the client's digest packet has been compared with the file written.
+    private boolean digestChecked = false;
+    private volatile boolean digestVerified = false;
+    
+    // Set once anything has been processed, an OPEN after that can't change the sequence 
+    // numbers. Quiet is set by an OPEN asking for the FIN alone to be acknowledged.
+    private boolean opened = false;
+    private boolean quiet = false;
+    
+    // Set once the FIN has arrived, the receive loop then only waits for it to be resent.
+    private boolean finished = false;
+    private Runnable finishHandler;
+    private boolean closed = false;
+    
+    // Opens sealed data and digest payloads when a key was given, null otherwise.
+    private PacketCipher cipher;
+    
+    // Signatures of the previous copy when a delta is expected, handed out on request.
+    private BlockSignatures signatures;
+    
+    // Chunks already held when deduplicated data is expected, asked about by the client.
+    private ChunkStore chunkStore;
+    
+    // Records every datagram received and sent when given, null otherwise.
+    private PacketCapture capture;
+    
+    
+    /**
+     * A no argument constructor for the P2Server.
+    */
+    public P2Server() {
+        
+        inputSimulationParameters();
+        
+        receivedBuffer  = new byte[INITIALRECEIVESIZE];
+        
+    } // end P2Server no-arg constructor
+    
+    
+    /**
+     * A constructor used when the server is embedded in another application (see 
+     * TransferServer). No prompting is done, all parameters are passed in.
+     * 
+     * @param newPort - The port to listen on, 0 picks any free port.
+     * 
+     * @param newStream - Where the received file is written, eg... a BatchOutputStream.
+     * 
+     * @param newErrorPercent - The simulated error percent.
+     * 
+     * @param newListener - Notified as data is written, may be null.
+     */
+    public P2Server(int newPort, OutputStream newStream, int newErrorPercent, 
+                        TransferListener newListener) {
+        
+        port = newPort;
+        fStream = newStream;
+        errorPercent = newErrorPercent;
+        listener = newListener;
+        
+        receivedBuffer  = new byte[INITIALRECEIVESIZE];
+        
+    } // end P2Server constructor
+    
+    
+    /**
+     * This method will gather specific parameters from the user used during the simulation.
+     */
+    private void inputSimulationParameters() {
+
+        fStream = Helper.createFileOutputStream("Enter location to output the file (eg .\\newFile.txt): ");
+        errorPercent = Helper.inputInteger("Enter an error percentage: ");
+        
+    } // end getSimulationParameters
+    
+    
+    /**
+     * Once user parameters have been entered, this method is used to get the server side of the 
+     * simulation up and running.
+     */
+    private void startSimulation() {
+        
+        Log.info("\nStarting simulation, waiting for client...\n");
+        
+        try {
+            
+            // Optionally record every datagram, eg... -Dhelpers.capture=server.cap
+            String captureFile = System.getProperty("helpers.capture");
+            
+            if(captureFile != null) {
+                
+                capture = new PacketCapture(Paths.get(captureFile), PacketCapture.SERVER);
+                
+            }
+            
+            bind();
+            receiveLoop();
+            
+            Log.info("Server shutting down!");
+
+        } catch (SocketException e) {
+            
+            Log.error("Socket Exception: Socket could not be opened!");
+        
+        } catch (IOException e) {
+            
+            Log.error("Unable to open packet capture!");
+        
+        } finally {
+            
+            if(capture != null) {
+                
+                capture.close();
+                
+            }
+        
+        } // end try-catch block
+        
+    } // end startSimulation
+    
+    
+    /**
+     * This method opens the server socket. It is separate from the receive loop so an embedding 
+     * application knows the port is open (and which one) before the loop is started on its own 
+     * thread.
+     * 
+     * @throws SocketException - If the socket could not be opened.
+     */
+    public void bind() throws SocketException {
+        
+        serverSocket = new DatagramSocket(port);
+        
+        // Streams of their own, so other sessions on the same Impairments make other choices.
+        dataImpairment = getDataImpairment().forStream();
+        ackImpairment = getAckImpairment().forStream();
+        
+        // The writer starts itself once there is something to write.
+        ReceiveMemory memory = receiveMemory == null ? ReceiveMemory.shared() : receiveMemory;
+        writer = new WriterThread(fStream, receiveBufferSize, listener, memory);
+        fec = new FecDecoder(memory);
+        serverSocket.setSoTimeout(idleTimeout);
+        
+        metrics.setWindowGauges(() -> nextSeqNum - 1, () -> nextSeqNum - 1);
+        metrics.setAdvertisedWindowGauge(writer::getRoom);
+        metrics.register("P2Server");
+        
+    } // end bind
+    
+    
+    /**
+     * This method will provide the port the server is actually listening on.
+     * 
+     * @return - The local port of the server socket.
+     */
+    public int getPort() {
+        
+        return serverSocket.getLocalPort();
+        
+    } // end getPort
+    
+    
+    /**
+     * This method will provide the number of data bytes written to the file so far.
+     * 
+     * @return - The number of bytes written.
+     */
+    public long getBytesWritten() {
+        
+        return writer == null ? 0 : writer.getBytesWritten();
+        
+    } // end getBytesWritten
+    
+    
+    /**
+     * This method will provide the number of packets written to the file so far.
+     * 
+     * @return - The number of in sequence packets received.
+     */
+    public long getPacketsWritten() {
+        
+        return packetsWritten;
+        
+    } // end getPacketsWritten
+    
+    
+    /**
+     * This method sets what to run once the FIN arrives and the file is closed, before the
+     * server lingers. Call before receiveLoop().
+     * 
+     * @param handler - Run on the receiving thread, may be null.
+     */
+    public void setFinishHandler(Runnable handler) {
+        
+        finishHandler = handler;
+        
+    } // end setFinishHandler
+    
+    
+    /**
+     * This method is used to determine whether the file written matched the client's digest.
+     * 
+     * @return - A boolean true if the digests matched, false if they didn't or none arrived yet.
+     */
+    public boolean isDigestVerified() {
+        
+        return digestVerified;
+        
+    } // end isDigestVerified
+    
+    
+    /**
+     * This method sets the first sequence number expected, it must match the client's. Call 
+     * before any packets arrive.
+     * 
+     * @param seqNum - The first sequence number, any value, see Helper.isBefore().
+     */
+    public void setInitialSequenceNumber(int seqNum) {
+        
+        nextSeqNum = seqNum;
+        
+    } // end setInitialSequenceNumber
+    
+    
+    /**
+     * This method turns payload decryption on or off, the client must be given the same key. 
+     * Call before receiveLoop().
+     * 
+     * @param key - The AES key (16, 24 or 32 bytes), null for none.
+     */
+    public void setEncryptionKey(byte[] key) {
+        
+        cipher = key == null ? null : new PacketCipher(key);
+        
+    } // end setEncryptionKey
+    
+    
+    /**
+     * This method sets the signatures of the previous copy of the file, given to a client that
+     * asks for them before sending a delta. Call before receiveLoop().
+     * 
+     * @param newSignatures - The signatures, null if no delta is expected.
+     */
+    public void setSignatures(BlockSignatures newSignatures) {
+        
+        signatures = newSignatures;
+        
+    } // end setSignatures
+    
+    
+    /**
+     * This method sets the store a client sending deduplicated data asks about before it starts.
+     * Call before receiveLoop().
+     * 
+     * @param store - The store, null if no deduplicated data is expected.
+     */
+    public void setChunkStore(ChunkStore store) {
+        
+        chunkStore = store;
+        
+    } // end setChunkStore
+    
+    
+    /**
+     * This method sets how many packets may wait to be written to the file, which caps the
+     * window advertised to the client. Call before bind().
+     * 
+     * @param packets - The receive buffer size, in packets.
+     */
+    public void setReceiveBufferSize(int packets) {
+        
+        receiveBufferSize = packets;
+        
+    } // end setReceiveBufferSize
+    
+    
+    /**
+     * This method turns packet capture on or off. The capture is not closed by the server, it 
+     * is complete once receiveLoop() returns. Call before receiveLoop().
+     * 
+     * @param newCapture - Where to record every datagram, null for none.
+     */
+    public void setCapture(PacketCapture newCapture) {
+        
+        capture = newCapture;
+        
+    } // end setCapture
+    
+    
+    /**
+     * This method sets where packets wait to be written, its budget shared with every other 
+     * server given it. Call before bind().
+     * 
+     * @param memory - The ReceiveMemory, null for ReceiveMemory.shared().
+     */
+    public void setReceiveMemory(ReceiveMemory memory) {
+        
+        receiveMemory = memory;
+        
+    } // end setReceiveMemory
+    
+    
+    /**
+     * This method sets how long the client may send nothing before the session is abandoned. 
+     * Call before bind().
+     * 
+     * @param millis - The idle time out, in milliseconds, 0 waits forever.
+     */
+    public void setIdleTimeout(int millis) {
+        
+        if(millis < 0) {
+            
+            throw new IllegalArgumentException("Bad idle time out " + millis + "!");
+            
+        }
+        
+        idleTimeout = millis;
+        
+    } // end setIdleTimeout
+    
+    
+    /**
+     * This method is used to determine whether the session was abandoned for being idle.
+     * 
+     * @return - A boolean true if the client went quiet before its FIN, false otherwise.
+     */
+    public boolean isIdle() {
+        
+        return idle;
+        
+    } // end isIdle
+    
+    
+    /**
+     * This method will provide the counters and histograms kept for this server. The window 
+     * gauges (LAR and LFS) both show the last sequence number acknowledged.
+     * 
+     * @return - The server's metrics.
+     */
+    public TransferMetrics getMetrics() {
+        
+        return metrics;
+        
+    } // end getMetrics
+    
+    
+    /**
+     * This method closes the socket, causing the receive loop to end. Closing more than once
+     * does nothing.
+     */
+    public synchronized void close() {
+        
+        if(closed) {
+            
+            return;
+            
+        }
+        
+        closed = true;
+        serverSocket.close();
+        closeFile();
+        metrics.unregister();
+        
+    } // end close
+    
+    
+    /**
+     * This method writes everything still buffered and closes the file. Closing more than once 
+     * does nothing.
+     */
+    private synchronized void closeFile() {
+        
+        if(writer != null) {
+            
+            writer.finish();
+            
+        }
+        
+        try {
+            
+            fStream.close();
+            
+        } catch (IOException e) {
+            
+            Log.error("Unable to close file!");
+            
+        }
+        
+    } // end closeFile
+    
+    
+    /**
+     * This method will receive, check and acknowledge packets until the socket is closed. The 
+     * socket must already be open, see bind().
+     */
+    public void receiveLoop() {
+        
+        boolean loop = true;
+        
+        while(loop) {
+
+            receivedPacket = new DatagramPacket(receivedBuffer, receivedBuffer.length);
+            
+            try {
+                
+                // Block until a packet comes in.
+                serverSocket.receive(receivedPacket);
+                
+                // Closed while lingering (receive has a time out) gives back an empty packet.
+                if(serverSocket.isClosed()) {
+                    
+                    loop = false;
+                    continue;
+                    
+                }
+                
+                if(capture != null) {
+                    
+                    capture.record(PacketCapture.RECEIVED, receivedPacket);
+                    
+                }
+                
+                // Too long for the buffer, it grows and the packet is dropped as if lost. The 
+                // resend will fit.
+                if(isTruncated()) {
+                    
+                    receivedBuffer = new byte[Math.min(Helper.MAXPACKETSIZE, 
+                                                           Helper.retrieveLength(receivedBuffer))];
+                    
+                    if(Log.isDebug()) {
+                        
+                        Log.debug("*** Packet longer than the receive buffer, growing it to " + 
+                                      receivedBuffer.length + " bytes! ***\n");
+                        
+                    }
+                    
+                    continue;
+                    
+                }
+                
+                arrivalTime = System.nanoTime();
+                metrics.packetReceived(receivedPacket.getLength() - Helper.APPLICATIONHEADERSIZE);
+                
+                // Print the packets details for reference before possible error simulations.
+                if(Log.isDebug()) {
+                    
+                    printPacketDetails(receivedPacket);
+                    
+                }
+                
+                // FIRST!!! simulate packet loss by pretending it never arrived.
+                if(!getDataImpairment().isLost()) { // START OUTER IF-ELSE
+                    
+                    // SECOND!!! If Check Sum is bad then discard and wait for next packet.
+                    if(Helper.isCheckSumGood(receivedBuffer)) { // START MIDDLE IF-ELSE
+                        
+                        int type = Helper.retrievePacketType(receivedBuffer);
+                        
+                        // THIRD!!! A signature request comes before the transfer and is outside 
+                        // the window, it is answered straight away.
+                        if(type == Helper.TYPESIGREQUEST) { // START INNER IF-ELSE
+                            
+                            sendSignatures();
+                        
+                        // THIRD.0!!! As does a chunk query, before deduplicated data.
+                        } else if(type == Helper.TYPECHUNKQUERY) {
+                            
+                            sendChunksHeld();
+                            
+                        // THIRD.1!!! Parity is kept in case packets of its group go missing, it may
+                        // be what was needed to rebuild the next sequence number.
+                        } else if(type == Helper.TYPEPARITYP || type == Helper.TYPEPARITYQ) {
+                            
+                            fec.addParity(copyReceived());
+                            writeInOrder();
+                        
+                        // THIRD.2!!! An OPEN before anything else sets the sequence numbers used,
+                        // so with a key it must be authentic before it is believed.
+                        } else if(type == Helper.TYPEOPEN && !opened && 
+                                      (cipher == null || cipher.open(copyReceived()) != null)) {
+                            
+                            nextSeqNum = Helper.retrieveSeqNum(receivedBuffer);
+                            fec.addData(copyReceived());
+                            writeInOrder();
+                        
+                        // THIRD.3!!! Go-Back-N only writes the expected (next) sequence number but 
+                        // packets a little ahead are kept until it arrives or is rebuilt.
+                        } else if(fec.canHold(Helper.retrieveSeqNum(receivedBuffer), nextSeqNum)) {
+                            
+                            if(!isNextInSequence() && Log.isDebug()) {
+                                
+                                Log.debug("*** Holding sequence number " + 
+                                              Helper.retrieveSeqNum(receivedBuffer) + 
+                                              ", need sequence number " + nextSeqNum + "! ***\n");
+                                
+                            }
+                            
+                            fec.addData(copyReceived());
+                            writeInOrder();
+                            
+                        // THIRD.4!!! Acknowledgements may also have gotten lost so reacknowledge dupes.
+                        } else if(isAlreadyReceived()){
+                            
+                            // Just resending an acknowledgement, after retrying anything held 
+                            // back by a full receive buffer (eg... this is a window probe). A
+                            // quiet client only ever waits on the FIN.
+                            metrics.duplicateReceived();
+                            writeInOrder();
+                            
+                            if(!quiet || type == Helper.TYPEFIN) {
+                                
+                                resendAcknowledgement();
+                                
+                            }
+                        
+                        } else {
+                            
+                            metrics.outOfOrderDropped();
+                            
+                            if(Log.isDebug()) {
+                                
+                                Log.debug("*** Unexpected packet received, need sequence number " + 
+                                              nextSeqNum + "! ***\n");
+                                
+                            }
+                            
+                        } // END INNER IF-ELSE
+                        
+                    } else {
+                        
+                        metrics.checkSumFailed();
+                        
+                        if(Log.isDebug()) {
+                            
+                            Log.debug("*** Check Sum bad, discarding packet! ***\n");
+                            
+                        }
+                        
+                    } // END MIDDLE IF-ELSE
+                    
+                } else {
+                    
+                    metrics.simulatedLoss();
+                    
+                    if(Log.isDebug()) {
+                        
+                        Log.debug("*** Simulating loss of sequence number " + 
+                                  Helper.retrieveSeqNum(receivedPacket.getData()) + "! ***\n");
+                        
+                    }
+                    
+                } // END OUTER IF-ELSE
+            
+            } catch (SocketTimeoutException e) {
+                
+                // Either lingering after the FIN and the client has gone, or it went quiet 
+                // before sending one.
+                if(!finished) {
+                    
+                    idle = true;
+                    Log.warn("*** Nothing received for " + idleTimeout + " milliseconds, abandoning " + 
+                                 "the session after " + getBytesWritten() + " bytes! ***\n");
+                    
+                }
+                
+                loop = false;
+                
+            } catch (IOException e) {
+                
+                // A closed socket means the server was told to stop.
+                if(serverSocket.isClosed()) {
+                    
+                    loop = false;
+                    
+                } else {
+                    
+                    Log.error("Socket error, could not receive packet!");
+                    
+                }
+                
+            } // end try-catch block
+
+        } // end while loop
+        
+        fec.clear();
+        
+        if(finished || idle) {
+            
+            close();
+            
+        }
+        
+    } // end receiveLoop
+    
+    
+    /**
+     * This method hands every packet from nextSeqNum on that is held, or can be rebuilt, to the 
+     * writer thread, acknowledging each. If the writer falls behind the client is told there is
+     * no room and the rest wait for the next packet to arrive.
+     */
+    private void writeInOrder() {
+        
+        byte[] packet;
+        
+        while((packet = nextPacket()) != null) {
+            
+            opened = true;
+            int type = Helper.retrievePacketType(packet);
+            
+            // Opened once in order rather than on arrival, parity still needs the ciphertext.
+            if(cipher != null && PacketCipher.isSealed(type)) {
+                
+                packet = openSealed(packet);
+                
+                // Not acknowledged, so it is resent like a lost packet.
+                if(packet == null) {
+                    
+                    break;
+                    
+                }
+                
+            }
+            
+            if(type != Helper.TYPEDATA) {
+                
+                processControl(packet, type);
+                nextSeqNum++;
+                continue;
+                
+            }
+            
+            if(!writer.offer(packet)) {
+                
+                metrics.receiveBufferFilled();
+                
+                if(Log.isDebug()) {
+                    
+                    Log.debug("*** Receive buffer full, holding sequence number " + nextSeqNum + "! ***\n");
+                    
+                }
+                
+                sendWindowUpdate();
+                break;
+                
+            }
+            
+            boolean recovered = fec.wasRecovered(nextSeqNum);
+            
+            if(recovered) {
+                
+                metrics.fecRecovered();
+                
+                if(Log.isDebug()) {
+                    
+                    Log.debug("Rebuilt sequence number " + nextSeqNum + " from parity.");
+                    
+                }
+                
+            }
+            
+            // Send acknowledgement that the packet/sequence number was processed.
+            if(!quiet) {
+                
+                sendAcknowledgement(nextSeqNum, recovered ? Helper.TYPEACK | Helper.FLAGRECOVERED : Helper.TYPEACK);
+                
+            }
+            
+            nextSeqNum++;
+            packetsWritten++;
+            
+        }
+        
+        fec.discardBefore(nextSeqNum);
+        
+    } // end writeInOrder
+    
+    
+    /**
+     * This method decrypts a sealed packet. One that fails authentication, eg... forged or sealed
+     * with the wrong key, is discarded as if it had never arrived.
+     * 
+     * @param packet - The sealed packet.
+     * 
+     * @return - The packet with its plain payload, or null if it was discarded.
+     */
+    private byte[] openSealed(byte[] packet) {
+        
+        byte[] plain = cipher.open(packet);
+        
+        if(plain == null) {
+            
+            Log.error("*** Sequence number " + nextSeqNum + " failed authentication, discarded! ***\n");
+            
+            fec.discard(nextSeqNum);
+            
+        }
+        
+        return plain;
+        
+    } // end openSealed
+    
+    
+    /**
+     * This method handles, in sequence, a packet that isn't file data and acknowledges it.
+     * 
+     * @param packet - The packet.
+     * 
+     * @param type - Its type, eg... Helper.TYPEFIN.
+     */
+    private void processControl(byte[] packet, int type) {
+        
+        switch(type) {
+            
+            // The OPEN says how the client wants to be acknowledged.
+            case Helper.TYPEOPEN:
+                
+                quiet = (packet[Helper.APPLICATIONHEADERSIZE] & Helper.OPENACKONCE) != 0;
+                Log.info("Session opened at sequence number " + nextSeqNum + 
+                             (quiet ? ", acknowledging the FIN only.\n" : ".\n"));
+                
+                if(!quiet) {
+                    
+                    sendAcknowledgement(nextSeqNum, Helper.TYPEACK);
+                    
+                }
+                
+                break;
+            
+            // The digest comes after the last data packet so the file is complete once it's reached.
+            case Helper.TYPEDIGEST:
+                
+                checkDigest(packet);
+                
+                if(!quiet) {
+                    
+                    sendAcknowledgement(nextSeqNum, digestVerified ? Helper.TYPEDIGESTOK : Helper.TYPEDIGESTBAD);
+                    
+                }
+                
+                break;
+            
+            // Nothing follows the FIN, the file is closed before the client is told.
+            case Helper.TYPEFIN:
+                
+                finish(packet);
+                sendAcknowledgement(nextSeqNum, getFinAcknowledgementType());
+                
+                if(finishHandler != null) {
+                    
+                    finishHandler.run();
+                    
+                }
+                
+                break;
+            
+            default:
+                
+                Log.warn("*** Unknown packet type " + type + " for sequence number " + nextSeqNum + 
+                             ", skipped! ***\n");
+                
+        }
+        
+    } // end processControl
     
-    // Store user specified parameters.
-    private int errorPercent;
-    private FileOutputStream fStream;
+    
+    /**
+     * This method will provide the type of the FIN-ACK, flagged if the file digest matched.
+     * 
+     * @return - The acknowledgement type and flags.
+     */
+    private int getFinAcknowledgementType() {
+        
+        return Helper.TYPEFINACK | (digestVerified ? Helper.FLAGVERIFIED : 0);
+        
+    } // end getFinAcknowledgementType
     
     
     /**
-     * A no argument constructor for the P2Server.
-    */
-    public P2Server() {
+     * This method compares the client's digest with the digest of the file written, waiting for
+     * the writer to catch up first.
+     * 
+     * @param packet - The digest packet.
+     */
+    private void checkDigest(byte[] packet) {
         
-        inputSimulationParameters();
+        byte[] expected = Arrays.copyOfRange(packet, Helper.APPLICATIONHEADERSIZE, 
+                                                 Helper.APPLICATIONHEADERSIZE + Helper.DIGESTSIZE);
         
-        nextSeqNum = 1;
-        receivedBuffer  = new byte[Helper.DEFAULTBUFFERSIZE];
+        digestVerified = MessageDigest.isEqual(expected, writer.getDigest());
+        digestChecked = true;
         
-    } // end P2Server no-arg constructor
+        if(digestVerified) {
+            
+            Log.info("File digest verified, " + writer.getBytesWritten() + " bytes received intact.\n");
+            
+        } else {
+            
+            Log.error("*** File digest MISMATCH, the file written is damaged! ***\n");
+            
+        }
+        
+    } // end checkDigest
     
     
     /**
-     * This method will gather specific parameters from the user used during the simulation.
+     * This method ends the transfer when the FIN arrives. The file is closed and checked against
+     * the length the client sent, and the socket is given a time out so the receive loop ends 
+     * once the client stops resending the FIN.
+     * 
+     * @param packet - The FIN packet.
      */
-    private void inputSimulationParameters() {
-
-        fStream = Helper.createFileOutputStream("Enter location to output the file (eg .\\newFile.txt): ");
-        errorPercent = Helper.inputInteger("Enter an error percentage: ");
+    private void finish(byte[] packet) {
         
-    } // end getSimulationParameters
+        ByteBuffer fin = ByteBuffer.wrap(Arrays.copyOfRange(packet, Helper.APPLICATIONHEADERSIZE, 
+                                                                Helper.APPLICATIONHEADERSIZE + Helper.FINSIZE));
+        long totalBytes = fin.getLong();
+        int clientTimeOut = fin.getInt();
+        
+        closeFile();
+        finished = true;
+        
+        if(totalBytes != getBytesWritten()) {
+            
+            Log.error("*** FIN says " + totalBytes + " bytes were sent but " + getBytesWritten() + 
+                          " were written! ***\n");
+            
+        }
+        
+        Log.info("FIN received, file closed.\n");
+        
+        try {
+            
+            serverSocket.setSoTimeout(Math.max(1, clientTimeOut) * Helper.FINLINGERTIMEOUTS);
+            
+        } catch (SocketException e) {
+            
+            Log.error("Unable to linger, closing now!");
+            serverSocket.close();
+            
+        }
+        
+    } // end finish
     
     
     /**
-     * Once user parameters have been entered, this method is used to get the server side of the 
-     * simulation up and running.
+     * This method finds the packet for nextSeqNum, rebuilding it from parity if need be.
+     * 
+     * @return - The packet, or null if it hasn't arrived and can't be rebuilt yet.
      */
-    private void startSimulation() {
+    private byte[] nextPacket() {
+        
+        byte[] packet = fec.get(nextSeqNum);
+        
+        return packet != null ? packet : fec.recover(nextSeqNum);
+        
+    } // end nextPacket
+    
+    
+    /**
+     * This method copies the packet just received out of the receive buffer.
+     * 
+     * @return - The packet, header included, trimmed to the length in its header.
+     */
+    private byte[] copyReceived() {
+        
+        return Arrays.copyOf(receivedBuffer, Helper.retrieveLength(receivedBuffer));
+        
+    } // end copyReceived
+    
+    
+    /**
+     * This method will send an acknowledgement for a packet written.
+     * 
+     * @param seqNum - The sequence number being acknowledged.
+     * 
+     * @param type - The acknowledgement type and flags, eg... Helper.TYPEACK.
+     */
+    private void sendAcknowledgement(int seqNum, int type) {
+        
+        byte[] responseBuffer = new byte[getResponseSize(type)];
+        fillResponseBuffer(responseBuffer);
+        Helper.bufferAckNumber(responseBuffer, seqNum);
+        Helper.bufferPacketType(responseBuffer, type);
+        sign(responseBuffer);
         
-        System.out.println("\nStarting simulation, waiting for client...\n");
+        DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length, 
+                receivedPacket.getAddress(), receivedPacket.getPort());
         
         try {
             
-            serverSocket = new DatagramSocket(Helper.PORT);
-            
-            boolean loop = true;
+            sendResponse(responsePacket, false);
             
-            while(loop) {
-
-                receivedPacket = new DatagramPacket(receivedBuffer, receivedBuffer.length);
+            if(Log.isDebug()) {
                 
-                try {
-                    
-                    // Block until a packet comes in.
-                    serverSocket.receive(receivedPacket);
-                    
-                    // Print the packets details for reference before possible error simulations.
-                    printPacketDetails(receivedPacket);
-                    
-                    // FIRST!!! simulate packet loss by pretending it never arrived.
-                    if(Helper.isPacketReceived(getErrorPercent())) { // START OUTER IF-ELSE
-                        
-                        // SECOND!!! If Check Sum is bad then discard and wait for next packet.
-                        if(Helper.isCheckSumGood(receivedBuffer)) { // START MIDDLE IF-ELSE
-                            
-                            // THIRD!!! Go-Back-N only processes the expected (next) sequence number.
-                            // Acknowledgements may also have gotten lost so reacknowledge dupes.
-                            if(isNextInSequence()) { // START INNER IF-ELSE
-                                
-                                // If we made it here, all is good so write to file!
-                                writeToFile();
-                                
-                                // Send acknowledgement that the packet/sequence number was processed.
-                                sendAcknowledgement();
-                                nextSeqNum++;
-                                
-                            } else if(isAlreadyReceived()){
-                                
-                                // Just resending an acknowledgement.
-                                resendAcknowledgement();
-                            
-                            } else {
-                                
-                                System.out.println("*** Unexpected packet received, need sequence number " + 
-                                        nextSeqNum + "! ***\n");
-                                
-                            } // END INNER IF-ELSE
-                            
-                        } else {
-                            
-                            System.out.println("*** Check Sum bad, discarding packet! ***\n");
-                            
-                        } // END MIDDLE IF-ELSE
-                        
-                    } else {
-                        
-                        System.out.println("*** Simulating loss of sequence number " + 
-                                           Helper.retrieveSeqNum(receivedPacket.getData()) + "! ***\n");
-                        
-                    } // END OUTER IF-ELSE
+                Log.debug("!!! Sending acknowledgement for sequence number " + seqNum + ".\n");
                 
-                } catch (IOException e) {
-                    
-                    System.out.println("Socket error, could not receive packet!");
-                    
-                } // end inner try-catch block
-
-            } // end while loop
+            }
+        
+        } catch (IOException e) {
             
-            System.out.println("Server shutting down!");
-
-        } catch (SocketException e) {
+            Log.error("Unable to send acknowledgement for sequence number " + seqNum + ".\n");
+        
+        }
+        
+    } // end sendAcknowledgement
+    
+    
+    /**
+     * This method answers a signature request with as many signatures as the client can take,
+     * starting from the block asked for (its sequence number).
+     */
+    private void sendSignatures() {
+        
+        int first = Helper.retrieveSeqNum(receivedBuffer);
+        int maxBytes = ByteBuffer.wrap(receivedBuffer, Helper.APPLICATIONHEADERSIZE, BlockSignatures.REQUESTSIZE)
+                                 .getInt();
+        byte[] reply = signatures == null ? BlockSignatures.refusal() : signatures.reply(first, maxBytes);
+        
+        byte[] responseBuffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + reply.length];
+        fillResponseBuffer(responseBuffer);
+        Helper.bufferLength(responseBuffer, reply.length);
+        Helper.bufferPacketType(responseBuffer, Helper.TYPESIGNATURES);
+        System.arraycopy(reply, 0, responseBuffer, Helper.ACKNOWLEDGEMENTHEADERSIZE, reply.length);
+        
+        DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length, 
+                receivedPacket.getAddress(), receivedPacket.getPort());
+        
+        try {
+            
+            sendResponse(responsePacket, false);
+            
+            if(Log.isDebug()) {
+                
+                Log.debug("!!! Sending signatures from block " + first + ".\n");
+                
+            }
+        
+        } catch (IOException e) {
             
-            System.out.println("Socket Exception: Socket could not be opened!");
+            Log.error("Unable to send signatures from block " + first + ".\n");
         
-        } // end outer try-catch block
+        }
         
-    } // end startSimulation
+    } // end sendSignatures
     
     
     /**
-     * This method will send an acknowledgement for the packet received.
+     * This method answers a chunk query, saying which of the chunks asked about are held.
      */
-    private void sendAcknowledgement() {
+    private void sendChunksHeld() {
         
-        byte[] responseBuffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE];
+        int first = Helper.retrieveSeqNum(receivedBuffer);
+        byte[] reply = ChunkManifest.answer(chunkStore, first, receivedBuffer, Helper.APPLICATIONHEADERSIZE, 
+                                            receivedPacket.getLength() - Helper.APPLICATIONHEADERSIZE);
+        
+        byte[] responseBuffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + reply.length];
         fillResponseBuffer(responseBuffer);
+        Helper.bufferLength(responseBuffer, reply.length);
+        Helper.bufferPacketType(responseBuffer, Helper.TYPECHUNKSHELD);
+        System.arraycopy(reply, 0, responseBuffer, Helper.ACKNOWLEDGEMENTHEADERSIZE, reply.length);
         
         DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length, 
                 receivedPacket.getAddress(), receivedPacket.getPort());
         
         try {
             
-            serverSocket.send(responsePacket);
-            System.out.println("!!! Sending acknowledgement for sequence number " + nextSeqNum + ".\n");
+            sendResponse(responsePacket, false);
+            
+            if(Log.isDebug()) {
+                
+                Log.debug("!!! Sending chunks held from chunk " + first + ".\n");
+                
+            }
         
         } catch (IOException e) {
             
-            System.out.println("Unable to send acknowledgement for sequence number " + nextSeqNum + ".\n");
+            Log.error("Unable to send chunks held from chunk " + first + ".\n");
         
         }
         
-    } // end sendAcknowledgement
+    } // end sendChunksHeld
     
     
     /**
@@ -189,28 +1090,146 @@ public class P2Server {
      */
     private void resendAcknowledgement() {
         
-        byte[] responseBuffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE];
+        int type = Helper.TYPEACK;
+        
+        // The client resends the digest or FIN if the answer was lost, it gets the same answer.
+        if(digestChecked && Helper.retrievePacketType(receivedBuffer) == Helper.TYPEDIGEST) {
+            
+            type = digestVerified ? Helper.TYPEDIGESTOK : Helper.TYPEDIGESTBAD;
+            
+        } else if(finished && Helper.retrievePacketType(receivedBuffer) == Helper.TYPEFIN) {
+            
+            type = getFinAcknowledgementType();
+            
+        }
+        
+        byte[] responseBuffer = new byte[getResponseSize(type)];
         fillResponseBuffer(responseBuffer);
+        Helper.bufferPacketType(responseBuffer, type);
+        sign(responseBuffer);
         
         DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length, 
                 receivedPacket.getAddress(), receivedPacket.getPort());
         
         try {
             
-            serverSocket.send(responsePacket);
-            System.out.println("!!! Resending acknowledgement for sequence number " + 
-                                    Helper.retrieveSeqNum(receivedBuffer) + ".\n");
+            sendResponse(responsePacket, true);
+            
+            if(Log.isDebug()) {
+                
+                Log.debug("!!! Resending acknowledgement for sequence number " + 
+                               Helper.retrieveSeqNum(receivedBuffer) + ".\n");
+                
+            }
         
         } catch (IOException e) {
             
-            System.out.println("*** Unable to resend acknowledgement for sequence number " + 
-                                    Helper.retrieveSeqNum(receivedBuffer) + " ***\n");
+            Log.error("*** Unable to resend acknowledgement for sequence number " + 
+                           Helper.retrieveSeqNum(receivedBuffer) + " ***\n");
         
         }
         
     } // end resendAcknowledgement
     
     
+    /**
+     * This method will re-acknowledge the last packet written, sending the current advertised 
+     * window. Used when a packet had to be dropped because the receive buffer was full.
+     */
+    private void sendWindowUpdate() {
+        
+        byte[] responseBuffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE];
+        fillResponseBuffer(responseBuffer);
+        Helper.bufferAckNumber(responseBuffer, nextSeqNum - 1);
+        
+        DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length, 
+                receivedPacket.getAddress(), receivedPacket.getPort());
+        
+        try {
+            
+            sendResponse(responsePacket, true);
+        
+        } catch (IOException e) {
+            
+            Log.error("*** Unable to send window update ***\n");
+        
+        }
+        
+    } // end sendWindowUpdate
+    
+    
+    /**
+     * This method sends an acknowledgement, recording how long it took since the packet arrived.
+     * 
+     * @param responsePacket - The acknowledgement to send.
+     * 
+     * @param duplicate - True if the packet being acknowledged was already received.
+     * 
+     * @throws IOException - If the acknowledgement could not be sent.
+     */
+    private void sendResponse(DatagramPacket responsePacket, boolean duplicate) throws IOException {
+        
+        if(capture != null) {
+            
+            capture.record(PacketCapture.SENT, responsePacket);
+            
+        }
+        
+        ServerAckEvent event = new ServerAckEvent();
+        event.begin();
+        getAckImpairment().send(serverSocket, responsePacket);
+        event.end();
+        
+        long latency = System.nanoTime() - arrivalTime;
+        metrics.ackSent();
+        metrics.recordAckLatency(latency);
+        
+        if(event.shouldCommit()) {
+            
+            event.ackNum = Helper.retrieveAckNum(responsePacket.getData());
+            event.duplicate = duplicate;
+            event.latency = latency;
+            event.commit();
+            
+        }
+        
+    } // end sendResponse
+    
+    
+    /**
+     * This method will provide the size of an acknowledgement, room for a signature included if 
+     * it needs one.
+     * 
+     * @param type - The acknowledgement type and flags, eg... Helper.TYPEFINACK.
+     * 
+     * @return - The acknowledgement's length, in bytes.
+     */
+    private int getResponseSize(int type) {
+        
+        boolean signed = cipher != null && PacketCipher.isSigned(type);
+        
+        return Helper.ACKNOWLEDGEMENTHEADERSIZE + (signed ? PacketCipher.OVERHEAD : 0);
+        
+    } // end getResponseSize
+    
+    
+    /**
+     * This method signs a verdict on the digest or FIN once its header is filled in, so the 
+     * client knows it came from a server with the key. Nothing is done without room for it.
+     * 
+     * @param buffer - The acknowledgement, sized by getResponseSize().
+     */
+    private void sign(byte[] buffer) {
+        
+        if(buffer.length > Helper.ACKNOWLEDGEMENTHEADERSIZE) {
+            
+            Helper.bufferLength(buffer, cipher.sign(buffer));
+            
+        }
+        
+    } // end sign
+    
+    
     /**
      * This method is used to populate the data needed in a packets reply.
      * 
@@ -218,11 +1237,15 @@ public class P2Server {
      */
     private void fillResponseBuffer(byte[] buffer) {
         
-        if(Helper.shouldCheckSumError(getErrorPercent())) {
+        if(getAckImpairment().isCorrupted()) {
             
             Helper.bufferCheckSum(buffer, Helper.CHECKSUMBAD);
-            System.out.println("*** Simulating bad check sum acknowleding seq num " + 
-                                   Helper.retrieveSeqNum(receivedBuffer)+ " ***\n");
+            if(Log.isDebug()) {
+                
+                Log.debug("*** Simulating bad check sum acknowleding seq num " + 
+                              Helper.retrieveSeqNum(receivedBuffer)+ " ***\n");
+                
+            }
             
         } else {
             
@@ -230,8 +1253,10 @@ public class P2Server {
             
         }
         
-        Helper.bufferLength(buffer, 0);
+        Helper.bufferLength(buffer);
         Helper.bufferAckNumber(buffer, Helper.retrieveSeqNum(receivedBuffer));
+        Helper.bufferAdvertisedWindow(buffer, writer.getRoom());
+        Helper.bufferPacketType(buffer, Helper.TYPEACK);
         
     } // end fillResponseBuffer
     
@@ -259,51 +1284,95 @@ public class P2Server {
     
     
     /**
-     * This method is used to determine whether a packet is next in the sequence.
+     * This method replaces the impairments built from the error percent. Call before bind().
      * 
-     * @return - True if it is the expected (next) sequence number, false otherwise.
+     * @param newDataImpairment - Applied to data packets, loss here. Null keeps the default.
+     * 
+     * @param newAckImpairment - Applied to acknowledgements, corruption and sending here. Null
+     *                           keeps the default.
      */
-    private boolean isNextInSequence() {
+    public void setImpairments(Impairment newDataImpairment, Impairment newAckImpairment) {
         
-        return Helper.retrieveSeqNum(receivedBuffer) == nextSeqNum;
+        dataImpairment = newDataImpairment;
+        ackImpairment = newAckImpairment;
         
-    } // end isNextInSequence
+    } // end setImpairments
     
     
     /**
-     * This method is used to determine whether a packet was already received. If so, the
-     * acknowledgement may have been lost so send another.
+     * This method will provide the simulated network data packets arrive through.
      * 
-     * @return - True if it is the sequence number was already received, false otherwise.
+     * @return - The data Impairment.
      */
-    private boolean isAlreadyReceived() {
+    public Impairment getDataImpairment() {
+        
+        if(dataImpairment == null) {
+            
+            dataImpairment = Impairment.fromErrorPercent(getErrorPercent());
+            
+        }
         
-        return Helper.retrieveSeqNum(receivedBuffer) < nextSeqNum;
+        return dataImpairment;
         
-    } // end alreadyReceived
+    } // end getDataImpairment
     
     
     /**
-     * This method is used to write the received data to the specified file location. It will also determine
-     * whether more data is on the way or if the server can stop.
+     * This method will provide the simulated network acknowledgements are sent through.
      * 
-     * @return - A boolean true if more data is coming, false otherwise.
+     * @return - The acknowledgement Impairment.
      */
-    private void writeToFile() {
-        
-        short dataLength = (short)(Helper.retrieveLength(receivedBuffer) - Helper.APPLICATIONHEADERSIZE);
-        
-        try {
-            
-            fStream.write(receivedBuffer, Helper.APPLICATIONHEADERSIZE, dataLength);
+    public Impairment getAckImpairment() {
         
-        } catch (IOException e) {
+        if(ackImpairment == null) {
             
-            System.out.println("Could not write data to file!");
+            ackImpairment = Impairment.fromErrorPercent(getErrorPercent());
             
         }
         
-    } // end writeToFile
+        return ackImpairment;
+        
+    } // end getAckImpairment
+    
+    
+    /**
+     * This method is used to determine whether the packet just received was cut short by the 
+     * receive buffer.
+     * 
+     * @return - True if its header says it is longer than the buffer, false otherwise.
+     */
+    private boolean isTruncated() {
+        
+        return receivedPacket.getLength() == receivedBuffer.length && 
+                   Helper.retrieveLength(receivedBuffer) > receivedBuffer.length;
+        
+    } // end isTruncated
+    
+    
+    /**
+     * This method is used to determine whether a packet is next in the sequence.
+     * 
+     * @return - True if it is the expected (next) sequence number, false otherwise.
+     */
+    private boolean isNextInSequence() {
+        
+        return Helper.retrieveSeqNum(receivedBuffer) == nextSeqNum;
+        
+    } // end isNextInSequence
+    
+    
+    /**
+     * This method is used to determine whether a packet was already received. If so, the
+     * acknowledgement may have been lost so send another.
+     * 
+     * @return - True if it is the sequence number was already received, false otherwise.
+     */
+    private boolean isAlreadyReceived() {
+        
+        // Nothing is a duplicate before anything has been received, eg... a burst whose OPEN was lost.
+        return opened && Helper.isBefore(Helper.retrieveSeqNum(receivedBuffer), nextSeqNum);
+        
+    } // end alreadyReceived
     
     
     /**
@@ -315,19 +1384,29 @@ public class P2Server {
         
         byte[] payload = packet.getData();
         
-        System.out.println("From: " + packet.getAddress() + " Port:" + packet.getPort());
-        System.out.println("CheckSum: " + Helper.retrieveCheckSum(payload) + 
-                           ", Length: " + Helper.retrieveLength(payload) + 
-                           ", AckNum: " + Helper.retrieveAckNum(payload) + 
-                           ", SeqNum: " + Helper.retrieveSeqNum(payload) + "\n");
+        Log.debug("From: " + packet.getAddress() + " Port:" + packet.getPort());
+        Log.debug("CheckSum: " + Helper.retrieveCheckSum(payload) + 
+                  ", Length: " + Helper.retrieveLength(payload) + 
+                  ", AckNum: " + Helper.retrieveAckNum(payload) + 
+                  ", SeqNum: " + Helper.retrieveSeqNum(payload) + "\n");
         
     } // end printPacketDetails
     
     
     public static void main(String[] args) {
         
+        // The simulation is meant to be watched, show every packet unless told otherwise.
+        Log.setLevel(Log.parseLevel(System.getProperty("helpers.log.level"), Log.DEBUG));
+        
         P2Server server = new P2Server();
         
+        // Optionally the port to listen on.
+        if(args.length > 0) {
+            
+            server.port = Integer.parseInt(args[0]);
+            
+        }
+        
         server.startSimulation();
         
     } // end main
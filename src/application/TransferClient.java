@@ -0,0 +1,752 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets another application send files with the UDP
+ * Sliding Window client without going through the console prompts. Parameters
+ * are set once with a Builder, after which any number of transfers can be
+ * started, each running on its own P2Client.
+ * 
+ * eg... TransferClient.builder().windowSize(16).build().send(path, address)
+ * 
+ * sendBatch() sends every file under a directory as one transfer, see
+ * BatchInputStream. sendDelta() sends only what changed since the copy the
+ * server already has, see DeltaInputStream. sendDedup() sends only the chunks
+ * of a file the server's ChunkStore doesn't hold, see DedupInputStream.
+ * sendStream() sends a stream of unknown length, eg... the output of another
+ * process, as it is produced.
+ * 
+ * Given a ClientMux, every transfer shares its socket and threads, so
+ * hundreds can run at once, one to each server.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.BatchInputStream;
+import helpers.BlockSignatures;
+import helpers.ChunkManifest;
+import helpers.ClientMux;
+import helpers.DedupInputStream;
+import helpers.DeltaInputStream;
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.PacketCapture;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+
+public class TransferClient {
+    
+    private final int maxDataSize;
+    private final int timeOutPeriod;
+    private final int windowSize;
+    private final int errorPercent;
+    private final Impairment dataImpairment;
+    private final Impairment ackImpairment;
+    private final int initialSequenceNumber;
+    private final boolean forwardErrorCorrection;
+    private final boolean fastOpen;
+    private final boolean adaptiveDataSize;
+    private final byte[] encryptionKey;
+    private final Path captureFile;
+    private final TransferListener listener;
+    private final ClientMux mux;
+    
+    
+    /**
+     * A constructor for the TransferClient, use builder() instead.
+     */
+    private TransferClient(Builder builder) {
+        
+        maxDataSize = builder.maxDataSize;
+        timeOutPeriod = builder.timeOutPeriod;
+        windowSize = builder.windowSize;
+        errorPercent = builder.errorPercent;
+        dataImpairment = builder.dataImpairment;
+        ackImpairment = builder.ackImpairment;
+        initialSequenceNumber = builder.initialSequenceNumber;
+        forwardErrorCorrection = builder.forwardErrorCorrection;
+        fastOpen = builder.fastOpen;
+        adaptiveDataSize = builder.adaptiveDataSize;
+        encryptionKey = builder.encryptionKey;
+        captureFile = builder.captureFile;
+        listener = builder.listener;
+        mux = builder.mux;
+        
+    } // end TransferClient constructor
+    
+    
+    /**
+     * This method will provide a Builder holding the default parameters.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method starts sending a file to a server using the builder's listener. It returns
+     * right away.
+     * 
+     * @param file - The file to send.
+     * 
+     * @param server - The address and port of the server.
+     * 
+     * @return - A future completed once the whole file has been acknowledged.
+     */
+    public CompletableFuture<TransferResult> send(Path file, InetSocketAddress server) {
+        
+        return send(file, server, listener);
+        
+    } // end send
+    
+    
+    /**
+     * This method starts sending a file to a server, reporting progress to the listener
+     * given. It returns right away.
+     * 
+     * @param file - The file to send.
+     * 
+     * @param server - The address and port of the server.
+     * 
+     * @param progress - Notified as data is acknowledged, may be null.
+     * 
+     * @return - A future completed once the whole file has been acknowledged.
+     */
+    public CompletableFuture<TransferResult> send(Path file, InetSocketAddress server,
+                                                     TransferListener progress) {
+                                                         
+        try {
+            
+            FileInputStream fStream = new FileInputStream(file.toFile());
+            
+            return send(fStream, fStream.getChannel().size(), server, progress);
+            
+        } catch (IOException | IllegalStateException e) {
+            
+            return failed(e);
+            
+        } // end try-catch block
+        
+    } // end send
+    
+    
+    /**
+     * This method starts sending every regular file under a directory as one transfer using the 
+     * builder's listener. The files are pipelined back to back behind a manifest so the window 
+     * stays full across them. It returns right away.
+     * 
+     * @param directory - The directory to send, sub directories included.
+     * 
+     * @param server - The address and port of a server started with startBatch().
+     * 
+     * @return - A future completed once the whole batch has been acknowledged.
+     */
+    public CompletableFuture<TransferResult> sendBatch(Path directory, InetSocketAddress server) {
+        
+        try {
+            
+            BatchInputStream batch = BatchInputStream.of(directory);
+            
+            return send(batch, batch.getLength(), server, listener);
+            
+        } catch (IOException | IllegalStateException e) {
+            
+            return failed(e);
+            
+        } // end try-catch block
+        
+    } // end sendBatch
+    
+    
+    /**
+     * This method starts bringing the server's copy of a file up to date using the builder's 
+     * listener. The signatures of the server's copy are fetched first, on another thread, then 
+     * only the blocks that changed are sent along with instructions to copy the rest. It 
+     * returns right away.
+     * 
+     * @param file - The file to send.
+     * 
+     * @param server - The address and port of a server started with startDelta().
+     * 
+     * @return - A future completed once the whole delta has been acknowledged. The bytes 
+     *              transferred are those of the delta, not the file.
+     */
+    public CompletableFuture<TransferResult> sendDelta(Path file, InetSocketAddress server) {
+        
+        final CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+        
+        Thread fetcher = new Thread("SignatureFetcher") {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    
+                    BlockSignatures signatures = BlockSignatures.fetch(server, maxDataSize, timeOutPeriod, 
+                                                                       getDataImpairment().forStream(), 
+                                                                       getAckImpairment().forStream());
+                                                                       
+                    if(completion.isDone()) {
+                        
+                        return;
+                        
+                    }
+                    
+                    CompletableFuture<TransferResult> transfer = send(new DeltaInputStream(file, signatures), -1, 
+                                                                         server, listener);
+                                                                         
+                    // Cancelling the future handed out abandons the transfer as with send().
+                    completion.whenComplete((result, cause) -> transfer.cancel(true));
+                    transfer.whenComplete((result, cause) -> {
+                        
+                        if(cause == null) {
+                            
+                            completion.complete(result);
+                            
+                        } else {
+                            
+                            completion.completeExceptionally(cause);
+                            
+                        }
+                        
+                    });
+                    
+                } catch (IOException | IllegalStateException e) {
+                    
+                    completion.completeExceptionally(e);
+                    
+                }
+                
+            }
+            
+        };
+        
+        fetcher.setDaemon(true);
+        fetcher.start();
+        
+        return completion;
+        
+    } // end sendDelta
+    
+    
+    /**
+     * This method starts sending a file using the builder's listener, leaving out the chunks the 
+     * server already holds. The file is cut into chunks and the server asked which it holds 
+     * first, on another thread, then the rest are sent along with references to those held. It 
+     * returns right away.
+     * 
+     * @param file - The file to send.
+     * 
+     * @param server - The address and port of a server started with startDedup().
+     * 
+     * @return - A future completed once every instruction has been acknowledged. The bytes 
+     *              transferred are those of the instructions, not the file.
+     */
+    public CompletableFuture<TransferResult> sendDedup(Path file, InetSocketAddress server) {
+        
+        final CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+        
+        Thread querier = new Thread("ChunkQuerier") {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    
+                    ChunkManifest manifest = ChunkManifest.of(file);
+                    manifest.query(server, maxDataSize, timeOutPeriod, getDataImpairment().forStream(), 
+                                       getAckImpairment().forStream());
+                                                                       
+                    if(completion.isDone()) {
+                        
+                        return;
+                        
+                    }
+                    
+                    CompletableFuture<TransferResult> transfer = send(new DedupInputStream(file, manifest), -1, 
+                                                                         server, listener);
+                                                                         
+                    // Cancelling the future handed out abandons the transfer as with send().
+                    completion.whenComplete((result, cause) -> transfer.cancel(true));
+                    transfer.whenComplete((result, cause) -> {
+                        
+                        if(cause == null) {
+                            
+                            completion.complete(result);
+                            
+                        } else {
+                            
+                            completion.completeExceptionally(cause);
+                            
+                        }
+                        
+                    });
+                    
+                } catch (IOException | IllegalStateException e) {
+                    
+                    completion.completeExceptionally(e);
+                    
+                }
+                
+            }
+            
+        };
+        
+        querier.setDaemon(true);
+        querier.start();
+        
+        return completion;
+        
+    } // end sendDedup
+    
+    
+    /**
+     * This method starts sending a stream using the builder's listener. Its length needn't be 
+     * known, it is read until it ends and the FIN tells the server how long it was. It returns
+     * right away.
+     * 
+     * @param stream - The stream to send, eg... a Process's output. It is closed once the 
+     *                 transfer ends.
+     * 
+     * @param server - The address and port of a server, eg... one started with startStream().
+     * 
+     * @return - A future completed once the whole stream has been acknowledged.
+     */
+    public CompletableFuture<TransferResult> sendStream(InputStream stream, InetSocketAddress server) {
+        
+        try {
+            
+            return send(stream, -1, server, listener);
+            
+        } catch (IOException | IllegalStateException e) {
+            
+            return failed(e);
+            
+        } // end try-catch block
+        
+    } // end sendStream
+    
+    
+    /**
+     * This method starts sending everything read from a channel using the builder's listener, 
+     * see sendStream(InputStream, InetSocketAddress).
+     * 
+     * @param channel - The channel to send, eg... a Pipe's source. It is closed once the 
+     *                  transfer ends.
+     * 
+     * @param server - The address and port of a server, eg... one started with startStream().
+     * 
+     * @return - A future completed once the whole channel has been acknowledged.
+     */
+    public CompletableFuture<TransferResult> sendStream(ReadableByteChannel channel, InetSocketAddress server) {
+        
+        return sendStream(Channels.newInputStream(channel), server);
+        
+    } // end sendStream
+    
+    
+    /**
+     * This method will provide the simulated network for data, built from the error percent
+     * unless one was given.
+     * 
+     * @return - The data Impairment.
+     */
+    private Impairment getDataImpairment() {
+        
+        return dataImpairment != null ? dataImpairment : Impairment.fromErrorPercent(errorPercent);
+        
+    } // end getDataImpairment
+    
+    
+    /**
+     * This method will provide the simulated network for acknowledgements, built from the error
+     * percent unless one was given.
+     * 
+     * @return - The acknowledgement Impairment.
+     */
+    private Impairment getAckImpairment() {
+        
+        return ackImpairment != null ? ackImpairment : Impairment.fromErrorPercent(errorPercent);
+        
+    } // end getAckImpairment
+    
+    
+    /**
+     * This method starts a P2Client sending a stream.
+     * 
+     * @param fStream - The stream to send, closed here if the transfer can't be started.
+     * 
+     * @param totalBytes - The length of the stream.
+     * 
+     * @param server - The address and port of the server.
+     * 
+     * @param progress - Notified as data is acknowledged, may be null.
+     * 
+     * @return - A future completed once the whole stream has been acknowledged.
+     * 
+     * @throws IOException - If the socket or capture file could not be opened.
+     */
+    private CompletableFuture<TransferResult> send(InputStream fStream, long totalBytes, 
+                                                      InetSocketAddress server, 
+                                                      TransferListener progress) throws IOException {
+        
+        P2Client client = new P2Client(fStream, totalBytes, server, maxDataSize, timeOutPeriod, 
+                                       windowSize, errorPercent, progress);
+        client.setImpairments(dataImpairment, ackImpairment);
+        client.setInitialSequenceNumber(initialSequenceNumber);
+        client.setEncryptionKey(encryptionKey);
+        client.setForwardErrorCorrection(forwardErrorCorrection);
+        client.setFastOpen(fastOpen);
+        client.setAdaptiveDataSize(adaptiveDataSize);
+        client.setMux(mux);
+        
+        PacketCapture capture = null;
+        
+        try {
+            
+            if(captureFile != null) {
+                
+                capture = new PacketCapture(captureFile, PacketCapture.CLIENT);
+                client.setCapture(capture);
+                
+            }
+            
+            // The client's own future is handed out so cancelling it still abandons the transfer.
+            CompletableFuture<TransferResult> transfer = client.start();
+            
+            if(capture != null) {
+                
+                final PacketCapture started = capture;
+                transfer.whenComplete((result, cause) -> started.close());
+                
+            }
+            
+            return transfer;
+            
+        } catch (IOException | IllegalStateException e) {
+            
+            // Nothing was started, so the client won't close them.
+            if(capture != null) {
+                
+                capture.close();
+                
+            }
+            
+            closeQuietly(fStream);
+            throw e;
+            
+        } // end try-catch block
+        
+    } // end send
+    
+    
+    /**
+     * This method closes a stream that won't be sent after all.
+     */
+    private static void closeQuietly(InputStream fStream) {
+        
+        try {
+            
+            fStream.close();
+            
+        } catch (IOException e) {
+            
+            // Already failing, nothing more to report.
+            
+        }
+        
+    } // end closeQuietly
+    
+    
+    /**
+     * This method provides a future that has already failed.
+     * 
+     * @param cause - Why the transfer could not be started, eg... a file that couldn't be opened
+     *                or a ClientMux that refused it.
+     * 
+     * @return - The failed future.
+     */
+    private static CompletableFuture<TransferResult> failed(Exception cause) {
+        
+        CompletableFuture<TransferResult> failed = new CompletableFuture<TransferResult>();
+        failed.completeExceptionally(cause);
+        
+        return failed;
+        
+    } // end failed
+    
+    
+    /**
+     * This class collects the parameters of a TransferClient. Anything not set keeps the
+     * defaults found in Helper except the error percent, which is 0 (no simulated errors).
+     */
+    public static class Builder {
+        
+        private int maxDataSize = Helper.DEFAULTMAXDATASIZE;
+        private int timeOutPeriod = Helper.DEFAULTTIMEOUT;
+        private int windowSize = Helper.DEFAULTWINDOWSIZE;
+        private int errorPercent = 0;
+        private Impairment dataImpairment;
+        private Impairment ackImpairment;
+        private int initialSequenceNumber = Helper.INITIALSEQUENCENUMBER;
+        private boolean forwardErrorCorrection = false;
+        private boolean fastOpen = true;
+        private boolean adaptiveDataSize = false;
+        private byte[] encryptionKey;
+        private Path captureFile;
+        private TransferListener listener;
+        private ClientMux mux;
+        
+        
+        /**
+         * @param bytes - The max data size of each packet, in bytes.
+         * 
+         * @return - This Builder.
+         */
+        public Builder maxDataSize(int bytes) {
+            
+            maxDataSize = bytes;
+            return this;
+            
+        } // end maxDataSize
+        
+        
+        /**
+         * @param millis - The time out period, in milliseconds.
+         * 
+         * @return - This Builder.
+         */
+        public Builder timeOutPeriod(int millis) {
+            
+            timeOutPeriod = millis;
+            return this;
+            
+        } // end timeOutPeriod
+        
+        
+        /**
+         * @param packets - The window size, in packets.
+         * 
+         * @return - This Builder.
+         */
+        public Builder windowSize(int packets) {
+            
+            windowSize = packets;
+            return this;
+            
+        } // end windowSize
+        
+        
+        /**
+         * @param percent - The simulated error percent, 0 for a perfect run.
+         * 
+         * @return - This Builder.
+         */
+        public Builder errorPercent(int percent) {
+            
+            errorPercent = percent;
+            return this;
+            
+        } // end errorPercent        
+        
+        /**
+         * @param impairment - The simulated network for data packets, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder dataImpairment(Impairment impairment) {
+            
+            dataImpairment = impairment;
+            return this;
+            
+        } // end dataImpairment
+        
+        
+        /**
+         * @param impairment - The simulated network for acknowledgements, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder ackImpairment(Impairment impairment) {
+            
+            ackImpairment = impairment;
+            return this;
+            
+        } // end ackImpairment        
+        
+        /**
+         * @param seqNum - The first sequence number, the server must be given the same one.
+         * 
+         * @return - This Builder.
+         */
+        public Builder initialSequenceNumber(int seqNum) {
+            
+            initialSequenceNumber = seqNum;
+            return this;
+            
+        } // end initialSequenceNumber
+        
+        
+        /**
+         * @param enabled - True to send parity after each group of packets so the server can
+         *                  rebuild lost ones without a retransmission. Off by default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder forwardErrorCorrection(boolean enabled) {
+            
+            forwardErrorCorrection = enabled;
+            return this;
+            
+        } // end forwardErrorCorrection
+        
+        
+        /**
+         * @param enabled - True to send files that fit in one window, and in the server's default
+         *                  receive buffer, as a single burst acknowledged once by the server. On
+         *                  by default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder fastOpen(boolean enabled) {
+            
+            fastOpen = enabled;
+            return this;
+            
+        } // end fastOpen
+        
+        
+        /**
+         * @param enabled - True to choose each packet's data size, up to maxDataSize, from the 
+         *                  losses seen. Off by default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder adaptiveDataSize(boolean enabled) {
+            
+            adaptiveDataSize = enabled;
+            return this;
+            
+        } // end adaptiveDataSize
+        
+        
+        /**
+         * @param key - An AES key (16, 24 or 32 bytes) to seal the data, digest, OPEN and FIN
+         *              packets with AES-GCM, the server must be given the same key. The verdicts
+         *              on the digest and FIN are signed, plain acknowledgements of data are
+         *              not. Null (the default) sends everything in the clear.
+         * 
+         * @return - This Builder.
+         */
+        public Builder encryptionKey(byte[] key) {
+            
+            encryptionKey = key == null ? null : key.clone();
+            return this;
+            
+        } // end encryptionKey
+        
+        
+        /**
+         * @param file - Where to record the header of every datagram sent and received, see 
+         *               CaptureAnalyzer. Each transfer started overwrites it. Null (the default)
+         *               records nothing.
+         * 
+         * @return - This Builder.
+         */
+        public Builder capture(Path file) {
+            
+            captureFile = file;
+            return this;
+            
+        } // end capture
+        
+        
+        /**
+         * @param newListener - Notified as data is acknowledged, may be null.
+         * 
+         * @return - This Builder.
+         */
+        public Builder listener(TransferListener newListener) {
+            
+            listener = newListener;
+            return this;
+            
+        } // end listener
+        
+        
+        /**
+         * @param newMux - A ClientMux to run every transfer on, the caller closes it once they
+         *                 are done. Null (the default) gives each transfer a socket and threads
+         *                 of its own.
+         * 
+         * @return - This Builder.
+         */
+        public Builder mux(ClientMux newMux) {
+            
+            mux = newMux;
+            return this;
+            
+        } // end mux
+        
+        
+        /**
+         * @return - A TransferClient using the parameters set so far.
+         * 
+         * @throws IllegalArgumentException - If the window size, time out or max data size isn't
+         *                                    positive, a packet wouldn't fit in a datagram, or
+         *                                    the error percent isn't 0 to 100.
+         */
+        public TransferClient build() {
+            
+            if(windowSize <= 0) {
+                
+                throw new IllegalArgumentException("Bad window size " + windowSize + "!");
+                
+            }
+            
+            if(timeOutPeriod <= 0) {
+                
+                throw new IllegalArgumentException("Bad time out " + timeOutPeriod + "!");
+                
+            }
+            
+            if(maxDataSize <= 0 || maxDataSize > Helper.MAXPACKETSIZE - Helper.APPLICATIONHEADERSIZE) {
+                
+                throw new IllegalArgumentException("Bad max data size " + maxDataSize + "!");
+                
+            }
+            
+            if(errorPercent < 0 || errorPercent > 100) {
+                
+                throw new IllegalArgumentException("Bad error percent " + errorPercent + "!");
+                
+            }
+            
+            return new TransferClient(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+} // end TransferClient
@@ -0,0 +1,31 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular interface is used by an application embedding the client or
+ * server to be told how far along a transfer is. It is called on the thread
+ * handling acknowledgements so it should return quickly.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public interface TransferListener {
+    
+    /**
+     * This method is called each time more data has been acknowledged (client) or written
+     * (server).
+     * 
+     * @param bytesDone - The number of data bytes done so far.
+     * 
+     * @param totalBytes - The total number of bytes expected or -1 if not known.
+     */
+    void onProgress(long bytesDone, long totalBytes);
+    
+} // end TransferListener
@@ -0,0 +1,124 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class holds the outcome of a finished transfer. It is what
+ * the futures handed out by TransferClient and TransferServer complete with.
+ * Both ends report whether the server's digest of the file it wrote matched
+ * the digest of the file the client read.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public class TransferResult {
+    
+    private final long bytesTransferred;
+    private final long packetsTransferred;
+    private final long retransmissions;
+    private final long elapsedNanos;
+    private final boolean digestVerified;
+    
+    
+    /**
+     * A constructor for the TransferResult.
+     * 
+     * @param bytes - The number of data bytes transferred.
+     * 
+     * @param packets - The number of data packets transferred.
+     * 
+     * @param resent - The number of packets sent (client) or received (server) more than once.
+     * 
+     * @param nanos - How long the transfer took, in nanoseconds.
+     * 
+     * @param verified - True if the file digests matched.
+     */
+    public TransferResult(long bytes, long packets, long resent, long nanos, boolean verified) {
+        
+        bytesTransferred = bytes;
+        packetsTransferred = packets;
+        retransmissions = resent;
+        elapsedNanos = nanos;
+        digestVerified = verified;
+        
+    } // end TransferResult constructor
+    
+    
+    /**
+     * This method will provide the number of data bytes transferred, headers not included.
+     * 
+     * @return - The number of bytes.
+     */
+    public long getBytesTransferred() {
+        
+        return bytesTransferred;
+        
+    } // end getBytesTransferred
+    
+    
+    /**
+     * This method will provide the number of data packets transferred, resends not included.
+     * 
+     * @return - The number of packets.
+     */
+    public long getPacketsTransferred() {
+        
+        return packetsTransferred;
+        
+    } // end getPacketsTransferred
+    
+    
+    /**
+     * This method will provide the number of packets resent by the client, or received more 
+     * than once by the server.
+     * 
+     * @return - The number of retransmissions.
+     */
+    public long getRetransmissions() {
+        
+        return retransmissions;
+        
+    } // end getRetransmissions
+    
+    
+    /**
+     * This method will provide how long the transfer took.
+     * 
+     * @return - The elapsed time, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        
+        return elapsedNanos;
+        
+    } // end getElapsedNanos
+    
+    
+    /**
+     * This method is used to determine whether the file arrived intact, checked end to end by
+     * digest rather than by reading both files back.
+     * 
+     * @return - A boolean true if the digests matched, false if they didn't or were never compared.
+     */
+    public boolean isDigestVerified() {
+        
+        return digestVerified;
+        
+    } // end isDigestVerified
+    
+    
+    @Override
+    public String toString() {
+        
+        return bytesTransferred + " bytes in " + packetsTransferred + " packets (" + 
+                   retransmissions + " resent), " + (elapsedNanos / 1000000) + " ms, digest " + 
+                   (digestVerified ? "verified" : "NOT verified");
+                   
+    } // end toString
+    
+} // end TransferResult
@@ -0,0 +1,726 @@
+package application;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets another application receive files with the UDP
+ * Sliding Window server without going through the console prompts. Parameters
+ * are set with a Builder and the server runs on its own thread once started.
+ * 
+ * eg... TransferServer.builder().port(0).build().start(path)
+ * 
+ * startBatch() receives a directory sent with TransferClient.sendBatch(), and
+ * startDelta() a file sent with TransferClient.sendDelta(), and startDedup() a
+ * file sent with TransferClient.sendDedup(). startDownload()
+ * asks a DownloadServer for a file and receives it. startStream() hands what
+ * is received to a stream, channel or callback instead of a file, in order as
+ * it arrives.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import helpers.BatchOutputStream;
+import helpers.BlockSignatures;
+import helpers.ChunkStore;
+import helpers.DedupOutputStream;
+import helpers.DeltaOutputStream;
+import helpers.FileRequest;
+import helpers.Helper;
+import helpers.Impairment;
+import helpers.Log;
+import helpers.PacketCapture;
+import helpers.ReceiveMemory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+
+public class TransferServer {
+    
+    private final int port;
+    private final int errorPercent;
+    private final Impairment dataImpairment;
+    private final Impairment ackImpairment;
+    private final int initialSequenceNumber;
+    private final int receiveBuffer;
+    private final byte[] encryptionKey;
+    private final int idleTimeout;
+    private final ReceiveMemory receiveMemory;
+    private final ChunkStore chunkStore;
+    private final Path captureFile;
+    private final TransferListener listener;
+    private P2Server server;
+    
+    
+    /**
+     * A constructor for the TransferServer, use builder() instead.
+     */
+    private TransferServer(Builder builder) {
+        
+        port = builder.port;
+        errorPercent = builder.errorPercent;
+        dataImpairment = builder.dataImpairment;
+        ackImpairment = builder.ackImpairment;
+        initialSequenceNumber = builder.initialSequenceNumber;
+        receiveBuffer = builder.receiveBuffer;
+        encryptionKey = builder.encryptionKey;
+        idleTimeout = builder.idleTimeout;
+        receiveMemory = builder.receiveMemory;
+        chunkStore = builder.chunkStore;
+        captureFile = builder.captureFile;
+        listener = builder.listener;
+        
+    } // end TransferServer constructor
+    
+    
+    /**
+     * This method will provide a Builder holding the default parameters.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method opens the server socket and starts receiving into the file given on a
+     * separate thread. The socket is open once this returns so clients can be started
+     * right away.
+     * 
+     * @param output - Where the received file is written.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the file or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> start(Path output) throws IOException {
+        
+        checkNotStarted();
+        
+        return start(new FileOutputStream(output.toFile()), null, null);
+        
+    } // end start
+    
+    
+    /**
+     * This method opens the server socket and starts receiving a batch of files, as sent by 
+     * TransferClient.sendBatch(), into the directory given on a separate thread.
+     * 
+     * @param directory - Where the files are written, created if missing.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the directory or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startBatch(Path directory) throws IOException {
+        
+        checkNotStarted();
+        
+        return start(new BatchOutputStream(directory), null, null);
+        
+    } // end startBatch
+    
+    
+    /**
+     * This method opens the server socket and starts receiving a delta, as sent by 
+     * TransferClient.sendDelta(), on a separate thread. The file already at the output path is 
+     * moved aside (to the same name plus ".basis") and signed. Blocks the client still has are 
+     * copied from it, only what changed is sent. The basis is deleted once the new file is 
+     * rebuilt and verified.
+     * 
+     * @param output - The file to bring up to date, if it's missing the whole file is sent.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the files or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startDelta(Path output) throws IOException {
+        
+        checkNotStarted();
+        
+        Path basis = output.resolveSibling(output.getFileName() + ".basis");
+        
+        // A basis left by a delta that didn't finish is still the last good copy.
+        if(Files.exists(output)) {
+            
+            Files.move(output, basis, StandardCopyOption.REPLACE_EXISTING);
+            
+        }
+        
+        BlockSignatures signatures = BlockSignatures.of(basis);
+        
+        return start(new DeltaOutputStream(basis, signatures.getBlockSize(), output), signatures, null);
+        
+    } // end startDelta
+    
+    
+    /**
+     * This method opens the server socket and starts receiving a file sent with 
+     * TransferClient.sendDedup(), on a separate thread. The client first asks which of its 
+     * chunks the builder's ChunkStore holds and sends only the rest, each is stored as it 
+     * arrives. The file is assembled from both.
+     * 
+     * @param output - Where the assembled file is written.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the file or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startDedup(Path output) throws IOException {
+        
+        checkNotStarted();
+        
+        if(chunkStore == null) {
+            
+            throw new IllegalStateException("No chunk store, see Builder.chunkStore()!");
+            
+        }
+        
+        return start(new DedupOutputStream(chunkStore, output), null, chunkStore);
+        
+    } // end startDedup
+    
+    
+    /**
+     * This method opens the server socket and starts receiving into a stream rather than a 
+     * file, on a separate thread. Data is written in order as it arrives, eg... to feed another
+     * process while the client is still sending.
+     * 
+     * @param output - Where the received data is written. It is closed once the FIN arrives or
+     *                 the server is closed.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startStream(OutputStream output) throws IOException {
+        
+        checkNotStarted();
+        
+        return start(output, null, null);
+        
+    } // end startStream
+    
+    
+    /**
+     * This method opens the server socket and starts receiving into a channel, see 
+     * startStream(OutputStream).
+     * 
+     * @param output - Where the received data is written. It is closed once the FIN arrives or
+     *                 the server is closed.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startStream(WritableByteChannel output) 
+                                                                          throws IOException {
+        
+        return startStream(Channels.newOutputStream(output));
+        
+    } // end startStream
+    
+    
+    /**
+     * This method opens the server socket and starts handing what is received to a callback, 
+     * see startStream(OutputStream). The callback is run on the writer thread, once for each 
+     * packet's data in order.
+     * 
+     * @param consumer - Given each packet's data, read only and valid only until it returns.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startStream(Consumer<ByteBuffer> consumer) 
+                                                                          throws IOException {
+        
+        return startStream(new ConsumerOutputStream(consumer));
+        
+    } // end startStream
+    
+    
+    /**
+     * This method opens the server socket, then asks a DownloadServer to send a file to it. The 
+     * GET is sent on another thread, resent until the DownloadServer answers. It returns right 
+     * away. Use port 0 so each download waits on a port of its own.
+     * 
+     * @param output - Where the downloaded file is written.
+     * 
+     * @param server - The address and port of the DownloadServer.
+     * 
+     * @param name - The file wanted, relative to the directory the DownloadServer serves.
+     * 
+     * @return - A future completed once the DownloadServer's FIN arrives, or failed if it has 
+     *              no such file or never answers.
+     * 
+     * @throws IOException - If the file or socket could not be opened.
+     */
+    public synchronized CompletableFuture<TransferResult> startDownload(Path output, InetSocketAddress server, 
+                                                                           String name) throws IOException {
+        
+        checkNotStarted();
+        
+        final CompletableFuture<TransferResult> completion = start(new FileOutputStream(output.toFile()), null, 
+                                                                      null);
+        final int receiverPort = getPort();
+        final Impairment requestImpairment = ackImpairment != null ? ackImpairment.forStream() 
+                                                                   : Impairment.fromErrorPercent(errorPercent);
+        
+        Thread requester = new Thread("FileRequester") {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    
+                    long length = FileRequest.send(server, name, receiverPort, requestImpairment);
+                    
+                    Log.info("Downloading " + name + " (" + length + " bytes) from " + server + ".\n");
+                    
+                } catch (IOException e) {
+                    
+                    completion.completeExceptionally(e);
+                    close();
+                    
+                }
+                
+            }
+            
+        };
+        
+        requester.setDaemon(true);
+        requester.start();
+        
+        return completion;
+        
+    } // end startDownload
+    
+    
+    /**
+     * This method makes sure each TransferServer is only started once.
+     */
+    private void checkNotStarted() {
+        
+        if(server != null) {
+            
+            throw new IllegalStateException("Server already started!");
+            
+        }
+        
+    } // end checkNotStarted
+    
+    
+    /**
+     * This method starts a P2Server writing to the stream given.
+     * 
+     * @param fStream - Where the received data is written, closed if the server can't start.
+     * 
+     * @param signatures - Handed to a client sending a delta, null if none is expected.
+     * 
+     * @param store - Asked about by a client sending deduplicated data, null if none is expected.
+     * 
+     * @return - A future completed once the client's FIN arrives, or the server is closed.
+     * 
+     * @throws IOException - If the socket could not be opened.
+     */
+    private CompletableFuture<TransferResult> start(OutputStream fStream, BlockSignatures signatures, 
+                                                        ChunkStore store) 
+                                                        throws IOException {
+        
+        final CompletableFuture<TransferResult> completion = new CompletableFuture<TransferResult>();
+        final long startTime = System.nanoTime();
+        
+        server = new P2Server(port, fStream, errorPercent, listener);
+        server.setImpairments(dataImpairment, ackImpairment);
+        server.setInitialSequenceNumber(initialSequenceNumber);
+        server.setReceiveBufferSize(receiveBuffer);
+        server.setEncryptionKey(encryptionKey);
+        server.setSignatures(signatures);
+        server.setChunkStore(store);
+        server.setIdleTimeout(idleTimeout);
+        server.setReceiveMemory(receiveMemory);
+        
+        final PacketCapture capture;
+        
+        try {
+            
+            capture = captureFile == null ? null : new PacketCapture(captureFile, PacketCapture.SERVER);
+            
+        } catch (IOException e) {
+            
+            fStream.close();
+            throw e;
+            
+        }
+        
+        server.setCapture(capture);
+        
+        try {
+            
+            server.bind();
+            
+        } catch (IOException e) {
+            
+            fStream.close();
+            
+            if(capture != null) {
+                
+                capture.close();
+                
+            }
+            
+            throw e;
+            
+        }
+        
+        // Complete as soon as the FIN arrives rather than after the server has lingered.
+        final Runnable complete = () -> completion.complete(new TransferResult(server.getBytesWritten(), 
+                                                                server.getPacketsWritten(), 
+                                                                server.getMetrics().getDuplicatesReceived(), 
+                                                                System.nanoTime() - startTime,
+                                                                server.isDigestVerified()));
+        server.setFinishHandler(complete);
+        
+        Thread serverThread = new Thread("P2Server-" + server.getPort()) {
+            
+            @Override
+            public void run() {
+                
+                server.receiveLoop();
+                complete.run();
+                
+                if(capture != null) {
+                    
+                    capture.close();
+                    
+                }
+                                                           
+            }
+            
+        };
+        
+        serverThread.setDaemon(true);
+        serverThread.start();
+        
+        return completion;
+        
+    } // end start
+    
+    
+    /**
+     * This method will provide the port the server is listening on. Useful when the Builder
+     * was given port 0.
+     * 
+     * @return - The local port, or -1 if not yet started.
+     */
+    public synchronized int getPort() {
+        
+        return server == null ? -1 : server.getPort();
+        
+    } // end getPort
+    
+    
+    /**
+     * This method stops the server and closes the output file.
+     */
+    public synchronized void close() {
+        
+        if(server != null) {
+            
+            server.close();
+            
+        }
+        
+    } // end close
+    
+    
+    /**
+     * This class collects the parameters of a TransferServer. Anything not set keeps the
+     * defaults found in Helper except the error percent, which is 0 (no simulated errors).
+     */
+    public static class Builder {
+        
+        private int port = Helper.PORT;
+        private int errorPercent = 0;
+        private Impairment dataImpairment;
+        private Impairment ackImpairment;
+        private int initialSequenceNumber = Helper.INITIALSEQUENCENUMBER;
+        private int receiveBuffer = Helper.DEFAULTRECEIVEBUFFER;
+        private byte[] encryptionKey;
+        private int idleTimeout = 0;
+        private ReceiveMemory receiveMemory;
+        private ChunkStore chunkStore;
+        private Path captureFile;
+        private TransferListener listener;
+        
+        
+        /**
+         * @param newPort - The port to listen on, 0 picks any free port.
+         * 
+         * @return - This Builder.
+         */
+        public Builder port(int newPort) {
+            
+            port = newPort;
+            return this;
+            
+        } // end port
+        
+        
+        /**
+         * @param percent - The simulated error percent, 0 for a perfect run.
+         * 
+         * @return - This Builder.
+         */
+        public Builder errorPercent(int percent) {
+            
+            errorPercent = percent;
+            return this;
+            
+        } // end errorPercent        
+        
+        /**
+         * @param impairment - The simulated network for data packets, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder dataImpairment(Impairment impairment) {
+            
+            dataImpairment = impairment;
+            return this;
+            
+        } // end dataImpairment
+        
+        
+        /**
+         * @param impairment - The simulated network for acknowledgements, replaces the error
+         *                     percent in that direction. Null for the default.
+         * 
+         * @return - This Builder.
+         */
+        public Builder ackImpairment(Impairment impairment) {
+            
+            ackImpairment = impairment;
+            return this;
+            
+        } // end ackImpairment        
+        
+        /**
+         * @param seqNum - The first sequence number, the client must be given the same one.
+         * 
+         * @return - This Builder.
+         */
+        public Builder initialSequenceNumber(int seqNum) {
+            
+            initialSequenceNumber = seqNum;
+            return this;
+            
+        } // end initialSequenceNumber
+        
+        
+        /**
+         * @param packets - How many received packets may wait to be written, the most the
+         *                  server will advertise to the client.
+         * 
+         * @return - This Builder.
+         */
+        public Builder receiveBuffer(int packets) {
+            
+            receiveBuffer = packets;
+            return this;
+            
+        } // end receiveBuffer
+        
+        
+        /**
+         * @param key - An AES key (16, 24 or 32 bytes) to seal the data, digest, OPEN and FIN
+         *              packets with AES-GCM, the client must be given the same key. The verdicts
+         *              on the digest and FIN are signed, plain acknowledgements of data are
+         *              not. Null (the default) sends everything in the clear.
+         * 
+         * @return - This Builder.
+         */
+        public Builder encryptionKey(byte[] key) {
+            
+            encryptionKey = key == null ? null : key.clone();
+            return this;
+            
+        } // end encryptionKey
+        
+        
+        /**
+         * @param millis - How long the client may send nothing before the transfer is abandoned,
+         *                 the future then completes unverified. 0 (the default) waits forever.
+         * 
+         * @return - This Builder.
+         */
+        public Builder idleTimeout(int millis) {
+            
+            idleTimeout = millis;
+            return this;
+            
+        } // end idleTimeout
+        
+        
+        /**
+         * @param memory - Where received packets wait to be written, its budget is shared with
+         *                 every server given it. Null (the default) uses ReceiveMemory.shared().
+         * 
+         * @return - This Builder.
+         */
+        public Builder receiveMemory(ReceiveMemory memory) {
+            
+            receiveMemory = memory;
+            return this;
+            
+        } // end receiveMemory
+        
+        
+        /**
+         * @param store - Where chunks are kept for startDedup(), it may be shared with other 
+         *                servers. Null (the default) if none is expected.
+         * 
+         * @return - This Builder.
+         */
+        public Builder chunkStore(ChunkStore store) {
+            
+            chunkStore = store;
+            return this;
+            
+        } // end chunkStore
+        
+        
+        /**
+         * @param file - Where to record the header of every datagram received and sent, see 
+         *               CaptureAnalyzer. It is complete once the server stops lingering after 
+         *               the FIN. Null (the default) records nothing.
+         * 
+         * @return - This Builder.
+         */
+        public Builder capture(Path file) {
+            
+            captureFile = file;
+            return this;
+            
+        } // end capture
+        
+        
+        /**
+         * @param newListener - Notified as data is written, may be null.
+         * 
+         * @return - This Builder.
+         */
+        public Builder listener(TransferListener newListener) {
+            
+            listener = newListener;
+            return this;
+            
+        } // end listener
+        
+        
+        /**
+         * @return - A TransferServer using the parameters set so far.
+         * 
+         * @throws IllegalArgumentException - If the port isn't 0 to 65535, the error percent isn't
+         *                                    0 to 100, the receive buffer isn't positive or the
+         *                                    idle time out is negative.
+         */
+        public TransferServer build() {
+            
+            if(port < 0 || port > 65535) {
+                
+                throw new IllegalArgumentException("Bad port " + port + "!");
+                
+            }
+            
+            if(errorPercent < 0 || errorPercent > 100) {
+                
+                throw new IllegalArgumentException("Bad error percent " + errorPercent + "!");
+                
+            }
+            
+            if(receiveBuffer <= 0) {
+                
+                throw new IllegalArgumentException("Bad receive buffer " + receiveBuffer + "!");
+                
+            }
+            
+            if(idleTimeout < 0) {
+                
+                throw new IllegalArgumentException("Bad idle time out " + idleTimeout + "!");
+                
+            }
+            
+            return new TransferServer(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+    
+    /**
+     * This class hands everything written to it to a callback, wrapped rather than copied.
+     */
+    private static final class ConsumerOutputStream extends OutputStream {
+        
+        private final Consumer<ByteBuffer> consumer;
+        
+        
+        private ConsumerOutputStream(Consumer<ByteBuffer> newConsumer) {
+            
+            consumer = newConsumer;
+            
+        } // end ConsumerOutputStream constructor
+        
+        
+        @Override
+        public void write(int b) throws IOException {
+            
+            write(new byte[] {(byte)b}, 0, 1);
+            
+        } // end write
+        
+        
+        /**
+         * This method hands data to the callback. Anything the callback throws is reported as a 
+         * failed write, so the data counts as lost and the digest won't match.
+         */
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            
+            try {
+                
+                consumer.accept(ByteBuffer.wrap(buffer, offset, length).asReadOnlyBuffer());
+                
+            } catch (RuntimeException e) {
+                
+                throw new IOException("Stream consumer failed", e);
+                
+            }
+            
+        } // end write
+        
+    } // end ConsumerOutputStream
+    
+} // end TransferServer
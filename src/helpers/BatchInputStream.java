@@ -0,0 +1,314 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets the client send many files as one transfer. It
+ * reads as a single stream: a manifest, then every file's bytes back to back.
+ * Packets are filled across file boundaries so a batch of small files keeps
+ * the window full instead of draining it once per file, and the length,
+ * digest and FIN of the transfer cover the whole batch.
+ * 
+ * The manifest is an int count followed by, for each file, a short name length,
+ * the name (UTF-8, relative, '/' separated) and a long size. Files are opened
+ * only when reached and closed as soon as they are read. Sizes are taken when
+ * the batch is built, a file that has since grown is cut at that size and one
+ * that has shrunk is padded with zeros so the stream stays in step with the
+ * manifest.
+ * 
+ * See BatchOutputStream for the receiving end.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+public class BatchInputStream extends InputStream {
+    
+    // Names are sent with an unsigned short length.
+    public static final int MAXNAMELENGTH = 0xFFFF;
+    
+    private final Path directory;
+    private final List<String> names;
+    private final long[] sizes;
+    private final byte[] manifest;
+    private final long length;
+    
+    private int manifestPosition = 0;
+    private int fileIndex = 0;
+    private InputStream current;
+    private long currentRemaining;
+    private boolean padding = false;
+    private long remaining;
+    
+    
+    /**
+     * A constructor for the BatchInputStream.
+     * 
+     * @param newDirectory - The directory the names are relative to.
+     * 
+     * @param newNames - The files to send, relative to the directory and '/' separated.
+     * 
+     * @throws IOException - If a file's size could not be read or a name is too long.
+     */
+    public BatchInputStream(Path newDirectory, List<String> newNames) throws IOException {
+        
+        directory = newDirectory;
+        names = newNames;
+        sizes = new long[names.size()];
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long total = 0;
+        
+        out.writeInt(names.size());
+        
+        for(int i = 0 ; i < names.size() ; i++) {
+            
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            
+            if(name.length > MAXNAMELENGTH) {
+                
+                throw new IOException("File name too long for a batch: " + names.get(i));
+                
+            }
+            
+            sizes[i] = Files.size(directory.resolve(names.get(i)));
+            total += sizes[i];
+            
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeLong(sizes[i]);
+            
+        }
+        
+        manifest = bytes.toByteArray();
+        length = manifest.length + total;
+        remaining = length;
+        
+    } // end BatchInputStream constructor
+    
+    
+    /**
+     * This method builds a batch of every regular file under a directory, sorted by name.
+     * 
+     * @param directory - The directory to send.
+     * 
+     * @return - The batch.
+     * 
+     * @throws IOException - If the directory could not be walked.
+     */
+    public static BatchInputStream of(Path directory) throws IOException {
+        
+        List<String> names;
+        
+        try(Stream<Path> files = Files.walk(directory)) {
+            
+            names = files.filter(Files::isRegularFile)
+                         .map(file -> directory.relativize(file).toString().replace(File.separatorChar, '/'))
+                         .sorted()
+                         .collect(Collectors.toList());
+            
+        }
+        
+        return new BatchInputStream(directory, names);
+        
+    } // end of
+    
+    
+    /**
+     * This method will provide the length of the whole stream, manifest included.
+     * 
+     * @return - The length, in bytes.
+     */
+    public long getLength() {
+        
+        return length;
+        
+    } // end getLength
+    
+    
+    /**
+     * This method will provide the number of files in the batch.
+     * 
+     * @return - The number of files.
+     */
+    public int getFileCount() {
+        
+        return names.size();
+        
+    } // end getFileCount
+    
+    
+    /**
+     * This method will provide the bytes left to read. None of them wait on anything but the
+     * disk, so a reader such as the SenderThread may keep going until a packet is full.
+     * 
+     * @return - The bytes left, at most Integer.MAX_VALUE.
+     */
+    @Override
+    public int available() {
+        
+        return (int)Math.min(remaining, Integer.MAX_VALUE);
+        
+    } // end available
+    
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] one = new byte[1];
+        
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        
+    } // end read
+    
+    
+    /**
+     * This method reads up to len bytes, crossing from the manifest into the files and from one
+     * file into the next, so it only returns short at the end of the batch.
+     * 
+     * @param buffer - Where the bytes are placed.
+     * 
+     * @param offset - The first index to fill.
+     * 
+     * @param len - The most bytes to read.
+     * 
+     * @return - The number of bytes read, -1 at the end of the batch.
+     * 
+     * @throws IOException - If a file could not be opened or read.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        
+        if(remaining == 0) {
+            
+            return len == 0 ? 0 : -1;
+            
+        }
+        
+        int total = 0;
+        
+        while(total < len && remaining > 0) {
+            
+            int n;
+            
+            if(manifestPosition < manifest.length) {
+                
+                n = Math.min(len - total, manifest.length - manifestPosition);
+                System.arraycopy(manifest, manifestPosition, buffer, offset + total, n);
+                manifestPosition += n;
+                
+            } else if(current == null && !padding) {
+                
+                openNext();
+                continue;
+                
+            } else {
+                
+                int wanted = (int)Math.min(len - total, currentRemaining);
+                n = padding ? -1 : current.read(buffer, offset + total, wanted);
+                
+                if(n < 0) {
+                    
+                    if(!padding) {
+                        
+                        Log.warn("File " + names.get(fileIndex) + " shrank while being sent, padding with zeros!");
+                        current.close();
+                        current = null;
+                        padding = true;
+                        
+                    }
+                    
+                    n = wanted;
+                    Arrays.fill(buffer, offset + total, offset + total + n, (byte)0);
+                    
+                }
+                
+                currentRemaining -= n;
+                
+                if(currentRemaining == 0) {
+                    
+                    closeCurrent();
+                    fileIndex++;
+                    
+                }
+                
+            } // end if-else block
+            
+            total += n;
+            remaining -= n;
+            
+        } // end while loop
+        
+        return total;
+        
+    } // end read
+    
+    
+    /**
+     * This method opens the next file with data in it, empty files are skipped as they are
+     * fully described by the manifest.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    private void openNext() throws IOException {
+        
+        while(sizes[fileIndex] == 0) {
+            
+            fileIndex++;
+            
+        }
+        
+        current = new FileInputStream(directory.resolve(names.get(fileIndex)).toFile());
+        currentRemaining = sizes[fileIndex];
+        
+    } // end openNext
+    
+    
+    /**
+     * This method closes the file being read, if any.
+     * 
+     * @throws IOException - If the file could not be closed.
+     */
+    private void closeCurrent() throws IOException {
+        
+        padding = false;
+        
+        if(current != null) {
+            
+            current.close();
+            current = null;
+            
+        }
+        
+    } // end closeCurrent
+    
+    
+    @Override
+    public void close() throws IOException {
+        
+        closeCurrent();
+        
+    } // end close
+    
+} // end BatchInputStream
@@ -0,0 +1,333 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the receiving end of a BatchInputStream. The server
+ * writes the transfer into it as usual and it splits the stream back into
+ * files under a target directory, creating sub directories as needed. The
+ * manifest is parsed as it arrives so a field may be split across any number
+ * of writes.
+ * 
+ * Names that would land outside the target directory (absolute, or climbing
+ * out with "..") are refused, the write fails and the transfer's digest will
+ * not match.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class BatchOutputStream extends OutputStream {
+    
+    // What the next bytes written are.
+    private static final int COUNT = 0;
+    private static final int NAMELENGTH = 1;
+    private static final int NAME = 2;
+    private static final int SIZE = 3;
+    private static final int FILES = 4;
+    private static final int DONE = 5;
+    
+    private final Path directory;
+    private int state = COUNT;
+    
+    // The number being read, and how many of its bytes are still to come.
+    private long fieldValue = 0;
+    private int fieldLeft = 4;
+    
+    private int count;
+    private byte[] name;
+    private int nameFilled;
+    private final List<Path> targets = new ArrayList<Path>();
+    private final List<Long> sizes = new ArrayList<Long>();
+    
+    private int fileIndex = 0;
+    private OutputStream current;
+    private long currentRemaining;
+    
+    
+    /**
+     * A constructor for the BatchOutputStream.
+     * 
+     * @param newDirectory - Where the files are written, created if missing.
+     * 
+     * @throws IOException - If the directory could not be created.
+     */
+    public BatchOutputStream(Path newDirectory) throws IOException {
+        
+        directory = newDirectory.toAbsolutePath().normalize();
+        Files.createDirectories(directory);
+        
+    } // end BatchOutputStream constructor
+    
+    
+    /**
+     * This method will provide the number of files completely written so far.
+     * 
+     * @return - The number of files.
+     */
+    public int getFilesWritten() {
+        
+        return fileIndex;
+        
+    } // end getFilesWritten
+    
+    
+    @Override
+    public void write(int b) throws IOException {
+        
+        write(new byte[] {(byte)b}, 0, 1);
+        
+    } // end write
+    
+    
+    /**
+     * This method takes the next part of the batch, manifest or file data.
+     * 
+     * @param buffer - The bytes to write.
+     * 
+     * @param offset - The first index to use.
+     * 
+     * @param len - The number of bytes to use.
+     * 
+     * @throws IOException - If a file could not be written, a name is refused or there is more
+     *                          data than the manifest described.
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int len) throws IOException {
+        
+        int end = offset + len;
+        
+        while(offset < end) {
+            
+            switch(state) {
+                
+                case COUNT:
+                case NAMELENGTH:
+                case SIZE:
+                    
+                    fieldValue = (fieldValue << 8) | (buffer[offset++] & 0xFF);
+                    
+                    if(--fieldLeft == 0) {
+                        
+                        endField();
+                        
+                    }
+                    
+                    break;
+                    
+                case NAME:
+                    
+                    int n = Math.min(end - offset, name.length - nameFilled);
+                    System.arraycopy(buffer, offset, name, nameFilled, n);
+                    nameFilled += n;
+                    offset += n;
+                    
+                    if(nameFilled == name.length) {
+                        
+                        targets.add(resolve(new String(name, StandardCharsets.UTF_8)));
+                        startField(SIZE, 8);
+                        
+                    }
+                    
+                    break;
+                    
+                case FILES:
+                    
+                    int wanted = (int)Math.min(end - offset, currentRemaining);
+                    current.write(buffer, offset, wanted);
+                    offset += wanted;
+                    currentRemaining -= wanted;
+                    
+                    if(currentRemaining == 0) {
+                        
+                        current.close();
+                        current = null;
+                        fileIndex++;
+                        openNext();
+                        
+                    }
+                    
+                    break;
+                    
+                default:
+                    
+                    throw new IOException("More data than the batch manifest describes!");
+                    
+            } // end switch
+            
+        } // end while loop
+        
+    } // end write
+    
+    
+    /**
+     * This method uses a number once all of its bytes have arrived.
+     * 
+     * @throws IOException - If the manifest is done and the first file could not be opened.
+     */
+    private void endField() throws IOException {
+        
+        if(state == COUNT) {
+            
+            count = (int)fieldValue;
+            nextEntry();
+            
+        } else if(state == NAMELENGTH) {
+            
+            name = new byte[(int)fieldValue];
+            nameFilled = 0;
+            state = NAME;
+            
+            // An empty name would be the directory itself, refused now since NAME reads nothing.
+            if(name.length == 0) {
+                
+                targets.add(resolve(""));
+                
+            }
+            
+        } else {
+            
+            sizes.add(fieldValue);
+            nextEntry();
+            
+        }
+        
+    } // end endField
+    
+    
+    /**
+     * This method moves on to the next manifest entry, or the file data once all are read.
+     * 
+     * @throws IOException - If the first file could not be opened.
+     */
+    private void nextEntry() throws IOException {
+        
+        if(sizes.size() < count) {
+            
+            startField(NAMELENGTH, 2);
+            
+        } else {
+            
+            state = FILES;
+            openNext();
+            
+        }
+        
+    } // end nextEntry
+    
+    
+    /**
+     * This method prepares to read a number.
+     * 
+     * @param newState - The field being read.
+     * 
+     * @param bytes - Its size, in bytes.
+     */
+    private void startField(int newState, int bytes) {
+        
+        state = newState;
+        fieldValue = 0;
+        fieldLeft = bytes;
+        
+    } // end startField
+    
+    
+    /**
+     * This method opens the next file to be filled. Empty files have no data coming so they are
+     * created here as they are reached.
+     * 
+     * @throws IOException - If a file could not be created.
+     */
+    private void openNext() throws IOException {
+        
+        while(fileIndex < count) {
+            
+            Path target = targets.get(fileIndex);
+            Files.createDirectories(target.getParent());
+            
+            current = new FileOutputStream(target.toFile());
+            currentRemaining = sizes.get(fileIndex);
+            
+            if(currentRemaining > 0) {
+                
+                return;
+                
+            }
+            
+            current.close();
+            current = null;
+            fileIndex++;
+            
+        }
+        
+        state = DONE;
+        
+    } // end openNext
+    
+    
+    /**
+     * This method finds where a file named in the manifest is written.
+     * 
+     * @param fileName - The name sent, relative and '/' separated.
+     * 
+     * @return - The path under the target directory.
+     * 
+     * @throws IOException - If the name would be written outside the target directory.
+     */
+    private Path resolve(String fileName) throws IOException {
+        
+        Path target = directory.resolve(fileName).normalize();
+        
+        if(!target.startsWith(directory) || target.equals(directory)) {
+            
+            throw new IOException("Refusing to write outside the target directory: " + fileName);
+            
+        }
+        
+        return target;
+        
+    } // end resolve
+    
+    
+    /**
+     * This method closes the file being written, warning if the batch ended early.
+     * 
+     * @throws IOException - If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        
+        if(current != null) {
+            
+            current.close();
+            current = null;
+            
+        }
+        
+        if(state != DONE) {
+            
+            Log.warn("Batch ended early, " + fileIndex + " files were written completely!");
+            
+        }
+        
+        // Closing twice should not warn twice.
+        state = DONE;
+        
+    } // end close
+    
+} // end BatchOutputStream
@@ -0,0 +1,61 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class loses each packet independently with the same
+ * probability, the model behind the original error percent.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.SplittableRandom;
+
+
+public class BernoulliLoss implements LossModel {
+    
+    private final double lossRate;
+    
+    
+    /**
+     * A constructor for the BernoulliLoss.
+     * 
+     * @param newLossRate - The chance each packet is lost, 0.0 to 1.0.
+     */
+    public BernoulliLoss(double newLossRate) {
+        
+        lossRate = newLossRate;
+        
+    } // end BernoulliLoss constructor
+    
+    
+    @Override
+    public boolean isLost(SplittableRandom random) {
+        
+        return lossRate > 0 && random.nextDouble() < lossRate;
+        
+    } // end isLost
+    
+    
+    @Override
+    public LossModel copy() {
+        
+        return this;
+        
+    } // end copy
+    
+    
+    @Override
+    public String toString() {
+        
+        return "Bernoulli(" + lossRate + ")";
+        
+    } // end toString
+    
+} // end BernoulliLoss
@@ -0,0 +1,327 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class keeps the most recently read blocks of files in
+ * memory, so many clients downloading the same file read it from disk once.
+ * It holds at most a capacity of bytes, the least recently used block is
+ * dropped to make room for a new one. Blocks are found by file and index, see
+ * CachedFileInputStream for how files are named so a changed file isn't
+ * served from its old blocks.
+ * 
+ * Hits and misses are counted and, once registered, published through JMX
+ * under "UDPClientServer:type=BlockCache,id=n".
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+public class BlockCache implements BlockCacheMBean {
+    
+    public static final int DEFAULTBLOCKSIZE = 65536;
+    public static final long DEFAULTCAPACITY = 64L * 1024 * 1024;
+    
+    // Used to give each registered instance a unique name.
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    
+    private final long capacity;
+    private final int blockSize;
+    
+    // In access order, so the first entry is always the least recently used. Guarded by itself.
+    private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private long bytesCached = 0;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    private ObjectName objectName;
+    
+    
+    /**
+     * A constructor for the BlockCache.
+     * 
+     * @param newCapacity - The most bytes of blocks kept.
+     * 
+     * @param newBlockSize - The size of each block, in bytes, only the last of a file may be short.
+     */
+    public BlockCache(long newCapacity, int newBlockSize) {
+        
+        if(newCapacity < 0 || newBlockSize <= 0) {
+            
+            throw new IllegalArgumentException("Bad cache capacity " + newCapacity + " or block size " +
+                                                   newBlockSize + "!");
+        
+        }
+        
+        capacity = newCapacity;
+        blockSize = newBlockSize;
+        
+    } // end BlockCache constructor
+    
+    
+    /**
+     * This method looks for a block, counting a hit or a miss.
+     * 
+     * @param file - Names the file, and the version of it, the block belongs to.
+     * 
+     * @param index - The block.
+     * 
+     * @return - The block, or null if it isn't cached. It must not be changed.
+     */
+    public byte[] get(Object file, long index) {
+        
+        byte[] block;
+        
+        synchronized(blocks) {
+            
+            block = blocks.get(new Key(file, index));
+            
+        }
+        
+        if(block == null) {
+            
+            misses.increment();
+            
+        } else {
+            
+            hits.increment();
+            
+        }
+        
+        return block;
+        
+    } // end get
+    
+    
+    /**
+     * This method adds a block just read, dropping the least recently used blocks until it fits.
+     * A block larger than the whole cache isn't kept.
+     * 
+     * @param file - Names the file, and the version of it, the block belongs to.
+     * 
+     * @param index - The block.
+     * 
+     * @param block - Its bytes, must not be changed afterwards.
+     */
+    public void put(Object file, long index, byte[] block) {
+        
+        if(block.length > capacity) {
+            
+            return;
+            
+        }
+        
+        synchronized(blocks) {
+            
+            byte[] old = blocks.put(new Key(file, index), block);
+            bytesCached += block.length - (old == null ? 0 : old.length);
+            
+            Iterator<Map.Entry<Key, byte[]>> eldest = blocks.entrySet().iterator();
+            
+            while(bytesCached > capacity) {
+                
+                bytesCached -= eldest.next().getValue().length;
+                eldest.remove();
+                evictions.increment();
+                
+            }
+            
+        }
+        
+    } // end put
+    
+    
+    /**
+     * This method drops every block.
+     */
+    public void clear() {
+        
+        synchronized(blocks) {
+            
+            blocks.clear();
+            bytesCached = 0;
+            
+        }
+        
+    } // end clear
+    
+    
+    /**
+     * This method publishes the counters through the platform MBean server. Failing to register
+     * is logged but otherwise ignored.
+     */
+    public synchronized void register() {
+        
+        try {
+            
+            objectName = new ObjectName(TransferMetrics.JMXDOMAIN + ":type=BlockCache,id=" + nextId.getAndIncrement());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            
+        } catch (JMException e) {
+            
+            Log.warn("Unable to register cache metrics with JMX: " + e.getMessage());
+            objectName = null;
+            
+        }
+        
+    } // end register
+    
+    
+    /**
+     * This method removes the counters from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        
+        if(objectName != null) {
+            
+            try {
+                
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                
+            } catch (JMException e) {
+                
+                Log.warn("Unable to unregister cache metrics from JMX: " + e.getMessage());
+                
+            }
+            
+            objectName = null;
+            
+        }
+        
+    } // end unregister
+    
+    
+    /**
+     * This method will provide the name the counters are registered under.
+     * 
+     * @return - The JMX name, or null if not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        
+        return objectName;
+        
+    } // end getObjectName
+    
+    
+    @Override
+    public long getHits() { return hits.sum(); }
+    
+    @Override
+    public long getMisses() { return misses.sum(); }
+    
+    @Override
+    public long getEvictions() { return evictions.sum(); }
+    
+    @Override
+    public long getCapacity() { return capacity; }
+    
+    @Override
+    public int getBlockSize() { return blockSize; }
+    
+    
+    /**
+     * This method will provide the share of lookups found in the cache.
+     * 
+     * @return - Hits over hits plus misses, 0 before any lookups.
+     */
+    @Override
+    public double getHitRatio() {
+        
+        long found = hits.sum();
+        long total = found + misses.sum();
+        
+        return total == 0 ? 0 : (double)found / total;
+        
+    } // end getHitRatio
+    
+    
+    @Override
+    public long getBytesCached() {
+        
+        synchronized(blocks) {
+            
+            return bytesCached;
+            
+        }
+        
+    } // end getBytesCached
+    
+    
+    @Override
+    public int getBlocksCached() {
+        
+        synchronized(blocks) {
+            
+            return blocks.size();
+            
+        }
+        
+    } // end getBlocksCached
+    
+    
+    /**
+     * This method clears the counters, the blocks cached are kept.
+     */
+    @Override
+    public void reset() {
+        
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        
+    } // end reset
+    
+    
+    /**
+     * This class names one block of one file.
+     */
+    private static final class Key {
+        
+        private final Object file;
+        private final long index;
+        
+        
+        private Key(Object newFile, long newIndex) {
+            
+            file = newFile;
+            index = newIndex;
+            
+        } // end Key constructor
+        
+        
+        @Override
+        public boolean equals(Object other) {
+            
+            return other instanceof Key && ((Key)other).index == index && ((Key)other).file.equals(file);
+            
+        } // end equals
+        
+        
+        @Override
+        public int hashCode() {
+            
+            return file.hashCode() * 31 + Long.hashCode(index);
+            
+        } // end hashCode
+        
+    } // end Key
+    
+} // end BlockCache
@@ -0,0 +1,34 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular interface is the JMX view of a BlockCache. Every getter
+ * shows up as a read only attribute in JConsole or any JMX scraper.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public interface BlockCacheMBean {
+    
+    // Counters.
+    long getHits();
+    long getMisses();
+    long getEvictions();
+    double getHitRatio();
+    
+    // Gauges.
+    long getCapacity();
+    long getBytesCached();
+    int getBlocksCached();
+    int getBlockSize();
+    
+    void reset();
+    
+} // end BlockCacheMBean
@@ -0,0 +1,495 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class holds the block signatures of the server's existing
+ * copy of a file, used to send only what changed (see DeltaInputStream). The
+ * copy is cut into fixed size blocks, about the square root of its length,
+ * and each block gets a weak RollingChecksum and a strong hash (the first
+ * STRONGSIZE bytes of its SHA-256).
+ * 
+ * The client fetches them before the transfer starts with signature requests,
+ * each naming the first block wanted and the most bytes it can take back. The
+ * server answers each straight away, outside the window, with a signatures
+ * packet: the copy's length (8 bytes), the block size (4), the first block
+ * (4) and the number of blocks (4) in the packet, then ENTRYSIZE bytes per
+ * block. A block size of 0 means the server isn't expecting a delta.
+ * Requests are resent each time out until every block has been heard of.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class BlockSignatures {
+    
+    // Block sizes are kept between these no matter how small or large the file.
+    public static final int MINBLOCKSIZE = 512;
+    public static final int MAXBLOCKSIZE = 65536;
+    
+    // Bytes of each block's SHA-256 kept, and the size of a block's signature on the wire.
+    public static final int STRONGSIZE = 16;
+    public static final int ENTRYSIZE = 4 + STRONGSIZE;
+    
+    // The length, block size, first block and block count at the start of a signatures packet.
+    public static final int REPLYHEADERSIZE = 20;
+    
+    // A signature request carries the most payload the client can take back (4 bytes).
+    public static final int REQUESTSIZE = 4;
+    
+    // Time outs in a row without hearing from the server before the fetch is given up.
+    public static final int MAXFETCHATTEMPTS = 10;
+    
+    private final long basisLength;
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[][] strong;
+    
+    // Weak checksum to the full sized blocks having it, built on first use.
+    private Map<Integer, List<Integer>> lookup;
+    
+    
+    /**
+     * A constructor for the BlockSignatures, use of() or fetch() instead.
+     */
+    private BlockSignatures(long newBasisLength, int newBlockSize) {
+        
+        basisLength = newBasisLength;
+        blockSize = newBlockSize;
+        
+        int blocks = newBlockSize == 0 ? 0 : (int)((newBasisLength + newBlockSize - 1) / newBlockSize);
+        weak = new int[blocks];
+        strong = new byte[blocks][];
+        
+    } // end BlockSignatures constructor
+    
+    
+    /**
+     * This method picks the block size for a file, about the square root of its length.
+     * 
+     * @param length - The file length, in bytes.
+     * 
+     * @return - The block size, in bytes.
+     */
+    public static int blockSizeFor(long length) {
+        
+        return (int)Math.min(MAXBLOCKSIZE, Math.max(MINBLOCKSIZE, (long)Math.sqrt(length)));
+        
+    } // end blockSizeFor
+    
+    
+    /**
+     * This method signs every block of a file. A missing file has no blocks, so everything will
+     * be sent.
+     * 
+     * @param file - The server's existing copy.
+     * 
+     * @return - The signatures.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    public static BlockSignatures of(Path file) throws IOException {
+        
+        long length = Files.exists(file) ? Files.size(file) : 0;
+        BlockSignatures signatures = new BlockSignatures(length, blockSizeFor(length));
+        
+        if(length == 0) {
+            
+            return signatures;
+            
+        }
+        
+        MessageDigest digest = newStrongDigest();
+        byte[] block = new byte[signatures.blockSize];
+        
+        try(FileInputStream in = new FileInputStream(file.toFile())) {
+            
+            for(int i = 0 ; i < signatures.weak.length ; i++) {
+                
+                int len = in.readNBytes(block, 0, signatures.blockLength(i));
+                
+                signatures.weak[i] = RollingChecksum.of(block, 0, len);
+                signatures.strong[i] = strongHash(digest, block, 0, len);
+                
+            }
+            
+        }
+        
+        return signatures;
+        
+    } // end of
+    
+    
+    /**
+     * This method will provide the length of the server's copy.
+     * 
+     * @return - The length, in bytes.
+     */
+    public long getBasisLength() {
+        
+        return basisLength;
+        
+    } // end getBasisLength
+    
+    
+    /**
+     * This method will provide the block size.
+     * 
+     * @return - The block size, in bytes.
+     */
+    public int getBlockSize() {
+        
+        return blockSize;
+        
+    } // end getBlockSize
+    
+    
+    /**
+     * This method will provide the number of blocks in the server's copy.
+     * 
+     * @return - The number of blocks.
+     */
+    public int getBlockCount() {
+        
+        return weak.length;
+        
+    } // end getBlockCount
+    
+    
+    /**
+     * This method will provide the length of a block, only the last may be short.
+     * 
+     * @param index - The block.
+     * 
+     * @return - Its length, in bytes.
+     */
+    public int blockLength(int index) {
+        
+        return (int)Math.min(blockSize, basisLength - (long)index * blockSize);
+        
+    } // end blockLength
+    
+    
+    /**
+     * This method looks for a full sized block of the server's copy matching the bytes given.
+     * 
+     * @param checksum - The RollingChecksum of the bytes.
+     * 
+     * @param data - The buffer holding the bytes.
+     * 
+     * @param offset - Where they start, there must be a block size of them.
+     * 
+     * @param digest - Used for the strong hash, only if the weak checksum matches.
+     * 
+     * @return - The matching block, or -1 if none match.
+     */
+    public int find(int checksum, byte[] data, int offset, MessageDigest digest) {
+        
+        if(lookup == null) {
+            
+            lookup = new HashMap<Integer, List<Integer>>();
+            
+            for(int i = 0 ; i < weak.length ; i++) {
+                
+                if(blockLength(i) == blockSize) {
+                    
+                    lookup.computeIfAbsent(weak[i], key -> new ArrayList<Integer>()).add(i);
+                    
+                }
+                
+            }
+            
+        }
+        
+        List<Integer> candidates = lookup.get(checksum);
+        
+        if(candidates == null) {
+            
+            return -1;
+            
+        }
+        
+        byte[] hash = strongHash(digest, data, offset, blockSize);
+        
+        for(int candidate : candidates) {
+            
+            if(MessageDigest.isEqual(hash, strong[candidate])) {
+                
+                return candidate;
+                
+            }
+            
+        }
+        
+        return -1;
+        
+    } // end find
+    
+    
+    /**
+     * This method checks the bytes given against one block, used for the short last block.
+     * 
+     * @param index - The block.
+     * 
+     * @param data - The buffer holding the bytes.
+     * 
+     * @param offset - Where they start.
+     * 
+     * @param len - How many there are.
+     * 
+     * @param digest - Used for the strong hash, only if the weak checksum matches.
+     * 
+     * @return - A boolean true if the block matches, false otherwise.
+     */
+    public boolean matches(int index, byte[] data, int offset, int len, MessageDigest digest) {
+        
+        return index >= 0 && index < weak.length && len == blockLength(index) &&
+               RollingChecksum.of(data, offset, len) == weak[index] &&
+               MessageDigest.isEqual(strongHash(digest, data, offset, len), strong[index]);
+               
+    } // end matches
+    
+    
+    /**
+     * This method builds the payload of a signatures packet.
+     * 
+     * @param first - The first block wanted.
+     * 
+     * @param maxBytes - The most payload the client can take.
+     * 
+     * @return - The payload.
+     */
+    public byte[] reply(int first, int maxBytes) {
+        
+        first = Math.max(0, Math.min(first, weak.length));
+        int count = Math.max(0, Math.min(weak.length - first, (maxBytes - REPLYHEADERSIZE) / ENTRYSIZE));
+        
+        ByteBuffer reply = ByteBuffer.allocate(REPLYHEADERSIZE + count * ENTRYSIZE);
+        reply.putLong(basisLength).putInt(blockSize).putInt(first).putInt(count);
+        
+        for(int i = first ; i < first + count ; i++) {
+            
+            reply.putInt(weak[i]).put(strong[i]);
+            
+        }
+        
+        return reply.array();
+        
+    } // end reply
+    
+    
+    /**
+     * This method builds the payload of a signatures packet from a server not expecting a delta.
+     * 
+     * @return - The payload, with a block size of 0.
+     */
+    public static byte[] refusal() {
+        
+        return new BlockSignatures(0, 0).reply(0, REPLYHEADERSIZE);
+        
+    } // end refusal
+    
+    
+    /**
+     * This method asks a server for the signatures of its copy, resending requests until all
+     * have arrived. It blocks until then.
+     * 
+     * @param server - The address and port of the server.
+     * 
+     * @param maxDataSize - The most payload each signatures packet may carry.
+     * 
+     * @param timeOut - How long to wait for answers before asking again, in milliseconds.
+     * 
+     * @param dataImpairment - The simulated network for requests.
+     * 
+     * @param ackImpairment - The simulated network for answers.
+     * 
+     * @return - The signatures.
+     * 
+     * @throws IOException - If the server didn't answer, or isn't expecting a delta.
+     */
+    public static BlockSignatures fetch(InetSocketAddress server, int maxDataSize, int timeOut,
+                                           Impairment dataImpairment, Impairment ackImpairment)
+                                           throws IOException {
+                                           
+        maxDataSize = Math.max(maxDataSize, REPLYHEADERSIZE + ENTRYSIZE);
+        int perReply = (maxDataSize - REPLYHEADERSIZE) / ENTRYSIZE;
+        
+        try(DatagramSocket socket = new DatagramSocket()) {
+            
+            socket.setSoTimeout(timeOut);
+            
+            BlockSignatures signatures = null;
+            boolean[] heard = new boolean[0];
+            int missing = 1;
+            int attempts = 0;
+            byte[] buffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + maxDataSize];
+            
+            while(missing > 0) {
+                
+                if(++attempts > MAXFETCHATTEMPTS) {
+                    
+                    throw new IOException("No block signatures from " + server + "!");
+                    
+                }
+                
+                // Ask for every chunk not yet heard of, just the first until the size is known.
+                for(int first = 0 ; first < Math.max(1, heard.length) ; first += perReply) {
+                    
+                    if(heard.length == 0 || !heard[first]) {
+                        
+                        sendRequest(socket, server, first, maxDataSize, dataImpairment);
+                        
+                    }
+                    
+                }
+                
+                try {
+                    
+                    while(missing > 0) {
+                        
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        
+                        if(ackImpairment.isLost() || !Helper.isCheckSumGood(buffer) ||
+                               Helper.retrievePacketType(buffer) != Helper.TYPESIGNATURES) {
+                               
+                            continue;
+                            
+                        }
+                        
+                        ByteBuffer reply = ByteBuffer.wrap(buffer, Helper.ACKNOWLEDGEMENTHEADERSIZE,
+                                                               packet.getLength() - Helper.ACKNOWLEDGEMENTHEADERSIZE);
+                        long length = reply.getLong();
+                        int blockSize = reply.getInt();
+                        int first = reply.getInt();
+                        int count = reply.getInt();
+                        
+                        if(blockSize == 0) {
+                            
+                            throw new IOException("Server at " + server + " is not expecting a delta!");
+                            
+                        }
+                        
+                        if(signatures == null) {
+                            
+                            signatures = new BlockSignatures(length, blockSize);
+                            heard = new boolean[signatures.weak.length];
+                            missing = heard.length;
+                            
+                        }
+                        
+                        for(int i = first ; i < first + count && i < heard.length ; i++) {
+                            
+                            signatures.weak[i] = reply.getInt();
+                            signatures.strong[i] = new byte[STRONGSIZE];
+                            reply.get(signatures.strong[i]);
+                            
+                            if(!heard[i]) {
+                                
+                                heard[i] = true;
+                                missing--;
+                                
+                            }
+                            
+                        }
+                        
+                        attempts = 0;
+                        
+                    } // end while loop
+                    
+                } catch (SocketTimeoutException e) {
+                    
+                    // Ask again for whatever is still missing.
+                    
+                }
+                
+            } // end while loop
+            
+            Log.info("Fetched signatures of " + signatures.weak.length + " blocks (" +
+                         signatures.blockSize + " bytes each) from the server's copy.\n");
+                         
+            return signatures;
+            
+        } // end try block
+        
+    } // end fetch
+    
+    
+    /**
+     * This method sends one signature request.
+     */
+    private static void sendRequest(DatagramSocket socket, InetSocketAddress server, int first,
+                                       int maxDataSize, Impairment dataImpairment) throws IOException {
+                                       
+        byte[] request = new byte[Helper.APPLICATIONHEADERSIZE + REQUESTSIZE];
+        
+        Helper.bufferLength(request, REQUESTSIZE);
+        Helper.bufferSeqNumber(request, first);
+        Helper.bufferPacketType(request, Helper.TYPESIGREQUEST);
+        Helper.bufferCheckSum(request, dataImpairment.isCorrupted() ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+        ByteBuffer.wrap(request, Helper.APPLICATIONHEADERSIZE, REQUESTSIZE).putInt(maxDataSize);
+        
+        dataImpairment.send(socket, new DatagramPacket(request, request.length, server));
+        
+    } // end sendRequest
+    
+    
+    /**
+     * This method finds the strong hash of some bytes.
+     * 
+     * @return - The first STRONGSIZE bytes of their SHA-256.
+     */
+    private static byte[] strongHash(MessageDigest digest, byte[] data, int offset, int len) {
+        
+        digest.update(data, offset, len);
+        
+        return Arrays.copyOf(digest.digest(), STRONGSIZE);
+        
+    } // end strongHash
+    
+    
+    /**
+     * This method provides a digest for the strong hashes.
+     * 
+     * @return - A new digest.
+     * 
+     * @throws IOException - If the digest algorithm isn't available.
+     */
+    public static MessageDigest newStrongDigest() throws IOException {
+        
+        MessageDigest digest = Helper.newDigest();
+        
+        if(digest == null) {
+            
+            throw new IOException("No " + Helper.DIGESTALGORITHM + " digest for block signatures!");
+            
+        }
+        
+        return digest;
+        
+    } // end newStrongDigest
+    
+} // end BlockSignatures
@@ -0,0 +1,213 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class reads a file through a BlockCache, a block at a time.
+ * Blocks already cached are copied from memory, others are read from disk and
+ * cached for the next client. The file is named in the cache by its path,
+ * length and last modified time when opened, so a file replaced on disk gets
+ * new blocks and its old ones are left to be evicted.
+ * 
+ * The length is fixed when opened. If the file shrinks while being read the
+ * rest is padded with zeros, as BatchInputStream does.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class CachedFileInputStream extends InputStream {
+    
+    private final BlockCache cache;
+    private final FileChannel channel;
+    private final String name;
+    private final long length;
+    private final int blockSize;
+    private long position = 0;
+    
+    // The block being read from.
+    private byte[] block;
+    private long blockIndex = -1;
+    
+    
+    /**
+     * A constructor for the CachedFileInputStream.
+     * 
+     * @param newCache - The cache to read through.
+     * 
+     * @param file - The file to read.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    public CachedFileInputStream(BlockCache newCache, Path file) throws IOException {
+        
+        cache = newCache;
+        blockSize = cache.getBlockSize();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        
+        try {
+            
+            length = channel.size();
+            name = file.toAbsolutePath().normalize() + "@" + length + "@" + Files.getLastModifiedTime(file).toMillis();
+            
+        } catch (IOException e) {
+            
+            channel.close();
+            throw e;
+            
+        }
+        
+    } // end CachedFileInputStream constructor
+    
+    
+    /**
+     * This method will provide the length of the file when it was opened.
+     * 
+     * @return - The length, in bytes.
+     */
+    public long getLength() {
+        
+        return length;
+        
+    } // end getLength
+    
+    
+    /**
+     * This method will provide the bytes left to read. None of them wait on anything but the
+     * disk, so a reader such as the SenderThread may keep going until a packet is full.
+     * 
+     * @return - The bytes left, at most Integer.MAX_VALUE.
+     */
+    @Override
+    public int available() {
+        
+        return (int)Math.min(length - position, Integer.MAX_VALUE);
+        
+    } // end available
+    
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] one = new byte[1];
+        
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        
+    } // end read
+    
+    
+    /**
+     * This method reads up to len bytes, crossing blocks as needed, so it only returns short at
+     * the end of the file.
+     * 
+     * @param buffer - Where the bytes are placed.
+     * 
+     * @param offset - The first index to fill.
+     * 
+     * @param len - The most bytes to read.
+     * 
+     * @return - The number of bytes read, -1 at the end of the file.
+     * 
+     * @throws IOException - If a block could not be read.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        
+        if(position >= length) {
+            
+            return len == 0 ? 0 : -1;
+            
+        }
+        
+        int total = 0;
+        
+        while(total < len && position < length) {
+            
+            long index = position / blockSize;
+            
+            if(index != blockIndex) {
+                
+                block = loadBlock(index);
+                blockIndex = index;
+                
+            }
+            
+            int inBlock = (int)(position - index * blockSize);
+            int n = (int)Math.min(len - total, Math.min(blockSize - inBlock, length - position));
+            System.arraycopy(block, inBlock, buffer, offset + total, n);
+            
+            total += n;
+            position += n;
+            
+        }
+        
+        return total;
+        
+    } // end read
+    
+    
+    /**
+     * This method finds a block in the cache, reading it from disk and caching it if missing.
+     * 
+     * @param index - The block.
+     * 
+     * @return - The block, only the last is short. Any part the file has lost since it was
+     *              opened is zeros.
+     * 
+     * @throws IOException - If the block could not be read.
+     */
+    private byte[] loadBlock(long index) throws IOException {
+        
+        byte[] cached = cache.get(name, index);
+        
+        if(cached != null) {
+            
+            return cached;
+            
+        }
+        
+        int wanted = (int)Math.min(blockSize, length - index * blockSize);
+        ByteBuffer read = ByteBuffer.allocate(wanted);
+        
+        while(read.hasRemaining()) {
+            
+            if(channel.read(read, index * blockSize + read.position()) < 0) {
+                
+                Log.warn("File " + name + " shrank while being sent, padding with zeros!");
+                
+                // Not cached, the next client should see the file as it is now.
+                return read.array();
+                
+            }
+            
+        }
+        
+        cache.put(name, index, read.array());
+        
+        return read.array();
+        
+    } // end loadBlock
+    
+    
+    @Override
+    public void close() throws IOException {
+        
+        channel.close();
+        
+    } // end close
+    
+} // end CachedFileInputStream
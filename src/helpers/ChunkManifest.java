@@ -0,0 +1,444 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class cuts the client's file into chunks and asks the
+ * server which of them its ChunkStore already holds, so only the rest need be
+ * sent (see DedupInputStream).
+ * 
+ * Chunk boundaries are chosen by content rather than position, so data that
+ * moves within a file or between files (eg... a layer repeated in another
+ * image) is cut the same way. A gear hash is rolled over the bytes, each one
+ * shifting it left and adding a fixed random number for the byte, and a chunk
+ * ends where its top bits are all 0, AVGCHUNKSIZE bytes apart on average.
+ * Chunks are kept between MINCHUNKSIZE and MAXCHUNKSIZE.
+ * 
+ * The client asks with chunk queries, each carrying as many SHA-256 hashes as
+ * fit in a packet, its sequence number being the index of the first. The
+ * server answers each straight away, outside the window, with a chunks held
+ * packet: the first index (4 bytes), the number of hashes asked about (4) and
+ * a bit for each, set if held. A count of 0 means the server isn't expecting
+ * deduplicated data. Queries are resent each time out until every hash has
+ * been answered for.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+public class ChunkManifest {
+    
+    public static final int MINCHUNKSIZE = 2048;
+    public static final int AVGCHUNKSIZE = 8192;
+    public static final int MAXCHUNKSIZE = 65536;
+    
+    // Chunks are named by their whole SHA-256.
+    public static final int HASHSIZE = Helper.DIGESTSIZE;
+    
+    // The first index and count at the start of a chunks held packet.
+    public static final int REPLYHEADERSIZE = 8;
+    
+    // Time outs in a row without hearing from the server before the query is given up.
+    public static final int MAXQUERYATTEMPTS = 10;
+    
+    // A boundary is where these top bits of the gear hash are all 0, 1 in AVGCHUNKSIZE bytes.
+    private static final long BOUNDARYMASK = -1L << (64 - Integer.numberOfTrailingZeros(AVGCHUNKSIZE));
+    
+    // Fixed so every client cuts the same data the same way.
+    private static final long GEARSEED = 460;
+    private static final long[] GEAR = new long[256];
+    
+    static {
+        
+        Random random = new Random(GEARSEED);
+        
+        for(int i = 0 ; i < GEAR.length ; i++) {
+            
+            GEAR[i] = random.nextLong();
+            
+        }
+        
+    }
+    
+    private final long length;
+    private final int[] lengths;
+    private final byte[][] hashes;
+    private final boolean[] held;
+    
+    
+    /**
+     * A constructor for the ChunkManifest, use of() instead.
+     */
+    private ChunkManifest(long newLength, List<Integer> newLengths, List<byte[]> newHashes) {
+        
+        length = newLength;
+        lengths = new int[newLengths.size()];
+        hashes = newHashes.toArray(new byte[newHashes.size()][]);
+        held = new boolean[lengths.length];
+        
+        for(int i = 0 ; i < lengths.length ; i++) {
+            
+            lengths[i] = newLengths.get(i);
+            
+        }
+        
+    } // end ChunkManifest constructor
+    
+    
+    /**
+     * This method cuts a file into chunks and hashes each one.
+     * 
+     * @param file - The file to send.
+     * 
+     * @return - The manifest, nothing yet known to be held.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    public static ChunkManifest of(Path file) throws IOException {
+        
+        MessageDigest digest = BlockSignatures.newStrongDigest();
+        List<Integer> lengths = new ArrayList<Integer>();
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        byte[] buffer = new byte[16 * MAXCHUNKSIZE];
+        long total = 0;
+        long gear = 0;
+        int chunkLength = 0;
+        
+        try(FileInputStream in = new FileInputStream(file.toFile())) {
+            
+            int n;
+            
+            while((n = in.read(buffer)) > 0) {
+                
+                int start = 0;
+                
+                for(int i = 0 ; i < n ; i++) {
+                    
+                    gear = (gear << 1) + GEAR[buffer[i] & 0xFF];
+                    chunkLength++;
+                    
+                    if(chunkLength >= MAXCHUNKSIZE || (chunkLength >= MINCHUNKSIZE && (gear & BOUNDARYMASK) == 0)) {
+                        
+                        digest.update(buffer, start, i + 1 - start);
+                        lengths.add(chunkLength);
+                        hashes.add(digest.digest());
+                        
+                        start = i + 1;
+                        chunkLength = 0;
+                        gear = 0;
+                        
+                    }
+                    
+                }
+                
+                digest.update(buffer, start, n - start);
+                total += n;
+                
+            }
+            
+        }
+        
+        if(chunkLength > 0) {
+            
+            lengths.add(chunkLength);
+            hashes.add(digest.digest());
+            
+        }
+        
+        return new ChunkManifest(total, lengths, hashes);
+        
+    } // end of
+    
+    
+    /**
+     * This method will provide the length of the file.
+     * 
+     * @return - The length, in bytes.
+     */
+    public long getLength() {
+        
+        return length;
+        
+    } // end getLength
+    
+    
+    /**
+     * This method will provide the number of chunks the file was cut into.
+     * 
+     * @return - The number of chunks.
+     */
+    public int getChunkCount() {
+        
+        return lengths.length;
+        
+    } // end getChunkCount
+    
+    
+    /**
+     * This method will provide the length of a chunk.
+     * 
+     * @param index - The chunk.
+     * 
+     * @return - Its length, in bytes.
+     */
+    public int getChunkLength(int index) {
+        
+        return lengths[index];
+        
+    } // end getChunkLength
+    
+    
+    /**
+     * This method will provide the hash of a chunk.
+     * 
+     * @param index - The chunk.
+     * 
+     * @return - Its SHA-256, not to be changed.
+     */
+    public byte[] getHash(int index) {
+        
+        return hashes[index];
+        
+    } // end getHash
+    
+    
+    /**
+     * This method is used to determine whether the server said it holds a chunk.
+     * 
+     * @param index - The chunk.
+     * 
+     * @return - A boolean true if held, false if not or the server hasn't been asked.
+     */
+    public boolean isHeld(int index) {
+        
+        return held[index];
+        
+    } // end isHeld
+    
+    
+    /**
+     * This method asks a server which chunks it holds, resending queries until every one has
+     * been answered. A chunk found more than once is only asked about once. It blocks until then.
+     * 
+     * @param server - The address and port of the server.
+     * 
+     * @param maxDataSize - The most payload each query may carry.
+     * 
+     * @param timeOut - How long to wait for answers before asking again, in milliseconds.
+     * 
+     * @param dataImpairment - The simulated network for queries.
+     * 
+     * @param ackImpairment - The simulated network for answers.
+     * 
+     * @throws IOException - If the server didn't answer, or isn't expecting deduplicated data.
+     */
+    public void query(InetSocketAddress server, int maxDataSize, int timeOut, Impairment dataImpairment,
+                         Impairment ackImpairment) throws IOException {
+        
+        // Each distinct hash, and the chunks having it.
+        Map<ByteBuffer, List<Integer>> chunks = new HashMap<ByteBuffer, List<Integer>>();
+        List<byte[]> distinct = new ArrayList<byte[]>();
+        
+        for(int i = 0 ; i < hashes.length ; i++) {
+            
+            List<Integer> same = chunks.get(ByteBuffer.wrap(hashes[i]));
+            
+            if(same == null) {
+                
+                same = new ArrayList<Integer>();
+                chunks.put(ByteBuffer.wrap(hashes[i]), same);
+                distinct.add(hashes[i]);
+                
+            }
+            
+            same.add(i);
+            
+        }
+        
+        int perQuery = Math.max(1, maxDataSize / HASHSIZE);
+        int queries = (distinct.size() + perQuery - 1) / perQuery;
+        boolean[] answered = new boolean[queries];
+        int missing = queries;
+        int attempts = 0;
+        long heldBytes = 0;
+        byte[] buffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + REPLYHEADERSIZE + (perQuery + 7) / 8];
+        
+        try(DatagramSocket socket = new DatagramSocket()) {
+            
+            socket.setSoTimeout(timeOut);
+            
+            while(missing > 0) {
+                
+                if(++attempts > MAXQUERYATTEMPTS) {
+                    
+                    throw new IOException("No answer to chunk queries from " + server + "!");
+                    
+                }
+                
+                for(int q = 0 ; q < queries ; q++) {
+                    
+                    if(!answered[q]) {
+                        
+                        sendQuery(socket, server, distinct, q * perQuery, perQuery, dataImpairment);
+                        
+                    }
+                    
+                }
+                
+                try {
+                    
+                    while(missing > 0) {
+                        
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        
+                        if(ackImpairment.isLost() || !Helper.isCheckSumGood(buffer) ||
+                               Helper.retrievePacketType(buffer) != Helper.TYPECHUNKSHELD) {
+                            
+                            continue;
+                            
+                        }
+                        
+                        ByteBuffer reply = ByteBuffer.wrap(buffer, Helper.ACKNOWLEDGEMENTHEADERSIZE,
+                                                               packet.getLength() - Helper.ACKNOWLEDGEMENTHEADERSIZE);
+                        int first = reply.getInt();
+                        int count = reply.getInt();
+                        
+                        if(count == 0) {
+                            
+                            throw new IOException("Server at " + server + " is not expecting deduplicated data!");
+                            
+                        }
+                        
+                        int q = first / perQuery;
+                        
+                        if(first % perQuery != 0 || q < 0 || q >= queries || answered[q] ||
+                               count != Math.min(perQuery, distinct.size() - first)) {
+                            
+                            continue;
+                            
+                        }
+                        
+                        for(int i = 0 ; i < count ; i++) {
+                            
+                            if((buffer[reply.position() + i / 8] & (1 << (i % 8))) != 0) {
+                                
+                                for(int chunk : chunks.get(ByteBuffer.wrap(distinct.get(first + i)))) {
+                                    
+                                    held[chunk] = true;
+                                    heldBytes += lengths[chunk];
+                                    
+                                }
+                                
+                            }
+                            
+                        }
+                        
+                        answered[q] = true;
+                        missing--;
+                        attempts = 0;
+                        
+                    } // end while loop
+                    
+                } catch (SocketTimeoutException e) {
+                    
+                    // Ask again for whatever is still unanswered.
+                    
+                }
+                
+            } // end while loop
+            
+        } // end try block
+        
+        Log.info("Server holds " + heldBytes + " of " + length + " bytes, " + lengths.length + " chunks (" +
+                     distinct.size() + " distinct).\n");
+        
+    } // end query
+    
+    
+    /**
+     * This method sends one chunk query.
+     */
+    private static void sendQuery(DatagramSocket socket, InetSocketAddress server, List<byte[]> distinct,
+                                     int first, int perQuery, Impairment dataImpairment) throws IOException {
+        
+        int count = Math.min(perQuery, distinct.size() - first);
+        byte[] query = new byte[Helper.APPLICATIONHEADERSIZE + count * HASHSIZE];
+        
+        Helper.bufferLength(query, count * HASHSIZE);
+        Helper.bufferSeqNumber(query, first);
+        Helper.bufferPacketType(query, Helper.TYPECHUNKQUERY);
+        Helper.bufferCheckSum(query, dataImpairment.isCorrupted() ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+        
+        for(int i = 0 ; i < count ; i++) {
+            
+            System.arraycopy(distinct.get(first + i), 0, query, Helper.APPLICATIONHEADERSIZE + i * HASHSIZE, HASHSIZE);
+            
+        }
+        
+        dataImpairment.send(socket, new DatagramPacket(query, query.length, server));
+        
+    } // end sendQuery
+    
+    
+    /**
+     * This method builds the payload of a chunks held packet.
+     * 
+     * @param store - The server's chunks, null if it isn't expecting deduplicated data.
+     * 
+     * @param first - The index of the first hash, the query's sequence number.
+     * 
+     * @param query - The buffer holding the query's hashes.
+     * 
+     * @param offset - Where they start.
+     * 
+     * @param len - Their length, in bytes.
+     * 
+     * @return - The payload.
+     */
+    public static byte[] answer(ChunkStore store, int first, byte[] query, int offset, int len) {
+        
+        int count = store == null ? 0 : len / HASHSIZE;
+        ByteBuffer reply = ByteBuffer.allocate(REPLYHEADERSIZE + (count + 7) / 8);
+        byte[] hash = new byte[HASHSIZE];
+        
+        reply.putInt(first).putInt(count);
+        
+        for(int i = 0 ; i < count ; i++) {
+            
+            System.arraycopy(query, offset + i * HASHSIZE, hash, 0, HASHSIZE);
+            
+            if(store.contains(hash)) {
+                
+                reply.array()[REPLYHEADERSIZE + i / 8] |= 1 << (i % 8);
+                
+            }
+            
+        }
+        
+        return reply.array();
+        
+    } // end answer
+    
+} // end ChunkManifest
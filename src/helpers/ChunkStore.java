@@ -0,0 +1,227 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is a content addressed store of chunks kept by the
+ * server, so data it already holds from any earlier upload is neither sent
+ * nor written to disk again (see DedupInputStream). Each chunk is a file in
+ * the store's directory named by the hex of its SHA-256, under a directory
+ * named by the first byte, eg... store/3f/a9c0...
+ * 
+ * A chunk is written to a temporary file and moved into place, so a chunk
+ * that is there is always whole and two sessions storing the same chunk at
+ * once keep one copy. Chunks are never removed, one store can be shared by any
+ * number of servers.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class ChunkStore {
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private final Path directory;
+    
+    private final LongAdder chunksStored = new LongAdder();
+    private final LongAdder chunksReused = new LongAdder();
+    private final LongAdder bytesStored = new LongAdder();
+    private final LongAdder bytesReused = new LongAdder();
+    
+    
+    /**
+     * A constructor for the ChunkStore.
+     * 
+     * @param newDirectory - Where the chunks are kept, created if missing.
+     * 
+     * @throws IOException - If the directory could not be created.
+     */
+    public ChunkStore(Path newDirectory) throws IOException {
+        
+        directory = newDirectory;
+        Files.createDirectories(directory);
+        
+    } // end ChunkStore constructor
+    
+    
+    /**
+     * This method is used to determine whether a chunk is held.
+     * 
+     * @param hash - The chunk's SHA-256.
+     * 
+     * @return - A boolean true if the store has it, false otherwise.
+     */
+    public boolean contains(byte[] hash) {
+        
+        return Files.exists(path(hash));
+        
+    } // end contains
+    
+    
+    /**
+     * This method adds a chunk, named by its SHA-256 worked out here rather than any name the
+     * client gave it. A chunk already held isn't written again.
+     * 
+     * @param data - The buffer holding the chunk.
+     * 
+     * @param offset - Where it starts.
+     * 
+     * @param len - Its length, in bytes.
+     * 
+     * @param digest - Used to hash the chunk.
+     * 
+     * @return - The chunk's SHA-256.
+     * 
+     * @throws IOException - If the chunk could not be written.
+     */
+    public byte[] put(byte[] data, int offset, int len, MessageDigest digest) throws IOException {
+        
+        digest.update(data, offset, len);
+        
+        byte[] hash = digest.digest();
+        Path chunk = path(hash);
+        
+        if(Files.exists(chunk)) {
+            
+            chunksReused.increment();
+            bytesReused.add(len);
+            return hash;
+            
+        }
+        
+        Files.createDirectories(chunk.getParent());
+        
+        Path temporary = Files.createTempFile(chunk.getParent(), "chunk", ".tmp");
+        
+        try {
+            
+            try(OutputStream out = Files.newOutputStream(temporary)) {
+                
+                out.write(data, offset, len);
+                
+            }
+            
+            Files.move(temporary, chunk, StandardCopyOption.ATOMIC_MOVE);
+            chunksStored.increment();
+            bytesStored.add(len);
+            
+        } catch (FileAlreadyExistsException e) {
+            
+            // Stored by another session in the meantime.
+            chunksReused.increment();
+            bytesReused.add(len);
+            
+        } finally {
+            
+            Files.deleteIfExists(temporary);
+            
+        }
+        
+        return hash;
+        
+    } // end put
+    
+    
+    /**
+     * This method reads a whole chunk back.
+     * 
+     * @param hash - The chunk's SHA-256.
+     * 
+     * @return - The chunk.
+     * 
+     * @throws IOException - If the store doesn't have it or it could not be read.
+     */
+    public byte[] get(byte[] hash) throws IOException {
+        
+        Path chunk = path(hash);
+        
+        if(!Files.exists(chunk)) {
+            
+            throw new IOException("Chunk " + chunk.getFileName() + " is not in the store!");
+            
+        }
+        
+        byte[] data = Files.readAllBytes(chunk);
+        
+        chunksReused.increment();
+        bytesReused.add(data.length);
+        
+        return data;
+        
+    } // end get
+    
+    
+    /**
+     * This method finds where a chunk is kept.
+     * 
+     * @param hash - The chunk's SHA-256.
+     * 
+     * @return - Its path, whether or not it exists.
+     */
+    private Path path(byte[] hash) {
+        
+        char[] name = new char[hash.length * 2];
+        
+        for(int i = 0 ; i < hash.length ; i++) {
+            
+            name[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            name[2 * i + 1] = HEX[hash[i] & 0xF];
+            
+        }
+        
+        String hex = new String(name);
+        
+        return directory.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+        
+    } // end path
+    
+    
+    /**
+     * This method will provide the directory the chunks are kept in.
+     * 
+     * @return - The directory.
+     */
+    public Path getDirectory() {
+        
+        return directory;
+        
+    } // end getDirectory
+    
+    
+    /**
+     * @return - The number of chunks written to the store.
+     */
+    public long getChunksStored() { return chunksStored.sum(); }
+    
+    /**
+     * @return - The number of chunks used that were already held, sent or referred to.
+     */
+    public long getChunksReused() { return chunksReused.sum(); }
+    
+    /**
+     * @return - The bytes written to the store.
+     */
+    public long getBytesStored() { return bytesStored.sum(); }
+    
+    /**
+     * @return - The bytes used that were already held, none of them written again.
+     */
+    public long getBytesReused() { return bytesReused.sum(); }
+    
+} // end ChunkStore
@@ -0,0 +1,448 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets many P2Clients share one socket and a few
+ * threads instead of each having its own socket, SenderThread and
+ * ReceiverThread. Hundreds of uploads from one process then need one port
+ * and DEFAULTSENDERS + 1 threads.
+ * 
+ * Each P2Server session has a port of its own, so the server's address and
+ * port identify the transfer, nothing is added to the packets. One thread
+ * receives every acknowledgement and hands it to the ReceiverThread logic of
+ * the transfer it came from, and checks each transfer for a time out every
+ * TICK milliseconds. The sending threads take turns over the transfers with
+ * room in their window, sending at most BURST packets before moving on. A
+ * transfer whose window is full waits off the queue until an acknowledgement
+ * or time out wakes it.
+ * 
+ * A stream that blocks on reading (eg... a pipe) holds one sending thread
+ * while it waits, so give the mux more senders than such streams.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import application.P2Client;
+
+
+public class ClientMux {
+    
+    public static final int DEFAULTSENDERS = 4;
+    
+    // How long a receive waits, and how often time outs are checked, in milliseconds.
+    private static final int TICK = 5;
+    
+    // The most packets one transfer sends before the next gets a turn.
+    private static final int BURST = 16;
+    
+    private final DatagramSocket socket;
+    private final ConcurrentHashMap<SocketAddress, Connection> connections =
+            new ConcurrentHashMap<SocketAddress, Connection>();
+    private final BlockingQueue<Connection> ready = new LinkedBlockingQueue<Connection>();
+    private final Thread receiver;
+    private final Thread[] senders;
+    private final LongAdder strays = new LongAdder();
+    private volatile boolean closed = false;
+    
+    
+    /**
+     * A constructor for the ClientMux with DEFAULTSENDERS sending threads.
+     * 
+     * @throws SocketException - If the socket could not be opened.
+     */
+    public ClientMux() throws SocketException {
+        
+        this(DEFAULTSENDERS);
+        
+    } // end ClientMux constructor
+    
+    
+    /**
+     * A constructor for the ClientMux, the socket is opened and the threads started.
+     * 
+     * @param senderThreads - How many threads send for the transfers.
+     * 
+     * @throws SocketException - If the socket could not be opened.
+     */
+    public ClientMux(int senderThreads) throws SocketException {
+        
+        if(senderThreads <= 0) {
+            
+            throw new IllegalArgumentException("Bad number of sending threads " + senderThreads + "!");
+            
+        }
+        
+        socket = new DatagramSocket();
+        socket.setSoTimeout(TICK);
+        
+        receiver = new Thread("ClientMux-Receiver") {
+            
+            @Override
+            public void run() {
+                
+                receiveLoop();
+                
+            }
+            
+        };
+        
+        receiver.setDaemon(true);
+        receiver.start();
+        
+        senders = new Thread[senderThreads];
+        
+        for(int i = 0 ; i < senderThreads ; i++) {
+            
+            senders[i] = new Thread("ClientMux-Sender-" + i) {
+                
+                @Override
+                public void run() {
+                    
+                    sendLoop();
+                    
+                }
+                
+            };
+            
+            senders[i].setDaemon(true);
+            senders[i].start();
+            
+        }
+        
+    } // end ClientMux constructor
+    
+    
+    /**
+     * This method will provide the socket every transfer sends from.
+     * 
+     * @return - The shared socket.
+     */
+    public DatagramSocket getSocket() {
+        
+        return socket;
+        
+    } // end getSocket
+    
+    
+    /**
+     * This method starts driving a transfer, called by P2Client.start() in place of starting its
+     * threads.
+     * 
+     * @param client - The client, its server address identifies the transfer.
+     * 
+     * @param sender - The client's sender, never started.
+     * 
+     * @param receiverLogic - The client's receiver, never started.
+     */
+    public void register(P2Client client, SenderThread sender, ReceiverThread receiverLogic) {
+        
+        Connection connection = new Connection(client, sender, receiverLogic);
+        
+        if(closed) {
+            
+            throw new IllegalStateException("The ClientMux is closed!");
+            
+        }
+        
+        if(connections.putIfAbsent(connection.server, connection) != null) {
+            
+            throw new IllegalStateException("Already sending to " + connection.server + "!");
+            
+        }
+        
+        wake(connection);
+        
+    } // end register
+    
+    
+    /**
+     * This method stops driving a transfer, called by P2Client once it is over. Doing so more
+     * than once does nothing.
+     * 
+     * @param client - The client.
+     */
+    public void unregister(P2Client client) {
+        
+        Connection connection = connections.get(client.getServerAddress());
+        
+        if(connection != null && connection.client == client) {
+            
+            connection.closed = true;
+            connections.remove(connection.server, connection);
+            
+        }
+        
+    } // end unregister
+    
+    
+    /**
+     * This method is the receiving thread. Every packet goes to the transfer whose server sent
+     * it, anything else is counted and dropped.
+     */
+    private void receiveLoop() {
+        
+        byte[] buffer = new byte[Helper.DEFAULTBUFFERSIZE];
+        long lastCheck = System.nanoTime();
+        
+        while(!closed) {
+            
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            
+            try {
+                
+                socket.receive(packet);
+                
+                Connection connection = connections.get(packet.getSocketAddress());
+                
+                if(connection == null) {
+                    
+                    strays.increment();
+                    
+                } else {
+                    
+                    connection.lastHeard = System.nanoTime();
+                    handled(connection, connection.receiver.handleResponse(packet));
+                    
+                }
+                
+            } catch(SocketTimeoutException e) {
+                
+                // Nothing arrived this tick, time outs are checked below.
+                
+            } catch (IOException e) {
+                
+                if(socket.isClosed()) {
+                    
+                    break;
+                    
+                }
+                
+                Log.error("Error receiving packet!");
+                
+            } // end try-catch block
+            
+            long now = System.nanoTime();
+            
+            if(now - lastCheck >= TimeUnit.MILLISECONDS.toNanos(TICK)) {
+                
+                lastCheck = now;
+                checkTimeOuts(now);
+                
+            }
+            
+        } // end while loop
+        
+    } // end receiveLoop
+    
+    
+    /**
+     * This method handles a time out for every transfer that has heard nothing from its server
+     * for its time out period, as its own socket would have.
+     * 
+     * @param now - The current System.nanoTime().
+     */
+    private void checkTimeOuts(long now) {
+        
+        for(Connection connection : connections.values()) {
+            
+            if(now - connection.lastHeard >= connection.timeOut) {
+                
+                connection.lastHeard = now;
+                handled(connection, connection.receiver.processTimeOut());
+                
+            }
+            
+        }
+        
+    } // end checkTimeOuts
+    
+    
+    /**
+     * This method finishes a transfer once its receiver says it is over, otherwise lets its
+     * sender try again as the window may have room.
+     * 
+     * @param connection - The transfer.
+     * 
+     * @param more - What the receiver returned, false once the transfer is over.
+     */
+    private void handled(Connection connection, boolean more) {
+        
+        if(more) {
+            
+            wake(connection);
+            
+        } else {
+            
+            unregister(connection.client);
+            connection.client.transferComplete();
+            
+        }
+        
+    } // end handled
+    
+    
+    /**
+     * This method puts a transfer on the queue for the sending threads unless it is on it or
+     * being sent for already, in which case that thread is told to look again.
+     * 
+     * @param connection - The transfer.
+     */
+    private void wake(Connection connection) {
+        
+        connection.wakeups.incrementAndGet();
+        
+        if(connection.queued.compareAndSet(false, true)) {
+            
+            ready.add(connection);
+            
+        }
+        
+    } // end wake
+    
+    
+    /**
+     * This method is a sending thread. A transfer stays marked as queued while one thread sends
+     * for it so no other thread takes it at the same time.
+     */
+    private void sendLoop() {
+        
+        try {
+            
+            while(!closed) {
+                
+                Connection connection = ready.take();
+                int wakeups = connection.wakeups.get();
+                int sent = 0;
+                
+                try {
+                    
+                    while(!connection.closed && sent < BURST && connection.sender.sendNext()) {
+                        
+                        sent++;
+                        
+                    }
+                    
+                } catch (IOException e) {
+                    
+                    Log.error("Error reading file!");
+                    connection.client.transferFailed(e);
+                    continue;
+                    
+                }
+                
+                connection.queued.set(false);
+                
+                // More to send, or woken while sending so the window may have opened since.
+                if(!connection.closed && !connection.sender.isFinished() &&
+                       (sent == BURST || connection.wakeups.get() != wakeups)) {
+                    
+                    wake(connection);
+                    
+                }
+                
+            }
+            
+        } catch (InterruptedException e) {
+            
+            // Closed.
+            
+        }
+        
+    } // end sendLoop
+    
+    
+    /**
+     * This method closes the socket and stops the threads. Transfers still going fail.
+     */
+    public void close() {
+        
+        closed = true;
+        socket.close();
+        
+        for(Thread sender : senders) {
+            
+            sender.interrupt();
+            
+        }
+        
+        for(Connection connection : connections.values()) {
+            
+            unregister(connection.client);
+            connection.client.transferFailed(new IOException("The ClientMux was closed!"));
+            
+        }
+        
+    } // end close
+    
+    
+    /**
+     * @return - The number of transfers being driven.
+     */
+    public int getConnectionCount() {
+        
+        return connections.size();
+        
+    } // end getConnectionCount
+    
+    
+    /**
+     * @return - The number of packets received from an address no transfer is sending to, eg...
+     *           late acknowledgements for a transfer already over.
+     */
+    public long getStrays() {
+        
+        return strays.sum();
+        
+    } // end getStrays
+    
+    
+    /**
+     * This class is one transfer being driven.
+     */
+    private static final class Connection {
+        
+        private final P2Client client;
+        private final SocketAddress server;
+        private final SenderThread sender;
+        private final ReceiverThread receiver;
+        private final long timeOut;
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        private final AtomicInteger wakeups = new AtomicInteger();
+        private volatile long lastHeard = System.nanoTime();
+        private volatile boolean closed = false;
+        
+        
+        private Connection(P2Client newClient, SenderThread newSender, ReceiverThread newReceiver) {
+            
+            client = newClient;
+            server = newClient.getServerAddress();
+            sender = newSender;
+            receiver = newReceiver;
+            timeOut = TimeUnit.MILLISECONDS.toNanos(newClient.getTimeOutPeriod());
+            
+        } // end Connection constructor
+        
+    } // end Connection
+    
+} // end ClientMux
@@ -0,0 +1,235 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets the client send only the chunks of a file the
+ * server's ChunkStore doesn't already hold. Given the file's ChunkManifest,
+ * once the server has been asked about it, it reads the file a chunk at a time
+ * and produces a stream of instructions for assembling it:
+ * 
+ * CHUNK - a 1 byte op, a length (4 bytes) and that many bytes, a chunk to
+ * store and write. <br>
+ * REFERENCE - a 1 byte op and the SHA-256 (32 bytes) of a chunk the server
+ * holds, to write from the store. <br>
+ * END - a 1 byte op and the SHA-256 of the whole file, checked once assembled. <br>
+ * 
+ * A chunk repeated within the file is only sent the first time. Each chunk is
+ * hashed again as it is read, so one that changed since the manifest was made
+ * is sent rather than referred to. Instructions are produced as they are
+ * read, so the length isn't known up front.
+ * 
+ * See DedupOutputStream for the receiving end.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+
+public class DedupInputStream extends InputStream {
+    
+    // Instruction ops.
+    public static final int OPCHUNK = 1;
+    public static final int OPREFERENCE = 2;
+    public static final int OPEND = 3;
+    
+    private final ChunkManifest manifest;
+    private final InputStream file;
+    private final MessageDigest fileDigest;
+    private final MessageDigest chunkDigest;
+    private final byte[] chunk = new byte[ChunkManifest.MAXCHUNKSIZE];
+    private int nextChunk = 0;
+    
+    // Chunks sent earlier in this file, the server holds them by the time they are referred to.
+    private final Set<ByteBuffer> sent = new HashSet<ByteBuffer>();
+    
+    // Instructions produced but not yet read.
+    private final ByteArrayOutputStream produced = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(produced);
+    private byte[] pending = new byte[0];
+    private int pendingPosition = 0;
+    private boolean finished = false;
+    
+    // Counted for the log.
+    private long referencedBytes = 0;
+    private long sentBytes = 0;
+    
+    
+    /**
+     * A constructor for the DedupInputStream.
+     * 
+     * @param source - The file to send.
+     * 
+     * @param newManifest - The file's chunks, and which the server holds.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    public DedupInputStream(Path source, ChunkManifest newManifest) throws IOException {
+        
+        manifest = newManifest;
+        fileDigest = BlockSignatures.newStrongDigest();
+        chunkDigest = BlockSignatures.newStrongDigest();
+        file = new FileInputStream(source.toFile());
+        
+    } // end DedupInputStream constructor
+    
+    
+    /**
+     * This method will provide the instruction bytes already produced, those that can be read
+     * without reading the file.
+     * 
+     * @return - The bytes ready.
+     */
+    @Override
+    public int available() {
+        
+        return pending.length - pendingPosition;
+        
+    } // end available
+    
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] one = new byte[1];
+        
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        
+    } // end read
+    
+    
+    /**
+     * This method reads up to len bytes of instructions, producing more as needed, so it only
+     * returns short at the end.
+     * 
+     * @param buffer - Where the bytes are placed.
+     * 
+     * @param offset - The first index to fill.
+     * 
+     * @param len - The most bytes to read.
+     * 
+     * @return - The number of bytes read, -1 once everything has been read.
+     * 
+     * @throws IOException - If the file could not be read or is shorter than its manifest.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        
+        int total = 0;
+        
+        while(total < len) {
+            
+            if(pendingPosition < pending.length) {
+                
+                int n = Math.min(len - total, pending.length - pendingPosition);
+                System.arraycopy(pending, pendingPosition, buffer, offset + total, n);
+                pendingPosition += n;
+                total += n;
+                
+            } else if(finished) {
+                
+                break;
+                
+            } else {
+                
+                produce();
+                
+            }
+            
+        }
+        
+        return total == 0 && len > 0 ? -1 : total;
+        
+    } // end read
+    
+    
+    /**
+     * This method reads the next chunk and produces its instruction, or the END once every chunk
+     * has been read.
+     * 
+     * @throws IOException - If the file could not be read or is shorter than its manifest.
+     */
+    private void produce() throws IOException {
+        
+        if(nextChunk == manifest.getChunkCount()) {
+            
+            if(file.read() >= 0) {
+                
+                throw new IOException("File grew since its chunks were found!");
+                
+            }
+            
+            out.writeByte(OPEND);
+            out.write(fileDigest.digest());
+            finished = true;
+            
+            Log.info("Dedup: " + referencedBytes + " bytes already held by the server, " + sentBytes +
+                         " sent.\n");
+            
+        } else {
+            
+            int len = manifest.getChunkLength(nextChunk);
+            
+            if(file.readNBytes(chunk, 0, len) < len) {
+                
+                throw new IOException("File shrank since its chunks were found!");
+                
+            }
+            
+            fileDigest.update(chunk, 0, len);
+            chunkDigest.update(chunk, 0, len);
+            
+            ByteBuffer hash = ByteBuffer.wrap(chunkDigest.digest());
+            boolean unchanged = hash.equals(ByteBuffer.wrap(manifest.getHash(nextChunk)));
+            
+            if(unchanged && (manifest.isHeld(nextChunk) || sent.contains(hash))) {
+                
+                out.writeByte(OPREFERENCE);
+                out.write(hash.array());
+                referencedBytes += len;
+                
+            } else {
+                
+                out.writeByte(OPCHUNK);
+                out.writeInt(len);
+                out.write(chunk, 0, len);
+                sent.add(hash);
+                sentBytes += len;
+                
+            }
+            
+            nextChunk++;
+            
+        } // end if-else block
+        
+        pending = produced.toByteArray();
+        pendingPosition = 0;
+        produced.reset();
+        
+    } // end produce
+    
+    
+    @Override
+    public void close() throws IOException {
+        
+        file.close();
+        
+    } // end close
+    
+} // end DedupInputStream
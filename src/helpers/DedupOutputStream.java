@@ -0,0 +1,284 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the receiving end of a DedupInputStream. The server
+ * writes the transfer into it as usual and it follows the instructions,
+ * putting each chunk sent in the ChunkStore and writing chunks referred to
+ * from the store, to assemble the client's file. Instructions are parsed as
+ * they arrive so a field may be split across any number of writes.
+ * 
+ * The END instruction carries the SHA-256 of the client's file. If the file
+ * assembled doesn't match, the write fails so the transfer's digest won't
+ * match either. Chunks stored along the way are kept, they are good whatever
+ * happened to the rest.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+public class DedupOutputStream extends OutputStream {
+    
+    // What the next bytes written are.
+    private static final int OP = 0;
+    private static final int CHUNKLENGTH = 1;
+    private static final int CHUNK = 2;
+    private static final int REFERENCE = 3;
+    private static final int END = 4;
+    private static final int DONE = 5;
+    
+    private final ChunkStore store;
+    private final OutputStream fStream;
+    private final MessageDigest digest;
+    private final MessageDigest chunkDigest;
+    private int state = OP;
+    
+    // The chunk length being read, and how many of its bytes are still to come.
+    private int fieldValue;
+    private int fieldLeft;
+    
+    // A chunk, reference or END digest being read, and how many of its bytes have arrived.
+    private final byte[] chunk = new byte[ChunkManifest.MAXCHUNKSIZE];
+    private int chunkLength;
+    private int filled;
+    
+    private boolean verified = false;
+    private boolean closed = false;
+    
+    
+    /**
+     * A constructor for the DedupOutputStream.
+     * 
+     * @param newStore - Where chunks are kept.
+     * 
+     * @param output - Where the assembled file is written.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    public DedupOutputStream(ChunkStore newStore, Path output) throws IOException {
+        
+        store = newStore;
+        digest = BlockSignatures.newStrongDigest();
+        chunkDigest = BlockSignatures.newStrongDigest();
+        fStream = new FileOutputStream(output.toFile());
+        
+    } // end DedupOutputStream constructor
+    
+    
+    /**
+     * This method is used to determine whether the file assembled matched the client's.
+     * 
+     * @return - A boolean true once the END instruction has been checked and matched.
+     */
+    public boolean isVerified() {
+        
+        return verified;
+        
+    } // end isVerified
+    
+    
+    @Override
+    public void write(int b) throws IOException {
+        
+        write(new byte[] {(byte)b}, 0, 1);
+        
+    } // end write
+    
+    
+    /**
+     * This method takes the next part of the instructions.
+     * 
+     * @param buffer - The bytes to write.
+     * 
+     * @param offset - The first index to use.
+     * 
+     * @param len - The number of bytes to use.
+     * 
+     * @throws IOException - If the file or a chunk could not be written, an instruction is bad,
+     *                          a chunk referred to isn't held or the file assembled doesn't match
+     *                          the client's.
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int len) throws IOException {
+        
+        int end = offset + len;
+        
+        while(offset < end) {
+            
+            switch(state) {
+                
+                case OP:
+                    
+                    int op = buffer[offset++];
+                    
+                    if(op == DedupInputStream.OPCHUNK) {
+                        
+                        state = CHUNKLENGTH;
+                        fieldValue = 0;
+                        fieldLeft = 4;
+                        
+                    } else if(op == DedupInputStream.OPREFERENCE) {
+                        
+                        startBytes(REFERENCE, ChunkManifest.HASHSIZE);
+                        
+                    } else if(op == DedupInputStream.OPEND) {
+                        
+                        startBytes(END, Helper.DIGESTSIZE);
+                        
+                    } else {
+                        
+                        throw new IOException("Unknown dedup instruction " + op + "!");
+                        
+                    }
+                    
+                    break;
+                    
+                case CHUNKLENGTH:
+                    
+                    fieldValue = (fieldValue << 8) | (buffer[offset++] & 0xFF);
+                    
+                    if(--fieldLeft == 0) {
+                        
+                        if(fieldValue <= 0 || fieldValue > ChunkManifest.MAXCHUNKSIZE) {
+                            
+                            throw new IOException("Bad dedup chunk length " + fieldValue + "!");
+                            
+                        }
+                        
+                        startBytes(CHUNK, fieldValue);
+                        
+                    }
+                    
+                    break;
+                    
+                case CHUNK:
+                case REFERENCE:
+                case END:
+                    
+                    int n = Math.min(end - offset, chunkLength - filled);
+                    System.arraycopy(buffer, offset, chunk, filled, n);
+                    offset += n;
+                    filled += n;
+                    
+                    if(filled == chunkLength) {
+                        
+                        endBytes();
+                        
+                    }
+                    
+                    break;
+                    
+                default:
+                    
+                    throw new IOException("More data after the end of the dedup!");
+                    
+            } // end switch
+            
+        } // end while loop
+        
+    } // end write
+    
+    
+    /**
+     * This method prepares to read a chunk, reference or digest into the chunk buffer.
+     * 
+     * @param newState - What is being read.
+     * 
+     * @param bytes - Its size, in bytes.
+     */
+    private void startBytes(int newState, int bytes) {
+        
+        state = newState;
+        chunkLength = bytes;
+        filled = 0;
+        
+    } // end startBytes
+    
+    
+    /**
+     * This method uses a chunk, reference or digest once all of its bytes have arrived.
+     * 
+     * @throws IOException - If a chunk could not be stored or read, or the digest doesn't match.
+     */
+    private void endBytes() throws IOException {
+        
+        if(state == CHUNK) {
+            
+            store.put(chunk, 0, chunkLength, chunkDigest);
+            output(chunk, 0, chunkLength);
+            state = OP;
+            
+        } else if(state == REFERENCE) {
+            
+            byte[] held = store.get(Arrays.copyOf(chunk, ChunkManifest.HASHSIZE));
+            output(held, 0, held.length);
+            state = OP;
+            
+        } else {
+            
+            state = DONE;
+            
+            if(!MessageDigest.isEqual(Arrays.copyOf(chunk, Helper.DIGESTSIZE), digest.digest())) {
+                
+                throw new IOException("File assembled from chunks doesn't match the client's!");
+                
+            }
+            
+            verified = true;
+            
+        }
+        
+    } // end endBytes
+    
+    
+    /**
+     * This method writes to the file being assembled, keeping its digest.
+     */
+    private void output(byte[] buffer, int offset, int len) throws IOException {
+        
+        fStream.write(buffer, offset, len);
+        digest.update(buffer, offset, len);
+        
+    } // end output
+    
+    
+    /**
+     * This method closes the file.
+     * 
+     * @throws IOException - If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        
+        if(closed) {
+            
+            return;
+            
+        }
+        
+        closed = true;
+        fStream.close();
+        
+        if(!verified) {
+            
+            Log.warn("Deduplicated transfer incomplete or damaged!");
+            
+        }
+        
+    } // end close
+    
+} // end DedupOutputStream
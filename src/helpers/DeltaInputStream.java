@@ -0,0 +1,395 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class lets the client send only what changed in a file the
+ * server already has a copy of. Given the BlockSignatures of that copy, it
+ * reads the file and produces a stream of instructions for rebuilding it:
+ * 
+ * COPY - a 1 byte op, the first block (4 bytes) and the number of blocks (4)
+ * to copy from the server's copy. <br>
+ * LITERAL - a 1 byte op, a length (4 bytes) and that many bytes of the file. <br>
+ * END - a 1 byte op and the SHA-256 of the whole file, checked once rebuilt. <br>
+ * 
+ * A RollingChecksum is moved along the file a byte at a time, a block is
+ * only copied once its strong hash matches too. Instructions are produced as
+ * they are read, so the length isn't known up front.
+ * 
+ * See DeltaOutputStream for the receiving end.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+
+public class DeltaInputStream extends InputStream {
+    
+    // Instruction ops.
+    public static final int OPCOPY = 1;
+    public static final int OPLITERAL = 2;
+    public static final int OPEND = 3;
+    
+    // Unmatched bytes are sent in literals of at most this many bytes.
+    public static final int MAXLITERAL = 32768;
+    
+    private final BlockSignatures signatures;
+    private final int blockSize;
+    private final InputStream file;
+    private final MessageDigest fileDigest;
+    private final MessageDigest strongDigest;
+    private final RollingChecksum checksum = new RollingChecksum();
+    
+    // The file is read into data, bytes from literalStart to pos are unmatched so far and the
+    // block being checked starts at pos.
+    private final byte[] data;
+    private int literalStart = 0;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean rolling = false;
+    private boolean endOfFile = false;
+    
+    // Copies of consecutive blocks are merged into one instruction.
+    private int copyFirst;
+    private int copyCount = 0;
+    
+    // Instructions produced but not yet read.
+    private final ByteArrayOutputStream produced = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(produced);
+    private byte[] pending = new byte[0];
+    private int pendingPosition = 0;
+    private boolean finished = false;
+    
+    // Counted for the log.
+    private long copiedBytes = 0;
+    private long literalBytes = 0;
+    
+    
+    /**
+     * A constructor for the DeltaInputStream.
+     * 
+     * @param source - The file to send.
+     * 
+     * @param newSignatures - The signatures of the server's copy.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    public DeltaInputStream(Path source, BlockSignatures newSignatures) throws IOException {
+        
+        signatures = newSignatures;
+        blockSize = signatures.getBlockSize();
+        fileDigest = BlockSignatures.newStrongDigest();
+        strongDigest = BlockSignatures.newStrongDigest();
+        data = new byte[MAXLITERAL + 2 * blockSize];
+        file = new FileInputStream(source.toFile());
+        
+    } // end DeltaInputStream constructor
+    
+    
+    /**
+     * This method will provide the instruction bytes already produced, those that can be read
+     * without reading the file.
+     * 
+     * @return - The bytes ready.
+     */
+    @Override
+    public int available() {
+        
+        return pending.length - pendingPosition;
+        
+    } // end available
+    
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] one = new byte[1];
+        
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        
+    } // end read
+    
+    
+    /**
+     * This method reads up to len bytes of instructions, producing more as needed, so it only
+     * returns short at the end.
+     * 
+     * @param buffer - Where the bytes are placed.
+     * 
+     * @param offset - The first index to fill.
+     * 
+     * @param len - The most bytes to read.
+     * 
+     * @return - The number of bytes read, -1 once everything has been read.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        
+        int total = 0;
+        
+        while(total < len) {
+            
+            if(pendingPosition < pending.length) {
+                
+                int n = Math.min(len - total, pending.length - pendingPosition);
+                System.arraycopy(pending, pendingPosition, buffer, offset + total, n);
+                pendingPosition += n;
+                total += n;
+                
+            } else if(finished) {
+                
+                break;
+                
+            } else {
+                
+                produce();
+                
+            }
+            
+        }
+        
+        return total == 0 && len > 0 ? -1 : total;
+        
+    } // end read
+    
+    
+    /**
+     * This method moves along the file until at least one instruction has been produced.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    private void produce() throws IOException {
+        
+        while(produced.size() == 0 && !finished) {
+            
+            step();
+            
+        }
+        
+        pending = produced.toByteArray();
+        pendingPosition = 0;
+        produced.reset();
+        
+    } // end produce
+    
+    
+    /**
+     * This method checks the block at pos against the server's copy, copying it on a match and
+     * otherwise moving on by one byte.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    private void step() throws IOException {
+        
+        if(limit - pos < blockSize && !endOfFile) {
+            
+            refill();
+            return;
+            
+        }
+        
+        // The tail is shorter than a block, it may still be the copy's short last block.
+        if(limit - pos < blockSize) {
+            
+            int last = signatures.getBlockCount() - 1;
+            
+            if(limit > pos && signatures.matches(last, data, pos, limit - pos, strongDigest)) {
+                
+                flushLiteral();
+                addCopy(last);
+                pos = limit;
+                literalStart = limit;
+                
+            }
+            
+            pos = limit;
+            flushLiteral();
+            flushCopy();
+            
+            out.writeByte(OPEND);
+            out.write(fileDigest.digest());
+            finished = true;
+            
+            Log.info("Delta: " + copiedBytes + " bytes copied from the server's copy, " + literalBytes +
+                         " sent.\n");
+            return;
+            
+        }
+        
+        // Nothing to match against, the whole file is literal.
+        if(signatures.getBlockCount() == 0) {
+            
+            pos = Math.min(limit, literalStart + MAXLITERAL);
+            
+            if(pos - literalStart >= MAXLITERAL) {
+                
+                flushLiteral();
+                
+            }
+            
+            return;
+            
+        }
+        
+        if(!rolling) {
+            
+            checksum.reset(data, pos, blockSize);
+            rolling = true;
+            
+        }
+        
+        int block = signatures.find(checksum.getValue(), data, pos, strongDigest);
+        
+        if(block >= 0) {
+            
+            flushLiteral();
+            addCopy(block);
+            pos += blockSize;
+            literalStart = pos;
+            rolling = false;
+            
+        } else {
+            
+            pos++;
+            
+            if(pos + blockSize <= limit) {
+                
+                checksum.roll(data[pos - 1], data[pos + blockSize - 1]);
+                
+            } else {
+                
+                rolling = false;
+                
+            }
+            
+            if(pos - literalStart >= MAXLITERAL) {
+                
+                flushLiteral();
+                
+            }
+            
+        } // end if-else block
+        
+    } // end step
+    
+    
+    /**
+     * This method moves the unsent bytes to the front of the buffer and reads more after them.
+     * 
+     * @throws IOException - If the file could not be read.
+     */
+    private void refill() throws IOException {
+        
+        System.arraycopy(data, literalStart, data, 0, limit - literalStart);
+        pos -= literalStart;
+        limit -= literalStart;
+        literalStart = 0;
+        
+        int n = file.readNBytes(data, limit, data.length - limit);
+        
+        fileDigest.update(data, limit, n);
+        limit += n;
+        
+        if(limit < data.length) {
+            
+            endOfFile = true;
+            file.close();
+            
+        }
+        
+    } // end refill
+    
+    
+    /**
+     * This method sends the unmatched bytes before pos as a literal.
+     * 
+     * @throws IOException - Never, the instructions are written to memory.
+     */
+    private void flushLiteral() throws IOException {
+        
+        if(pos > literalStart) {
+            
+            flushCopy();
+            
+            out.writeByte(OPLITERAL);
+            out.writeInt(pos - literalStart);
+            out.write(data, literalStart, pos - literalStart);
+            
+            literalBytes += pos - literalStart;
+            literalStart = pos;
+            
+        }
+        
+    } // end flushLiteral
+    
+    
+    /**
+     * This method adds a block to the copy being built, sending the copy first if the block
+     * doesn't follow on from it.
+     * 
+     * @param block - The block matched.
+     * 
+     * @throws IOException - Never, the instructions are written to memory.
+     */
+    private void addCopy(int block) throws IOException {
+        
+        if(copyCount > 0 && block != copyFirst + copyCount) {
+            
+            flushCopy();
+            
+        }
+        
+        if(copyCount == 0) {
+            
+            copyFirst = block;
+            
+        }
+        
+        copyCount++;
+        copiedBytes += signatures.blockLength(block);
+        
+    } // end addCopy
+    
+    
+    /**
+     * This method sends the copy being built, if any.
+     * 
+     * @throws IOException - Never, the instructions are written to memory.
+     */
+    private void flushCopy() throws IOException {
+        
+        if(copyCount > 0) {
+            
+            out.writeByte(OPCOPY);
+            out.writeInt(copyFirst);
+            out.writeInt(copyCount);
+            copyCount = 0;
+            
+        }
+        
+    } // end flushCopy
+    
+    
+    @Override
+    public void close() throws IOException {
+        
+        file.close();
+        
+    } // end close
+    
+} // end DeltaInputStream
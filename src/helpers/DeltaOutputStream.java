@@ -0,0 +1,359 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the receiving end of a DeltaInputStream. The server
+ * writes the transfer into it as usual and it follows the instructions,
+ * copying blocks from the previous copy of the file (the basis) and writing
+ * literals, to rebuild the client's file. Instructions are parsed as they
+ * arrive so a field may be split across any number of writes.
+ * 
+ * The END instruction carries the SHA-256 of the client's file. If the file
+ * rebuilt doesn't match, the write fails (so the transfer's digest won't match
+ * either) and the basis is kept, otherwise the basis is deleted on close.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+
+public class DeltaOutputStream extends OutputStream {
+    
+    // What the next bytes written are.
+    private static final int OP = 0;
+    private static final int COPYFIRST = 1;
+    private static final int COPYCOUNT = 2;
+    private static final int LITERALLENGTH = 3;
+    private static final int LITERAL = 4;
+    private static final int END = 5;
+    private static final int DONE = 6;
+    
+    private final Path basis;
+    private final RandomAccessFile basisFile;
+    private final int blockSize;
+    private final OutputStream fStream;
+    private final MessageDigest digest;
+    private int state = OP;
+    
+    // The number being read, and how many of its bytes are still to come.
+    private long fieldValue;
+    private int fieldLeft;
+    
+    private int copyFirst;
+    private long literalLeft;
+    private final byte[] expected = new byte[Helper.DIGESTSIZE];
+    private int expectedFilled;
+    private byte[] block;
+    private boolean verified = false;
+    private boolean closed = false;
+    
+    
+    /**
+     * A constructor for the DeltaOutputStream.
+     * 
+     * @param newBasis - The previous copy of the file, may be missing.
+     * 
+     * @param newBlockSize - The block size its signatures were made with.
+     * 
+     * @param output - Where the rebuilt file is written.
+     * 
+     * @throws IOException - If either file could not be opened.
+     */
+    public DeltaOutputStream(Path newBasis, int newBlockSize, Path output) throws IOException {
+        
+        basis = newBasis;
+        basisFile = Files.exists(basis) ? new RandomAccessFile(basis.toFile(), "r") : null;
+        blockSize = newBlockSize;
+        digest = BlockSignatures.newStrongDigest();
+        fStream = new FileOutputStream(output.toFile());
+        
+    } // end DeltaOutputStream constructor
+    
+    
+    /**
+     * This method is used to determine whether the file rebuilt matched the client's.
+     * 
+     * @return - A boolean true once the END instruction has been checked and matched.
+     */
+    public boolean isVerified() {
+        
+        return verified;
+        
+    } // end isVerified
+    
+    
+    @Override
+    public void write(int b) throws IOException {
+        
+        write(new byte[] {(byte)b}, 0, 1);
+        
+    } // end write
+    
+    
+    /**
+     * This method takes the next part of the instructions.
+     * 
+     * @param buffer - The bytes to write.
+     * 
+     * @param offset - The first index to use.
+     * 
+     * @param len - The number of bytes to use.
+     * 
+     * @throws IOException - If the file could not be written, an instruction is bad or the file
+     *                          rebuilt doesn't match the client's.
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int len) throws IOException {
+        
+        int end = offset + len;
+        
+        while(offset < end) {
+            
+            switch(state) {
+                
+                case OP:
+                    
+                    int op = buffer[offset++];
+                    
+                    if(op == DeltaInputStream.OPCOPY) {
+                        
+                        startField(COPYFIRST, 4);
+                        
+                    } else if(op == DeltaInputStream.OPLITERAL) {
+                        
+                        startField(LITERALLENGTH, 4);
+                        
+                    } else if(op == DeltaInputStream.OPEND) {
+                        
+                        state = END;
+                        expectedFilled = 0;
+                        
+                    } else {
+                        
+                        throw new IOException("Unknown delta instruction " + op + "!");
+                        
+                    }
+                    
+                    break;
+                    
+                case COPYFIRST:
+                case COPYCOUNT:
+                case LITERALLENGTH:
+                    
+                    fieldValue = (fieldValue << 8) | (buffer[offset++] & 0xFF);
+                    
+                    if(--fieldLeft == 0) {
+                        
+                        endField();
+                        
+                    }
+                    
+                    break;
+                    
+                case LITERAL:
+                    
+                    int n = (int)Math.min(end - offset, literalLeft);
+                    output(buffer, offset, n);
+                    offset += n;
+                    literalLeft -= n;
+                    
+                    if(literalLeft == 0) {
+                        
+                        state = OP;
+                        
+                    }
+                    
+                    break;
+                    
+                case END:
+                    
+                    int wanted = Math.min(end - offset, expected.length - expectedFilled);
+                    System.arraycopy(buffer, offset, expected, expectedFilled, wanted);
+                    offset += wanted;
+                    expectedFilled += wanted;
+                    
+                    if(expectedFilled == expected.length) {
+                        
+                        checkDigest();
+                        
+                    }
+                    
+                    break;
+                    
+                default:
+                    
+                    throw new IOException("More data after the end of the delta!");
+                    
+            } // end switch
+            
+        } // end while loop
+        
+    } // end write
+    
+    
+    /**
+     * This method uses a number once all of its bytes have arrived.
+     * 
+     * @throws IOException - If a copy could not be done.
+     */
+    private void endField() throws IOException {
+        
+        if(state == COPYFIRST) {
+            
+            copyFirst = (int)fieldValue;
+            startField(COPYCOUNT, 4);
+            
+        } else if(state == COPYCOUNT) {
+            
+            copy(copyFirst, (int)fieldValue);
+            state = OP;
+            
+        } else {
+            
+            literalLeft = fieldValue;
+            state = literalLeft == 0 ? OP : LITERAL;
+            
+        }
+        
+    } // end endField
+    
+    
+    /**
+     * This method prepares to read a number.
+     * 
+     * @param newState - The field being read.
+     * 
+     * @param bytes - Its size, in bytes.
+     */
+    private void startField(int newState, int bytes) {
+        
+        state = newState;
+        fieldValue = 0;
+        fieldLeft = bytes;
+        
+    } // end startField
+    
+    
+    /**
+     * This method copies blocks from the basis to the file being rebuilt.
+     * 
+     * @param first - The first block.
+     * 
+     * @param count - The number of blocks.
+     * 
+     * @throws IOException - If the blocks aren't in the basis or could not be read.
+     */
+    private void copy(int first, int count) throws IOException {
+        
+        long start = (long)first * blockSize;
+        long length = Math.min((long)count * blockSize, (basisFile == null ? 0 : basisFile.length()) - start);
+        
+        if(first < 0 || count < 0 || length <= (long)(count - 1) * blockSize) {
+            
+            throw new IOException("Delta copies blocks " + first + " to " + (first + count - 1) +
+                                      " but the previous copy doesn't have them!");
+                                      
+        }
+        
+        if(block == null) {
+            
+            block = new byte[blockSize];
+            
+        }
+        
+        basisFile.seek(start);
+        
+        while(length > 0) {
+            
+            int n = (int)Math.min(length, blockSize);
+            basisFile.readFully(block, 0, n);
+            output(block, 0, n);
+            length -= n;
+            
+        }
+        
+    } // end copy
+    
+    
+    /**
+     * This method writes to the file being rebuilt, keeping its digest.
+     */
+    private void output(byte[] buffer, int offset, int len) throws IOException {
+        
+        fStream.write(buffer, offset, len);
+        digest.update(buffer, offset, len);
+        
+    } // end output
+    
+    
+    /**
+     * This method compares the file rebuilt with the digest in the END instruction.
+     * 
+     * @throws IOException - If they don't match.
+     */
+    private void checkDigest() throws IOException {
+        
+        state = DONE;
+        
+        if(!MessageDigest.isEqual(expected, digest.digest())) {
+            
+            throw new IOException("File rebuilt from the delta doesn't match the client's!");
+            
+        }
+        
+        verified = true;
+        
+    } // end checkDigest
+    
+    
+    /**
+     * This method closes both files. The basis is no longer needed once the file has been
+     * rebuilt and verified, otherwise it is kept.
+     * 
+     * @throws IOException - If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        
+        if(closed) {
+            
+            return;
+            
+        }
+        
+        closed = true;
+        fStream.close();
+        
+        if(basisFile != null) {
+            
+            basisFile.close();
+            
+            if(verified) {
+                
+                Files.deleteIfExists(basis);
+                
+            } else {
+                
+                Log.warn("Delta incomplete or damaged, the previous copy was kept as " + basis + "!");
+                
+            }
+            
+        }
+        
+    } // end close
+    
+} // end DeltaOutputStream
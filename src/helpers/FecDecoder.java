@@ -0,0 +1,625 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the server's side of forward error correction (see
+ * FecEncoder). It keeps the most recent RINGSIZE data packets, both ones
+ * already written and ones that arrived ahead of the next sequence number, and
+ * the parity of recent groups. When the next sequence number is missing and
+ * its group has enough parity, the missing packets are rebuilt:
+ * 
+ * One missing - from P by XOR, or from Q by dividing out its coefficient. <br>
+ * Two missing - from P and Q together, as in RAID-6. <br>
+ * 
+ * Every packet kept is counted against the server's ReceiveMemory, a packet
+ * that doesn't fit isn't kept and is resent like a lost one. Written packets
+ * are only kept while a group still being rebuilt could need them, at most
+ * FecEncoder.MAXGROUPSIZE behind the next sequence number and none at all
+ * until a parity packet has arrived.
+ * 
+ * Only the server's receiving thread uses it.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+public class FecDecoder {
+    
+    // Must be a power of 2 so slots can be found with a mask.
+    public static final int RINGSIZE = 256;
+    
+    // Packets further than this past the next sequence number are not kept, leaving room in the
+    // ring for the groups still being rebuilt.
+    public static final int MAXAHEAD = RINGSIZE - 2 * FecEncoder.MAXGROUPSIZE;
+    
+    private final ReceiveMemory memory;
+    private final int[] seqNums = new int[RINGSIZE];
+    private final byte[][] packets = new byte[RINGSIZE][];
+    private final boolean[] recovered = new boolean[RINGSIZE];
+    
+    // The P and Q parity packets of each group, by the group's first sequence number.
+    private final Map<Integer, byte[][]> parity = new HashMap<Integer, byte[][]>();
+    
+    private long recoveredCount = 0;
+    
+    // Written packets before this have been forgotten, once discarding is set.
+    private int discardedTo;
+    private boolean discarding = false;
+    private boolean parityReceived = false;
+    
+    
+    /**
+     * A constructor for the FecDecoder.
+     * 
+     * @param newMemory - The budget kept packets are counted against.
+     */
+    public FecDecoder(ReceiveMemory newMemory) {
+        
+        memory = newMemory;
+        
+    } // end FecDecoder constructor
+    
+    
+    /**
+     * This method is used to determine whether a data packet is close enough to the next
+     * sequence number to be kept.
+     * 
+     * @param seqNum - The packet's sequence number.
+     * 
+     * @param nextSeqNum - The next sequence number to be written.
+     * 
+     * @return - A boolean true if the packet can be kept, false otherwise.
+     */
+    public boolean canHold(int seqNum, int nextSeqNum) {
+        
+        int ahead = seqNum - nextSeqNum;
+        
+        return ahead >= 0 && ahead < MAXAHEAD;
+        
+    } // end canHold
+    
+    
+    /**
+     * This method keeps a data packet, in place of any packet held in its slot.
+     * 
+     * @param packet - The packet, header included, trimmed to its length.
+     * 
+     * @return - A boolean true if it was kept, false if the memory budget is spent.
+     */
+    public boolean addData(byte[] packet) {
+        
+        int seqNum = Helper.retrieveSeqNum(packet);
+        int index = seqNum & (RINGSIZE - 1);
+        
+        drop(index);
+        
+        if(!memory.reserve(packet.length)) {
+            
+            return false;
+            
+        }
+        
+        seqNums[index] = seqNum;
+        packets[index] = packet;
+        recovered[index] = false;
+        
+        return true;
+        
+    } // end addData
+    
+    
+    /**
+     * This method keeps a parity packet.
+     * 
+     * @param packet - The packet, header included, trimmed to its length.
+     * 
+     * @return - A boolean true if it was kept, false if the memory budget is spent.
+     */
+    public boolean addParity(byte[] packet) {
+        
+        int firstSeqNum = Helper.retrieveSeqNum(packet);
+        int which = Helper.retrievePacketType(packet) == Helper.TYPEPARITYP ? 0 : 1;
+        byte[][] group = parity.get(firstSeqNum);
+        
+        if(group != null && group[which] != null) {
+            
+            return true;
+            
+        }
+        
+        if(!memory.reserve(packet.length)) {
+            
+            return false;
+            
+        }
+        
+        parityReceived = true;
+        
+        if(group == null) {
+            
+            group = new byte[2][];
+            parity.put(firstSeqNum, group);
+            
+        }
+        
+        group[which] = packet;
+        
+        return true;
+        
+    } // end addParity
+    
+    
+    /**
+     * This method will provide a kept data packet.
+     * 
+     * @param seqNum - The sequence number wanted.
+     * 
+     * @return - The packet, or null if it is not held.
+     */
+    public byte[] get(int seqNum) {
+        
+        int index = seqNum & (RINGSIZE - 1);
+        
+        return packets[index] != null && seqNums[index] == seqNum ? packets[index] : null;
+        
+    } // end get
+    
+    
+    /**
+     * This method is used to determine whether a kept packet was rebuilt from parity.
+     * 
+     * @param seqNum - The sequence number of a held packet.
+     * 
+     * @return - A boolean true if it was rebuilt, false if it was received.
+     */
+    public boolean wasRecovered(int seqNum) {
+        
+        return recovered[seqNum & (RINGSIZE - 1)];
+        
+    } // end wasRecovered
+    
+    
+    /**
+     * This method will provide the number of packets rebuilt so far.
+     * 
+     * @return - The count.
+     */
+    public long getRecoveredCount() {
+        
+        return recoveredCount;
+        
+    } // end getRecoveredCount
+    
+    
+    /**
+     * This method forgets a kept packet, eg... one that failed authentication, so it is treated
+     * as lost until it is sent again. If it was rebuilt the parity of its group is forgotten too,
+     * it would only rebuild the same packet.
+     * 
+     * @param seqNum - The packet's sequence number.
+     */
+    public void discard(int seqNum) {
+        
+        int index = seqNum & (RINGSIZE - 1);
+        
+        if(get(seqNum) == null) {
+            
+            return;
+            
+        }
+        
+        if(recovered[index]) {
+            
+            Iterator<Map.Entry<Integer, byte[][]>> entries = parity.entrySet().iterator();
+            
+            while(entries.hasNext()) {
+                
+                Map.Entry<Integer, byte[][]> entry = entries.next();
+                int offset = seqNum - entry.getKey();
+                
+                if(offset >= 0 && offset < groupSize(entry.getValue())) {
+                    
+                    unreserve(entry.getValue());
+                    entries.remove();
+                    
+                }
+                
+            }
+            
+        }
+        
+        drop(index);
+        
+    } // end discard
+    
+    
+    /**
+     * This method forgets the parity of groups entirely before the next sequence number, and
+     * written packets too far behind it to be in a group still being rebuilt.
+     * 
+     * @param nextSeqNum - The next sequence number to be written.
+     */
+    public void discardBefore(int nextSeqNum) {
+        
+        Iterator<Map.Entry<Integer, byte[][]>> entries = parity.entrySet().iterator();
+        
+        while(entries.hasNext()) {
+            
+            Map.Entry<Integer, byte[][]> entry = entries.next();
+            int groupSize = groupSize(entry.getValue());
+            
+            if(!Helper.isBefore(nextSeqNum, entry.getKey() + groupSize)) {
+                
+                unreserve(entry.getValue());
+                entries.remove();
+                
+            }
+            
+        }
+        
+        int keepFrom = nextSeqNum - (parityReceived ? FecEncoder.MAXGROUPSIZE : 0);
+        int stale = keepFrom - discardedTo;
+        
+        // The first time, or after a jump further than the ring, eg... an OPEN, look at all of it.
+        if(!discarding || stale < 0 || stale > RINGSIZE) {
+            
+            stale = RINGSIZE;
+            discarding = true;
+            
+        }
+        
+        for(int i = 1 ; i <= stale ; i++) {
+            
+            if(get(keepFrom - i) != null) {
+                
+                drop((keepFrom - i) & (RINGSIZE - 1));
+                
+            }
+            
+        }
+        
+        discardedTo = keepFrom;
+        
+    } // end discardBefore
+    
+    
+    /**
+     * This method forgets everything kept, giving its memory back. Call once the session is over.
+     */
+    public void clear() {
+        
+        for(int i = 0 ; i < RINGSIZE ; i++) {
+            
+            drop(i);
+            
+        }
+        
+        for(byte[][] group : parity.values()) {
+            
+            unreserve(group);
+            
+        }
+        
+        parity.clear();
+        
+    } // end clear
+    
+    
+    /**
+     * This method empties a slot of the ring, giving its memory back.
+     * 
+     * @param index - The slot.
+     */
+    private void drop(int index) {
+        
+        if(packets[index] != null) {
+            
+            memory.unreserve(packets[index].length);
+            packets[index] = null;
+            recovered[index] = false;
+            
+        }
+        
+    } // end drop
+    
+    
+    /**
+     * This method gives back the memory of a group's parity packets.
+     * 
+     * @param group - The P and Q packets, either may be null.
+     */
+    private void unreserve(byte[][] group) {
+        
+        for(byte[] packet : group) {
+            
+            if(packet != null) {
+                
+                memory.unreserve(packet.length);
+                
+            }
+            
+        }
+        
+    } // end unreserve
+    
+    
+    /**
+     * This method tries to rebuild a missing data packet from its group's parity. Any other
+     * packets of the group that were missing are rebuilt too.
+     * 
+     * @param seqNum - The sequence number wanted.
+     * 
+     * @return - The packet, or null if there is not enough parity yet.
+     */
+    public byte[] recover(int seqNum) {
+        
+        for(Map.Entry<Integer, byte[][]> entry : parity.entrySet()) {
+            
+            int firstSeqNum = entry.getKey();
+            byte[][] group = entry.getValue();
+            int groupSize = groupSize(group);
+            int offset = seqNum - firstSeqNum;
+            
+            if(offset < 0 || offset >= groupSize) {
+                
+                continue;
+                
+            }
+            
+            int[] missing = new int[groupSize];
+            int missingCount = 0;
+            
+            for(int i = 0 ; i < groupSize ; i++) {
+                
+                if(get(firstSeqNum + i) == null) {
+                    
+                    missing[missingCount++] = i;
+                    
+                }
+                
+            }
+            
+            if(missingCount == 1 && group[0] != null) {
+                
+                rebuildFromP(firstSeqNum, groupSize, missing[0], group[0]);
+                
+            } else if(missingCount == 1) {
+                
+                rebuildFromQ(firstSeqNum, groupSize, missing[0], group[1]);
+                
+            } else if(missingCount == 2 && group[0] != null && group[1] != null) {
+                
+                rebuildFromPQ(firstSeqNum, groupSize, missing[0], missing[1], group[0], group[1]);
+                
+            }
+            
+            return get(seqNum);
+            
+        }
+        
+        return null;
+        
+    } // end recover
+    
+    
+    /**
+     * This method rebuilds one missing packet by XOR with P.
+     */
+    private void rebuildFromP(int firstSeqNum, int groupSize, int x, byte[] pPacket) {
+        
+        byte[] block = parityBlock(pPacket);
+        
+        for(int i = 0 ; i < groupSize ; i++) {
+            
+            if(i != x) {
+                
+                foldBlock(block, get(firstSeqNum + i), 1);
+                
+            }
+            
+        }
+        
+        store(firstSeqNum + x, block);
+        
+    } // end rebuildFromP
+    
+    
+    /**
+     * This method rebuilds one missing packet from Q, used when P was lost too.
+     */
+    private void rebuildFromQ(int firstSeqNum, int groupSize, int x, byte[] qPacket) {
+        
+        byte[] block = parityBlock(qPacket);
+        
+        for(int i = 0 ; i < groupSize ; i++) {
+            
+            if(i != x) {
+                
+                foldBlock(block, get(firstSeqNum + i), GaloisField.power(i));
+                
+            }
+            
+        }
+        
+        int coefficient = GaloisField.power(x);
+        
+        for(int j = 0 ; j < block.length ; j++) {
+            
+            block[j] = (byte)GaloisField.divide(block[j] & 0xFF, coefficient);
+            
+        }
+        
+        store(firstSeqNum + x, block);
+        
+    } // end rebuildFromQ
+    
+    
+    /**
+     * This method rebuilds two missing packets from P and Q together.
+     */
+    private void rebuildFromPQ(int firstSeqNum, int groupSize, int x, int y, byte[] pPacket, byte[] qPacket) {
+        
+        // Remove the packets we have, leaving Dx ^ Dy and g^x*Dx ^ g^y*Dy.
+        byte[] pxy = parityBlock(pPacket);
+        byte[] qxy = parityBlock(qPacket);
+        
+        if(pxy.length != qxy.length) {
+            
+            return;
+            
+        }
+        
+        for(int i = 0 ; i < groupSize ; i++) {
+            
+            if(i != x && i != y) {
+                
+                byte[] packet = get(firstSeqNum + i);
+                
+                foldBlock(pxy, packet, 1);
+                foldBlock(qxy, packet, GaloisField.power(i));
+                
+            }
+            
+        }
+        
+        int gx = GaloisField.power(x);
+        int gy = GaloisField.power(y);
+        int denominator = gx ^ gy;
+        
+        byte[] dx = new byte[pxy.length];
+        byte[] dy = new byte[pxy.length];
+        
+        for(int j = 0 ; j < pxy.length ; j++) {
+            
+            int a = pxy[j] & 0xFF;
+            int b = qxy[j] & 0xFF;
+            
+            // Dx = (Qxy ^ g^y*Pxy) / (g^x ^ g^y), then Dy = Pxy ^ Dx.
+            dx[j] = (byte)GaloisField.divide(b ^ GaloisField.multiply(gy, a), denominator);
+            dy[j] = (byte)(a ^ (dx[j] & 0xFF));
+            
+        }
+        
+        store(firstSeqNum + x, dx);
+        store(firstSeqNum + y, dy);
+        
+    } // end rebuildFromPQ
+    
+    
+    /**
+     * This method copies the block out of a parity packet.
+     * 
+     * @param packet - The parity packet.
+     * 
+     * @return - A copy of its block.
+     */
+    private static byte[] parityBlock(byte[] packet) {
+        
+        int length = Helper.retrieveLength(packet) - Helper.APPLICATIONHEADERSIZE;
+        byte[] block = new byte[length];
+        
+        System.arraycopy(packet, Helper.APPLICATIONHEADERSIZE, block, 0, length);
+        
+        return block;
+        
+    } // end parityBlock
+    
+    
+    /**
+     * This method XORs a data packet's block, times a coefficient, into another block.
+     * 
+     * @param block - The block being built.
+     * 
+     * @param packet - The data packet.
+     * 
+     * @param coefficient - The multiplier, 1 for P.
+     */
+    private static void foldBlock(byte[] block, byte[] packet, int coefficient) {
+        
+        int dataLength = Helper.retrieveLength(packet) - Helper.APPLICATIONHEADERSIZE;
+        int length = Math.min(block.length, dataLength + 2);
+        
+        for(int j = 0 ; j < length ; j++) {
+            
+            int value;
+            
+            if(j == 0) {
+                
+                value = (dataLength >> 8) & 0xFF;
+                
+            } else if(j == 1) {
+                
+                value = dataLength & 0xFF;
+                
+            } else {
+                
+                value = packet[Helper.APPLICATIONHEADERSIZE + j - 2] & 0xFF;
+                
+            }
+            
+            block[j] ^= (byte)(coefficient == 1 ? value : GaloisField.multiply(coefficient, value));
+            
+        }
+        
+    } // end foldBlock
+    
+    
+    /**
+     * This method turns a rebuilt block back into a data packet and keeps it.
+     * 
+     * @param seqNum - The packet's sequence number.
+     * 
+     * @param block - The rebuilt block.
+     */
+    private void store(int seqNum, byte[] block) {
+        
+        int dataLength = ((block[0] & 0xFF) << 8) | (block[1] & 0xFF);
+        
+        // A length that doesn't fit means the parity didn't match, eg... a corrupted group.
+        if(dataLength > block.length - 2) {
+            
+            Log.warn("Parity did not rebuild a valid packet for sequence number " + seqNum + "!");
+            return;
+            
+        }
+        
+        byte[] packet = new byte[Helper.APPLICATIONHEADERSIZE + dataLength];
+        
+        System.arraycopy(block, 2, packet, Helper.APPLICATIONHEADERSIZE, dataLength);
+        Helper.bufferCheckSum(packet, Helper.CHECKSUMGOOD);
+        Helper.bufferLength(packet, dataLength);
+        Helper.bufferSeqNumber(packet, seqNum);
+        Helper.bufferPacketType(packet, Helper.TYPEDATA);
+        
+        addData(packet);
+        recovered[seqNum & (RINGSIZE - 1)] = true;
+        recoveredCount++;
+        
+    } // end store
+    
+    
+    /**
+     * This method reads a group's size from whichever of its parity packets arrived.
+     * 
+     * @param group - The P and Q packets, either may be null.
+     * 
+     * @return - The number of data packets in the group.
+     */
+    private static int groupSize(byte[][] group) {
+        
+        return Helper.retrieveAckNum(group[0] != null ? group[0] : group[1]);
+        
+    } // end groupSize
+    
+} // end FecDecoder
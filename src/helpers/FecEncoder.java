@@ -0,0 +1,263 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class builds forward error correction parity for the client.
+ * Data packets are taken in groups of K and one or two parity packets are sent
+ * after each group, letting the server rebuild that many lost packets without
+ * waiting on a time out and retransmission.
+ * 
+ * Each data packet is treated as a block of its two byte data length followed
+ * by its data, zero padded to the longest in the group. The parity is:
+ * 
+ * P = D0 ^ D1 ^ ... ^ D(K-1) (plain XOR) <br>
+ * Q = g^0*D0 ^ g^1*D1 ^ ... ^ g^(K-1)*D(K-1) (RAID-6, over GaloisField) <br>
+ * 
+ * Both are accumulated as packets are sent so nothing has to be kept. Before
+ * each group K and the number of parity packets are chosen from the measured
+ * loss rate (see adapt()), the cheapest combination that leaves fewer than
+ * TARGETRESIDUAL of groups with more losses than the parity can repair.
+ * 
+ * A parity packet has a normal header, the type saying P or Q, the sequence
+ * number of the group's first data packet and K in the acknowledgement field.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.Arrays;
+
+
+public class FecEncoder {
+    
+    // Largest group, the server keeps enough history to rebuild groups this big.
+    public static final int MAXGROUPSIZE = 32;
+    
+    // Group sizes tried, least overhead first.
+    private static final int[] GROUPSIZES = {32, 16, 8, 4};
+    
+    // The chance a group has more losses than its parity can repair that adapt() aims under.
+    private static final double TARGETRESIDUAL = 0.001;
+    
+    private final byte[] p;
+    private final byte[] q;
+    private final int maxGroupSize;
+    
+    private int used = 0;
+    private int count = 0;
+    private int firstSeqNum;
+    private int groupSize;
+    private int parityCount = 1;
+    
+    
+    /**
+     * A constructor for the FecEncoder.
+     * 
+     * @param maxDataSize - The most data bytes a packet carries.
+     * 
+     * @param windowSize - The client's window size, groups are kept no larger so a whole group
+     *                     can be sent without waiting on an acknowledgement.
+     */
+    public FecEncoder(int maxDataSize, int windowSize) {
+        
+        p = new byte[2 + maxDataSize];
+        q = new byte[2 + maxDataSize];
+        maxGroupSize = Math.max(2, Math.min(MAXGROUPSIZE, windowSize));
+        groupSize = maxGroupSize;
+        
+    } // end FecEncoder constructor
+    
+    
+    /**
+     * This method adds a data packet to the current group.
+     * 
+     * @param buffer - The packet, header included.
+     * 
+     * @param dataLength - The number of data bytes in the packet.
+     * 
+     * @param seqNum - The packet's sequence number.
+     */
+    public void add(byte[] buffer, int dataLength, int seqNum) {
+        
+        if(count == 0) {
+            
+            firstSeqNum = seqNum;
+            
+        }
+        
+        int coefficient = GaloisField.power(count);
+        
+        accumulate(0, (byte)(dataLength >> 8), coefficient);
+        accumulate(1, (byte)dataLength, coefficient);
+        
+        for(int i = 0 ; i < dataLength ; i++) {
+            
+            accumulate(i + 2, buffer[Helper.APPLICATIONHEADERSIZE + i], coefficient);
+            
+        }
+        
+        used = Math.max(used, dataLength + 2);
+        count++;
+        
+    } // end add
+    
+    
+    /**
+     * This method folds one byte of a block into both parities.
+     * 
+     * @param index - The byte's position in the block.
+     * 
+     * @param value - The byte.
+     * 
+     * @param coefficient - The block's multiplier for Q.
+     */
+    private void accumulate(int index, byte value, int coefficient) {
+        
+        p[index] ^= value;
+        q[index] ^= (byte)GaloisField.multiply(coefficient, value & 0xFF);
+        
+    } // end accumulate
+    
+    
+    /**
+     * This method is used to determine whether the current group is ready for its parity.
+     * 
+     * @return - A boolean true if the group is full, false otherwise.
+     */
+    public boolean isGroupFull() {
+        
+        return count >= groupSize;
+        
+    } // end isGroupFull
+    
+    
+    /**
+     * This method is used to determine whether some data packets have no parity yet.
+     * 
+     * @return - A boolean true if the current group has packets, false otherwise.
+     */
+    public boolean hasPending() {
+        
+        return count > 0;
+        
+    } // end hasPending
+    
+    
+    /**
+     * This method ends the current group (full or not) and builds its parity packets. The
+     * check sum is left for the caller to fill in.
+     * 
+     * @return - One or two parity packets, P first.
+     */
+    public byte[][] finishGroup() {
+        
+        byte[][] packets = new byte[parityCount][];
+        
+        for(int i = 0 ; i < parityCount ; i++) {
+            
+            byte[] packet = new byte[Helper.APPLICATIONHEADERSIZE + used];
+            
+            System.arraycopy(i == 0 ? p : q, 0, packet, Helper.APPLICATIONHEADERSIZE, used);
+            Helper.bufferLength(packet, used);
+            Helper.bufferAckNumber(packet, count);
+            Helper.bufferSeqNumber(packet, firstSeqNum);
+            Helper.bufferPacketType(packet, i == 0 ? Helper.TYPEPARITYP : Helper.TYPEPARITYQ);
+            
+            packets[i] = packet;
+            
+        }
+        
+        Arrays.fill(p, 0, used, (byte)0);
+        Arrays.fill(q, 0, used, (byte)0);
+        used = 0;
+        count = 0;
+        
+        return packets;
+        
+    } // end finishGroup
+    
+    
+    /**
+     * This method chooses the group size and number of parity packets for the next group.
+     * 
+     * @param lossRate - The fraction of packets currently being lost, 0.0 to 1.0.
+     */
+    public void adapt(double lossRate) {
+        
+        for(int parity = 1 ; parity <= 2 ; parity++) {
+            
+            for(int size : GROUPSIZES) {
+                
+                if(size <= maxGroupSize && unrepairable(size + parity, parity, lossRate) < TARGETRESIDUAL) {
+                    
+                    groupSize = size;
+                    parityCount = parity;
+                    return;
+                    
+                }
+                
+            }
+            
+        }
+        
+        // Losses too heavy to meet the target, use the most protection there is.
+        groupSize = Math.min(GROUPSIZES[GROUPSIZES.length - 1], maxGroupSize);
+        parityCount = 2;
+        
+    } // end adapt
+    
+    
+    /**
+     * This method finds the chance more than a given number of n packets are lost.
+     * 
+     * @param n - The number of packets.
+     * 
+     * @param repairable - The most losses that can be repaired.
+     * 
+     * @param lossRate - The chance each packet is lost.
+     * 
+     * @return - The chance of more than repairable losses.
+     */
+    private static double unrepairable(int n, int repairable, double lossRate) {
+        
+        double atMost = 0;
+        double choose = 1;
+        
+        for(int k = 0 ; k <= repairable ; k++) {
+            
+            atMost += choose * Math.pow(lossRate, k) * Math.pow(1 - lossRate, n - k);
+            choose = choose * (n - k) / (k + 1);
+            
+        }
+        
+        return 1 - atMost;
+        
+    } // end unrepairable
+    
+    
+    /**
+     * @return - The number of data packets per group currently chosen.
+     */
+    public int getGroupSize() {
+        
+        return groupSize;
+        
+    } // end getGroupSize
+    
+    
+    /**
+     * @return - The number of parity packets per group currently chosen.
+     */
+    public int getParityCount() {
+        
+        return parityCount;
+        
+    } // end getParityCount
+    
+} // end FecEncoder
@@ -0,0 +1,265 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class asks a DownloadServer to send a file. The GET names
+ * the file (UTF-8, after the receiving port and a cookie) and the port a
+ * server is waiting on for it, the DownloadServer then starts a client sending
+ * the file to that port. Its sequence number is random and echoed in every
+ * answer so an answer is never taken for another request's. Answers carry a
+ * length (8 bytes) and a cookie (COOKIESIZE bytes).
+ * 
+ * The first GET carries no cookie and is answered with a cookie packet only,
+ * the cookie worked out from the address the GET came from. The GET is then
+ * sent again with that cookie and answered with a file length packet, the
+ * file's length, NOFILE if there is no such file or BUSY if the DownloadServer
+ * is sending all the downloads it allows. Only an address that received the
+ * cookie can start a download, so a GET with a forged source address can't
+ * turn the server on someone else.
+ * 
+ * The GET is resent every REQUESTTIMEOUT until answered, a DownloadServer
+ * sends a file only once for each waiting port however many GETs arrive.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+public class FileRequest {
+    
+    // A GET carries the receiving port (4 bytes) and a cookie before the name, the answer a
+    // length (8 bytes) and a cookie.
+    public static final int PORTSIZE = 4;
+    public static final int COOKIESIZE = 8;
+    public static final int HEADSIZE = PORTSIZE + COOKIESIZE;
+    public static final int REPLYSIZE = 8 + COOKIESIZE;
+    
+    // The lengths answered when the file isn't being sent.
+    public static final long NOFILE = -1;
+    public static final long BUSY = -2;
+    
+    // How long to wait for an answer before asking again, and how many times to ask.
+    public static final int REQUESTTIMEOUT = 250;
+    public static final int MAXREQUESTATTEMPTS = 20;
+    
+    
+    /**
+     * This method asks a DownloadServer for a file, resending the GET until it is answered. It
+     * blocks until then.
+     * 
+     * @param server - The address and port of the DownloadServer.
+     * 
+     * @param name - The file wanted, relative to the directory the DownloadServer serves.
+     * 
+     * @param receiverPort - The port of the server waiting to receive the file.
+     * 
+     * @param impairment - The simulated network for GETs.
+     * 
+     * @return - The length of the file being sent.
+     * 
+     * @throws IOException - If the DownloadServer didn't answer, has no such file or is busy.
+     */
+    public static long send(InetSocketAddress server, String name, int receiverPort, Impairment impairment)
+                               throws IOException {
+        
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        byte[] request = new byte[Helper.APPLICATIONHEADERSIZE + HEADSIZE + encoded.length];
+        int id = ThreadLocalRandom.current().nextInt();
+        
+        if(request.length > Helper.MAXPACKETSIZE) {
+            
+            throw new IOException("File name too long to request: " + name);
+            
+        }
+        
+        Helper.bufferLength(request, HEADSIZE + encoded.length);
+        Helper.bufferSeqNumber(request, id);
+        Helper.bufferPacketType(request, Helper.TYPEGET);
+        ByteBuffer.wrap(request, Helper.APPLICATIONHEADERSIZE, HEADSIZE + encoded.length).putInt(receiverPort)
+                  .putLong(0).put(encoded);
+        
+        try(DatagramSocket socket = new DatagramSocket()) {
+            
+            socket.setSoTimeout(REQUESTTIMEOUT);
+            
+            byte[] buffer = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + REPLYSIZE];
+            
+            for(int attempt = 0 ; attempt < MAXREQUESTATTEMPTS ; attempt++) {
+                
+                Helper.bufferCheckSum(request, impairment.isCorrupted() ? Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+                impairment.send(socket, new DatagramPacket(request, request.length, server));
+                
+                try {
+                    
+                    while(true) {
+                        
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        
+                        int type = Helper.retrievePacketType(buffer);
+                        
+                        if(packet.getLength() < buffer.length || !Helper.isCheckSumGood(buffer) ||
+                               (type != Helper.TYPEFILELENGTH && type != Helper.TYPECOOKIE) ||
+                               Helper.retrieveSeqNum(buffer) != id) {
+                            
+                            continue;
+                            
+                        }
+                        
+                        ByteBuffer answer = ByteBuffer.wrap(buffer, Helper.ACKNOWLEDGEMENTHEADERSIZE, REPLYSIZE);
+                        long length = answer.getLong();
+                        
+                        // Ask again straight away, with the cookie.
+                        if(type == Helper.TYPECOOKIE) {
+                            
+                            System.arraycopy(buffer, Helper.ACKNOWLEDGEMENTHEADERSIZE + 8, request,
+                                                 Helper.APPLICATIONHEADERSIZE + PORTSIZE, COOKIESIZE);
+                            break;
+                            
+                        }
+                        
+                        if(length == BUSY) {
+                            
+                            throw new IOException("Server at " + server + " is busy, try " + name + " later!");
+                            
+                        }
+                        
+                        if(length < 0) {
+                            
+                            throw new IOException("Server at " + server + " has no file " + name + "!");
+                            
+                        }
+                        
+                        return length;
+                        
+                    } // end while loop
+                    
+                } catch (SocketTimeoutException e) {
+                    
+                    // Ask again.
+                    
+                }
+                
+            } // end for loop
+            
+        } // end try block
+        
+        throw new IOException("No answer to GET " + name + " from " + server + "!");
+        
+    } // end send
+    
+    
+    /**
+     * This method will provide the cookie a GET carries.
+     * 
+     * @param request - The GET, header included.
+     * 
+     * @return - The cookie, 0 if the GET has none yet.
+     */
+    public static long retrieveCookie(byte[] request) {
+        
+        return ByteBuffer.wrap(request, Helper.APPLICATIONHEADERSIZE + PORTSIZE, COOKIESIZE).getLong();
+        
+    } // end retrieveCookie
+    
+    
+    /**
+     * This method will provide the port a GET's file should be sent to.
+     * 
+     * @param request - The GET, header included.
+     * 
+     * @return - The receiving port.
+     */
+    public static int retrievePort(byte[] request) {
+        
+        return ByteBuffer.wrap(request, Helper.APPLICATIONHEADERSIZE, PORTSIZE).getInt();
+        
+    } // end retrievePort
+    
+    
+    /**
+     * This method will provide the name of the file a GET asks for.
+     * 
+     * @param request - The GET, header included.
+     * 
+     * @return - The name, or null if the GET is too short to hold one.
+     */
+    public static String retrieveName(byte[] request) {
+        
+        int length = Helper.retrieveLength(request) - Helper.APPLICATIONHEADERSIZE - HEADSIZE;
+        
+        if(length <= 0 || Helper.APPLICATIONHEADERSIZE + HEADSIZE + length > request.length) {
+            
+            return null;
+            
+        }
+        
+        return new String(request, Helper.APPLICATIONHEADERSIZE + HEADSIZE, length, StandardCharsets.UTF_8);
+        
+    } // end retrieveName
+    
+    
+    /**
+     * This method builds the answer to a GET.
+     * 
+     * @param request - The GET, header included.
+     * 
+     * @param length - The length of the file being sent, NOFILE or BUSY.
+     * 
+     * @return - The file length packet, check sum not yet set.
+     */
+    public static byte[] reply(byte[] request, long length) {
+        
+        return answer(request, Helper.TYPEFILELENGTH, length, 0);
+        
+    } // end reply
+    
+    
+    /**
+     * This method builds the answer to a GET without the right cookie.
+     * 
+     * @param request - The GET, header included.
+     * 
+     * @param cookie - The cookie for the address the GET came from.
+     * 
+     * @return - The cookie packet, check sum not yet set.
+     */
+    public static byte[] cookieReply(byte[] request, long cookie) {
+        
+        return answer(request, Helper.TYPECOOKIE, 0, cookie);
+        
+    } // end cookieReply
+    
+    
+    /**
+     * This method builds an answer packet.
+     */
+    private static byte[] answer(byte[] request, int type, long length, long cookie) {
+        
+        byte[] reply = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + REPLYSIZE];
+        
+        Helper.bufferLength(reply, REPLYSIZE);
+        Helper.bufferSeqNumber(reply, Helper.retrieveSeqNum(request));
+        Helper.bufferPacketType(reply, type);
+        ByteBuffer.wrap(reply, Helper.ACKNOWLEDGEMENTHEADERSIZE, REPLYSIZE).putLong(length).putLong(cookie);
+        
+        return reply;
+        
+    } // end answer
+    
+} // end FileRequest
@@ -0,0 +1,115 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is arithmetic in GF(2^8), the field RAID-6 and
+ * Reed-Solomon codes work in. Addition is XOR, multiplication and division
+ * go through log/antilog tables built once for the polynomial
+ * x^8 + x^4 + x^3 + x^2 + 1 (0x11D) with generator 2.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+
+public class GaloisField {
+    
+    private static final int POLYNOMIAL = 0x11D;
+    
+    // EXP is doubled in length so a sum of two logs can index it without a mod.
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    
+    static {
+        
+        int x = 1;
+        
+        for(int i = 0 ; i < 255 ; i++) {
+            
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            
+            if((x & 0x100) != 0) {
+                
+                x ^= POLYNOMIAL;
+                
+            }
+            
+        }
+        
+        for(int i = 255 ; i < EXP.length ; i++) {
+            
+            EXP[i] = EXP[i - 255];
+            
+        }
+        
+    }
+    
+    
+    /**
+     * No instances, all methods are static.
+     */
+    private GaloisField() {
+        
+    } // end GaloisField constructor
+    
+    
+    /**
+     * @param a - A field element, 0 to 255.
+     * 
+     * @param b - A field element, 0 to 255.
+     * 
+     * @return - The product a * b.
+     */
+    public static int multiply(int a, int b) {
+        
+        if(a == 0 || b == 0) {
+            
+            return 0;
+            
+        }
+        
+        return EXP[LOG[a] + LOG[b]];
+        
+    } // end multiply
+    
+    
+    /**
+     * @param a - A field element, 0 to 255.
+     * 
+     * @param b - A non-zero field element.
+     * 
+     * @return - The quotient a / b.
+     */
+    public static int divide(int a, int b) {
+        
+        if(a == 0) {
+            
+            return 0;
+            
+        }
+        
+        return EXP[LOG[a] + 255 - LOG[b]];
+        
+    } // end divide
+    
+    
+    /**
+     * @param n - The power, 0 or more.
+     * 
+     * @return - The generator (2) raised to the power n.
+     */
+    public static int power(int n) {
+        
+        return EXP[n % 255];
+        
+    } // end power
+    
+} // end GaloisField
@@ -0,0 +1,108 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class loses packets in bursts, the way congested or wireless
+ * links do. The network is either in a "good" or a "bad" state, each with its
+ * own loss rate, and moves between them with fixed probabilities after every
+ * packet (the Gilbert-Elliott model).
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.SplittableRandom;
+
+
+public class GilbertElliottLoss implements LossModel {
+    
+    private final double goodToBad;
+    private final double badToGood;
+    private final double goodLossRate;
+    private final double badLossRate;
+    
+    // Only one stream's receiving end calls isLost, see LossModel.
+    private boolean bad = false;
+    
+    
+    /**
+     * A constructor for the GilbertElliottLoss.
+     * 
+     * @param newGoodToBad - The chance of moving from the good to the bad state after a packet.
+     * 
+     * @param newBadToGood - The chance of moving from the bad to the good state after a packet.
+     * 
+     * @param newGoodLossRate - The chance a packet is lost in the good state.
+     * 
+     * @param newBadLossRate - The chance a packet is lost in the bad state.
+     */
+    public GilbertElliottLoss(double newGoodToBad, double newBadToGood, double newGoodLossRate,
+                              double newBadLossRate) {
+        
+        goodToBad = newGoodToBad;
+        badToGood = newBadToGood;
+        goodLossRate = newGoodLossRate;
+        badLossRate = newBadLossRate;
+        
+    } // end GilbertElliottLoss constructor
+    
+    
+    /**
+     * This method builds the common simple form of the model, no loss in the good state and total
+     * loss in the bad one, from the two numbers usually known about a link.
+     * 
+     * @param lossRate - The long run fraction of packets lost, 0.0 to less than 1.0.
+     * 
+     * @param burstLength - The average number of packets lost in a row, at least 1.
+     * 
+     * @return - The model.
+     */
+    public static GilbertElliottLoss withAverage(double lossRate, double burstLength) {
+        
+        double badToGood = 1.0 / burstLength;
+        double goodToBad = lossRate * badToGood / (1.0 - lossRate);
+        
+        return new GilbertElliottLoss(goodToBad, badToGood, 0.0, 1.0);
+        
+    } // end withAverage
+    
+    
+    @Override
+    public boolean isLost(SplittableRandom random) {
+        
+        boolean lost = random.nextDouble() < (bad ? badLossRate : goodLossRate);
+        
+        if(random.nextDouble() < (bad ? badToGood : goodToBad)) {
+            
+            bad = !bad;
+            
+        }
+        
+        return lost;
+        
+    } // end isLost
+    
+    
+    @Override
+    public LossModel copy() {
+        
+        return new GilbertElliottLoss(goodToBad, badToGood, goodLossRate, badLossRate);
+        
+    } // end copy
+    
+    
+    @Override
+    public String toString() {
+        
+        return "GilbertElliott(p=" + goodToBad + ", r=" + badToGood + ", k=" + goodLossRate +
+               ", h=" + badLossRate + ")";
+    
+    } // end toString
+    
+} // end GilbertElliottLoss
@@ -30,6 +30,10 @@ import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
 
 public class Helper {
     
@@ -40,10 +44,72 @@ public class Helper {
     public static final int DEFAULTTIMEOUT = 3000;
     public static final int DEFAULTMAXDATASIZE = 500;
     public static final int DEFAULTBUFFERSIZE = 1024;
+    public static final int MAXPACKETSIZE = 65507;
     public static final int DEFAULTWINDOWSIZE = 7;
     public static final int DEFAULTERRORPERCENT = 25;
-    public static final int APPLICATIONHEADERSIZE = 12;
-    public static final int ACKNOWLEDGEMENTHEADERSIZE = 8;
+    public static final int APPLICATIONHEADERSIZE = 13;
+    public static final int ACKNOWLEDGEMENTHEADERSIZE = 13;
+    
+    // The last header byte says what kind of packet it is. Parity packets carry forward error
+    // correction for a group of data packets, see FecEncoder. The digest packet follows the 
+    // last data packet and carries a digest of the whole file, its acknowledgement says whether
+    // the server's digest of what it wrote matched. The FIN ends the transfer, its FIN-ACK is
+    // the last acknowledgement the client waits for. An OPEN starts a small file's burst. A
+    // signature request, sent before a delta, is answered at once and outside the window by a
+    // signatures packet, see BlockSignatures. A GET asks a DownloadServer to send a file, it is
+    // answered straight away with a cookie to send it again with and then the file's length, see
+    // FileRequest. A session packet announces a multicast transfer, receivers answer gaps with a
+    // NAK rather than acknowledging each packet, see MulticastSession. A chunk query, sent
+    // before deduplicated data, asks which chunks the server already holds and is answered at
+    // once, outside the window, see ChunkManifest. Flags sit above TYPEMASK.
+    public static final int TYPEDATA = 0;
+    public static final int TYPEPARITYP = 1;
+    public static final int TYPEPARITYQ = 2;
+    public static final int TYPEDIGEST = 3;
+    public static final int TYPEFIN = 4;
+    public static final int TYPEOPEN = 5;
+    public static final int TYPESIGREQUEST = 6;
+    public static final int TYPEGET = 7;
+    public static final int TYPESESSION = 8;
+    public static final int TYPECHUNKQUERY = 9;
+    public static final int TYPEACK = 0;
+    public static final int TYPEDIGESTOK = 1;
+    public static final int TYPEDIGESTBAD = 2;
+    public static final int TYPEFINACK = 3;
+    public static final int TYPESIGNATURES = 4;
+    public static final int TYPEFILELENGTH = 5;
+    public static final int TYPENAK = 6;
+    public static final int TYPECHUNKSHELD = 7;
+    public static final int TYPECOOKIE = 8;
+    public static final int TYPEMASK = 0x1F;
+    
+    // A FIN carries the file's total length (8 bytes) and the client's time out (4 bytes). The
+    // server stays around this many of those time outs after a FIN-ACK in case it was lost.
+    public static final int FINSIZE = 12;
+    public static final int FINLINGERTIMEOUTS = 3;
+    
+    // The digest sent in the digest packet.
+    public static final String DIGESTALGORITHM = "SHA-256";
+    public static final int DIGESTSIZE = 32;
+    
+    // Set on an acknowledgement when the packet was rebuilt from parity rather than received.
+    public static final int FLAGRECOVERED = 0x40;
+    
+    // Set on a FIN-ACK when the file digest matched, for clients that never saw the digest's ack.
+    public static final int FLAGVERIFIED = 0x20;
+    
+    // An OPEN carries option bits (1 byte) and the file's total length (8 bytes). It takes the
+    // first sequence number, the server adopts it instead of needing to be told the ISN.
+    public static final int OPENSIZE = 9;
+    public static final int OPENACKONCE = 1;
+    
+    // How many packets the server buffers for its writer thread, advertised to the client in
+    // each acknowledgement as the room left.
+    public static final int DEFAULTRECEIVEBUFFER = 64;
+    
+    // The first sequence number used, both ends must agree. Sequence numbers wrap around
+    // past Integer.MAX_VALUE so any value works, see isBefore().
+    public static final int INITIALSEQUENCENUMBER = 1;
     
     // 100 milliseconds * the values below.
     public static final int SENDNEWPACKETDELAY = 0;
@@ -273,8 +339,9 @@ public class Helper {
         
         for(int i = 1 ; i < array.length ; i++) {
             
+            // Mask so a byte over 127 isn't sign extended over the bytes before it.
             tempNum = tempNum << 8;
-            tempNum = tempNum | array[i];
+            tempNum = tempNum | (array[i] & 0xFF);
             
         }
         
@@ -308,13 +375,13 @@ public class Helper {
      * 
      * @param payload - The data portion of a DatagramPacket.
      * 
-     * @return - The length.
+     * @return - The length, read as unsigned so lengths up to MAXPACKETSIZE come back intact.
      */
-    public static short retrieveLength(byte[] payload) {
+    public static int retrieveLength(byte[] payload) {
         
         byte[] tempArray = {payload[2], payload[3]};
         
-        return (short)toNumber(tempArray);
+        return toNumber(tempArray) & 0xFFFF;
         
     } // end retrieveLength
     
@@ -359,6 +426,40 @@ public class Helper {
     } // end retrieveSeqNum
     
     
+    /**
+     * This method will retrieve the advertised window from an acknowledgement header, the
+     * number of packets the server has room for past the one acknowledged.
+     * 
+     * Reminder... This shares its location with the sequence number of a data header.
+     * 
+     * @param payload - The data portion of a DatagramPacket.
+     * 
+     * @return - The advertised window, in packets.
+     */
+    public static int retrieveAdvertisedWindow(byte[] payload) {
+        
+        byte[] tempArray = {payload[8], payload[9], payload[10], payload[11]};
+        
+        return toNumber(tempArray);
+        
+    } // end retrieveAdvertisedWindow
+    
+    
+    /**
+     * This method will retrieve the packet type from the last byte of a data or 
+     * acknowledgement header.
+     * 
+     * @param payload - The data portion of a DatagramPacket.
+     * 
+     * @return - The type, eg... TYPEDATA, including any flags.
+     */
+    public static int retrievePacketType(byte[] payload) {
+        
+        return payload[12] & 0xFF;
+        
+    } // end retrievePacketType
+    
+    
     /**
      * This method places the length specified into the appropriate indices of the
      * payload. 
@@ -475,13 +576,91 @@ public class Helper {
     
     
     /**
-     * This method will return a random whole percent between 1 and 100 (inclusive)
+     * This method will place the four byte advertised window into an acknowledgement header.
+     * 
+     * @param payload - The buffer being used by the DatagramPacket.
+     * 
+     * @param window - The number of packets the server has room for.
+     */
+    public static void bufferAdvertisedWindow(byte[] payload, int window) {
+        
+        byte[] windowBytes = toBytes(window);
+        
+        // Place the values in their header locations.
+        payload[8] = windowBytes[0];
+        payload[9] = windowBytes[1];
+        payload[10] = windowBytes[2];
+        payload[11] = windowBytes[3];
+        
+    } // end bufferAdvertisedWindow
+    
+    
+    /**
+     * This method will place the packet type into the last byte of a data or acknowledgement
+     * header.
+     * 
+     * @param payload - The buffer being used by the DatagramPacket.
+     * 
+     * @param type - The type, eg... TYPEDATA, including any flags.
+     */
+    public static void bufferPacketType(byte[] payload, int type) {
+        
+        payload[12] = (byte)type;
+        
+    } // end bufferPacketType
+    
+    
+    /**
+     * This method compares two sequence numbers allowing for wraparound (serial number 
+     * arithmetic, as in RFC 1982). Sequence numbers only ever move forward so whichever is 
+     * reached first counting up from the other is "before" it, as long as the two are less 
+     * than 2^31 apart, which the window guarantees.
+     * 
+     * eg... isBefore(Integer.MAX_VALUE, Integer.MIN_VALUE) is true.
+     * 
+     * @param a - A sequence number.
+     * 
+     * @param b - Another sequence number.
+     * 
+     * @return - A boolean true if a comes before b, false otherwise.
+     */
+    public static boolean isBefore(int a, int b) {
+        
+        return a - b < 0;
+        
+    } // end isBefore
+    
+    
+    /**
+     * This method creates the digest used to check the whole file, see DIGESTALGORITHM.
+     * 
+     * @return - A new MessageDigest, or null if the JVM doesn't provide one (it must).
+     */
+    public static MessageDigest newDigest() {
+        
+        try {
+            
+            return MessageDigest.getInstance(DIGESTALGORITHM);
+            
+        } catch (NoSuchAlgorithmException e) {
+            
+            Log.error("No " + DIGESTALGORITHM + " available, the file can't be checked!");
+            return null;
+            
+        }
+        
+    } // end newDigest
+    
+    
+    /**
+     * This method will return a random whole percent between 1 and 100 (inclusive). Each thread
+     * draws from its own generator, for seeded or other kinds of errors see Impairment.
      * 
      * @return - An integer between 1 and 100.
      */
     public static int getRandomPercent() {
         
-        return ((int)(Math.random() * 100)) + 1;
+        return ThreadLocalRandom.current().nextInt(100) + 1;
         
     } // end getRandomPercent
     
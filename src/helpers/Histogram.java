@@ -0,0 +1,206 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is a small, lock-free latency histogram. Values are
+ * sorted into buckets by their highest set bit, each split into SUBBUCKETS
+ * linear pieces, so any value is kept to within about 12% using a fixed array
+ * no matter how large it is. Recording is a couple of shifts and an atomic add
+ * so it can be called on the packet path.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public class Histogram {
+    
+    // Each power of two range is split into this many buckets (must be a power of 2).
+    private static final int SUBBUCKETBITS = 3;
+    private static final int SUBBUCKETS = 1 << SUBBUCKETBITS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUBBUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    
+    /**
+     * This method records a value, negative values are recorded as 0.
+     * 
+     * @param value - The value to record, eg... a latency in nanoseconds.
+     */
+    public void record(long value) {
+        
+        if(value < 0) {
+            
+            value = 0;
+            
+        }
+        
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        
+        long currentMax = max.get();
+        
+        while(value > currentMax && !max.compareAndSet(currentMax, value)) {
+            
+            currentMax = max.get();
+            
+        }
+        
+    } // end record
+    
+    
+    /**
+     * This method will provide the number of values recorded.
+     * 
+     * @return - The count.
+     */
+    public long getCount() {
+        
+        return count.get();
+        
+    } // end getCount
+    
+    
+    /**
+     * This method will provide the largest value recorded.
+     * 
+     * @return - The maximum, 0 if nothing was recorded.
+     */
+    public long getMax() {
+        
+        return max.get();
+        
+    } // end getMax
+    
+    
+    /**
+     * This method will provide the average of the values recorded.
+     * 
+     * @return - The mean, 0 if nothing was recorded.
+     */
+    public long getMean() {
+        
+        long n = count.get();
+        
+        return n == 0 ? 0 : sum.get() / n;
+        
+    } // end getMean
+    
+    
+    /**
+     * This method will provide the value below which the given percentage of recorded values
+     * fall. The answer is the upper edge of the bucket holding that value.
+     * 
+     * @param percent - The percentile wanted, eg... 99.0.
+     * 
+     * @return - The value at that percentile, 0 if nothing was recorded.
+     */
+    public long getPercentile(double percent) {
+        
+        long n = count.get();
+        
+        if(n == 0) {
+            
+            return 0;
+            
+        }
+        
+        long wanted = Math.max(1, (long)Math.ceil(n * percent / 100.0));
+        long seen = 0;
+        
+        for(int i = 0 ; i < counts.length() ; i++) {
+            
+            seen += counts.get(i);
+            
+            if(seen >= wanted) {
+                
+                return Math.min(upperEdgeOf(i), max.get());
+                
+            }
+            
+        }
+        
+        return max.get();
+        
+    } // end getPercentile
+    
+    
+    /**
+     * This method clears all recorded values.
+     */
+    public void reset() {
+        
+        for(int i = 0 ; i < counts.length() ; i++) {
+            
+            counts.set(i, 0);
+            
+        }
+        
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        
+    } // end reset
+    
+    
+    /**
+     * This method finds the bucket a value belongs in.
+     * 
+     * @param value - A non-negative value.
+     * 
+     * @return - The bucket index.
+     */
+    private static int bucketOf(long value) {
+        
+        // Small values get a bucket each.
+        if(value < SUBBUCKETS) {
+            
+            return (int)value;
+            
+        }
+        
+        int highBit = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (highBit - SUBBUCKETBITS)) & (SUBBUCKETS - 1);
+        
+        return (highBit - SUBBUCKETBITS + 1) * SUBBUCKETS + subBucket;
+        
+    } // end bucketOf
+    
+    
+    /**
+     * This method finds the largest value that would be placed in a bucket.
+     * 
+     * @param bucket - The bucket index.
+     * 
+     * @return - The upper edge of the bucket.
+     */
+    private static long upperEdgeOf(int bucket) {
+        
+        if(bucket < SUBBUCKETS) {
+            
+            return bucket;
+            
+        }
+        
+        int highBit = bucket / SUBBUCKETS + SUBBUCKETBITS - 1;
+        long subBucket = bucket & (SUBBUCKETS - 1);
+        long lower = (1L << highBit) | (subBucket << (highBit - SUBBUCKETBITS));
+        
+        return lower + (1L << (highBit - SUBBUCKETBITS)) - 1;
+        
+    } // end upperEdgeOf
+    
+} // end Histogram
@@ -0,0 +1,502 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class simulates an imperfect network for one direction of a
+ * transfer (data or acknowledgements). It replaces the single error percent
+ * with separate, pluggable effects:
+ * 
+ * Loss - decided by a LossModel when a packet is received. <br>
+ * Corruption - a bad check sum, decided when a packet is built. <br>
+ * Duplication, reordering and delay jitter - applied when a packet is sent. <br>
+ * 
+ * Each end of a transfer takes a stream of its own with forStream(), so
+ * concurrent transfers sharing an Impairment don't lose the same packets. The
+ * streams are split from the Impairment's seed in the order they are asked
+ * for, so a run with the same seed that starts its transfers in the same order
+ * makes the same decisions, whichever threads do the sending. Within a stream
+ * losses are drawn by the receiving end and everything else by the sending
+ * end, from separate generators. Reordering is done by holding a packet back
+ * long enough for the packets after it to overtake it.
+ * 
+ * Delayed packets are copied and sent later by a shared daemon thread, so the
+ * caller may reuse or change its buffer as soon as send() returns.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+public class Impairment {
+    
+    // A perfect network, used when nothing was configured.
+    public static final Impairment NONE = builder().build();
+    
+    // Sends the delayed packets of every Impairment, created on first use.
+    private static volatile ScheduledExecutorService scheduler;
+    
+    private final LossModel lossModel;
+    private final double corruptRate;
+    private final double duplicateRate;
+    private final double reorderRate;
+    private final long delayNanos;
+    private final long jitterNanos;
+    private final long reorderNanos;
+    private final long seed;
+    
+    // Nothing to do on send, lets send() go straight to the socket.
+    private final boolean sendImpaired;
+    
+    // Losses are drawn by the receiving end and the rest by the sending end, which may send
+    // from more than one thread (eg... resends on time out) so each is locked while drawn.
+    // The streams handed out by forStream() are split from the last.
+    private final SplittableRandom lossRandom;
+    private final SplittableRandom sendRandom;
+    private final SplittableRandom streams;
+    
+    
+    /**
+     * A constructor for the Impairment, see builder().
+     * 
+     * @param builder - The settings.
+     */
+    private Impairment(Builder builder) {
+        
+        lossModel = builder.lossModel;
+        corruptRate = builder.corruptRate;
+        duplicateRate = builder.duplicateRate;
+        reorderRate = builder.reorderRate;
+        delayNanos = TimeUnit.MILLISECONDS.toNanos(builder.delayMillis);
+        jitterNanos = TimeUnit.MILLISECONDS.toNanos(builder.jitterMillis);
+        reorderNanos = TimeUnit.MILLISECONDS.toNanos(builder.reorderMillis);
+        seed = builder.seed;
+        
+        sendImpaired = duplicateRate > 0 || reorderRate > 0 || delayNanos > 0 || jitterNanos > 0;
+        
+        SplittableRandom root = new SplittableRandom(seed);
+        lossRandom = root.split();
+        sendRandom = root.split();
+        streams = root.split();
+        
+    } // end Impairment constructor
+    
+    
+    /**
+     * A constructor for one stream of an Impairment, see forStream().
+     * 
+     * @param parent - The Impairment whose settings are used.
+     * 
+     * @param root - The stream's own generator.
+     */
+    private Impairment(Impairment parent, SplittableRandom root) {
+        
+        lossModel = parent.lossModel == null ? null : parent.lossModel.copy();
+        corruptRate = parent.corruptRate;
+        duplicateRate = parent.duplicateRate;
+        reorderRate = parent.reorderRate;
+        delayNanos = parent.delayNanos;
+        jitterNanos = parent.jitterNanos;
+        reorderNanos = parent.reorderNanos;
+        seed = parent.seed;
+        sendImpaired = parent.sendImpaired;
+        
+        lossRandom = root.split();
+        sendRandom = root.split();
+        streams = root.split();
+        
+    } // end Impairment constructor
+    
+    
+    /**
+     * This method will provide a builder, every setting defaults to a perfect network.
+     * 
+     * @return - A new Builder.
+     */
+    public static Builder builder() {
+        
+        return new Builder();
+        
+    } // end builder
+    
+    
+    /**
+     * This method gives the behavior of the original error percent, each packet is lost and each
+     * packet is corrupted with the same independent chance.
+     * 
+     * @param errorPercent - The chance, 0 to 100.
+     * 
+     * @return - The Impairment, unseeded.
+     */
+    public static Impairment fromErrorPercent(int errorPercent) {
+        
+        if(errorPercent <= 0) {
+            
+            return NONE;
+            
+        }
+        
+        return builder().lossModel(new BernoulliLoss(errorPercent / 100.0))
+                        .corruptPercent(errorPercent)
+                        .build();
+    
+    } // end fromErrorPercent
+    
+    
+    /**
+     * This method provides the same simulated network with generators, and loss model state, of
+     * its own. Each end of each transfer takes one, eg... P2Client.start() takes one for data and
+     * one for acknowledgements. The n'th stream of a seed always makes the same decisions.
+     * 
+     * @return - The stream, or NONE if this Impairment does nothing.
+     */
+    public Impairment forStream() {
+        
+        if(this == NONE) {
+            
+            return NONE;
+            
+        }
+        
+        synchronized(streams) {
+            
+            return new Impairment(this, streams.split());
+            
+        }
+        
+    } // end forStream
+    
+    
+    /**
+     * This method is used to determine whether a packet that just arrived should be treated as
+     * lost. Call it from the receiving end of this direction only.
+     * 
+     * @return - A boolean true if the packet was "lost", false if it should be processed.
+     */
+    public boolean isLost() {
+        
+        if(lossModel == null) {
+            
+            return false;
+            
+        }
+        
+        synchronized(lossRandom) {
+            
+            return lossModel.isLost(lossRandom);
+            
+        }
+        
+    } // end isLost
+    
+    
+    /**
+     * This method is used to determine whether a packet about to be sent should carry a bad
+     * check sum.
+     * 
+     * @return - A boolean true if the packet should be corrupted, false otherwise.
+     */
+    public boolean isCorrupted() {
+        
+        if(corruptRate <= 0) {
+            
+            return false;
+            
+        }
+        
+        synchronized(sendRandom) {
+            
+            return sendRandom.nextDouble() < corruptRate;
+            
+        }
+        
+    } // end isCorrupted
+    
+    
+    /**
+     * This method sends a packet through the simulated network. It may be sent now, later, more
+     * than once or after packets sent after it.
+     * 
+     * @param socket - The socket to send from.
+     * 
+     * @param packet - The packet, its buffer is copied if the send is delayed.
+     * 
+     * @throws IOException - If an immediate send fails. Delayed sends that fail are logged.
+     */
+    public void send(DatagramSocket socket, DatagramPacket packet) throws IOException {
+        
+        if(!sendImpaired) {
+            
+            socket.send(packet);
+            return;
+            
+        }
+        
+        int copies;
+        long[] delays = new long[2];
+        
+        // Every draw for one packet is made under one lock, another thread's packet can't come between them.
+        synchronized(sendRandom) {
+            
+            copies = (duplicateRate > 0 && sendRandom.nextDouble() < duplicateRate) ? 2 : 1;
+            
+            for(int i = 0 ; i < copies ; i++) {
+                
+                delays[i] = delayNanos;
+                
+                if(jitterNanos > 0) {
+                    
+                    delays[i] += sendRandom.nextLong(-jitterNanos, jitterNanos + 1);
+                    
+                }
+                
+                if(reorderRate > 0 && sendRandom.nextDouble() < reorderRate) {
+                    
+                    delays[i] += reorderNanos;
+                    
+                }
+                
+            }
+            
+        }
+        
+        for(int i = 0 ; i < copies ; i++) {
+            
+            long delay = delays[i];
+            
+            if(delay <= 0) {
+                
+                socket.send(packet);
+                
+            } else {
+                
+                sendLater(socket, packet, delay);
+                
+            }
+            
+        }
+        
+    } // end send
+    
+    
+    /**
+     * This method copies a packet and schedules it to be sent.
+     * 
+     * @param socket - The socket to send from.
+     * 
+     * @param packet - The packet to copy.
+     * 
+     * @param delay - How long to wait, in nanoseconds.
+     */
+    private static void sendLater(final DatagramSocket socket, DatagramPacket packet, long delay) {
+        
+        byte[] copy = Arrays.copyOfRange(packet.getData(), packet.getOffset(),
+                                         packet.getOffset() + packet.getLength());
+        final DatagramPacket delayed = new DatagramPacket(copy, copy.length, packet.getSocketAddress());
+        
+        getScheduler().schedule(() -> {
+            
+            try {
+                
+                if(!socket.isClosed()) {
+                    
+                    socket.send(delayed);
+                    
+                }
+                
+            } catch (IOException e) {
+                
+                Log.error("Error sending delayed packet!");
+                
+            }
+            
+        }, delay, TimeUnit.NANOSECONDS);
+        
+    } // end sendLater
+    
+    
+    /**
+     * This method will provide the shared scheduler, starting it the first time.
+     * 
+     * @return - The scheduler.
+     */
+    private static ScheduledExecutorService getScheduler() {
+        
+        if(scheduler == null) {
+            
+            synchronized(Impairment.class) {
+                
+                if(scheduler == null) {
+                    
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        
+                        Thread thread = new Thread(runnable, "Impairment-delay");
+                        thread.setDaemon(true);
+                        
+                        return thread;
+                        
+                    });
+                    
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = executor;
+                    
+                }
+                
+            }
+            
+        }
+        
+        return scheduler;
+        
+    } // end getScheduler
+    
+    
+    @Override
+    public String toString() {
+        
+        return "Impairment(loss=" + lossModel + ", corrupt=" + corruptRate + ", duplicate=" + duplicateRate +
+               ", reorder=" + reorderRate + ", delay=" + delayNanos / 1000000 + "ms +- " +
+               jitterNanos / 1000000 + "ms, seed=" + seed + ")";
+    
+    } // end toString
+    
+    
+    /**
+     * This class collects the settings for an Impairment. Percentages are 0 to 100 and may be
+     * fractional, times are in milliseconds.
+     */
+    public static class Builder {
+        
+        private LossModel lossModel = null;
+        private double corruptRate = 0;
+        private double duplicateRate = 0;
+        private double reorderRate = 0;
+        private long delayMillis = 0;
+        private long jitterMillis = 0;
+        private long reorderMillis = 10;
+        private long seed = System.nanoTime();
+        
+        
+        /**
+         * @param model - Decides which received packets are lost, null for none.
+         * 
+         * @return - This Builder.
+         */
+        public Builder lossModel(LossModel model) {
+            
+            lossModel = model;
+            return this;
+            
+        } // end lossModel
+        
+        
+        /**
+         * @param percent - The chance each packet is lost independently, see BernoulliLoss.
+         * 
+         * @return - This Builder.
+         */
+        public Builder lossPercent(double percent) {
+            
+            lossModel = percent > 0 ? new BernoulliLoss(percent / 100.0) : null;
+            return this;
+            
+        } // end lossPercent
+        
+        
+        /**
+         * @param percent - The chance a packet is sent with a bad check sum.
+         * 
+         * @return - This Builder.
+         */
+        public Builder corruptPercent(double percent) {
+            
+            corruptRate = percent / 100.0;
+            return this;
+            
+        } // end corruptPercent
+        
+        
+        /**
+         * @param percent - The chance a packet is sent twice.
+         * 
+         * @return - This Builder.
+         */
+        public Builder duplicatePercent(double percent) {
+            
+            duplicateRate = percent / 100.0;
+            return this;
+            
+        } // end duplicatePercent
+        
+        
+        /**
+         * @param percent - The chance a packet is held back so later packets pass it.
+         * 
+         * @param holdMillis - How long a reordered packet is held back.
+         * 
+         * @return - This Builder.
+         */
+        public Builder reorder(double percent, long holdMillis) {
+            
+            reorderRate = percent / 100.0;
+            reorderMillis = holdMillis;
+            return this;
+            
+        } // end reorder
+        
+        
+        /**
+         * @param millis - A fixed delay added to every packet.
+         * 
+         * @param jitter - Each packet's delay varies uniformly by up to this much either way.
+         * 
+         * @return - This Builder.
+         */
+        public Builder delay(long millis, long jitter) {
+            
+            delayMillis = millis;
+            jitterMillis = jitter;
+            return this;
+            
+        } // end delay
+        
+        
+        /**
+         * @param newSeed - The seed, the same seed gives the same decisions in each stream.
+         * 
+         * @return - This Builder.
+         */
+        public Builder seed(long newSeed) {
+            
+            seed = newSeed;
+            return this;
+            
+        } // end seed
+        
+        
+        /**
+         * @return - The Impairment.
+         */
+        public Impairment build() {
+            
+            return new Impairment(this);
+            
+        } // end build
+        
+    } // end Builder
+    
+} // end Impairment
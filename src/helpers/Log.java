@@ -0,0 +1,345 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the logging facility used by client and server.
+ * Messages are handed off to a fixed size ring buffer and printed by a
+ * background thread so the threads moving packets never wait on the console.
+ * 
+ * Callers on the packet path should check the level BEFORE building a message,
+ * eg... if(Log.isDebug()) { Log.debug("Sending seqNum " + seqNum); }
+ * At the default level (INFO) that check is all the work done per packet.
+ * 
+ * The starting level can be set with -Dhelpers.log.level=DEBUG (OFF, ERROR,
+ * WARN, INFO or DEBUG).
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class Log {
+    
+    // Levels, a message is kept if its level is at or below the current level.
+    public static final int OFF = 0;
+    public static final int ERROR = 1;
+    public static final int WARN = 2;
+    public static final int INFO = 3;
+    public static final int DEBUG = 4;
+    
+    // Must be a power of 2 so slots can be found with a mask.
+    public static final int RINGSIZE = 8192;
+    
+    // How long the drainer sleeps when there is nothing to print, in nanoseconds.
+    private static final long IDLEPARKNANOS = 1000000;
+    
+    private static volatile int level = parseLevel(System.getProperty("helpers.log.level"), INFO);
+    
+    // The ring, producers claim a slot by moving the tail, the drainer empties slots (sets
+    // them back to null) and then moves the head.
+    private static final AtomicReferenceArray<String> ring = new AtomicReferenceArray<String>(RINGSIZE);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    
+    private static final Thread drainer = startDrainer();
+    
+    
+    /**
+     * No instances, all methods are static.
+     */
+    private Log() {
+        
+    } // end Log constructor
+    
+    
+    /**
+     * This method will change the logging level.
+     * 
+     * @param newLevel - One of OFF, ERROR, WARN, INFO or DEBUG.
+     */
+    public static void setLevel(int newLevel) {
+        
+        level = newLevel;
+        
+    } // end setLevel
+    
+    
+    /**
+     * This method will provide the current logging level.
+     * 
+     * @return - One of OFF, ERROR, WARN, INFO or DEBUG.
+     */
+    public static int getLevel() {
+        
+        return level;
+        
+    } // end getLevel
+    
+    
+    /**
+     * This method is used to determine whether messages of a given level are being kept.
+     * 
+     * @param messageLevel - The level of the message about to be built.
+     * 
+     * @return - A boolean true if the message would be kept, false otherwise.
+     */
+    public static boolean isEnabled(int messageLevel) {
+        
+        return messageLevel <= level;
+        
+    } // end isEnabled
+    
+    
+    /**
+     * This method is used to determine whether per packet (DEBUG) messages are being kept.
+     * 
+     * @return - A boolean true if DEBUG messages are kept, false otherwise.
+     */
+    public static boolean isDebug() {
+        
+        return DEBUG <= level;
+        
+    } // end isDebug
+    
+    
+    /**
+     * @param message - The message to log at ERROR.
+     */
+    public static void error(String message) {
+        
+        log(ERROR, message);
+        
+    } // end error
+    
+    
+    /**
+     * @param message - The message to log at WARN.
+     */
+    public static void warn(String message) {
+        
+        log(WARN, message);
+        
+    } // end warn
+    
+    
+    /**
+     * @param message - The message to log at INFO.
+     */
+    public static void info(String message) {
+        
+        log(INFO, message);
+        
+    } // end info
+    
+    
+    /**
+     * @param message - The message to log at DEBUG.
+     */
+    public static void debug(String message) {
+        
+        log(DEBUG, message);
+        
+    } // end debug
+    
+    
+    /**
+     * This method places a message in the ring for the drainer to print. It never blocks, if the
+     * ring is full the message is dropped and counted instead.
+     * 
+     * @param messageLevel - The level of the message.
+     * 
+     * @param message - The message, printed as its own line.
+     */
+    public static void log(int messageLevel, String message) {
+        
+        if(messageLevel > level) {
+            
+            return;
+            
+        }
+        
+        long slot;
+        
+        // Claim the next free slot, giving up if the drainer has fallen a full ring behind.
+        do {
+            
+            slot = tail.get();
+            
+            if(slot - head.get() >= RINGSIZE) {
+                
+                dropped.incrementAndGet();
+                return;
+                
+            }
+            
+        } while(!tail.compareAndSet(slot, slot + 1));
+        
+        ring.lazySet((int)(slot & (RINGSIZE - 1)), message);
+        
+    } // end log
+    
+    
+    /**
+     * This method waits (briefly) for every message logged so far to be printed. Used at the end
+     * of a run so nothing is lost when the JVM exits.
+     */
+    public static void flush() {
+        
+        long target = tail.get();
+        long deadline = System.nanoTime() + 1000000000L;
+        
+        while(head.get() < target && System.nanoTime() < deadline) {
+            
+            LockSupport.unpark(drainer);
+            Thread.yield();
+            
+        }
+        
+        System.out.flush();
+        
+    } // end flush
+    
+    
+    /**
+     * This method will provide the number of messages dropped because the ring was full.
+     * 
+     * @return - The number of dropped messages.
+     */
+    public static long getDropped() {
+        
+        return dropped.get();
+        
+    } // end getDropped
+    
+    
+    /**
+     * This method is the body of the drainer thread. It prints whatever has been published, in
+     * batches, and sleeps when the ring is empty.
+     */
+    private static void drain() {
+        
+        StringBuilder batch = new StringBuilder();
+        long reportedDrops = 0;
+        
+        while(true) {
+            
+            long next = head.get();
+            String message;
+            
+            // A claimed slot may not be filled in yet, stop at the first gap.
+            while((message = ring.get((int)(next & (RINGSIZE - 1)))) != null) {
+                
+                ring.lazySet((int)(next & (RINGSIZE - 1)), null);
+                next++;
+                head.lazySet(next);
+                
+                batch.append(message).append(System.lineSeparator());
+                
+            }
+            
+            long drops = dropped.get();
+            
+            if(drops != reportedDrops) {
+                
+                batch.append("*** Log full, ").append(drops - reportedDrops)
+                     .append(" messages dropped ***").append(System.lineSeparator());
+                reportedDrops = drops;
+                
+            }
+            
+            if(batch.length() > 0) {
+                
+                System.out.print(batch);
+                batch.setLength(0);
+                
+            } else {
+                
+                LockSupport.parkNanos(IDLEPARKNANOS);
+                
+            }
+            
+        } // end while loop
+        
+    } // end drain
+    
+    
+    /**
+     * This method creates and starts the drainer thread, and makes sure it is flushed when the
+     * JVM shuts down.
+     * 
+     * @return - The running drainer thread.
+     */
+    private static Thread startDrainer() {
+        
+        Thread thread = new Thread("Log-drainer") {
+            
+            @Override
+            public void run() {
+                
+                drain();
+                
+            }
+            
+        };
+        
+        thread.setDaemon(true);
+        thread.start();
+        
+        Runtime.getRuntime().addShutdownHook(new Thread("Log-flush") {
+            
+            @Override
+            public void run() {
+                
+                flush();
+                
+            }
+            
+        });
+        
+        return thread;
+        
+    } // end startDrainer
+    
+    
+    /**
+     * This method converts a level name to its value.
+     * 
+     * @param name - The name, eg... "DEBUG", may be null.
+     * 
+     * @param defaultLevel - Used if the name is null or not recognized.
+     * 
+     * @return - The level.
+     */
+    public static int parseLevel(String name, int defaultLevel) {
+        
+        if(name == null) {
+            
+            return defaultLevel;
+            
+        }
+        
+        switch(name.trim().toUpperCase()) {
+            
+            case "OFF":   return OFF;
+            case "ERROR": return ERROR;
+            case "WARN":  return WARN;
+            case "INFO":  return INFO;
+            case "DEBUG": return DEBUG;
+            default:      return defaultLevel;
+            
+        }
+        
+    } // end parseLevel
+    
+} // end Log
@@ -0,0 +1,44 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular interface decides which packets a simulated network loses.
+ * An Impairment asks it once per packet, holding the lock on the random source
+ * passed in, so implementations may keep state (eg... a burst) without locking
+ * of their own. Each stream of an Impairment has its own copy. The random
+ * source is passed in so runs can be seeded.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.util.SplittableRandom;
+
+
+public interface LossModel {
+    
+    /**
+     * This method decides whether the next packet is lost.
+     * 
+     * @param random - The generator to draw from.
+     * 
+     * @return - A boolean true if the packet should be treated as lost, false otherwise.
+     */
+    boolean isLost(SplittableRandom random);
+    
+    
+    /**
+     * This method provides a model with the same settings and state of its own, for another
+     * stream of an Impairment.
+     * 
+     * @return - The copy, or this model if it keeps no state.
+     */
+    LossModel copy();
+    
+} // end LossModel
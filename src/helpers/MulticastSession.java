@@ -0,0 +1,274 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class describes one multicast transfer, sent once to a
+ * group however many receivers have joined it. Data packets are numbered from
+ * 0 and the digest packet follows the last of them. Every packet carries the
+ * session's random id in its acknowledgement number, so packets left over
+ * from another session on the same group are ignored.
+ * 
+ * The sender announces the session with a session packet, sent first and
+ * again every time out: the file's length (8 bytes), the max data size (4),
+ * the sender's time out (4) and how many packets have been sent so far (4).
+ * Nothing is acknowledged. A receiver missing packets unicasts a NAK back to
+ * the sender listing them as ranges, the first sequence number (4 bytes) and
+ * a count (4) each, and the sender multicasts the repairs. Once a receiver
+ * has every packet it answers session packets with a FIN-ACK. NAKs and
+ * FIN-ACKs carry a random id of the receiver in their sequence number, as
+ * receivers on one host share the group's port.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+
+public class MulticastSession {
+    
+    public static final int SESSIONSIZE = 20;
+    public static final int NAKRANGESIZE = 8;
+    
+    private final int id;
+    private final long length;
+    private final int maxDataSize;
+    private final int timeOut;
+    
+    
+    /**
+     * A constructor for the MulticastSession.
+     * 
+     * @param newId - The session id, random.
+     * 
+     * @param newLength - The length of the file, in bytes.
+     * 
+     * @param newMaxDataSize - The max data size of each packet, in bytes.
+     * 
+     * @param newTimeOut - The sender's time out, also how often receivers NAK, in milliseconds.
+     */
+    public MulticastSession(int newId, long newLength, int newMaxDataSize, int newTimeOut) {
+        
+        id = newId;
+        length = newLength;
+        maxDataSize = newMaxDataSize;
+        timeOut = newTimeOut;
+        
+    } // end MulticastSession constructor
+    
+    
+    /**
+     * This method reads the session a session packet announces.
+     * 
+     * @param packet - The session packet, header included.
+     * 
+     * @return - The session.
+     */
+    public static MulticastSession fromPacket(byte[] packet) {
+        
+        ByteBuffer payload = ByteBuffer.wrap(packet, Helper.APPLICATIONHEADERSIZE, SESSIONSIZE);
+        
+        return new MulticastSession(Helper.retrieveAckNum(packet), payload.getLong(), payload.getInt(),
+                                        payload.getInt());
+        
+    } // end fromPacket
+    
+    
+    /**
+     * This method will provide how many packets a session packet says have been sent.
+     * 
+     * @param packet - The session packet, header included.
+     * 
+     * @return - The packets sent so far, data and digest.
+     */
+    public static int retrieveSent(byte[] packet) {
+        
+        return ByteBuffer.wrap(packet, Helper.APPLICATIONHEADERSIZE + SESSIONSIZE - 4, 4).getInt();
+        
+    } // end retrieveSent
+    
+    
+    public int getId() {
+        
+        return id;
+        
+    } // end getId
+    
+    
+    public long getLength() {
+        
+        return length;
+        
+    } // end getLength
+    
+    
+    public int getMaxDataSize() {
+        
+        return maxDataSize;
+        
+    } // end getMaxDataSize
+    
+    
+    public int getTimeOut() {
+        
+        return timeOut;
+        
+    } // end getTimeOut
+    
+    
+    /**
+     * This method will provide the number of data packets, the digest packet's sequence number.
+     * 
+     * @return - The number of data packets.
+     */
+    public int getDataPackets() {
+        
+        return (int)((length + maxDataSize - 1) / maxDataSize);
+        
+    } // end getDataPackets
+    
+    
+    /**
+     * This method will provide the number of packets in the session, data and digest.
+     * 
+     * @return - The number of packets.
+     */
+    public int getPacketCount() {
+        
+        return getDataPackets() + 1;
+        
+    } // end getPacketCount
+    
+    
+    /**
+     * This method will provide the number of data bytes in a data packet.
+     * 
+     * @param seqNum - The data packet.
+     * 
+     * @return - Its length, only the last may be short.
+     */
+    public int dataLength(int seqNum) {
+        
+        return (int)Math.min(maxDataSize, length - (long)seqNum * maxDataSize);
+        
+    } // end dataLength
+    
+    
+    /**
+     * This method fills in the header of a packet belonging to the session.
+     * 
+     * @param packet - The packet.
+     * 
+     * @param type - Its type, eg... Helper.TYPEDATA.
+     * 
+     * @param seqNum - Its sequence number.
+     * 
+     * @param dataLength - The number of payload bytes.
+     */
+    public void bufferHeader(byte[] packet, int type, int seqNum, int dataLength) {
+        
+        Helper.bufferCheckSum(packet, Helper.CHECKSUMGOOD);
+        Helper.bufferLength(packet, dataLength);
+        Helper.bufferAckNumber(packet, id);
+        Helper.bufferSeqNumber(packet, seqNum);
+        Helper.bufferPacketType(packet, type);
+        
+    } // end bufferHeader
+    
+    
+    /**
+     * This method builds a session packet.
+     * 
+     * @param sent - How many packets have been sent so far, data and digest.
+     * 
+     * @return - The packet.
+     */
+    public byte[] toPacket(int sent) {
+        
+        byte[] packet = new byte[Helper.APPLICATIONHEADERSIZE + SESSIONSIZE];
+        
+        bufferHeader(packet, Helper.TYPESESSION, 0, SESSIONSIZE);
+        ByteBuffer.wrap(packet, Helper.APPLICATIONHEADERSIZE, SESSIONSIZE).putLong(length).putInt(maxDataSize)
+                  .putInt(timeOut).putInt(sent);
+        
+        return packet;
+        
+    } // end toPacket
+    
+    
+    /**
+     * This method builds a NAK listing the packets missing before a sequence number.
+     * 
+     * @param received - The packets received.
+     * 
+     * @param upTo - The first sequence number not asked about.
+     * 
+     * @param maxBytes - The most payload the NAK may carry, the first gaps are listed if not all fit.
+     * 
+     * @return - The NAK, or null if nothing is missing.
+     */
+    public byte[] nak(BitSet received, int upTo, int maxBytes) {
+        
+        int maxRanges = Math.max(1, maxBytes / NAKRANGESIZE);
+        ByteBuffer ranges = ByteBuffer.allocate(maxRanges * NAKRANGESIZE);
+        int first = received.nextClearBit(0);
+        
+        while(first < upTo && ranges.hasRemaining()) {
+            
+            int end = Math.min(upTo, received.nextSetBit(first) < 0 ? upTo : received.nextSetBit(first));
+            ranges.putInt(first).putInt(end - first);
+            first = received.nextClearBit(end);
+            
+        }
+        
+        if(ranges.position() == 0) {
+            
+            return null;
+            
+        }
+        
+        byte[] packet = new byte[Helper.ACKNOWLEDGEMENTHEADERSIZE + ranges.position()];
+        
+        bufferHeader(packet, Helper.TYPENAK, 0, ranges.position());
+        System.arraycopy(ranges.array(), 0, packet, Helper.ACKNOWLEDGEMENTHEADERSIZE, ranges.position());
+        
+        return packet;
+        
+    } // end nak
+    
+    
+    /**
+     * This method reads the ranges a NAK asks for.
+     * 
+     * @param packet - The NAK, header included.
+     * 
+     * @param packetLength - The number of bytes received.
+     * 
+     * @return - Each range's first sequence number and count.
+     */
+    public static List<int[]> retrieveRanges(byte[] packet, int packetLength) {
+        
+        List<int[]> ranges = new ArrayList<int[]>();
+        ByteBuffer payload = ByteBuffer.wrap(packet, Helper.ACKNOWLEDGEMENTHEADERSIZE,
+                                                 packetLength - Helper.ACKNOWLEDGEMENTHEADERSIZE);
+        
+        while(payload.remaining() >= NAKRANGESIZE) {
+            
+            ranges.add(new int[] {payload.getInt(), payload.getInt()});
+            
+        }
+        
+        return ranges;
+        
+    } // end retrieveRanges
+    
+} // end MulticastSession
@@ -0,0 +1,456 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class records the header of every datagram one end of a
+ * transfer sends or receives to a binary file, for CaptureAnalyzer to look at
+ * afterwards. Packets are recorded as the application sees them, sent ones
+ * before the simulated network and received ones before simulated loss.
+ * 
+ * The file starts with MAGIC (4 bytes), VERSION (1), whether it was the client
+ * or server (1) and the wall clock time capture started (8, milliseconds).
+ * Each record is then RECORDSIZE bytes: nanoseconds since capture started (8),
+ * SENT or RECEIVED (1), the datagram's length (2) and its first HEADERBYTES,
+ * zero filled if shorter.
+ * 
+ * Records are gathered in a few buffers and written by a background thread so
+ * the sending and receiving threads never wait on the disk. If the writer
+ * falls that far behind, records are dropped and counted rather than slowing
+ * the transfer down.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+public class PacketCapture {
+    
+    public static final int MAGIC = 0x55445043;
+    public static final int VERSION = 1;
+    public static final int FILEHEADERSIZE = 14;
+    
+    // Which end of the transfer made the capture.
+    public static final int CLIENT = 0;
+    public static final int SERVER = 1;
+    
+    // Which way a datagram went.
+    public static final int SENT = 0;
+    public static final int RECEIVED = 1;
+    
+    public static final int HEADERBYTES = Helper.APPLICATIONHEADERSIZE;
+    public static final int RECORDSIZE = 8 + 1 + 2 + HEADERBYTES;
+    
+    // Records gathered before a buffer is handed to the writer, and how many buffers there are.
+    private static final int BUFFERRECORDS = 2730;
+    private static final int BUFFERS = 4;
+    
+    // Handed to the writer to say nothing more is coming.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    
+    private final FileChannel channel;
+    private final long startTime = System.nanoTime();
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    private final Thread writer;
+    
+    // Guarded by this. The buffer being filled, null if none was free.
+    private ByteBuffer current;
+    private long recorded = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+    
+    
+    /**
+     * A constructor for the PacketCapture, the file is created (or emptied) and the writer
+     * thread started.
+     * 
+     * @param file - Where to write the capture.
+     * 
+     * @param role - CLIENT or SERVER.
+     * 
+     * @throws IOException - If the file could not be opened.
+     */
+    public PacketCapture(Path file, int role) throws IOException {
+        
+        if(role != CLIENT && role != SERVER) {
+            
+            throw new IllegalArgumentException("Bad capture role " + role + "!");
+            
+        }
+        
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+        
+        ByteBuffer header = ByteBuffer.allocate(FILEHEADERSIZE);
+        header.putInt(MAGIC).put((byte)VERSION).put((byte)role).putLong(System.currentTimeMillis()).flip();
+        
+        try {
+            
+            while(header.hasRemaining()) {
+                
+                channel.write(header);
+                
+            }
+            
+        } catch (IOException e) {
+            
+            channel.close();
+            throw e;
+            
+        }
+        
+        for(int i = 0 ; i < BUFFERS ; i++) {
+            
+            free.add(ByteBuffer.allocate(BUFFERRECORDS * RECORDSIZE));
+            
+        }
+        
+        current = free.poll();
+        
+        writer = new Thread("PacketCapture") {
+            
+            @Override
+            public void run() {
+                
+                writeLoop();
+                
+            }
+            
+        };
+        
+        writer.setDaemon(true);
+        writer.start();
+        
+    } // end PacketCapture constructor
+    
+    
+    /**
+     * This method records one datagram. It never blocks on the disk.
+     * 
+     * @param direction - SENT or RECEIVED.
+     * 
+     * @param packet - The datagram, only its header is kept.
+     */
+    public void record(int direction, DatagramPacket packet) {
+        
+        record(direction, packet.getData(), packet.getOffset(), packet.getLength());
+        
+    } // end record
+    
+    
+    /**
+     * This method records one datagram. It never blocks on the disk.
+     * 
+     * @param direction - SENT or RECEIVED.
+     * 
+     * @param buffer - Holds the datagram, only its header is kept.
+     * 
+     * @param offset - Where the datagram starts in the buffer.
+     * 
+     * @param length - The datagram's length.
+     */
+    public void record(int direction, byte[] buffer, int offset, int length) {
+        
+        long time = System.nanoTime() - startTime;
+        int kept = Math.min(length, HEADERBYTES);
+        
+        synchronized(this) {
+            
+            if(closed) {
+                
+                return;
+                
+            }
+            
+            if(current == null && (current = free.poll()) == null) {
+                
+                dropped++;
+                return;
+                
+            }
+            
+            current.putLong(time).put((byte)direction).putShort((short)length).put(buffer, offset, kept);
+            
+            for(int i = kept ; i < HEADERBYTES ; i++) {
+                
+                current.put((byte)0);
+                
+            }
+            
+            recorded++;
+            
+            if(!current.hasRemaining()) {
+                
+                full.add(current);
+                current = null;
+                
+            }
+            
+        }
+        
+    } // end record
+    
+    
+    /**
+     * This method is the writer thread, it writes each buffer handed to it and frees it again.
+     */
+    private void writeLoop() {
+        
+        try {
+            
+            ByteBuffer buffer;
+            
+            while((buffer = full.take()) != END) {
+                
+                buffer.flip();
+                
+                try {
+                    
+                    while(buffer.hasRemaining()) {
+                        
+                        channel.write(buffer);
+                        
+                    }
+                    
+                } catch (IOException e) {
+                    
+                    Log.error("Unable to write packet capture: " + e.getMessage());
+                    
+                }
+                
+                buffer.clear();
+                free.add(buffer);
+                
+            }
+            
+        } catch (InterruptedException e) {
+            
+            Log.warn("Packet capture interrupted, records still buffered were not written!");
+            
+        }
+        
+    } // end writeLoop
+    
+    
+    /**
+     * This method writes everything recorded so far and closes the file. Closing more than once
+     * does nothing.
+     */
+    public void close() {
+        
+        synchronized(this) {
+            
+            if(closed) {
+                
+                return;
+                
+            }
+            
+            closed = true;
+            
+            if(current != null && current.position() > 0) {
+                
+                full.add(current);
+                
+            }
+            
+            current = null;
+            full.add(END);
+            
+        }
+        
+        try {
+            
+            writer.join();
+            
+        } catch (InterruptedException e) {
+            
+            Log.warn("Interrupted waiting for the packet capture to be written!");
+            
+        }
+        
+        try {
+            
+            channel.close();
+            
+        } catch (IOException e) {
+            
+            Log.error("Unable to close packet capture!");
+            
+        }
+        
+        if(dropped > 0) {
+            
+            Log.warn("Packet capture fell behind, " + dropped + " of " + (recorded + dropped) +
+                         " records were dropped!");
+            
+        }
+        
+    } // end close
+    
+    
+    /**
+     * This method will provide the number of datagrams recorded so far.
+     * 
+     * @return - The number recorded.
+     */
+    public synchronized long getRecorded() {
+        
+        return recorded;
+        
+    } // end getRecorded
+    
+    
+    /**
+     * This method will provide the number of datagrams not recorded because the writer was
+     * behind.
+     * 
+     * @return - The number dropped.
+     */
+    public synchronized long getDropped() {
+        
+        return dropped;
+        
+    } // end getDropped
+    
+    
+    /**
+     * This method reads a whole capture back.
+     * 
+     * @param file - The capture.
+     * 
+     * @return - The capture's records, in the order recorded.
+     * 
+     * @throws IOException - If the file could not be read or isn't a capture.
+     */
+    public static Capture read(Path file) throws IOException {
+        
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            
+            if(in.readInt() != MAGIC) {
+                
+                throw new IOException(file + " is not a packet capture!");
+                
+            }
+            
+            int version = in.readUnsignedByte();
+            
+            if(version != VERSION) {
+                
+                throw new IOException(file + " is capture version " + version + ", expected " + VERSION + "!");
+                
+            }
+            
+            int role = in.readUnsignedByte();
+            long startMillis = in.readLong();
+            List<Record> records = new ArrayList<Record>();
+            
+            try {
+                
+                while(true) {
+                    
+                    long time = in.readLong();
+                    int direction = in.readUnsignedByte();
+                    int length = in.readUnsignedShort();
+                    byte[] header = new byte[HEADERBYTES];
+                    
+                    in.readFully(header);
+                    records.add(new Record(time, direction, length, header));
+                    
+                }
+                
+            } catch (EOFException e) {
+                
+                // A record cut short, eg... the process was killed, ends the capture.
+                
+            }
+            
+            return new Capture(role, startMillis, records);
+            
+        } // end try block
+        
+    } // end read
+    
+    
+    /**
+     * This class is a whole capture as read back by read().
+     */
+    public static final class Capture {
+        
+        private final int role;
+        private final long startMillis;
+        private final List<Record> records;
+        
+        
+        private Capture(int newRole, long newStartMillis, List<Record> newRecords) {
+            
+            role = newRole;
+            startMillis = newStartMillis;
+            records = newRecords;
+            
+        } // end Capture constructor
+        
+        
+        public int getRole() { return role; }
+        
+        public long getStartMillis() { return startMillis; }
+        
+        public List<Record> getRecords() { return records; }
+        
+    } // end Capture
+    
+    
+    /**
+     * This class is one recorded datagram. The header can be read with the Helper retrieve
+     * methods.
+     */
+    public static final class Record {
+        
+        private final long time;
+        private final int direction;
+        private final int length;
+        private final byte[] header;
+        
+        
+        private Record(long newTime, int newDirection, int newLength, byte[] newHeader) {
+            
+            time = newTime;
+            direction = newDirection;
+            length = newLength;
+            header = newHeader;
+            
+        } // end Record constructor
+        
+        
+        public long getTime() { return time; }
+        
+        public int getDirection() { return direction; }
+        
+        public int getLength() { return length; }
+        
+        public byte[] getHeader() { return header; }
+        
+    } // end Record
+    
+} // end PacketCapture
@@ -0,0 +1,310 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class encrypts and authenticates packet payloads with
+ * AES-GCM using a key both ends were given. Every packet the client windows is
+ * sealed: data, the digest, the OPEN and the FIN. Parity is computed over the
+ * sealed packets so needs nothing of its own.
+ * 
+ * The client seals a payload in place in the packet buffer, so a sealed
+ * payload is the ciphertext, the GCM tag (TAGSIZE bytes) and the salt
+ * (SALTSIZE bytes), OVERHEAD bytes more than the data. The nonce is the salt,
+ * random for each transfer, followed by the sequence number. A sequence
+ * number is never sealed twice with one salt (resends reuse the sealed
+ * buffer) and a new random salt is drawn before the sequence numbers wrap
+ * around, so no nonce repeats however long a transfer runs. The server reads
+ * the salt from each packet so it needs no telling. The sequence number and
+ * type are authenticated along with the payload so a packet can't be replayed
+ * in another slot.
+ * 
+ * The server's verdicts, the acknowledgements of the digest and FIN, are
+ * signed: nothing is encrypted but a tag and salt follow the header, the tag
+ * covering the ack number, advertised window and type. Each is signed under a
+ * new random salt since the same verdict may be sent again with a different
+ * window. Plain acknowledgements aren't signed, a forged one can only stop a
+ * packet being resent and the digest still has to be answered by the server.
+ * 
+ * The JVM runs AES and GHASH on the processor's AES instructions when it has
+ * them, nothing needs to be done here for that. One PacketCipher per thread.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+public class PacketCipher {
+    
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int TAGSIZE = 16;
+    public static final int SALTSIZE = 8;
+    public static final int OVERHEAD = TAGSIZE + SALTSIZE;
+    
+    // The sequence number (4 bytes) and type (1 byte) sit together at the end of the header.
+    private static final int AADOFFSET = 8;
+    private static final int AADLENGTH = 5;
+    
+    // An acknowledgement's ack number, advertised window (4 bytes each) and type.
+    private static final int ACKAADOFFSET = 4;
+    private static final int ACKAADLENGTH = 9;
+    
+    // Packets sealed before the sequence numbers wrap and the salt must change.
+    private static final long SALTLIFETIME = 1L << 32;
+    
+    private final SecretKeySpec key;
+    private final Cipher cipher;
+    private final byte[] salt = new byte[SALTSIZE];
+    private final byte[] ackSalt = new byte[SALTSIZE];
+    private final byte[] nonce = new byte[SALTSIZE + 4];
+    private final SecureRandom random = new SecureRandom();
+    private long sealedWithSalt = 0;
+    
+    
+    /**
+     * A constructor for the PacketCipher.
+     * 
+     * @param newKey - The AES key, 16, 24 or 32 bytes.
+     */
+    public PacketCipher(byte[] newKey) {
+        
+        if(newKey.length != 16 && newKey.length != 24 && newKey.length != 32) {
+            
+            throw new IllegalArgumentException("AES keys are 16, 24 or 32 bytes, not " + newKey.length);
+            
+        }
+        
+        key = new SecretKeySpec(newKey, "AES");
+        random.nextBytes(salt);
+        
+        try {
+            
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("No " + TRANSFORMATION + " cipher!", e);
+            
+        }
+        
+    } // end PacketCipher constructor
+    
+    
+    /**
+     * This method is used to determine whether packets of a type are sealed.
+     * 
+     * @param type - The packet type, eg... Helper.TYPEDATA.
+     * 
+     * @return - A boolean true for the packets the client windows, false otherwise.
+     */
+    public static boolean isSealed(int type) {
+        
+        return type == Helper.TYPEDATA || type == Helper.TYPEDIGEST || type == Helper.TYPEOPEN || 
+               type == Helper.TYPEFIN;
+        
+    } // end isSealed
+    
+    
+    /**
+     * This method is used to determine whether acknowledgements of a type are signed.
+     * 
+     * @param type - The acknowledgement type, flags included, eg... Helper.TYPEFINACK.
+     * 
+     * @return - A boolean true for the server's verdicts on the digest and FIN, false otherwise.
+     */
+    public static boolean isSigned(int type) {
+        
+        int ackType = type & Helper.TYPEMASK;
+        
+        return ackType == Helper.TYPEDIGESTOK || ackType == Helper.TYPEDIGESTBAD || ackType == Helper.TYPEFINACK;
+        
+    } // end isSigned
+    
+    
+    /**
+     * This method encrypts a packet's payload in place and adds its tag and salt. The header,
+     * sequence number and type included, must already be filled in. There must be OVERHEAD
+     * bytes of room after the data.
+     * 
+     * @param packet - The packet buffer.
+     * 
+     * @param dataLength - The number of data bytes.
+     * 
+     * @return - The sealed payload length, dataLength + OVERHEAD.
+     */
+    public int seal(byte[] packet, int dataLength) {
+        
+        if(++sealedWithSalt > SALTLIFETIME) {
+            
+            random.nextBytes(salt);
+            sealedWithSalt = 1;
+            
+        }
+        
+        try {
+            
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters(salt, 0, packet, AADOFFSET));
+            cipher.updateAAD(packet, AADOFFSET, AADLENGTH);
+            
+            int sealed = cipher.doFinal(packet, Helper.APPLICATIONHEADERSIZE, dataLength,
+                                            packet, Helper.APPLICATIONHEADERSIZE);
+            
+            System.arraycopy(salt, 0, packet, Helper.APPLICATIONHEADERSIZE + sealed, SALTSIZE);
+            
+            return sealed + SALTSIZE;
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("Unable to seal sequence number " +
+                                                Helper.retrieveSeqNum(packet) + "!", e);
+            
+        }
+        
+    } // end seal
+    
+    
+    /**
+     * This method checks and decrypts a sealed packet. The packet itself is left alone, parity
+     * may still need it.
+     * 
+     * @param packet - The packet, header included, trimmed to its length.
+     * 
+     * @return - The packet with its plain payload, or null if it failed authentication.
+     */
+    public byte[] open(byte[] packet) {
+        
+        int sealed = Helper.retrieveLength(packet) - Helper.APPLICATIONHEADERSIZE - SALTSIZE;
+        
+        if(sealed < TAGSIZE) {
+            
+            return null;
+            
+        }
+        
+        byte[] plain = new byte[Helper.APPLICATIONHEADERSIZE + sealed - TAGSIZE];
+        System.arraycopy(packet, 0, plain, 0, Helper.APPLICATIONHEADERSIZE);
+        
+        try {
+            
+            cipher.init(Cipher.DECRYPT_MODE, key,
+                            parameters(packet, Helper.APPLICATIONHEADERSIZE + sealed, packet, AADOFFSET));
+            cipher.updateAAD(packet, AADOFFSET, AADLENGTH);
+            cipher.doFinal(packet, Helper.APPLICATIONHEADERSIZE, sealed, plain, Helper.APPLICATIONHEADERSIZE);
+            
+        } catch (AEADBadTagException e) {
+            
+            return null;
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("Unable to open sequence number " +
+                                                Helper.retrieveSeqNum(packet) + "!", e);
+            
+        }
+        
+        Helper.bufferLength(plain, sealed - TAGSIZE);
+        
+        return plain;
+        
+    } // end open
+    
+    
+    /**
+     * This method signs an acknowledgement, adding a tag and salt after its header. There must
+     * be OVERHEAD bytes of room after the header, which must already be filled in.
+     * 
+     * @param ack - The acknowledgement buffer.
+     * 
+     * @return - The number of bytes added, OVERHEAD.
+     */
+    public int sign(byte[] ack) {
+        
+        random.nextBytes(ackSalt);
+        
+        try {
+            
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters(ackSalt, 0, ack, ACKAADOFFSET));
+            cipher.updateAAD(ack, ACKAADOFFSET, ACKAADLENGTH);
+            
+            int tag = cipher.doFinal(ack, Helper.ACKNOWLEDGEMENTHEADERSIZE, 0, ack, Helper.ACKNOWLEDGEMENTHEADERSIZE);
+            
+            System.arraycopy(ackSalt, 0, ack, Helper.ACKNOWLEDGEMENTHEADERSIZE + tag, SALTSIZE);
+            
+            return tag + SALTSIZE;
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("Unable to sign the ack for sequence number " +
+                                                Helper.retrieveAckNum(ack) + "!", e);
+            
+        }
+        
+    } // end sign
+    
+    
+    /**
+     * This method checks the signature of an acknowledgement.
+     * 
+     * @param ack - The acknowledgement, header included.
+     * 
+     * @param length - The number of bytes received.
+     * 
+     * @return - A boolean true if it was signed with this key, false otherwise.
+     */
+    public boolean verify(byte[] ack, int length) {
+        
+        if(length != Helper.ACKNOWLEDGEMENTHEADERSIZE + OVERHEAD) {
+            
+            return false;
+            
+        }
+        
+        try {
+            
+            cipher.init(Cipher.DECRYPT_MODE, key,
+                            parameters(ack, Helper.ACKNOWLEDGEMENTHEADERSIZE + TAGSIZE, ack, ACKAADOFFSET));
+            cipher.updateAAD(ack, ACKAADOFFSET, ACKAADLENGTH);
+            cipher.doFinal(ack, Helper.ACKNOWLEDGEMENTHEADERSIZE, TAGSIZE);
+            
+            return true;
+            
+        } catch (AEADBadTagException e) {
+            
+            return false;
+            
+        } catch (GeneralSecurityException e) {
+            
+            throw new IllegalStateException("Unable to verify the ack for sequence number " +
+                                                Helper.retrieveAckNum(ack) + "!", e);
+            
+        }
+        
+    } // end verify
+    
+    
+    /**
+     * This method builds the nonce for a packet, its salt then its sequence (or ack) number.
+     */
+    private GCMParameterSpec parameters(byte[] saltSource, int saltOffset, byte[] packet, int numberOffset) {
+        
+        System.arraycopy(saltSource, saltOffset, nonce, 0, SALTSIZE);
+        System.arraycopy(packet, numberOffset, nonce, SALTSIZE, 4);
+        
+        return new GCMParameterSpec(TAGSIZE * 8, nonce);
+        
+    } // end parameters
+    
+} // end PacketCipher
@@ -0,0 +1,391 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class chooses how many data bytes the client puts in each
+ * packet when the payload size is adaptive. Every packet carries OVERHEAD plus
+ * the application header whatever its size, so big packets waste less, but on
+ * a path that loses bytes (fragments, bit errors) rather than whole packets a
+ * big packet is also more likely to be lost and costs more to resend.
+ * 
+ * Each packet's first transmission is counted as lost or not in its band of
+ * sizes (BANDSPEROCTAVE to each doubling). Taking each byte as lost on its
+ * own, a packet of s data bytes and h overhead gets through with chance
+ * e^-(a + b(s + h)), a being the losses that don't depend on size. A weighted least squares fit across the
+ * bands gives b, and the size making the most of each byte sent is then
+ * 
+ * s = (-h + sqrt(h^2 + 4h/b)) / 2 <br>
+ * 
+ * If b isn't clearly above 0 losses don't depend on size and the largest size
+ * is used. The size is chosen again after each epoch, at least EPOCHPACKETS
+ * packets and one round trip, moving by at most a factor of 2. While losing
+ * more than EXPLORELOSS without b clearly above 0, one packet in EXPLOREEVERY
+ * is sent at half the size until EPOCHPACKETS of that size have been counted,
+ * to find out. The counts are halved now and then so the fit follows a path
+ * that changes.
+ * 
+ * The largest size is also probed, much like path MTU discovery: sizes above
+ * the largest ever acknowledged are probes, and after PROBEATTEMPTS of them time
+ * out the ceiling drops half way back to that largest. Every REPROBEEPOCHS it is
+ * raised half way towards the max data size again.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public class PayloadSizer {
+    
+    // Smallest size chosen, unless the max data size is smaller.
+    public static final int MINDATASIZE = 256;
+    
+    // IPv4 and UDP headers, sent with every packet.
+    public static final int OVERHEAD = 28;
+    
+    private static final int EPOCHPACKETS = 128;
+    private static final double EXPLORELOSS = 0.01;
+    private static final int EXPLOREEVERY = 8;
+    private static final int BANDSPEROCTAVE = 4;
+    
+    // Every band's counts are halved once this many packets are counted in all of them.
+    private static final int HISTORYPACKETS = 4096;
+    
+    private static final int PROBEATTEMPTS = 3;
+    private static final int REPROBEEPOCHS = 32;
+    
+    private final int minDataSize;
+    private final int maxDataSize;
+    private final int overhead;
+    
+    // Read by the sending thread on every packet, only changed under the lock.
+    private volatile int dataSize;
+    private volatile boolean exploring = false;
+    
+    // Only touched by the sending thread.
+    private int sent = 0;
+    
+    // All guarded by this.
+    private int ceiling;
+    private int confirmed = 0;
+    private int probeFailures = 0;
+    private long ceilingEpoch = 0;
+    private long smoothedRtt = 0;
+    
+    private long epochs = 0;
+    private long epochStart = System.nanoTime();
+    private int epochPackets = 0;
+    private int epochLosses = 0;
+    
+    // Per band, the packets counted, how many were lost and the bytes they took on the wire.
+    private final long[] packets;
+    private final long[] losses;
+    private final double[] bytes;
+    private long history = 0;
+    
+    
+    /**
+     * A constructor for the PayloadSizer, sizes start at the max.
+     * 
+     * @param newMinDataSize - The fewest data bytes a packet is given.
+     * 
+     * @param newMaxDataSize - The most data bytes a packet may carry.
+     * 
+     * @param headerSize - The bytes each packet carries besides its data, OVERHEAD is added.
+     */
+    public PayloadSizer(int newMinDataSize, int newMaxDataSize, int headerSize) {
+        
+        if(newMinDataSize <= 0 || newMinDataSize > newMaxDataSize) {
+            
+            throw new IllegalArgumentException("Bad data size range " + newMinDataSize + " to " +
+                                                   newMaxDataSize + "!");
+            
+        }
+        
+        minDataSize = newMinDataSize;
+        maxDataSize = newMaxDataSize;
+        overhead = headerSize + OVERHEAD;
+        ceiling = maxDataSize;
+        dataSize = maxDataSize;
+        
+        int bands = band(maxDataSize) + 1;
+        
+        packets = new long[bands];
+        losses = new long[bands];
+        bytes = new double[bands];
+        
+    } // end PayloadSizer constructor
+    
+    
+    /**
+     * This method will provide the data bytes the next packet should carry.
+     * 
+     * @return - The data size, in bytes.
+     */
+    public int getDataSize() {
+        
+        return dataSize;
+        
+    } // end getDataSize
+    
+    
+    /**
+     * This method will provide the data bytes the next packet should carry, used by the sending
+     * thread only as it also decides which packets are sent small while exploring.
+     * 
+     * @return - The data size, in bytes.
+     */
+    public int nextDataSize() {
+        
+        int size = dataSize;
+        
+        if(exploring && ++sent % EXPLOREEVERY == 0) {
+            
+            return Math.max(minDataSize, size / 2);
+            
+        }
+        
+        return size;
+        
+    } // end nextDataSize
+    
+    
+    /**
+     * This method records a data packet being acknowledged.
+     * 
+     * @param size - The packet's data bytes.
+     * 
+     * @param rtt - The round trip time in nanoseconds, 0 if the packet was resent.
+     * 
+     * @param recovered - True if the server rebuilt the packet from parity rather than receiving it.
+     */
+    public synchronized void acknowledged(int size, long rtt, boolean recovered) {
+        
+        if(!recovered && size > confirmed) {
+            
+            confirmed = size;
+            probeFailures = 0;
+            
+        }
+        
+        if(rtt > 0) {
+            
+            smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt + (rtt - smoothedRtt) / 8;
+            
+        }
+        
+        // Like the loss estimate, only a packet's first transmission counts.
+        if(recovered || rtt > 0) {
+            
+            count(size, recovered);
+            endEpochIfDue();
+            
+        }
+        
+    } // end acknowledged
+    
+    
+    /**
+     * This method records the data packet waited on timing out.
+     * 
+     * @param size - The packet's data bytes.
+     */
+    public synchronized void timedOut(int size) {
+        
+        count(size, true);
+        
+        if(size > confirmed && ++probeFailures >= PROBEATTEMPTS) {
+            
+            ceiling = Math.max(minDataSize, confirmed + (size - confirmed) / 2);
+            ceilingEpoch = epochs;
+            probeFailures = 0;
+            setDataSize(Math.min(dataSize, ceiling));
+            
+            Log.warn("Packets of " + size + " data bytes keep timing out, sending at most " + ceiling + ".");
+            
+        }
+        
+        endEpochIfDue();
+        
+    } // end timedOut
+    
+    
+    /**
+     * This method counts one packet's first transmission.
+     * 
+     * @param size - The packet's data bytes.
+     * 
+     * @param lost - True if it needed repair, false if it got through.
+     */
+    private void count(int size, boolean lost) {
+        
+        int band = band(Math.max(minDataSize, size));
+        
+        epochPackets++;
+        packets[band]++;
+        bytes[band] += size + overhead;
+        history++;
+        
+        if(lost) {
+            
+            epochLosses++;
+            losses[band]++;
+            
+        }
+        
+        if(history > HISTORYPACKETS) {
+            
+            for(int i = 0 ; i < packets.length ; i++) {
+                
+                packets[i] /= 2;
+                losses[i] /= 2;
+                bytes[i] /= 2;
+                
+            }
+            
+            history /= 2;
+            
+        }
+        
+    } // end count
+    
+    
+    /**
+     * This method ends the epoch once it has enough packets and has lasted a round trip, then
+     * chooses the size for the next one.
+     */
+    private void endEpochIfDue() {
+        
+        long now = System.nanoTime();
+        
+        if(epochPackets < EPOCHPACKETS || now - epochStart < smoothedRtt) {
+            
+            return;
+            
+        }
+        
+        double loss = (double)epochLosses / epochPackets;
+        
+        epochs++;
+        epochStart = now;
+        epochPackets = 0;
+        epochLosses = 0;
+        
+        if(ceiling < maxDataSize && epochs - ceilingEpoch >= REPROBEEPOCHS) {
+            
+            ceiling += (maxDataSize - ceiling + 1) / 2;
+            ceilingEpoch = epochs;
+            
+        }
+        
+        int size = ceiling;
+        double perByte = fitPerByte();
+        
+        if(perByte > 0) {
+            
+            size = (int)((-overhead + Math.sqrt((double)overhead * overhead + 4 * overhead / perByte)) / 2);
+            
+        }
+        
+        size = Math.max(dataSize / 2, Math.min(dataSize * 2, size));
+        setDataSize(Math.max(minDataSize, Math.min(ceiling, size)));
+        
+        // Keep sending some small until they lose clearly less or there are enough to say they don't.
+        exploring = !(perByte > 0) && loss > EXPLORELOSS && dataSize > minDataSize &&
+                        packets[band(Math.max(minDataSize, dataSize / 2))] < EPOCHPACKETS;
+        
+    } // end endEpochIfDue
+    
+    
+    /**
+     * This method fits the packet loss of each band against its size. A band's loss p is taken
+     * as -ln(1 - p), which grows in proportion to the bytes sent, and weighted by how precisely
+     * it was measured.
+     * 
+     * @return - The losses each extra byte adds, 0 if not clearly more than none, NaN if fewer
+     *           than two bands have been measured.
+     */
+    private double fitPerByte() {
+        
+        double sumW = 0;
+        double sumWX = 0;
+        double sumWY = 0;
+        double sumWXX = 0;
+        double sumWXY = 0;
+        int measured = 0;
+        
+        for(int i = 0 ; i < packets.length ; i++) {
+            
+            if(packets[i] == 0) {
+                
+                continue;
+                
+            }
+            
+            // Nudged away from 0 and 1 so a band with no losses still has a weight.
+            double p = (losses[i] + 0.5) / (packets[i] + 1);
+            double x = bytes[i] / packets[i];
+            double y = -Math.log(1 - p);
+            double w = packets[i] * (1 - p) / p;
+            
+            sumW += w;
+            sumWX += w * x;
+            sumWY += w * y;
+            sumWXX += w * x * x;
+            sumWXY += w * x * y;
+            measured++;
+            
+        }
+        
+        double spread = sumWXX - sumWX * sumWX / sumW;
+        
+        if(measured < 2 || spread <= 0) {
+            
+            return Double.NaN;
+            
+        }
+        
+        double perByte = (sumWXY - sumWX * sumWY / sumW) / spread;
+        
+        // Two standard errors.
+        return perByte > 2 / Math.sqrt(spread) ? perByte : 0;
+        
+    } // end fitPerByte
+    
+    
+    /**
+     * This method finds the band a size is counted in.
+     * 
+     * @param size - The data bytes.
+     * 
+     * @return - The band, 0 for minDataSize.
+     */
+    private int band(int size) {
+        
+        return (int)(BANDSPEROCTAVE * Math.log((double)size / minDataSize) / Math.log(2));
+        
+    } // end band
+    
+    
+    /**
+     * This method changes the size, logging it.
+     * 
+     * @param size - The new size.
+     */
+    private void setDataSize(int size) {
+        
+        if(size != dataSize && Log.isDebug()) {
+            
+            Log.debug("Data size " + dataSize + " -> " + size);
+            
+        }
+        
+        dataSize = size;
+        
+    } // end setDataSize
+    
+} // end PayloadSizer
@@ -0,0 +1,380 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the memory packets wait in before a server writes
+ * them, kept off the heap in direct buffers. One budget is shared by every
+ * server using it, however many clients are sending, so the memory used is
+ * capped no matter how many sessions are open. A packet that doesn't fit is
+ * refused, the server then advertises a smaller window and the clients slow
+ * down until the writers catch up.
+ * 
+ * Buffers are handed out in power of two sizes and kept for reuse once given
+ * back. Kept buffers count towards the budget but are dropped to make room for
+ * a size that isn't kept. Packets a server keeps on the heap, eg... in its
+ * FecDecoder, are counted against the same budget with reserve().
+ * 
+ * Once registered, the counters are published through JMX under
+ * "UDPClientServer:type=ReceiveMemory,id=n".
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+public class ReceiveMemory implements ReceiveMemoryMBean {
+    
+    public static final long DEFAULTCAPACITY = 64L * 1024 * 1024;
+    
+    // The smallest buffer handed out, sizes go up in powers of two to fit Helper.MAXPACKETSIZE.
+    public static final int MINBUFFERSIZE = 1024;
+    private static final int SIZECLASSES = 7;
+    
+    // Used to give each registered instance a unique name.
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    
+    // Used by every server not given its own, see shared().
+    private static ReceiveMemory shared;
+    
+    // All guarded by this.
+    private long capacity;
+    private long bytesInUse = 0;
+    private long bytesPooled = 0;
+    private final List<ArrayDeque<ByteBuffer>> pooled;
+    
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder refusals = new LongAdder();
+    
+    private ObjectName objectName;
+    
+    
+    /**
+     * A constructor for the ReceiveMemory.
+     * 
+     * @param newCapacity - The most bytes of buffers, in use and kept for reuse.
+     */
+    public ReceiveMemory(long newCapacity) {
+        
+        setCapacity(newCapacity);
+        
+        pooled = new ArrayList<ArrayDeque<ByteBuffer>>(SIZECLASSES);
+        
+        for(int i = 0 ; i < SIZECLASSES ; i++) {
+            
+            pooled.add(new ArrayDeque<ByteBuffer>());
+            
+        }
+        
+    } // end ReceiveMemory constructor
+    
+    
+    /**
+     * This method will provide the budget shared by every server not given one of its own. It is
+     * created, with DEFAULTCAPACITY and registered with JMX, the first time it is asked for.
+     * 
+     * @return - The shared ReceiveMemory.
+     */
+    public static synchronized ReceiveMemory shared() {
+        
+        if(shared == null) {
+            
+            shared = new ReceiveMemory(DEFAULTCAPACITY);
+            shared.register();
+            
+        }
+        
+        return shared;
+        
+    } // end shared
+    
+    
+    /**
+     * This method changes the budget. Lowering it below what is in use refuses packets until
+     * enough are given back, nothing is taken away.
+     * 
+     * @param newCapacity - The most bytes of buffers, in use and kept for reuse.
+     */
+    public synchronized void setCapacity(long newCapacity) {
+        
+        if(newCapacity < 0) {
+            
+            throw new IllegalArgumentException("Bad receive memory capacity " + newCapacity + "!");
+            
+        }
+        
+        capacity = newCapacity;
+        
+        if(pooled != null) {
+            
+            trimPool(0);
+            
+        }
+        
+    } // end setCapacity
+    
+    
+    /**
+     * This method hands out a buffer for one packet, reusing a kept one if it can.
+     * 
+     * @param length - The bytes needed, at most Helper.MAXPACKETSIZE.
+     * 
+     * @return - A direct buffer with its limit set to length, or null if the budget is spent.
+     */
+    public synchronized ByteBuffer allocate(int length) {
+        
+        int sizeClass = sizeClass(length);
+        int size = MINBUFFERSIZE << sizeClass;
+        ByteBuffer buffer = pooled.get(sizeClass).pollLast();
+        
+        if(buffer != null) {
+            
+            bytesPooled -= size;
+            
+        } else {
+            
+            trimPool(size);
+            
+            if(bytesInUse + bytesPooled + size > capacity) {
+                
+                refusals.increment();
+                return null;
+                
+            }
+            
+            buffer = ByteBuffer.allocateDirect(size);
+            allocations.increment();
+            
+        }
+        
+        bytesInUse += size;
+        buffer.clear().limit(length);
+        
+        return buffer;
+        
+    } // end allocate
+    
+    
+    /**
+     * This method gives back a buffer from allocate(), it is kept for reuse if the budget allows.
+     * 
+     * @param buffer - The buffer, must not be used afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        
+        int size = buffer.capacity();
+        
+        bytesInUse -= size;
+        
+        if(bytesInUse + bytesPooled + size <= capacity) {
+            
+            pooled.get(sizeClass(size)).addLast(buffer);
+            bytesPooled += size;
+            
+        }
+        
+    } // end release
+    
+    
+    /**
+     * This method counts bytes held elsewhere, eg... a packet kept on the heap, against the
+     * budget as if a buffer had been handed out.
+     * 
+     * @param bytes - The bytes held.
+     * 
+     * @return - A boolean true if they fit and were counted, false if the budget is spent.
+     */
+    public synchronized boolean reserve(int bytes) {
+        
+        trimPool(bytes);
+        
+        if(bytesInUse + bytesPooled + bytes > capacity) {
+            
+            refusals.increment();
+            return false;
+            
+        }
+        
+        bytesInUse += bytes;
+        
+        return true;
+        
+    } // end reserve
+    
+    
+    /**
+     * This method stops counting bytes from reserve(), once they are no longer held.
+     * 
+     * @param bytes - The bytes reserved.
+     */
+    public synchronized void unreserve(int bytes) {
+        
+        bytesInUse -= bytes;
+        
+    } // end unreserve
+    
+    
+    /**
+     * This method will provide how many bytes could still be handed out, counting kept buffers
+     * as free.
+     * 
+     * @return - The bytes available.
+     */
+    public synchronized long getAvailable() {
+        
+        return Math.max(0, capacity - bytesInUse);
+        
+    } // end getAvailable
+    
+    
+    /**
+     * This method drops kept buffers until the bytes needed fit in the budget or none are left.
+     * 
+     * @param needed - The bytes about to be handed out.
+     */
+    private void trimPool(long needed) {
+        
+        for(int i = SIZECLASSES - 1 ; i >= 0 && bytesInUse + bytesPooled + needed > capacity ; i--) {
+            
+            while(!pooled.get(i).isEmpty() && bytesInUse + bytesPooled + needed > capacity) {
+                
+                pooled.get(i).pollFirst();
+                bytesPooled -= MINBUFFERSIZE << i;
+                
+            }
+            
+        }
+        
+    } // end trimPool
+    
+    
+    /**
+     * This method finds the size of buffer a packet is given.
+     * 
+     * @param length - The bytes needed.
+     * 
+     * @return - The size class, the buffer holds MINBUFFERSIZE shifted left by it.
+     */
+    private static int sizeClass(int length) {
+        
+        if(length > MINBUFFERSIZE << (SIZECLASSES - 1)) {
+            
+            throw new IllegalArgumentException("Packet of " + length + " bytes is too long to buffer!");
+            
+        }
+        
+        int sizeClass = 0;
+        
+        while(MINBUFFERSIZE << sizeClass < length) {
+            
+            sizeClass++;
+            
+        }
+        
+        return sizeClass;
+        
+    } // end sizeClass
+    
+    
+    /**
+     * This method publishes the counters through the platform MBean server. Failing to register
+     * is logged but otherwise ignored.
+     */
+    public synchronized void register() {
+        
+        try {
+            
+            objectName = new ObjectName(TransferMetrics.JMXDOMAIN + ":type=ReceiveMemory,id=" +
+                                            nextId.getAndIncrement());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            
+        } catch (JMException e) {
+            
+            Log.warn("Unable to register receive memory metrics with JMX: " + e.getMessage());
+            objectName = null;
+            
+        }
+        
+    } // end register
+    
+    
+    /**
+     * This method removes the counters from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        
+        if(objectName != null) {
+            
+            try {
+                
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                
+            } catch (JMException e) {
+                
+                Log.warn("Unable to unregister receive memory metrics from JMX: " + e.getMessage());
+                
+            }
+            
+            objectName = null;
+            
+        }
+        
+    } // end unregister
+    
+    
+    /**
+     * This method will provide the name the counters are registered under.
+     * 
+     * @return - The JMX name, or null if not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        
+        return objectName;
+        
+    } // end getObjectName
+    
+    
+    @Override
+    public long getAllocations() { return allocations.sum(); }
+    
+    @Override
+    public long getRefusals() { return refusals.sum(); }
+    
+    @Override
+    public synchronized long getCapacity() { return capacity; }
+    
+    @Override
+    public synchronized long getBytesInUse() { return bytesInUse; }
+    
+    @Override
+    public synchronized long getBytesPooled() { return bytesPooled; }
+    
+    
+    /**
+     * This method clears the counters, the buffers in use and kept are untouched.
+     */
+    @Override
+    public void reset() {
+        
+        allocations.reset();
+        refusals.reset();
+        
+    } // end reset
+    
+} // end ReceiveMemory
@@ -0,0 +1,32 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular interface is the JMX view of a ReceiveMemory. Every getter
+ * shows up as a read only attribute in JConsole or any JMX scraper.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public interface ReceiveMemoryMBean {
+    
+    // Counters.
+    long getAllocations();
+    long getRefusals();
+    
+    // Gauges.
+    long getCapacity();
+    long getBytesInUse();
+    long getBytesPooled();
+    long getAvailable();
+    
+    void reset();
+    
+} // end ReceiveMemoryMBean
@@ -20,6 +20,9 @@ package helpers;
  */
 
 import application.P2Client;
+import helpers.events.AckReceivedEvent;
+import helpers.events.PacketResentEvent;
+import helpers.events.TimeOutEvent;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -35,12 +38,20 @@ public class ReceiverThread extends Thread {
     private DatagramPacket responsePacket;
     private byte[] responseBuffer;
     
+    // Time outs in a row with only the FIN unacknowledged.
+    private int finTimeOuts = 0;
+    
+    // Set once the digest's ack arrives, otherwise the FIN-ACK carries the verdict.
+    private boolean digestAnswered = false;
+    
     
     /**
      * A constructor for the ReceiverThread.
      */
     public ReceiverThread (P2Client newClient, DatagramSocket newSocket) {
         
+        super("ReceiverThread");
+        
         client = newClient;
         socket = newSocket;
         
@@ -67,48 +78,7 @@ public class ReceiverThread extends Thread {
                 
                 // Will block until a response comes in.
                 socket.receive(responsePacket);
-                
-                // FIRST!!! simulate packet loss by pretending it never arrived.
-                if(Helper.isPacketReceived(client.getErrorPercent())) {
-                    
-                    // SECOND!!! If Check Sum is bad then discard and wait for next packet.
-                    if(Helper.isCheckSumGood(responseBuffer)) {
-                        
-                        // THIRD!!! Only acknowledge the next sequence number expected.
-                        if(isNextInSequence()) {
-                            
-                            printAcknowledgement();
-                            client.incLAR();
-                            
-                        // THIRD.2!!! If cumulative updates of ack's are allowed.    
-                        } else if(isCumulativeNext()){
-                            
-                            printCumulativeAck();
-                            client.setLAR(Helper.retrieveAckNum(responseBuffer));
-                            
-                            
-                        } else {    
-                            
-                            System.out.println("\n*** Unexpected ack received for seq num " + 
-                                                   Helper.retrieveAckNum(responseBuffer) + 
-                                                   ", waiting for ack on " + (client.getLAR() + 1) + 
-                                                   "! ***");
-                            
-                        } // END INNER IF-ELSE
-                        
-                    } else {
-                        
-                        System.out.println("\n*** Check Sum bad, discarding ack for seq num " +
-                                               Helper.retrieveAckNum(responseBuffer) + "! ***");
-                        
-                    } // END MIDDLE IF-ELSE
-                    
-                } else {
-                    
-                    System.out.println("\n*** Received but simulating lost ack for seq num " + 
-                                           Helper.retrieveAckNum(responseBuffer) + "! ***");
-                    
-                } // END OUTER IF-ELSE
+                loop = handleResponse(responsePacket);
                 
             } catch(SocketTimeoutException e) {
             
@@ -118,7 +88,16 @@ public class ReceiverThread extends Thread {
             
             } catch (IOException e) {
                 
-                System.out.println("Error receiving packet!");
+                // A closed socket means the transfer was cancelled.
+                if(socket.isClosed()) {
+                    
+                    loop = false;
+                    
+                } else {
+                    
+                    Log.error("Error receiving packet!");
+                    
+                }
                 
             } // end try-catch block
             
@@ -126,30 +105,262 @@ public class ReceiverThread extends Thread {
             
         } // end while loop
         
+        client.transferComplete();
+        
     } // end run
     
     
     /**
-     * This method will handle what happens when a timeout event occurs.
+     * This method handles one packet from the server, updating the window if it acknowledges
+     * something. Used by run() and by a ClientMux, which receives for many clients at once.
+     * 
+     * @param packet - The packet, its data starting at offset 0.
+     * 
+     * @return - A boolean false once the FIN has been acknowledged, true otherwise.
      */
-    private boolean processTimeOut() {
+    public boolean handleResponse(DatagramPacket packet) {
+        
+        boolean loop = true;
+        
+        responsePacket = packet;
+        responseBuffer = packet.getData();
+        client.captureReceived(packet);
+        client.getMetrics().ackReceived();
+        
+        AckReceivedEvent ackEvent = new AckReceivedEvent();
         
+        // FIRST!!! simulate packet loss by pretending it never arrived.
+        if(!client.getAckImpairment().isLost()) {
+            
+            // SECOND!!! If Check Sum is bad then discard and wait for next packet.
+            if(Helper.isCheckSumGood(responseBuffer)) {
+                
+                // THIRD!!! With a key, only the server can answer the digest or FIN.
+                if(!isAuthentic()) {
+                    
+                    Log.warn("\n*** Unsigned answer for seq num " + Helper.retrieveAckNum(responseBuffer) + 
+                                 ", discarded! ***");
+                    
+                // THIRD.1!!! Only acknowledge the next sequence number expected.
+                } else if(isNextInSequence()) {
+                    
+                    printAcknowledgement();
+                    client.incLAR((Helper.retrievePacketType(responseBuffer) & Helper.FLAGRECOVERED) != 0);
+                    loop = processAcknowledgementType();
+                    ackEvent.accepted = true;
+                    ackEvent.rtt = client.getLastRtt();
+                    
+                // THIRD.2!!! If cumulative updates of ack's are allowed.    
+                } else if(isCumulativeNext()){
+                    
+                    printCumulativeAck();
+                    client.setLAR(Helper.retrieveAckNum(responseBuffer));
+                    loop = processAcknowledgementType();
+                    ackEvent.accepted = true;
+                    
+                    
+                } else {    
+                    
+                    client.getMetrics().outOfOrderDropped();
+                    
+                    if(Log.isDebug()) {
+                        
+                        Log.debug("\n*** Unexpected ack received for seq num " + 
+                                      Helper.retrieveAckNum(responseBuffer) + 
+                                      ", waiting for ack on " + (client.getLAR() + 1) + 
+                                      "! ***");
+                        
+                    }
+                    
+                } // END INNER IF-ELSE
+                
+                // Every good ack carries the room the server has, relative to our LAR 
+                // now that it has been updated.
+                client.setAdvertisedWindow(Helper.retrieveAdvertisedWindow(responseBuffer));
+                
+            } else {
+                
+                client.getMetrics().checkSumFailed();
+                
+                if(Log.isDebug()) {
+                    
+                    Log.debug("\n*** Check Sum bad, discarding ack for seq num " +
+                                  Helper.retrieveAckNum(responseBuffer) + "! ***");
+                    
+                }
+                
+            } // END MIDDLE IF-ELSE
+            
+        } else {
+            
+            client.getMetrics().simulatedLoss();
+            
+            if(Log.isDebug()) {
+                
+                Log.debug("\n*** Received but simulating lost ack for seq num " + 
+                              Helper.retrieveAckNum(responseBuffer) + "! ***");
+                
+            }
+            
+        } // END OUTER IF-ELSE
+        
+        if(ackEvent.shouldCommit()) {
+            
+            ackEvent.ackNum = Helper.retrieveAckNum(responseBuffer);
+            ackEvent.lar = client.getLAR();
+            ackEvent.commit();
+            
+        }
+        
+        return loop;
+        
+    } // end handleResponse
+    
+    
+    /**
+     * This method is used to determine whether the FIN is the only packet still in flight.
+     * 
+     * @return - A boolean true if only the FIN is unacknowledged, false otherwise.
+     */
+    private boolean isOnlyFinUnacknowledged() {
+        
+        if(client.getLAR() + 1 != client.getLFS()) {
+            
+            return false;
+            
+        }
+        
+        DatagramPacket last = client.getPacketFromWindow(client.windowIndex(client.getLFS()));
+        
+        return last != null && Helper.retrievePacketType(last.getData()) == Helper.TYPEFIN;
+        
+    } // end isOnlyFinUnacknowledged
+    
+    
+    /**
+     * This method handles acks for the packets that follow the file. The digest packet's ack 
+     * carries the server's verdict and the FIN-ACK ends the transfer without waiting for a time
+     * out.
+     * 
+     * @return - A boolean false once the FIN has been acknowledged, true otherwise.
+     */
+    private boolean processAcknowledgementType() {
+        
+        int flags = Helper.retrievePacketType(responseBuffer);
+        int type = flags & Helper.TYPEMASK;
         boolean moreData = true;
         
-        if(client.getLAR() < client.getLFS()) {
+        if(type == Helper.TYPEDIGESTOK || type == Helper.TYPEDIGESTBAD) {
+            
+            reportDigest(type == Helper.TYPEDIGESTOK);
+            
+        } else if(type == Helper.TYPEFINACK) {
+            
+            // A small file's only ack is the FIN-ACK.
+            if(!digestAnswered) {
+                
+                reportDigest((flags & Helper.FLAGVERIFIED) != 0);
+                
+            }
+            
+            Log.info("\nDone sending file!");
+            moreData = false;
+            
+        }
+        
+        return moreData;
+        
+    } // end processAcknowledgementType
+    
+    
+    /**
+     * This method records and logs whether the server's digest of the file matched.
+     * 
+     * @param verified - True if the digests matched.
+     */
+    private void reportDigest(boolean verified) {
+        
+        digestAnswered = true;
+        client.setDigestVerified(verified);
+        
+        if(verified) {
+            
+            Log.info("\nFile digest verified by the server.");
             
-            System.out.println("\nTimeout occured, waiting for ack on seq number " + 
-                                (client.getLAR() + 1));
+        } else {
+            
+            Log.error("\n*** File digest MISMATCH, the server's copy is damaged! ***");
+            
+        }
+        
+    } // end reportDigest
+    
+    
+    /**
+     * This method will handle what happens when a timeout event occurs, nothing having been 
+     * received for a time out period.
+     * 
+     * @return - A boolean false once the transfer is over, true otherwise.
+     */
+    public boolean processTimeOut() {
+        
+        boolean moreData = true;
+        
+        if(isOnlyFinUnacknowledged() && ++finTimeOuts > Helper.FINLINGERTIMEOUTS) {
+            
+            // Everything else was acknowledged, the server has stopped lingering so its FIN-ACKs
+            // were lost.
+            Log.warn("\nNo FIN-ACK, finishing anyway since the server has everything.");
+            moreData = false;
+            
+        } else if(Helper.isBefore(client.getLAR(), client.getLFS()) && client.isOutOfRetries()) {
+            
+            Log.warn("\nNothing acknowledged after resending the window " + client.getMaxRetries() + 
+                         " times, giving up.");
+            client.transferFailed(new IOException("No acknowledgement from the server after " + 
+                                                      client.getMaxRetries() + " retries!"));
+            moreData = false;
+            
+        } else if(Helper.isBefore(client.getLAR(), client.getLFS())) {
+            
+            if(Log.isDebug()) {
+                
+                Log.debug("\nTimeout occured, waiting for ack on seq number " + 
+                           (client.getLAR() + 1));
+                
+            }
+            
+            TimeOutEvent event = new TimeOutEvent();
+            event.begin();
+            event.lar = client.getLAR();
+            event.lfs = client.getLFS();
+            
+            // The packet waited on was lost, the rest of the window is only resent because of it.
+            client.updateLossEstimate(true);
+            client.dataTimedOut();
             resendWindow();
             
+            event.resent = event.lfs - event.lar;
+            event.commit();
+            
         } else if(client.getDoneReading()){
             
-            System.out.println("\nDone sending file!");
+            Log.info("\nDone sending file!");
             moreData = false;
             
+        } else if(client.getAdvertisedWindow() <= 0) {
+            
+            // The server has no room and nothing is in flight to bring back a new window, so 
+            // probe it. The packet it last acknowledged is re-acknowledged with its window.
+            sendWindowProbe();
+            
         } else {
             
-            System.out.println("\nTimeout but nothing waiting to send!");
+            if(Log.isDebug()) {
+                
+                Log.debug("\nTimeout but nothing waiting to send!");
+                
+            }
             
         } // end if-else block
         
@@ -169,12 +380,18 @@ public class ReceiverThread extends Thread {
         // Find the lowest unacknowledged sequence number to send.
         int notAcknowledged = client.getLAR() + 1;
         
-        System.out.println("Will attempt to resend " + numUnacknowledged + " sequence numbers!\n");
+        if(Log.isDebug()) {
+            
+            Log.debug("Will attempt to resend " + numUnacknowledged + " sequence numbers!\n");
+            
+        }
         
         for(int i = 0 ; i < numUnacknowledged ; i++) {
             
-            DatagramPacket tempPacket = client.getPacketFromWindow(notAcknowledged % 7);
+            int index = client.windowIndex(notAcknowledged);
+            DatagramPacket tempPacket = client.getPacketFromWindow(index);
             byte[] tempBuffer = tempPacket.getData();
+            client.markResent(index);
             
             // "Recalculate" the checksum (for simulation, 2nd time around just be good).
             Helper.bufferCheckSum(tempBuffer, Helper.CHECKSUMGOOD);
@@ -184,12 +401,28 @@ public class ReceiverThread extends Thread {
             
             try {
                 
-                System.out.println("Attempting to resend seqNum " + notAcknowledged);
-                socket.send(tempPacket);
+                if(Log.isDebug()) {
+                    
+                    Log.debug("Attempting to resend seqNum " + notAcknowledged);
+                    
+                }
+                
+                PacketResentEvent event = new PacketResentEvent();
+                event.begin();
+                client.sendPacket(socket, tempPacket);
+                event.end();
+                
+                if(event.shouldCommit()) {
+                    
+                    event.seqNum = notAcknowledged;
+                    event.dataLength = tempPacket.getLength() - Helper.APPLICATIONHEADERSIZE;
+                    event.commit();
+                    
+                }
             
             } catch (IOException e) {
                 
-                System.out.println("Error resending seqNum " + notAcknowledged + "!");
+                Log.error("Error resending seqNum " + notAcknowledged + "!");
             
             }
             
@@ -200,6 +433,40 @@ public class ReceiverThread extends Thread {
     } // end resendWindow
     
     
+    /**
+     * This method resends the last acknowledged DatagramPacket to ask a server advertising a zero
+     * window whether it has room again.
+     */
+    private void sendWindowProbe() {
+        
+        DatagramPacket tempPacket = client.getPacketFromWindow(client.windowIndex(client.getLAR()));
+        
+        if(tempPacket == null) {
+            
+            return;
+            
+        }
+        
+        if(Log.isDebug()) {
+            
+            Log.debug("\nZero window, probing with seqNum " + client.getLAR());
+            
+        }
+        
+        try {
+            
+            client.sendPacket(socket, tempPacket);
+            client.getMetrics().windowProbeSent();
+        
+        } catch (IOException e) {
+            
+            Log.error("Error sending window probe!");
+        
+        }
+        
+    } // end sendWindowProbe
+    
+    
     /**
      * This method is used to resend the oldest DatagramPacket that has not yet been acknowledged.
      */
@@ -207,10 +474,16 @@ public class ReceiverThread extends Thread {
         
         int notAcknowledged = client.getLAR() + 1;
         
-        System.out.println("Attempting to resend packet " + notAcknowledged);
+        if(Log.isDebug()) {
+            
+            Log.debug("Attempting to resend packet " + notAcknowledged);
+            
+        }
         
-        DatagramPacket tempPacket = client.getPacketFromWindow(notAcknowledged % 7);
+        int index = client.windowIndex(notAcknowledged);
+        DatagramPacket tempPacket = client.getPacketFromWindow(index);
         byte[] tempBuffer = tempPacket.getData();
+        client.markResent(index);
         
         // "Recalculate" the checksum (for simulation, 2nd time around be good).
         Helper.bufferCheckSum(tempBuffer, Helper.CHECKSUMGOOD);
@@ -220,11 +493,22 @@ public class ReceiverThread extends Thread {
         
         try {
             
-            socket.send(tempPacket);
+            PacketResentEvent event = new PacketResentEvent();
+            event.begin();
+            client.sendPacket(socket, tempPacket);
+            event.end();
+            
+            if(event.shouldCommit()) {
+                
+                event.seqNum = notAcknowledged;
+                event.dataLength = tempPacket.getLength() - Helper.APPLICATIONHEADERSIZE;
+                event.commit();
+                
+            }
         
         } catch (IOException e) {
             
-            System.out.println("Error resending packet " + notAcknowledged + "!");
+            Log.error("Error resending packet " + notAcknowledged + "!");
         
         }
         
@@ -236,8 +520,12 @@ public class ReceiverThread extends Thread {
      */
     private void printAcknowledgement() {
         
-        System.out.println("\n!!! Acknowledgement received for sequence number " + 
-                                Helper.retrieveAckNum(responseBuffer));
+        if(Log.isDebug()) {
+            
+            Log.debug("\n!!! Acknowledgement received for sequence number " + 
+                           Helper.retrieveAckNum(responseBuffer));
+            
+        }
         
     } // end printReply
     
@@ -248,12 +536,54 @@ public class ReceiverThread extends Thread {
      */
     private void printCumulativeAck() {
         
-        System.out.println("\n!!! CUMULATIVE UPDATE... Acknowledgement received for seqNum " + 
-                                Helper.retrieveAckNum(responseBuffer));
+        if(Log.isDebug()) {
+            
+            Log.debug("\n!!! CUMULATIVE UPDATE... Acknowledgement received for seqNum " + 
+                           Helper.retrieveAckNum(responseBuffer));
+            
+        }
         
     } // end printCumulativeAck
     
     
+    /**
+     * This method is used to determine whether an acknowledgement can be believed. With a key, a
+     * verdict on the digest or FIN must be signed by the server and nothing else may acknowledge
+     * them. Plain acknowledgements of data aren't signed.
+     * 
+     * @return - A boolean true if it can be believed, false if it must be discarded.
+     */
+    private boolean isAuthentic() {
+        
+        PacketCipher cipher = client.getAckCipher();
+        
+        if(cipher == null) {
+            
+            return true;
+            
+        }
+        
+        if(PacketCipher.isSigned(Helper.retrievePacketType(responseBuffer))) {
+            
+            return cipher.verify(responseBuffer, responsePacket.getLength());
+            
+        }
+        
+        int ackNum = Helper.retrieveAckNum(responseBuffer);
+        
+        if(!Helper.isBefore(client.getLAR(), ackNum) || Helper.isBefore(client.getLFS(), ackNum)) {
+            
+            return true;
+            
+        }
+        
+        int type = Helper.retrievePacketType(client.getPacketFromWindow(client.windowIndex(ackNum)).getData());
+        
+        return type != Helper.TYPEDIGEST && type != Helper.TYPEFIN;
+        
+    } // end isAuthentic
+    
+    
     /**
      * This method is used to determine whether a packet is next in the sequence.
      * 
@@ -278,7 +608,11 @@ public class ReceiverThread extends Thread {
      */
     private boolean isCumulativeNext() {
         
-        return Helper.CUMULATIVE && Helper.retrieveAckNum(responseBuffer) > client.getLAR();
+        int ackNum = Helper.retrieveAckNum(responseBuffer);
+        
+        // A small file is acknowledged once, for everything.
+        return (Helper.CUMULATIVE || client.isSmallFile()) && Helper.isBefore(client.getLAR(), ackNum) && 
+               !Helper.isBefore(client.getLFS(), ackNum);
         
     } // end isCumulativeNext
     
@@ -0,0 +1,101 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is the weak, rolling checksum used to find blocks of
+ * the server's copy in the client's file (the one rsync uses). It is two 16 bit
+ * sums, a of the bytes and b of a at each byte, so moving the block along by
+ * one byte is a few additions instead of reading the whole block again.
+ * Matches are confirmed with a strong hash, see BlockSignatures.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+
+public class RollingChecksum {
+    
+    private int a;
+    private int b;
+    private int length;
+    
+    
+    /**
+     * This method starts the checksum over a new block.
+     * 
+     * @param data - The buffer holding the block.
+     * 
+     * @param offset - Where the block starts.
+     * 
+     * @param len - The block length.
+     */
+    public void reset(byte[] data, int offset, int len) {
+        
+        a = 0;
+        b = 0;
+        length = len;
+        
+        for(int i = 0 ; i < len ; i++) {
+            
+            a += data[offset + i] & 0xFF;
+            b += (len - i) * (data[offset + i] & 0xFF);
+            
+        }
+        
+    } // end reset
+    
+    
+    /**
+     * This method moves the block along by one byte.
+     * 
+     * @param out - The byte leaving the front of the block.
+     * 
+     * @param in - The byte joining the end of the block.
+     */
+    public void roll(byte out, byte in) {
+        
+        a += (in & 0xFF) - (out & 0xFF);
+        b += a - length * (out & 0xFF);
+        
+    } // end roll
+    
+    
+    /**
+     * This method will provide the checksum of the current block.
+     * 
+     * @return - b in the high 16 bits, a in the low 16 bits.
+     */
+    public int getValue() {
+        
+        return (b << 16) | (a & 0xFFFF);
+        
+    } // end getValue
+    
+    
+    /**
+     * This method finds the checksum of a block in one go.
+     * 
+     * @param data - The buffer holding the block.
+     * 
+     * @param offset - Where the block starts.
+     * 
+     * @param len - The block length.
+     * 
+     * @return - The checksum.
+     */
+    public static int of(byte[] data, int offset, int len) {
+        
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, len);
+        
+        return checksum.getValue();
+        
+    } // end of
+    
+} // end RollingChecksum
@@ -11,18 +11,36 @@ package helpers;
  * to create, send and buffer new DatagramPackets as the window space in the window 
  * opens up. 
  * 
+ * The file is digested as it is read, once it is all sent a digest packet
+ * and then a FIN follow it through the window so the server can check what it
+ * wrote and knows the file has ended.
+ * 
+ * The file may be any stream, eg... a pipe, whose length isn't known. It is
+ * read until the stream ends rather than while bytes are available, and the
+ * FIN carries how many bytes were sent.
+ * 
+ * A small file (see P2Client.isSmallFile()) is preceded by an OPEN asking the
+ * server to only acknowledge the FIN, so the whole file goes in one burst.
+ * 
+ * Each call to sendNext() takes one step, so a ClientMux can drive many
+ * senders from a few threads without starting this one.
+ * 
  * @author Tom Carney
  * @version 1.0
  * @since 07/14/2016
  */
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 
 import application.P2Client;
+import helpers.events.PacketSentEvent;
+import helpers.events.WindowBlockedEvent;
 
 
 public class SenderThread extends Thread {
@@ -30,14 +48,29 @@ public class SenderThread extends Thread {
     private P2Client client;
     private DatagramSocket socket;
     private InetAddress IPAddress;
-    private FileInputStream fStream;
+    private InputStream fStream;
+    private MessageDigest digest = Helper.newDigest();
+    private long bytesRead = 0;
+    private boolean endOfStream = false;
+    
+    // The steps taken in order by sendNext().
+    private static final int OPENING = 0;
+    private static final int SENDING = 1;
+    private static final int ENDING = 2;
+    private static final int DIGESTING = 3;
+    private static final int FINISHING = 4;
+    private static final int DONE = 5;
+    
+    private int stage = OPENING;
     
     
     /**
      * A constructor for the SenderThread.
      */
     public SenderThread(P2Client newClient, DatagramSocket newSocket, InetAddress newAddress, 
-                            FileInputStream newStream) {
+                            InputStream newStream) {
+        
+        super("SenderThread");
         
         client = newClient;
         socket = newSocket;
@@ -54,32 +87,37 @@ public class SenderThread extends Thread {
     @Override
     public void run() {
         
-        // Actual number of bytes of data.
-        int dataLength;
-        
-        // Buffer which will hold header and data to be sent. 
-        byte[] applicationBuffer;
+        // Started when the window fills, committed once there is room again.
+        WindowBlockedEvent blocked = null;
             
         try {
                 
-            // Will be false once the file has been totally read.
-            while(fStream.available() != 0) {
+            // Will be true once the FIN has been sent, or the transfer failed or was cancelled.
+            while(!isFinished() && !client.isStopped()) {
                     
                 // Only create/send a new packet if there is room in the window.
-                if(client.isRoomInWindow()) {
-                    
-                    // Packets are buffered in a sliding window so each needs a separate buffer.
-                    applicationBuffer = new byte[client.getMaxDataSize() + Helper.APPLICATIONHEADERSIZE];
+                if(sendNext()) {
                     
-                    // Actual application payload size (header and data) may not totally fill the buffer.
-                    dataLength = fillApplicationBuffer(applicationBuffer);
-                    
-                    sendData(applicationBuffer, dataLength);
+                    if(blocked != null) {
+                        
+                        blocked.commit();
+                        blocked = null;
+                        
+                    }
                     
                     simulationDelay(Helper.SENDNEWPACKETDELAY, "Couldn't delay sending new packet!");
                       
                 } else {
                     
+                    if(blocked == null) {
+                        
+                        blocked = new WindowBlockedEvent();
+                        blocked.lar = client.getLAR();
+                        blocked.lfs = client.getLFS();
+                        blocked.begin();
+                        
+                    }
+                    
                     //System.out.println("\nWindow full ( " + printWindowContents() + ")");
                     
                     simulationDelay(Helper.WINDOWFULLSLEEPMODIFIER, "Window full but couldn't put to sleep!");
@@ -89,17 +127,117 @@ public class SenderThread extends Thread {
                 Thread.yield();
                     
             } // end while loop
-            
-            // Mark the file as being fully read.
-            client.setDoneReading(true);
                 
         } catch (IOException e) {
                 
-            System.out.println("Error reading file!");
+            Log.error("Error reading file!");
+            client.transferFailed(e);
                 
         } // end outer try-catch
             
     } // end run 
+    
+    
+    /**
+     * This method takes the next step of the transfer if it can: the OPEN for a small file, 
+     * then one packet of data at a time, then once the stream ends the last parity, the digest
+     * and the FIN. It never waits for room in the window, but may wait on the stream.
+     * 
+     * @return - A boolean true if a step was taken, false if the window is full, the FIN has
+     *           already been sent or the transfer is over.
+     * 
+     * @throws IOException - If the stream could not be read.
+     */
+    public boolean sendNext() throws IOException {
+        
+        // Parity isn't windowed, everything else needs room.
+        if(stage == DONE || client.isStopped() || (stage != ENDING && !client.isRoomInWindow())) {
+            
+            return false;
+            
+        }
+        
+        switch(stage) {
+            
+            case OPENING:
+                
+                if(client.isSmallFile()) {
+                    
+                    sendOpen();
+                    
+                }
+                
+                stage = SENDING;
+                break;
+                
+            case SENDING:
+                
+                // Packets are buffered in a sliding window so each needs a separate buffer.
+                byte[] applicationBuffer = new byte[client.getMaxPayloadSize() + Helper.APPLICATIONHEADERSIZE];
+                
+                // Actual application payload size (header and data) may not totally fill the buffer.
+                int dataLength = fillApplicationBuffer(applicationBuffer);
+                
+                // Negative when the stream ended exactly where the last packet did.
+                if(dataLength >= 0) {
+                    
+                    sendData(applicationBuffer, dataLength);
+                    
+                }
+                
+                if(endOfStream) {
+                    
+                    stage = ENDING;
+                    
+                }
+                
+                break;
+                
+            case ENDING:
+                
+                // The last group may be short, it still gets its parity.
+                if(client.getFecEncoder() != null && client.getFecEncoder().hasPending()) {
+                    
+                    sendParity();
+                    
+                }
+                
+                stage = DIGESTING;
+                break;
+                
+            case DIGESTING:
+                
+                // The digest and FIN are windowed like the data so they are resent until acknowledged.
+                sendDigest();
+                stage = FINISHING;
+                break;
+                
+            case FINISHING:
+                
+                sendFin();
+                stage = DONE;
+                
+                // Mark the file as being fully read.
+                client.setDoneReading(true);
+                break;
+                
+        } // end switch
+        
+        return true;
+        
+    } // end sendNext
+    
+    
+    /**
+     * This method is used to determine whether everything, FIN included, has been sent.
+     * 
+     * @return - A boolean true once the FIN has been sent, false otherwise.
+     */
+    public boolean isFinished() {
+        
+        return stage == DONE;
+        
+    } // end isFinished
 
     
     /**
@@ -118,7 +256,7 @@ public class SenderThread extends Thread {
             
         } catch (InterruptedException e) {
             
-            System.out.println(message);
+            Log.warn(message);
         
         }
         
@@ -152,22 +290,84 @@ public class SenderThread extends Thread {
      * information to be sent.
      * 
      * @param buffer - The buffer to fill with header and data information.
+     * 
+     * @return - The number of payload bytes placed in the buffer, sealed if encrypting, or -1
+     *           if the stream has ended and nothing was left to send.
+     * 
+     * @throws IOException - If the stream could not be read.
      */
-    private int fillApplicationBuffer(byte[] buffer) {
+    int fillApplicationBuffer(byte[] buffer) throws IOException {
         
         // Amount of data available may be less than available space in the buffer.
         int dataLength = bufferData(buffer);
         
+        if(dataLength < 0) {
+            
+            return -1;
+            
+        }
+        
+        bufferHeader(buffer, dataLength, Helper.TYPEDATA);
+        
+        return seal(buffer, dataLength);
+        
+    } // end fillApplicationBuffer
+    
+    
+    /**
+     * This method encrypts a packet's payload in place if encryption is on, after its header 
+     * has been filled in and before it is given to the parity builder.
+     * 
+     * @param buffer - The packet's buffer, with PacketCipher.OVERHEAD bytes of room to spare.
+     * 
+     * @param dataLength - The number of data bytes in the packet.
+     * 
+     * @return - The number of payload bytes now in the packet.
+     */
+    private int seal(byte[] buffer, int dataLength) {
+        
+        PacketCipher cipher = client.getPacketCipher();
+        
+        if(cipher == null) {
+            
+            return dataLength;
+            
+        }
+        
+        int sealedLength = cipher.seal(buffer, dataLength);
+        Helper.bufferLength(buffer, sealedLength);
+        
+        return sealedLength;
+        
+    } // end seal
+    
+    
+    /**
+     * This method fills in the header of the next packet to be sent.
+     * 
+     * @param buffer - The packet's buffer.
+     * 
+     * @param dataLength - The number of data bytes in the packet.
+     * 
+     * @param type - The packet type, eg... Helper.TYPEDATA.
+     */
+    private void bufferHeader(byte[] buffer, int dataLength, int type) {
+        
         Helper.bufferLength(buffer, dataLength);
         Helper.bufferAckNumber(buffer, client.getLAR() + 1);
         Helper.bufferSeqNumber(buffer, client.getLFS() + 1);
+        Helper.bufferPacketType(buffer, type);
         
         // Decide if simulating a check sum error.
-        if(Helper.shouldCheckSumError(client.getErrorPercent())) {
+        if(client.getDataImpairment().isCorrupted()) {
             
             Helper.bufferCheckSum(buffer, Helper.CHECKSUMBAD);
-            System.out.println("\n*** Simulating bad check sum on sequence number " +
-                                    (client.getLFS() + 1) + " ***");
+            if(Log.isDebug()) {
+                
+                Log.debug("\n*** Simulating bad check sum on sequence number " +
+                               (client.getLFS() + 1) + " ***");
+                
+            }
             
         } else {
             
@@ -175,9 +375,7 @@ public class SenderThread extends Thread {
             
         }
         
-        return dataLength;
-        
-    } // end fillApplicationBuffer
+    } // end bufferHeader
     
     
     /**
@@ -185,29 +383,55 @@ public class SenderThread extends Thread {
      * in the data portion of the byte array. The number of bytes specified by the user as the
      * max data size or default data size may exceed available data. 
      * 
-     * An integer is returned stating how many bytes were read which may be less than the total
-     * available space. 
+     * The first read waits for data, after that only what the stream already has is taken so
+     * a slow stream (eg... a pipe) isn't held up filling the packet. An integer is returned 
+     * stating how many bytes were read which may be less than the total available space. 
      * 
      * @param buffer - The buffer being used by the DatagramPacket.
      * 
-     * @return - An integer stating how many bytes were read into the array.
+     * @return - An integer stating how many bytes were read into the array, -1 if the stream
+     *           ended before any were.
+     * 
+     * @throws IOException - If the stream could not be read.
      */
-    private int bufferData(byte[] buffer) {
+    private int bufferData(byte[] buffer) throws IOException {
         
         int numBytesRead = 0;
+        int wanted = client.nextDataSize();
         
-        try {
+        while(!endOfStream && numBytesRead < wanted && (numBytesRead == 0 || fStream.available() > 0)) {
+            
+            // Read at most what is left of the data size and place it into the buffer just
+            // past the header and anything already read.
+            int read = fStream.read(buffer, Helper.APPLICATIONHEADERSIZE + numBytesRead, 
+                                        wanted - numBytesRead);
+            
+            if(read < 0) {
+                
+                endOfStream = true;
+                
+            } else {
+                
+                numBytesRead += read;
+                
+            }
             
-            // Read at most the max data size and place them into the buffer at the specified
-            // offset (just past the header), returning the actual number of bytes read.
-            numBytesRead = fStream.read(buffer, Helper.APPLICATIONHEADERSIZE, 
-                                            client.getMaxDataSize());
+        }
         
-        } catch (IOException e) {
+        if(numBytesRead == 0 && endOfStream) {
             
-            System.out.println("Error filling buffer from file!");
+            return -1;
             
-        } // end try-catch block
+        }
+        
+        // Digest as it is read, each byte of the file is read only once.
+        bytesRead += numBytesRead;
+        
+        if(digest != null) {
+            
+            digest.update(buffer, Helper.APPLICATIONHEADERSIZE, numBytesRead);
+            
+        }
         
         return numBytesRead;
         
@@ -226,28 +450,182 @@ public class SenderThread extends Thread {
         // The full packet size.
         int applicationPacketSize = Helper.APPLICATIONHEADERSIZE + dataLength;
         
-        System.out.println("\nSending " + applicationPacketSize + 
-                                " bytes as seqNum " + (client.getLFS() + 1) + ".");
+        if(Log.isDebug()) {
+            
+            Log.debug("\nSending " + applicationPacketSize + 
+                           " bytes as seqNum " + (client.getLFS() + 1) + ".");
+            
+        }
         
         DatagramPacket sendPacket = 
-                new DatagramPacket(buffer, applicationPacketSize, IPAddress, Helper.PORT);
+                new DatagramPacket(buffer, applicationPacketSize, IPAddress, client.getServerPort());
+        
+        // store the DatagramPacket in the window until it is acknowledged. This is done before
+        // sending since the acknowledgement can come back before send() returns.
+        int index = client.windowIndex(client.getLFS() + 1);
+        if(Log.isDebug()) {
+            
+            Log.debug("Storing seqNum " + (client.getLFS() + 1) + " in window slot " + index + ".");
+            
+        }
+        client.putInWindow(sendPacket, index);
+        
+        PacketSentEvent event = new PacketSentEvent();
+        int seqNum = client.getLFS() + 1;
         
         try {
             
-            socket.send(sendPacket);
-            client.incLFS();
+            event.begin();
+            client.sendPacket(socket, sendPacket);
+            event.end();
             
-            // store the DatagramPacket in the window until it is acknowledged.
-            int index = client.getLFS() % client.getWindowSize();
-            System.out.println("Storing seqNum " + client.getLFS() + " in window slot " + index + ".");
-            client.putInWindow(sendPacket, index);
+            if(event.shouldCommit()) {
+                
+                event.seqNum = seqNum;
+                event.dataLength = dataLength;
+                event.lar = client.getLAR();
+                event.commit();
+                
+            }
         
         } catch (IOException e) {
             
-            System.out.println("Error sending data!");
+            // The socket is closed once the transfer is over, eg... cancelled mid send.
+            if(client.isStopped()) {
+                
+                return;
+                
+            }
+            
+            Log.error("Error sending data, seqNum " + seqNum + " will be resent once it times out!");
         
         } // end try-catch block
         
+        // Counted as sent even if the send failed. The packet is windowed and was sealed under
+        // this sequence number, so it must be resent as it is rather than built again.
+        client.incLFS();
+        client.getMetrics().packetSent(dataLength);
+        
+        FecEncoder fec = client.getFecEncoder();
+        
+        if(fec != null && Helper.retrievePacketType(buffer) == Helper.TYPEDATA) {
+            
+            fec.add(buffer, dataLength, seqNum);
+            
+            if(fec.isGroupFull()) {
+                
+                sendParity();
+                
+            }
+            
+        }
+        
     } // end sendData
+    
+    
+    /**
+     * This method sends the OPEN that starts a small file's burst. It takes the first sequence
+     * number so the server needn't be told it.
+     */
+    private void sendOpen() {
+        
+        sendControl(ByteBuffer.allocate(Helper.OPENSIZE).put((byte)Helper.OPENACKONCE)
+                              .putLong(client.getTotalBytes()).array(), Helper.TYPEOPEN);
+        
+    } // end sendOpen
+    
+    
+    /**
+     * This method sends the digest of the whole file once all of it has been sent.
+     */
+    private void sendDigest() {
+        
+        // Without a digest the packet goes out as zeros and the server will report a mismatch.
+        sendControl(digest == null ? new byte[Helper.DIGESTSIZE] : digest.digest(), Helper.TYPEDIGEST);
+        
+    } // end sendDigest
+    
+    
+    /**
+     * This method sends the FIN, the last packet of the transfer. It carries the file's length 
+     * and the time out so the server knows how long to wait for it to be resent.
+     */
+    private void sendFin() {
+        
+        sendControl(ByteBuffer.allocate(Helper.FINSIZE).putLong(bytesRead).putInt(client.getTimeOutPeriod())
+                              .array(), Helper.TYPEFIN);
+        
+    } // end sendFin
+    
+    
+    /**
+     * This method windows and sends a packet that isn't file data, once there is room for it. 
+     * Nothing is sent if the transfer ends while waiting.
+     * 
+     * @param data - What the packet carries.
+     * 
+     * @param type - The packet type, eg... Helper.TYPEFIN.
+     */
+    private void sendControl(byte[] data, int type) {
+        
+        while(!client.isRoomInWindow()) {
+            
+            if(client.isStopped()) {
+                
+                return;
+                
+            }
+            
+            simulationDelay(Helper.WINDOWFULLSLEEPMODIFIER, "Window full but couldn't put to sleep!");
+            Thread.yield();
+            
+        }
+        
+        byte[] buffer = new byte[Helper.APPLICATIONHEADERSIZE + data.length + PacketCipher.OVERHEAD];
+        System.arraycopy(data, 0, buffer, Helper.APPLICATIONHEADERSIZE, data.length);
+        
+        bufferHeader(buffer, data.length, type);
+        sendData(buffer, PacketCipher.isSealed(type) ? seal(buffer, data.length) : data.length);
+        
+    } // end sendControl
+    
+    
+    /**
+     * This method ends the current forward error correction group, sends its parity packets and
+     * sizes the next group from the current loss estimate. Parity is never resent.
+     */
+    private void sendParity() {
+        
+        FecEncoder fec = client.getFecEncoder();
+        
+        for(byte[] parity : fec.finishGroup()) {
+            
+            Helper.bufferCheckSum(parity, client.getDataImpairment().isCorrupted() ? 
+                                              Helper.CHECKSUMBAD : Helper.CHECKSUMGOOD);
+            
+            try {
+                
+                client.sendPacket(socket, new DatagramPacket(parity, parity.length, IPAddress, 
+                                                             client.getServerPort()));
+                client.getMetrics().paritySent();
+            
+            } catch (IOException e) {
+                
+                Log.error("Error sending parity!");
+            
+            }
+            
+        }
+        
+        fec.adapt(client.getLossEstimate());
+        
+        if(Log.isDebug()) {
+            
+            Log.debug("Next parity group: " + fec.getGroupSize() + " packets, " + 
+                          fec.getParityCount() + " parity.");
+            
+        }
+        
+    } // end sendParity
         
 } // end SenderThread
\ No newline at end of file
@@ -0,0 +1,432 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class holds the counters, latency histograms and window
+ * gauges of one client or server. Counters are LongAdders so the sending and
+ * receiving threads can bump them without contending. Once registered, it is
+ * published through JMX under "UDPClientServer:type=P2Client,id=n" (or
+ * type=P2Server).
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+public class TransferMetrics implements TransferMetricsMBean {
+    
+    public static final String JMXDOMAIN = "UDPClientServer";
+    
+    // Used to give each registered instance a unique name.
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder acksSent = new LongAdder();
+    private final LongAdder acksReceived = new LongAdder();
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder duplicatesReceived = new LongAdder();
+    private final LongAdder checkSumFailures = new LongAdder();
+    private final LongAdder simulatedLosses = new LongAdder();
+    private final LongAdder outOfOrderDrops = new LongAdder();
+    private final LongAdder receiveBufferFull = new LongAdder();
+    private final LongAdder windowProbes = new LongAdder();
+    private final LongAdder paritySent = new LongAdder();
+    private final LongAdder fecRecovered = new LongAdder();
+    
+    private final Histogram rtt = new Histogram();
+    private final Histogram ackLatency = new Histogram();
+    
+    // The window is owned by the client (or server), these just read it when asked.
+    private IntSupplier lar = () -> 0;
+    private IntSupplier lfs = () -> 0;
+    private IntSupplier advertisedWindow = () -> 0;
+    private IntSupplier dataSize = () -> 0;
+    
+    private ObjectName objectName;
+    
+    
+    /**
+     * This method sets where the window gauges get their values.
+     * 
+     * @param newLAR - Provides the "Last Acknowledgement Received".
+     * 
+     * @param newLFS - Provides the "Last Frame Sent".
+     */
+    public void setWindowGauges(IntSupplier newLAR, IntSupplier newLFS) {
+        
+        lar = newLAR;
+        lfs = newLFS;
+        
+    } // end setWindowGauges
+    
+    
+    /**
+     * This method sets where the advertised window gauge gets its value.
+     * 
+     * @param newAdvertisedWindow - Provides the free receive buffer space, in packets, last
+     *                              advertised (client) or being advertised (server).
+     */
+    public void setAdvertisedWindowGauge(IntSupplier newAdvertisedWindow) {
+        
+        advertisedWindow = newAdvertisedWindow;
+        
+    } // end setAdvertisedWindowGauge
+    
+    
+    /**
+     * This method sets where the data size gauge gets its value.
+     * 
+     * @param newDataSize - Provides the data bytes the client is putting in each packet.
+     */
+    public void setDataSizeGauge(IntSupplier newDataSize) {
+        
+        dataSize = newDataSize;
+        
+    } // end setDataSizeGauge
+    
+    
+    /**
+     * This method publishes the metrics through the platform MBean server. Failing to register
+     * is logged but otherwise ignored, the transfer does not depend on it.
+     * 
+     * @param type - The kind of endpoint, eg... "P2Client".
+     */
+    public synchronized void register(String type) {
+        
+        try {
+            
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(JMXDOMAIN + ":type=" + type + ",id=" + nextId.getAndIncrement());
+            server.registerMBean(this, objectName);
+            
+        } catch (JMException e) {
+            
+            Log.warn("Unable to register metrics with JMX: " + e.getMessage());
+            objectName = null;
+            
+        }
+        
+    } // end register
+    
+    
+    /**
+     * This method removes the metrics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        
+        if(objectName != null) {
+            
+            try {
+                
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                
+            } catch (JMException e) {
+                
+                Log.warn("Unable to unregister metrics from JMX: " + e.getMessage());
+                
+            }
+            
+            objectName = null;
+            
+        }
+        
+    } // end unregister
+    
+    
+    /**
+     * This method will provide the name the metrics are registered under.
+     * 
+     * @return - The JMX name, or null if not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        
+        return objectName;
+        
+    } // end getObjectName
+    
+    
+    /**
+     * @param dataBytes - The number of data bytes in the packet sent.
+     */
+    public void packetSent(int dataBytes) {
+        
+        packetsSent.increment();
+        bytesSent.add(dataBytes);
+        
+    } // end packetSent
+    
+    
+    /**
+     * @param dataBytes - The number of data bytes in the packet received.
+     */
+    public void packetReceived(int dataBytes) {
+        
+        packetsReceived.increment();
+        bytesReceived.add(dataBytes);
+        
+    } // end packetReceived
+    
+    
+    public void ackSent() {
+        
+        acksSent.increment();
+        
+    } // end ackSent
+    
+    
+    public void ackReceived() {
+        
+        acksReceived.increment();
+        
+    } // end ackReceived
+    
+    
+    public void retransmitted() {
+        
+        retransmits.increment();
+        
+    } // end retransmitted
+    
+    
+    public void duplicateReceived() {
+        
+        duplicatesReceived.increment();
+        
+    } // end duplicateReceived
+    
+    
+    public void checkSumFailed() {
+        
+        checkSumFailures.increment();
+        
+    } // end checkSumFailed
+    
+    
+    public void simulatedLoss() {
+        
+        simulatedLosses.increment();
+        
+    } // end simulatedLoss
+    
+    
+    public void outOfOrderDropped() {
+        
+        outOfOrderDrops.increment();
+        
+    } // end outOfOrderDropped
+    
+    
+    public void receiveBufferFilled() {
+        
+        receiveBufferFull.increment();
+        
+    } // end receiveBufferFilled
+    
+    
+    public void windowProbeSent() {
+        
+        windowProbes.increment();
+        
+    } // end windowProbeSent
+    
+    
+    public void paritySent() {
+        
+        paritySent.increment();
+        
+    } // end paritySent
+    
+    
+    public void fecRecovered() {
+        
+        fecRecovered.increment();
+        
+    } // end fecRecovered
+    
+    
+    /**
+     * @param nanos - A round trip time sample, in nanoseconds.
+     */
+    public void recordRtt(long nanos) {
+        
+        rtt.record(nanos);
+        
+    } // end recordRtt
+    
+    
+    /**
+     * @param nanos - The time between a packet arriving and its ack leaving, in nanoseconds.
+     */
+    public void recordAckLatency(long nanos) {
+        
+        ackLatency.record(nanos);
+        
+    } // end recordAckLatency
+    
+    
+    /**
+     * This method will provide the round trip time histogram, in nanoseconds.
+     * 
+     * @return - The histogram.
+     */
+    public Histogram getRtt() {
+        
+        return rtt;
+        
+    } // end getRtt
+    
+    
+    /**
+     * This method will provide the ack latency histogram, in nanoseconds.
+     * 
+     * @return - The histogram.
+     */
+    public Histogram getAckLatency() {
+        
+        return ackLatency;
+        
+    } // end getAckLatency
+    
+    
+    @Override
+    public long getPacketsSent() { return packetsSent.sum(); }
+    
+    @Override
+    public long getBytesSent() { return bytesSent.sum(); }
+    
+    @Override
+    public long getPacketsReceived() { return packetsReceived.sum(); }
+    
+    @Override
+    public long getBytesReceived() { return bytesReceived.sum(); }
+    
+    @Override
+    public long getAcksSent() { return acksSent.sum(); }
+    
+    @Override
+    public long getAcksReceived() { return acksReceived.sum(); }
+    
+    @Override
+    public long getRetransmits() { return retransmits.sum(); }
+    
+    @Override
+    public long getDuplicatesReceived() { return duplicatesReceived.sum(); }
+    
+    @Override
+    public long getCheckSumFailures() { return checkSumFailures.sum(); }
+    
+    @Override
+    public long getSimulatedLosses() { return simulatedLosses.sum(); }
+    
+    @Override
+    public long getOutOfOrderDrops() { return outOfOrderDrops.sum(); }
+    
+    @Override
+    public long getReceiveBufferFull() { return receiveBufferFull.sum(); }
+    
+    @Override
+    public long getWindowProbes() { return windowProbes.sum(); }
+    
+    @Override
+    public long getParitySent() { return paritySent.sum(); }
+    
+    @Override
+    public long getFecRecovered() { return fecRecovered.sum(); }
+    
+    @Override
+    public int getLAR() { return lar.getAsInt(); }
+    
+    @Override
+    public int getLFS() { return lfs.getAsInt(); }
+    
+    @Override
+    public int getInFlight() { return lfs.getAsInt() - lar.getAsInt(); }
+    
+    @Override
+    public int getAdvertisedWindow() { return advertisedWindow.getAsInt(); }
+    
+    @Override
+    public int getDataSize() { return dataSize.getAsInt(); }
+    
+    @Override
+    public long getRttCount() { return rtt.getCount(); }
+    
+    @Override
+    public long getRttMeanMicros() { return rtt.getMean() / 1000; }
+    
+    @Override
+    public long getRttP50Micros() { return rtt.getPercentile(50) / 1000; }
+    
+    @Override
+    public long getRttP90Micros() { return rtt.getPercentile(90) / 1000; }
+    
+    @Override
+    public long getRttP99Micros() { return rtt.getPercentile(99) / 1000; }
+    
+    @Override
+    public long getRttMaxMicros() { return rtt.getMax() / 1000; }
+    
+    @Override
+    public long getAckLatencyCount() { return ackLatency.getCount(); }
+    
+    @Override
+    public long getAckLatencyMeanMicros() { return ackLatency.getMean() / 1000; }
+    
+    @Override
+    public long getAckLatencyP50Micros() { return ackLatency.getPercentile(50) / 1000; }
+    
+    @Override
+    public long getAckLatencyP90Micros() { return ackLatency.getPercentile(90) / 1000; }
+    
+    @Override
+    public long getAckLatencyP99Micros() { return ackLatency.getPercentile(99) / 1000; }
+    
+    @Override
+    public long getAckLatencyMaxMicros() { return ackLatency.getMax() / 1000; }
+    
+    
+    /**
+     * This method clears every counter and histogram, the gauges are left alone.
+     */
+    @Override
+    public void reset() {
+        
+        packetsSent.reset();
+        bytesSent.reset();
+        packetsReceived.reset();
+        bytesReceived.reset();
+        acksSent.reset();
+        acksReceived.reset();
+        retransmits.reset();
+        duplicatesReceived.reset();
+        checkSumFailures.reset();
+        simulatedLosses.reset();
+        outOfOrderDrops.reset();
+        receiveBufferFull.reset();
+        windowProbes.reset();
+        paritySent.reset();
+        fecRecovered.reset();
+        rtt.reset();
+        ackLatency.reset();
+        
+    } // end reset
+    
+} // end TransferMetrics
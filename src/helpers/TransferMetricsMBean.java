@@ -0,0 +1,64 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular interface is the JMX view of TransferMetrics. Every getter
+ * shows up as a read only attribute in JConsole or any JMX scraper.
+ * 
+ * Latencies are reported in microseconds.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+public interface TransferMetricsMBean {
+    
+    // Counters.
+    long getPacketsSent();
+    long getBytesSent();
+    long getPacketsReceived();
+    long getBytesReceived();
+    long getAcksSent();
+    long getAcksReceived();
+    long getRetransmits();
+    long getDuplicatesReceived();
+    long getCheckSumFailures();
+    long getSimulatedLosses();
+    long getOutOfOrderDrops();
+    long getReceiveBufferFull();
+    long getWindowProbes();
+    long getParitySent();
+    long getFecRecovered();
+    
+    // Window gauges.
+    int getLAR();
+    int getLFS();
+    int getInFlight();
+    int getAdvertisedWindow();
+    int getDataSize();
+    
+    // Round trip time, client side, samples from resent packets are skipped.
+    long getRttCount();
+    long getRttMeanMicros();
+    long getRttP50Micros();
+    long getRttP90Micros();
+    long getRttP99Micros();
+    long getRttMaxMicros();
+    
+    // Time from a packet arriving to its acknowledgement leaving, server side.
+    long getAckLatencyCount();
+    long getAckLatencyMeanMicros();
+    long getAckLatencyP50Micros();
+    long getAckLatencyP90Micros();
+    long getAckLatencyP99Micros();
+    long getAckLatencyMaxMicros();
+    
+    void reset();
+    
+} // end TransferMetricsMBean
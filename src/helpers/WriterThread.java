@@ -0,0 +1,345 @@
+package helpers;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular class is a writer thread used by the UDP server. Its job is
+ * to write received packets to the file so the server can go straight back to
+ * receiving. Packets wait in a bounded buffer, the room left in it is what the
+ * server advertises to the client so a slow disk slows the client down instead
+ * of causing loss.
+ * 
+ * A digest of everything written is kept as it goes, so the file can be checked
+ * against the client's digest without reading it back.
+ * 
+ * Waiting packets are copied off the heap into a ReceiveMemory, the budget
+ * shared with every other server's writer. The room advertised is also capped
+ * by what is left of it, and the thread isn't started until there is
+ * something to write so a session that never sends data costs no thread.
+ * They are written from there through a channel, for a file that is the
+ * file's own channel so the data isn't copied back on to the heap.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import application.TransferListener;
+import helpers.events.ServerWriteEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+public class WriterThread extends Thread {
+    
+    // Placed in the buffer to tell the thread nothing more is coming.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    
+    // Placed in the buffer to ask for the digest of everything before it.
+    private static final ByteBuffer DIGEST = ByteBuffer.allocate(0);
+    
+    private final BlockingQueue<ByteBuffer> buffer;
+    private final ReceiveMemory memory;
+    private final WritableByteChannel fChannel;
+    private final TransferListener listener;
+    private volatile long bytesWritten = 0;
+    private final MessageDigest digest = Helper.newDigest();
+    private final CompletableFuture<byte[]> fileDigest = new CompletableFuture<byte[]>();
+    
+    // The length of the last packet offered, how much of the budget the next one likely needs.
+    private volatile int packetLength = 1;
+    private boolean started = false;
+    
+    
+    /**
+     * A constructor for the WriterThread, packets wait in the shared ReceiveMemory.
+     * 
+     * @param newStream - Where the data is written.
+     * 
+     * @param capacity - How many packets may wait to be written.
+     * 
+     * @param newListener - Notified as data is written, may be null.
+     */
+    public WriterThread(OutputStream newStream, int capacity, TransferListener newListener) {
+        
+        this(newStream, capacity, newListener, ReceiveMemory.shared());
+        
+    } // end WriterThread constructor
+    
+    
+    /**
+     * A constructor for the WriterThread.
+     * 
+     * @param newStream - Where the data is written.
+     * 
+     * @param capacity - How many packets may wait to be written.
+     * 
+     * @param newListener - Notified as data is written, may be null.
+     * 
+     * @param newMemory - Where packets wait, its budget is shared with any other writer using it.
+     */
+    public WriterThread(OutputStream newStream, int capacity, TransferListener newListener, 
+                            ReceiveMemory newMemory) {
+        
+        super("WriterThread");
+        
+        fChannel = Channels.newChannel(newStream);
+        buffer = new ArrayBlockingQueue<ByteBuffer>(capacity);
+        listener = newListener;
+        memory = newMemory;
+        
+        setDaemon(true);
+        
+    } // end WriterThread constructor
+    
+    
+    /**
+     * This is the executable portion of the thread. It writes packets in the order they were
+     * buffered until told to stop.
+     */
+    @Override
+    public void run() {
+        
+        try {
+            
+            ByteBuffer packet;
+            
+            while((packet = buffer.take()) != END) {
+                
+                if(packet == DIGEST) {
+                    
+                    fileDigest.complete(digest == null ? null : digest.digest());
+                    
+                } else {
+                    
+                    write(packet);
+                    memory.release(packet);
+                    
+                }
+                
+            }
+            
+        } catch (InterruptedException e) {
+            
+            Log.warn("Writer interrupted, data still buffered was not written!");
+            
+            for(ByteBuffer packet : buffer) {
+                
+                if(packet != END && packet != DIGEST) {
+                    
+                    memory.release(packet);
+                    
+                }
+                
+            }
+            
+            buffer.clear();
+            
+        }
+        
+    } // end run
+    
+    
+    /**
+     * This method writes the data portion of one packet.
+     * 
+     * @param packet - The packet, header included, position to limit.
+     */
+    private void write(ByteBuffer packet) {
+        
+        int dataLength = packet.remaining() - Helper.APPLICATIONHEADERSIZE;
+        ByteBuffer data = packet.duplicate();
+        data.position(data.position() + Helper.APPLICATIONHEADERSIZE);
+        ServerWriteEvent event = new ServerWriteEvent();
+        
+        try {
+            
+            event.begin();
+            
+            while(data.hasRemaining()) {
+                
+                fChannel.write(data);
+                
+            }
+            
+            event.end();
+            
+            if(event.shouldCommit()) {
+                
+                byte[] header = new byte[Helper.APPLICATIONHEADERSIZE];
+                packet.duplicate().get(header);
+                event.seqNum = Helper.retrieveSeqNum(header);
+                event.dataLength = dataLength;
+                event.commit();
+                
+            }
+            
+            bytesWritten += dataLength;
+            
+            // Only what made it to the file counts towards the digest.
+            if(digest != null) {
+                
+                data.position(packet.position() + Helper.APPLICATIONHEADERSIZE);
+                digest.update(data);
+                
+            }
+            
+            if(listener != null) {
+                
+                listener.onProgress(bytesWritten, -1);
+                
+            }
+            
+        } catch (IOException e) {
+            
+            Log.error("Could not write data to file!");
+            
+        }
+        
+    } // end write
+    
+    
+    /**
+     * This method hands a packet to the thread to be written, copying it into the ReceiveMemory.
+     * It never blocks.
+     * 
+     * @param packet - The packet, header included, trimmed to its length. It may be reused once
+     *                 this returns.
+     * 
+     * @return - A boolean true if the packet was buffered, false if the buffer is full or the
+     *           memory budget is spent.
+     */
+    public boolean offer(byte[] packet) {
+        
+        packetLength = packet.length;
+        
+        if(buffer.remainingCapacity() == 0) {
+            
+            return false;
+            
+        }
+        
+        ByteBuffer copy = memory.allocate(packet.length);
+        
+        if(copy == null) {
+            
+            return false;
+            
+        }
+        
+        copy.put(packet).flip();
+        startOnce();
+        
+        // Only the receiving thread offers, so there is still room.
+        return buffer.offer(copy);
+        
+    } // end offer
+    
+    
+    /**
+     * This method will provide the number of packets the buffer has room for, no more than what
+     * is left of the memory budget would hold at the length of the last packet.
+     * 
+     * @return - The room left, in packets.
+     */
+    public int getRoom() {
+        
+        return (int)Math.min(buffer.remainingCapacity(), memory.getAvailable() / packetLength);
+        
+    } // end getRoom
+    
+    
+    /**
+     * This method starts the thread the first time there is anything for it to do.
+     */
+    private synchronized void startOnce() {
+        
+        if(!started) {
+            
+            started = true;
+            start();
+            
+        }
+        
+    } // end startOnce
+    
+    
+    /**
+     * This method will provide the number of data bytes written to the file so far.
+     * 
+     * @return - The number of bytes written.
+     */
+    public long getBytesWritten() {
+        
+        return bytesWritten;
+        
+    } // end getBytesWritten
+    
+    
+    /**
+     * This method waits for everything buffered so far to be written and provides the digest of
+     * the whole file. Call once, after the last packet.
+     * 
+     * @return - The digest, or null if it couldn't be computed.
+     */
+    public byte[] getDigest() {
+        
+        try {
+            
+            startOnce();
+            buffer.put(DIGEST);
+            return fileDigest.get();
+            
+        } catch (InterruptedException | ExecutionException e) {
+            
+            Log.warn("Interrupted waiting for the file digest!");
+            return null;
+            
+        }
+        
+    } // end getDigest
+    
+    
+    /**
+     * This method waits for everything buffered to be written and stops the thread. Nothing is
+     * done if it was never started.
+     */
+    public void finish() {
+        
+        synchronized(this) {
+            
+            if(!started) {
+                
+                return;
+                
+            }
+            
+        }
+        
+        try {
+            
+            buffer.put(END);
+            join();
+            
+        } catch (InterruptedException e) {
+            
+            Log.warn("Interrupted waiting for the writer to finish!");
+            
+        }
+        
+    } // end finish
+    
+} // end WriterThread
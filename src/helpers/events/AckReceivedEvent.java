@@ -0,0 +1,49 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the ReceiverThread for every
+ * acknowledgement that arrives, whether or not it is accepted. It has no
+ * duration, the round trip time is a field instead (0 when the packet was
+ * resent, since the ack can't be matched to one send).
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+@Name("UDPClientServer.AckReceived")
+@Label("Ack Received")
+@Category({"UDP Sliding Window", "Client"})
+@Description("An acknowledgement arrived at the client")
+public class AckReceivedEvent extends Event {
+    
+    @Label("Ack Number")
+    public int ackNum;
+    
+    @Label("Accepted")
+    @Description("False if lost (simulated), damaged or unexpected")
+    public boolean accepted;
+    
+    @Label("LAR")
+    @Description("Last Acknowledgement Received after processing the ack")
+    public int lar;
+    
+    @Label("Round Trip Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long rtt;
+    
+} // end AckReceivedEvent
@@ -0,0 +1,38 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the ReceiverThread for each packet it
+ * resends from the window. Its duration is the time spent in
+ * DatagramSocket.send().
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("UDPClientServer.PacketResent")
+@Label("Packet Resent")
+@Category({"UDP Sliding Window", "Client"})
+@Description("A windowed data packet was resent")
+public class PacketResentEvent extends Event {
+    
+    @Label("Sequence Number")
+    public int seqNum;
+    
+    @Label("Data Bytes")
+    public int dataLength;
+    
+} // end PacketResentEvent
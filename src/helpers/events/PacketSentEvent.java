@@ -0,0 +1,41 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the SenderThread each time a new data
+ * packet is sent. Its duration is the time spent in DatagramSocket.send().
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("UDPClientServer.PacketSent")
+@Label("Packet Sent")
+@Category({"UDP Sliding Window", "Client"})
+@Description("A new data packet was sent")
+public class PacketSentEvent extends Event {
+    
+    @Label("Sequence Number")
+    public int seqNum;
+    
+    @Label("Data Bytes")
+    public int dataLength;
+    
+    @Label("LAR")
+    @Description("Last Acknowledgement Received when the packet was sent")
+    public int lar;
+    
+} // end PacketSentEvent
@@ -0,0 +1,45 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the P2Server each time it sends (or
+ * resends) an acknowledgement. Its duration is the time spent in
+ * DatagramSocket.send(), the time since the packet arrived is a field.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+@Name("UDPClientServer.ServerAck")
+@Label("Server Ack")
+@Category({"UDP Sliding Window", "Server"})
+@Description("The server acknowledged a packet")
+public class ServerAckEvent extends Event {
+    
+    @Label("Ack Number")
+    public int ackNum;
+    
+    @Label("Duplicate")
+    @Description("True if the packet had already been received")
+    public boolean duplicate;
+    
+    @Label("Ack Latency")
+    @Description("Time from the packet arriving to the acknowledgement being sent")
+    @Timespan(Timespan.NANOSECONDS)
+    public long latency;
+    
+} // end ServerAckEvent
@@ -0,0 +1,37 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the P2Server each time it writes a
+ * packet's data to the output. Its duration is the time spent writing.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("UDPClientServer.ServerWrite")
+@Label("Server Write")
+@Category({"UDP Sliding Window", "Server"})
+@Description("The server wrote a packet to the output file")
+public class ServerWriteEvent extends Event {
+    
+    @Label("Sequence Number")
+    public int seqNum;
+    
+    @Label("Data Bytes")
+    public int dataLength;
+    
+} // end ServerWriteEvent
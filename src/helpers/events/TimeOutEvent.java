@@ -0,0 +1,42 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the ReceiverThread when the socket times
+ * out waiting for an acknowledgement. Its duration covers resending the window.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("UDPClientServer.TimeOut")
+@Label("Time Out")
+@Category({"UDP Sliding Window", "Client"})
+@Description("The client timed out waiting for an acknowledgement")
+public class TimeOutEvent extends Event {
+    
+    @Label("LAR")
+    @Description("Last Acknowledgement Received")
+    public int lar;
+    
+    @Label("LFS")
+    @Description("Last Frame Sent")
+    public int lfs;
+    
+    @Label("Packets Resent")
+    public int resent;
+    
+} // end TimeOutEvent
@@ -0,0 +1,40 @@
+package helpers.events;
+
+/**
+ * Class: ICS 460 - Computer Networks and Security <br>
+ * Instructor: Damodar Chetty <br>
+ * Description: Program 2, Implementing "Sliding Window" functionality above the
+ * Transport layer to make UDP more reliable. <br>
+ * Due: 08/03/2016 <br><br>
+ * 
+ * This particular event is recorded by the SenderThread when it had data to
+ * send but the window was full. Its duration is how long the sender waited
+ * for room.
+ * 
+ * @author Tom Carney
+ * @version 1.0
+ * @since 07/14/2016
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("UDPClientServer.WindowBlocked")
+@Label("Window Blocked")
+@Category({"UDP Sliding Window", "Client"})
+@Description("The sender waited for room in the window")
+public class WindowBlockedEvent extends Event {
+    
+    @Label("LAR")
+    @Description("Last Acknowledgement Received when the window filled")
+    public int lar;
+    
+    @Label("LFS")
+    @Description("Last Frame Sent when the window filled")
+    public int lfs;
+    
+} // end WindowBlockedEvent